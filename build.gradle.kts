@@ -1,12 +1,20 @@
 
 plugins {
     id("java")
+    // Microbenchmarks in src/jmh, run with ./gradlew jmh
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 
 group = "deep.jwebtainer"
 version = "1.0-SNAPSHOT"
 
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(22)
+    }
+}
+
 repositories {
     mavenCentral()
 }
@@ -29,4 +37,8 @@ tasks.jar {
 
 tasks.test {
     useJUnitPlatform()
+    // Report virtual threads pinned to their carrier while blocking
+    jvmArgs("-Djdk.tracePinnedThreads=short")
+    // Track pooled buffers so a double release fails loudly
+    systemProperty("jwebtainer.bufferPool.leakDetection", "true")
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.servlet.Servlet;
+import deep.jwebtainer.servlet.http.HttpServlet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares routing request paths with the {@link ServletRouter} against
+ * the HashMap of exact paths the registry used before, with thousands of
+ * mappings. The router also resolves templated and prefix mappings, which
+ * the HashMap cannot; run with {@code -prof gc} to see that none of its
+ * lookups allocate.
+ *
+ * <p>Run with {@code ./gradlew jmh}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServletRouterBenchmark {
+
+    /**
+     * The number of exact mappings.
+     */
+    @Param({"100", "5000"})
+    public int routes;
+
+    /**
+     * The exact mappings, as the registry kept them before.
+     */
+    private final Map<String, Servlet> hashMap = new HashMap<>();
+
+    /**
+     * The same exact mappings plus templated and prefix ones.
+     */
+    private final ServletRouter router = new ServletRouter();
+
+    /**
+     * The match reused for every lookup, as by a request thread.
+     */
+    private final ServletMatch match = new ServletMatch();
+
+    /**
+     * The exact paths looked up, cycled through.
+     */
+    private String[] exactPaths;
+
+    /**
+     * The paths matched by templated mappings, cycled through.
+     */
+    private String[] templatedPaths;
+
+    /**
+     * The paths matched by prefix mappings, cycled through.
+     */
+    private String[] prefixPaths;
+
+    /**
+     * The index of the next path.
+     */
+    private int next;
+
+    /**
+     * Registers the mappings of a sizeable REST API and builds the paths
+     * looked up.
+     */
+    @Setup
+    public void setUp() {
+        Servlet servlet = new HttpServlet() {
+        };
+        ServletHolder holder = new ServletHolder(servlet);
+        exactPaths = new String[routes];
+        templatedPaths = new String[routes];
+        prefixPaths = new String[routes];
+        for (int i = 0; i < routes; i++) {
+            String resource = "/api/v1/resource" + i;
+            hashMap.put(resource + "/items", servlet);
+            router.add(resource + "/items", holder);
+            router.add(resource + "/items/{id}", holder);
+            router.add("/static/bundle" + i + "/*", holder);
+            exactPaths[i] = resource + "/items";
+            templatedPaths[i] = resource + "/items/" + (i * 31);
+            prefixPaths[i] = "/static/bundle" + i + "/css/site.css";
+        }
+    }
+
+    /**
+     * Looks an exact path up in the HashMap.
+     *
+     * @return the servlet found
+     */
+    @Benchmark
+    public Servlet hashMapExact() {
+        return hashMap.get(exactPaths[nextIndex()]);
+    }
+
+    /**
+     * Routes an exact path through the tree.
+     *
+     * @return the servlet found
+     */
+    @Benchmark
+    public Servlet routerExact() {
+        router.match(exactPaths[nextIndex()], match);
+        return match.getServlet();
+    }
+
+    /**
+     * Routes a path matched by a templated mapping, binding its parameter.
+     *
+     * @return the servlet found
+     */
+    @Benchmark
+    public Servlet routerTemplated() {
+        router.match(templatedPaths[nextIndex()], match);
+        return match.getServlet();
+    }
+
+    /**
+     * Routes a path matched by a prefix mapping.
+     *
+     * @return the servlet found
+     */
+    @Benchmark
+    public Servlet routerPrefix() {
+        router.match(prefixPaths[nextIndex()], match);
+        return match.getServlet();
+    }
+
+    /**
+     * Returns the index of the next path to look up.
+     *
+     * @return the index
+     */
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == routes ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,120 @@
+package deep.jwebtainer.http.adaptor;
+
+import deep.jwebtainer.http.HttpRequestDecoder;
+import deep.jwebtainer.servlet.ServletException;
+import deep.jwebtainer.servlet.http.WelcomeHttpServlet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU time per request and the bytes on the wire of sending
+ * the welcome page uncompressed, compressed for every request and
+ * compressed once through the cache of compressed bodies.
+ *
+ * <p>Run with {@code ./gradlew jmh}; the bytes on the wire of every
+ * configuration are printed when it ends.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseCompressionBenchmark {
+
+    /**
+     * The content-coding accepted by the client, or "identity".
+     */
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    /**
+     * Whether the response is marked cacheable, so that its compressed form
+     * is taken from the cache.
+     */
+    @Param({"false", "true"})
+    public boolean cacheable;
+
+    /**
+     * Stands in for the buffered connection stream.
+     */
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * The response reused for every request, as on a connection.
+     */
+    private final HttpResponse response = new HttpResponse(out);
+
+    /**
+     * The body of the welcome page.
+     */
+    private byte[] page;
+
+    /**
+     * Renders the welcome page once to capture its body.
+     *
+     * @throws IOException      never, the stream is in memory
+     * @throws ServletException if the servlet fails
+     */
+    @Setup
+    public void setUp() throws IOException, ServletException {
+        HttpRequest request = new HttpRequestDecoder().decode(ByteBuffer.wrap(
+                "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII)));
+        new WelcomeHttpServlet().service(request, response);
+        response.finish();
+        byte[] rendered = out.toByteArray();
+        String head = out.toString(StandardCharsets.ISO_8859_1);
+        int bodyStart = head.indexOf("\r\n\r\n") + 4;
+        page = Arrays.copyOfRange(rendered, bodyStart,
+                rendered.length);
+    }
+
+    /**
+     * Sends the page as a servlet would.
+     *
+     * @return the number of bytes on the wire
+     * @throws IOException never, the stream is in memory
+     */
+    @Benchmark
+    public int sendPage() throws IOException {
+        response.recycle();
+        out.reset();
+        response.setAcceptedEncoding("identity".equals(encoding)
+                ? null : encoding);
+        response.setHeader("Content-Type", "text/html; charset=UTF-8");
+        if (cacheable) {
+            response.setHeader("Cache-Control", "public, max-age=3600");
+        }
+        response.getOutputStream().write(page);
+        response.finish();
+        return out.size();
+    }
+
+    /**
+     * Reports the bytes on the wire of the configuration.
+     */
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%s cacheable=%b: %d page bytes, %d bytes on "
+                + "the wire%n", encoding, cacheable, page.length, out.size());
+    }
+}
@@ -0,0 +1,364 @@
+package deep.jwebtainer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The BufferPool class lends direct {@link ByteBuffer}s to the transports
+ * for reading requests and writing responses. A socket read into or write
+ * from a heap buffer is copied by the JDK through a temporary direct buffer
+ * of its own; drawing the buffers from this pool saves that copy, and
+ * recycling them saves allocating and freeing native memory for every
+ * connection.
+ *
+ * <p>Buffers come in size classes, the powers of two from
+ * {@link #MIN_SIZE} to {@link #MAX_SIZE}; a request is rounded up to its
+ * class, and larger requests get a buffer of their own that is not
+ * recycled. A released buffer is first kept in a small cache of the
+ * releasing thread, from which the same thread takes it again without any
+ * synchronization, and otherwise in a lock-free queue shared by all
+ * threads. Virtual threads bypass the thread cache: they are created per
+ * connection, so a buffer cached in one would never be reused.</p>
+ *
+ * <p>With leak detection enabled, the pool remembers where every lent
+ * buffer was acquired, reports the buffers never released and rejects a
+ * buffer released twice. This costs a stack trace per acquisition and is
+ * meant for tests; the {@linkplain #shared() shared pool} enables it when
+ * the system property {@value #LEAK_DETECTION_PROPERTY} is true.</p>
+ */
+public final class BufferPool {
+
+    /**
+     * The capacity of the smallest size class.
+     */
+    public static final int MIN_SIZE = 4 * 1024;
+
+    /**
+     * The capacity of the largest size class.
+     */
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    /**
+     * The system property enabling leak detection in the shared pool.
+     */
+    public static final String LEAK_DETECTION_PROPERTY =
+            "jwebtainer.bufferPool.leakDetection";
+
+    /**
+     * The number of buffers of each size class a thread keeps for itself.
+     */
+    static final int THREAD_CACHE_SIZE = 4;
+
+    /**
+     * The largest size class kept in the thread caches. Larger buffers are
+     * rare enough to be shared right away.
+     */
+    static final int THREAD_CACHE_MAX_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes of every size class kept in the shared queues.
+     */
+    static final int MAX_IDLE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The number of size classes.
+     */
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+
+    /**
+     * The pool used by the transports.
+     */
+    private static final BufferPool SHARED =
+            new BufferPool(Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+    /**
+     * The idle buffers of every size class shared by all threads.
+     */
+    private final Queue<ByteBuffer>[] idle;
+
+    /**
+     * The number of buffers in each queue of {@link #idle}.
+     */
+    private final AtomicInteger[] idleCounts;
+
+    /**
+     * The idle buffers of every size class kept by the current platform
+     * thread, each array filled from the start.
+     */
+    private final ThreadLocal<ByteBuffer[][]> threadCache =
+            ThreadLocal.withInitial(this::newThreadCache);
+
+    /**
+     * Whether lent buffers are tracked.
+     */
+    private final boolean leakDetection;
+
+    /**
+     * The acquisition sites of the lent buffers, keyed by identity, when
+     * leak detection is enabled.
+     */
+    private final Map<ByteBuffer, Throwable> lent = new IdentityHashMap<>();
+
+    /**
+     * Guards {@link #lent}.
+     */
+    private final ReentrantLock lentLock = new ReentrantLock();
+
+    /**
+     * The number of buffers acquired.
+     */
+    private final LongAdder acquired = new LongAdder();
+
+    /**
+     * The number of buffers allocated because none was idle.
+     */
+    private final LongAdder allocated = new LongAdder();
+
+    /**
+     * The number of buffers lent and not yet released.
+     */
+    private final AtomicLong inUse = new AtomicLong();
+
+    /**
+     * The number of bytes of the buffers in the shared queues.
+     */
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    /**
+     * Constructs an empty pool.
+     *
+     * @param leakDetection whether to track the lent buffers
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        this.idle = new Queue[CLASSES];
+        this.idleCounts = new AtomicInteger[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            idle[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns the pool used by the transports.
+     *
+     * @return the shared pool
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Lends a cleared direct buffer of at least the given capacity. The
+     * buffer must be handed back with {@link #release(ByteBuffer)} once it
+     * is no longer used, and not be touched afterwards.
+     *
+     * @param capacity the minimum capacity in bytes
+     * @return the buffer, whose limit is its capacity
+     */
+    public ByteBuffer acquire(int capacity) {
+        acquired.increment();
+        inUse.incrementAndGet();
+        ByteBuffer buffer = capacity > MAX_SIZE ? null : take(
+                sizeClass(capacity));
+        if (buffer == null) {
+            allocated.increment();
+            buffer = ByteBuffer.allocateDirect(capacity > MAX_SIZE
+                    ? capacity : MIN_SIZE << sizeClass(capacity));
+        }
+        if (leakDetection) {
+            track(buffer);
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Takes a buffer back into the pool. Buffers beyond the idle limits,
+     * and those larger than {@link #MAX_SIZE}, are left to the garbage
+     * collector, which frees their native memory.
+     *
+     * @param buffer a buffer lent by {@link #acquire(int)}
+     * @throws IllegalStateException if leak detection is enabled and the
+     *                               buffer is not lent by this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (leakDetection) {
+            untrack(buffer);
+        }
+        inUse.decrementAndGet();
+        int capacity = buffer.capacity();
+        if (capacity > MAX_SIZE || !buffer.isDirect()
+                || Integer.bitCount(capacity) != 1 || capacity < MIN_SIZE) {
+            return;
+        }
+        int sizeClass = sizeClass(capacity);
+        if (capacity <= THREAD_CACHE_MAX_SIZE
+                && !Thread.currentThread().isVirtual()) {
+            ByteBuffer[] cache = threadCache.get()[sizeClass];
+            for (int i = 0; i < cache.length; i++) {
+                if (cache[i] == null) {
+                    cache[i] = buffer;
+                    return;
+                }
+            }
+        }
+        if (idleCounts[sizeClass].incrementAndGet()
+                > Math.max(THREAD_CACHE_SIZE, MAX_IDLE_BYTES / capacity)) {
+            idleCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        idleBytes.addAndGet(capacity);
+        idle[sizeClass].offer(buffer);
+    }
+
+    /**
+     * Returns the number of buffers acquired since the pool was created.
+     *
+     * @return the number of acquisitions
+     */
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions that had to allocate a buffer,
+     * which the pool aims to keep far below {@link #getAcquired()}.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * Returns the number of buffers lent and not yet released.
+     *
+     * @return the number of buffers in use
+     */
+    public long getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Returns the number of bytes held by the idle buffers shared by all
+     * threads, not counting those in the thread caches.
+     *
+     * @return the idle bytes
+     */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * Returns where the buffers not yet released were acquired.
+     *
+     * @return the acquisition sites, empty unless leak detection is enabled
+     */
+    public List<Throwable> getUnreleased() {
+        lentLock.lock();
+        try {
+            return new ArrayList<>(lent.values());
+        } finally {
+            lentLock.unlock();
+        }
+    }
+
+    /**
+     * Takes an idle buffer of a size class from the thread cache or the
+     * shared queue.
+     *
+     * @param sizeClass the size class
+     * @return the buffer, or null if none is idle
+     */
+    private ByteBuffer take(int sizeClass) {
+        if ((MIN_SIZE << sizeClass) <= THREAD_CACHE_MAX_SIZE
+                && !Thread.currentThread().isVirtual()) {
+            ByteBuffer[] cache = threadCache.get()[sizeClass];
+            for (int i = cache.length - 1; i >= 0; i--) {
+                if (cache[i] != null) {
+                    ByteBuffer buffer = cache[i];
+                    cache[i] = null;
+                    return buffer;
+                }
+            }
+        }
+        ByteBuffer buffer = idle[sizeClass].poll();
+        if (buffer != null) {
+            idleCounts[sizeClass].decrementAndGet();
+            idleBytes.addAndGet(-buffer.capacity());
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates the empty cache of a thread.
+     *
+     * @return a cache slot array for every size class
+     */
+    private ByteBuffer[][] newThreadCache() {
+        ByteBuffer[][] cache = new ByteBuffer[CLASSES][];
+        for (int i = 0; i < CLASSES; i++) {
+            cache[i] = new ByteBuffer[THREAD_CACHE_SIZE];
+        }
+        return cache;
+    }
+
+    /**
+     * Records the acquisition site of a lent buffer.
+     *
+     * @param buffer the buffer
+     */
+    private void track(ByteBuffer buffer) {
+        Throwable site = new Throwable("Buffer of " + buffer.capacity()
+                + " bytes acquired by " + Thread.currentThread());
+        lentLock.lock();
+        try {
+            lent.put(buffer, site);
+        } finally {
+            lentLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a released buffer.
+     *
+     * @param buffer the buffer
+     * @throws IllegalStateException if the buffer is not lent
+     */
+    private void untrack(ByteBuffer buffer) {
+        lentLock.lock();
+        try {
+            if (lent.remove(buffer) == null) {
+                throw new IllegalStateException("Buffer released twice or "
+                        + "not acquired from this pool");
+            }
+        } finally {
+            lentLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size class of a capacity.
+     *
+     * @param capacity the capacity, at most {@link #MAX_SIZE}
+     * @return the index of the smallest class holding the capacity
+     */
+    private static int sizeClass(int capacity) {
+        if (capacity <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1)
+                - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+}
@@ -0,0 +1,154 @@
+package deep.jwebtainer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The ChannelOutputStream class buffers the bytes written to a blocking
+ * channel in a direct buffer drawn from a {@link BufferPool}. It takes the
+ * place of a {@link java.io.BufferedOutputStream} on the socket: the bytes
+ * are copied once into native memory instead of into a heap array and then
+ * again by the JDK before every write, and the buffer is recycled for the
+ * next connection when the stream is closed.
+ *
+ * <p>Closing the stream flushes it and releases the buffer, but leaves the
+ * channel open.</p>
+ */
+final class ChannelOutputStream extends OutputStream {
+
+    /**
+     * The blocking channel written to.
+     */
+    private final WritableByteChannel channel;
+
+    /**
+     * The pool the buffer is drawn from.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The bytes not yet written to the channel, in write mode, or null
+     * once the stream has been closed.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a stream on a channel.
+     *
+     * @param channel    the blocking channel written to
+     * @param pool       the pool the buffer is drawn from
+     * @param bufferSize the capacity of the buffer
+     */
+    ChannelOutputStream(WritableByteChannel channel, BufferPool pool,
+                        int bufferSize) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquire(bufferSize);
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b the byte to write
+     * @throws IOException if the buffer is full and cannot be written
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (!open().hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) b);
+    }
+
+    /**
+     * Writes a range of bytes. A range that does not fit into the buffer
+     * is written to the channel right after the buffered bytes.
+     *
+     * @param b   the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws IOException if writing to the channel fails
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > open().remaining()) {
+            flushBuffer();
+            if (len >= buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(b, off, len));
+                return;
+            }
+        }
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    @Override
+    public void flush() throws IOException {
+        open();
+        flushBuffer();
+    }
+
+    /**
+     * Flushes the buffered bytes and releases the buffer to the pool, even
+     * if the flush fails.
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } finally {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Returns the buffer of the open stream.
+     *
+     * @return the buffer
+     * @throws IOException if the stream has been closed
+     */
+    private ByteBuffer open() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes the buffered bytes to the channel and empties the buffer.
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to the blocking channel.
+     *
+     * @param source the bytes to write
+     * @throws IOException if writing to the channel fails
+     */
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+}
@@ -2,38 +2,192 @@ package deep.jwebtainer;
 
 import deep.jwebtainer.servlet.Servlet;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Default implementation of the {@link ServletRegistry} interface.
  * This class manages the registration and retrieval of servlets by their path.
  * It also provides a method to destroy all registered servlets.
+ *
+ * <p>The mappings are kept in a {@link ServletRouter}, a radix tree that
+ * resolves exact, templated, prefix and extension mappings in one pass over
+ * the request path, without allocating.</p>
+ *
+ * <p>Servlets may be registered, replaced and unregistered while requests
+ * are being served. The router is never modified once published: every
+ * change builds a new one under a lock and publishes it through a volatile
+ * field, so that routing a request takes no lock and sees either the old
+ * mappings or the new ones. A servlet no longer mapped is destroyed once
+ * the requests it is processing have completed, or the drain timeout has
+ * expired. It drains on a virtual thread of its own, without the lock
+ * held, so that the change returns at once and other changes proceed
+ * meanwhile, even when a servlet unmaps itself from one of its own
+ * requests; {@link #whenRetired()} tells when it has been destroyed.</p>
+ *
+ * <p>A servlet is initialized without the lock held, so that servlets
+ * registered from several threads at startup are initialized in parallel,
+ * and a servlet registered lazily is only initialized when the first
+ * request is routed to it.</p>
  */
 public class DefaultServletRegistry implements ServletRegistry {
 
     /**
-     * A map that holds the servlet mappings, where the key is the path and the
-     * value is the servlet instance.
+     * Logger for logging servlets destroyed with requests in flight.
      */
-    private final Map<String, Servlet> servletMappings = new HashMap<>();
+    private static final Logger LOGGER =
+            Logger.getLogger(DefaultServletRegistry.class.getName());
 
     /**
-     * Registers a servlet with a specific path.
+     * The default time in milliseconds an unmapped servlet is given to
+     * complete its requests before it is destroyed.
+     */
+    public static final long DEFAULT_DRAIN_TIMEOUT = 30_000;
+
+    /**
+     * The tree that holds the servlet mappings in effect.
+     */
+    private volatile ServletRouter router = new ServletRouter();
+
+    /**
+     * The mappings in effect by pattern, in registration order; replaced
+     * along with {@link #router} and guarded by {@link #lock}.
+     */
+    private Map<String, ServletHolder> mappings = new LinkedHashMap<>();
+
+    /**
+     * The holders of the servlets being registered, once per registration
+     * in progress, so that a servlet registered with several paths at once
+     * is initialized once; guarded by {@link #lock}.
+     */
+    private final List<ServletHolder> starting = new ArrayList<>();
+
+    /**
+     * The holders of the servlets unmapped and still draining, with the
+     * futures completed once they have been destroyed or mapped again;
+     * guarded by {@link #lock}.
+     */
+    private final Map<ServletHolder, CompletableFuture<Void>> retiring =
+            new HashMap<>();
+
+    /**
+     * The lock serializing changes to the mappings.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The time in milliseconds an unmapped servlet is given to complete its
+     * requests before it is destroyed.
+     */
+    private volatile long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+
+    /**
+     * Registers a servlet with a specific path. The servlet is initialized
+     * before any request is routed to it.
      *
      * @param path    the URL path to associate with the servlet
      * @param servlet the servlet instance to register
      * @throws IllegalArgumentException if a servlet is already registered for
-     * the given path
+     * the given path, or the path is not a valid mapping
      */
     @Override
     public void registerServlet(String path, Servlet servlet) {
-        if (servletMappings.containsKey(path)) {
-            throw new IllegalArgumentException("Servlet already registered "
-                    + "for path: " + path);
+        register(path, servlet, false);
+    }
+
+    /**
+     * Registers a servlet with a specific path without initializing it:
+     * the servlet is initialized when the first request is routed to it,
+     * which saves the time of servlets seldom used at startup.
+     *
+     * @param path    the URL path to associate with the servlet
+     * @param servlet the servlet instance to register
+     * @throws IllegalArgumentException if a servlet is already registered for
+     * the given path, or the path is not a valid mapping
+     */
+    public void registerLazyServlet(String path, Servlet servlet) {
+        register(path, servlet, true);
+    }
+
+    /**
+     * Registers a servlet with a specific path, replacing the servlet
+     * registered for it if there is one. The new servlet is initialized
+     * before any request is routed to it; the old one is destroyed in the
+     * background once the requests it is processing have completed, unless
+     * it is still mapped to another path.
+     *
+     * @param path    the URL path to associate with the servlet
+     * @param servlet the servlet instance to register
+     * @return the servlet replaced, or {@code null} if there was none
+     * @throws IllegalArgumentException if the path is not a valid mapping
+     */
+    @Override
+    public Servlet replaceServlet(String path, Servlet servlet) {
+        ServletHolder holder = prepare(path, servlet, false, false);
+        lock.lock();
+        try {
+            ServletHolder previous = publish(path, holder);
+            return previous == null ? null : retire(previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the servlet registered for a path. The servlet is destroyed
+     * in the background once the requests it is processing have completed,
+     * unless it is still mapped to another path.
+     *
+     * @param path the URL path the servlet is registered with
+     * @return the servlet removed, or {@code null} if there was none
+     */
+    @Override
+    public Servlet unregisterServlet(String path) {
+        lock.lock();
+        try {
+            if (!mappings.containsKey(path)) {
+                return null;
+            }
+            return retire(publish(path, null));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the time an unmapped servlet is given to complete its requests
+     * before it is destroyed regardless, which bounds how long a request
+     * processed asynchronously, such as an event stream, can keep it
+     * alive.
+     *
+     * @param millis the timeout in milliseconds
+     */
+    public void setDrainTimeout(long millis) {
+        this.drainTimeout = millis;
+    }
+
+    /**
+     * Returns a future completed once the servlets unmapped so far have
+     * been destroyed, or mapped again.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Void> whenRetired() {
+        lock.lock();
+        try {
+            return CompletableFuture.allOf(retiring.values()
+                    .toArray(new CompletableFuture<?>[0]));
+        } finally {
+            lock.unlock();
         }
-        servletMappings.put(path, servlet);
-        servlet.init();
     }
 
     /**
@@ -45,18 +199,280 @@ public class DefaultServletRegistry implements ServletRegistry {
      */
     @Override
     public Servlet getServlet(String path) {
-        return servletMappings.get(path);
+        ServletMatch match = new ServletMatch();
+        return router.match(path, match) ? match.getServlet() : null;
+    }
+
+    /**
+     * Returns the part of a request path that selected its servlet.
+     *
+     * @param path the URL path of the request
+     * @return the path itself for an exact, templated or extension mapping,
+     * the prefix of a {@code /*} mapping, or {@code null} if no servlet is
+     * registered for the path
+     */
+    @Override
+    public String getServletPath(String path) {
+        ServletMatch match = new ServletMatch();
+        return router.match(path, match) ? match.getServletPath() : null;
+    }
+
+    /**
+     * Finds the servlet for a request path, filling in a reusable match.
+     * The match carries the holder of the servlet, which the request must
+     * acquire before the servlet processes it.
+     *
+     * @param path  the URL path of the request
+     * @param match receives the servlet, servlet path and path parameters
+     * @return true if a servlet is registered for the path
+     */
+    @Override
+    public boolean match(String path, ServletMatch match) {
+        return router.match(path, match);
     }
 
     /**
      * Destroys all registered servlets by invoking their
-     * {@link Servlet#destroy()} method. This should typically be called
-     * during container shutdown to ensure resource cleanup.
+     * {@link Servlet#destroy()} method, once for each servlet however many
+     * paths it is registered with, along with the servlets still draining.
+     * This should typically be called during container shutdown to ensure
+     * resource cleanup.
      */
     @Override
     public void destroyAll() {
-        for (Servlet servlet : servletMappings.values()) {
-            servlet.destroy();
+        lock.lock();
+        try {
+            for (ServletHolder holder
+                    : new LinkedHashSet<>(mappings.values())) {
+                holder.destroy();
+            }
+            for (ServletHolder holder : retiring.keySet()) {
+                holder.destroy();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a servlet with a path that must not be mapped yet.
+     *
+     * @param path    the URL path
+     * @param servlet the servlet
+     * @param lazy    whether to leave the servlet to be initialized by its
+     *                first request
+     * @throws IllegalArgumentException if a servlet is already registered for
+     * the path, or the path is not a valid mapping
+     */
+    private void register(String path, Servlet servlet, boolean lazy) {
+        ServletHolder holder = prepare(path, servlet, lazy, true);
+        lock.lock();
+        try {
+            if (mappings.containsKey(path)) {
+                discard(holder);
+                throw new IllegalArgumentException("Servlet already "
+                        + "registered for path: " + path);
+            }
+            publish(path, holder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks a mapping and finds or creates the holder of its servlet,
+     * which is then initialized unless it is to be initialized lazily. The
+     * servlet is initialized without the lock held.
+     *
+     * @param path    the URL path
+     * @param servlet the servlet
+     * @param lazy    whether to leave the servlet to be initialized by its
+     *                first request
+     * @param unique  whether the path must not be mapped yet
+     * @return the holder of the servlet
+     * @throws IllegalArgumentException if the path is not a valid mapping,
+     * or is mapped while it must not be
+     */
+    private ServletHolder prepare(String path, Servlet servlet, boolean lazy,
+                                  boolean unique) {
+        ServletHolder holder;
+        lock.lock();
+        try {
+            if (unique && mappings.containsKey(path)) {
+                throw new IllegalArgumentException("Servlet already "
+                        + "registered for path: " + path);
+            }
+            holder = holderOf(servlet);
+            if (holder == null) {
+                holder = revive(servlet);
+            }
+            if (holder == null) {
+                holder = new ServletHolder(servlet);
+            }
+            // Fails fast on a malformed path, before the initialization
+            new ServletRouter().add(path, holder);
+            starting.add(holder);
+        } finally {
+            lock.unlock();
+        }
+        if (!lazy) {
+            try {
+                holder.initialize();
+            } catch (RuntimeException | Error e) {
+                lock.lock();
+                try {
+                    starting.remove(holder);
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+        }
+        return holder;
+    }
+
+    /**
+     * Maps a path to a servlet, or unmaps it, and publishes a router for
+     * the new mappings. Nothing changes if the mapping conflicts with
+     * another one; the servlet is then destroyed unless it is mapped to
+     * another path. Called with the lock held.
+     *
+     * @param path   the URL path
+     * @param holder the holder prepared for the servlet to map the path
+     *               to, or null to unmap it
+     * @return the holder the path was mapped to, or null if it was not
+     * @throws IllegalArgumentException if the path is not a valid mapping
+     */
+    private ServletHolder publish(String path, ServletHolder holder) {
+        Map<String, ServletHolder> next = new LinkedHashMap<>(mappings);
+        if (holder == null) {
+            next.remove(path);
+        } else {
+            next.put(path, holder);
+        }
+        ServletRouter nextRouter = new ServletRouter();
+        try {
+            next.forEach(nextRouter::add);
+        } catch (IllegalArgumentException e) {
+            discard(holder);
+            throw e;
+        }
+        if (holder != null) {
+            starting.remove(holder);
+        }
+        ServletHolder previous = mappings.get(path);
+        mappings = next;
+        router = nextRouter;
+        return previous;
+    }
+
+    /**
+     * Gives up a registration that could not be published, destroying its
+     * servlet unless it is mapped to another path or still being
+     * registered with one. Called with the lock held.
+     *
+     * @param holder the holder of the servlet
+     */
+    private void discard(ServletHolder holder) {
+        starting.remove(holder);
+        if (!mappings.containsValue(holder) && !starting.contains(holder)) {
+            holder.destroy();
+        }
+    }
+
+    /**
+     * Returns the holder of a servlet mapped to some path or being
+     * registered with one.
+     *
+     * @param servlet the servlet
+     * @return the holder, or null if the servlet is not mapped
+     */
+    private ServletHolder holderOf(Servlet servlet) {
+        for (ServletHolder holder : mappings.values()) {
+            if (holder.getServlet() == servlet) {
+                return holder;
+            }
+        }
+        for (ServletHolder holder : starting) {
+            if (holder.getServlet() == servlet) {
+                return holder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the holder of a servlet being drained back into service, once
+     * the servlet is mapped again. Called with the lock held.
+     *
+     * @param servlet the servlet
+     * @return the holder, or null if the servlet is not draining
+     */
+    private ServletHolder revive(Servlet servlet) {
+        for (ServletHolder holder : retiring.keySet()) {
+            if (holder.getServlet() == servlet) {
+                holder.revive();
+                retiring.remove(holder).complete(null);
+                return holder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a servlet that has been unmapped out of service, unless it is
+     * still mapped to another path, and starts a thread that destroys it
+     * once its requests have completed or the drain timeout has expired.
+     * Called with the lock held, after the router without the mapping has
+     * been published.
+     *
+     * @param holder the holder of the servlet unmapped
+     * @return the servlet
+     */
+    private Servlet retire(ServletHolder holder) {
+        Servlet servlet = holder.getServlet();
+        if (mappings.containsValue(holder)) {
+            return servlet;
+        }
+        int generation = holder.retire();
+        CompletableFuture<Void> retired = new CompletableFuture<>();
+        retiring.put(holder, retired);
+        Thread.ofVirtual().name("servlet-drain")
+                .start(() -> drain(holder, generation, retired));
+        return servlet;
+    }
+
+    /**
+     * Waits for the requests of a retired servlet to complete, then
+     * destroys it unless it has been mapped again meanwhile. Runs without
+     * the lock held.
+     *
+     * @param holder     the holder of the servlet
+     * @param generation the generation of the retirement
+     * @param retired    completed once the servlet has been destroyed or
+     *                   mapped again
+     */
+    private void drain(ServletHolder holder, int generation,
+                       CompletableFuture<Void> retired) {
+        String name = holder.getServlet().getClass().getName();
+        try {
+            int left = holder.awaitDrained(drainTimeout);
+            if (holder.destroyRetired(generation) && left > 0) {
+                LOGGER.log(Level.WARNING, "Destroyed {0} with {1} "
+                        + "requests in flight", new Object[]{name, left});
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Interrupted while draining {0}; "
+                    + "destroying it", name);
+            holder.destroyRetired(generation);
+        } finally {
+            lock.lock();
+            try {
+                retiring.remove(holder, retired);
+            } finally {
+                lock.unlock();
+            }
+            retired.complete(null);
         }
     }
 }
@@ -0,0 +1,952 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.http.ChunkedBodyDecoder;
+import deep.jwebtainer.http.ContentLengthInputStream;
+import deep.jwebtainer.http.HttpParseException;
+import deep.jwebtainer.http.HttpRequestDecoder;
+import deep.jwebtainer.http.adaptor.FileTransfer;
+import deep.jwebtainer.http.adaptor.HttpAsyncContext;
+import deep.jwebtainer.http.adaptor.HttpRequest;
+import deep.jwebtainer.http.adaptor.HttpResponse;
+import deep.jwebtainer.servlet.ServletException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The NioConnection class holds the state of a single client connection
+ * served by a {@link NioEventLoop}. It accumulates the bytes of a request
+ * with non-blocking reads, decodes them incrementally with an
+ * {@link HttpRequestDecoder}, hands the complete request to the
+ * {@link RequestProcessor} and writes the buffered response back without
+ * ever blocking the loop thread. Since the servlet runs on the loop thread,
+ * the request body is received completely before the servlet is invoked;
+ * a body delimited by its Content-Length is streamed to it straight from
+ * the read buffer, and a chunked body is decoded as it arrives. A body is
+ * therefore limited to {@link #MAX_REQUEST_SIZE}, 1 MiB: a larger one is
+ * answered with 413 Content Too Large and the connection closed, so
+ * larger uploads, such as multipart uploads meant to spill over to disk,
+ * need one of the blocking transports, which stream the body. Like the
+ * {@link SocketHandler}, it keeps the connection open for further requests
+ * as long as the client and the keep-alive limits allow it.
+ *
+ * <p>A file sent as a response body, or each range of a multipart
+ * byte-range body, is queued as a segment behind the response bytes
+ * collected so far and transferred to the channel with
+ * {@link FileChannel#transferTo} as the socket accepts it; cached file
+ * content is written together with the adjacent response bytes by a
+ * gathering write. The requests pipelined behind it are serviced once the
+ * body has been sent.</p>
+ *
+ * <p>A request the servlet processes asynchronously releases the loop
+ * thread: the responses before it are written meanwhile, the rest of its
+ * body is copied out of the read buffer, and reading stops until it has
+ * been completed. The completing thread hands the connection back to the
+ * loop, which sends the response and goes on with the requests pipelined
+ * behind it. Until then, only the completing thread uses the response and
+ * the buffers collecting it; what it flushes meanwhile, such as the events
+ * of a stream, is handed to the loop to be written right away. If the
+ * connection is lost before, the request's listeners are told so, and the
+ * buffers are released once it has been completed.</p>
+ *
+ * <p>The read buffer and the buffers collecting the responses are direct
+ * buffers lent by the {@link BufferPool}, so the channel reads and writes
+ * them without a copy through the heap. The read buffer is only held while
+ * received bytes wait to be decoded.</p>
+ */
+final class NioConnection {
+
+    /**
+     * Logger for logging connection events and errors.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(NioConnection.class.getName());
+
+    /**
+     * The initial capacity of the read buffer in bytes.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The largest request body that is buffered, and the largest the read
+     * buffer grows to.
+     */
+    private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+    /**
+     * The capacity of each buffer collecting the responses.
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The pool lending the read buffer and the response buffers.
+     */
+    private final BufferPool pool = BufferPool.shared();
+
+    /**
+     * The non-blocking channel of the client connection.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The selection key of the channel in the owning loop's selector.
+     */
+    private final SelectionKey key;
+
+    /**
+     * The loop serving the connection.
+     */
+    private final NioEventLoop loop;
+
+    /**
+     * Dispatches parsed requests to the servlets of the registry.
+     */
+    private final RequestProcessor requestProcessor;
+
+    /**
+     * The maximum number of requests served on this connection.
+     */
+    private final int maxKeepAliveRequests;
+
+    /**
+     * The number of requests served so far.
+     */
+    private int served;
+
+    /**
+     * The {@link System#nanoTime()} of the last read or write.
+     */
+    private long lastActivity = System.nanoTime();
+
+    /**
+     * Whether the connection is closed once the pending response has been
+     * written.
+     */
+    private boolean closeAfterWrite;
+
+    /**
+     * Decodes the requests received on the connection.
+     */
+    private final HttpRequestDecoder decoder = new HttpRequestDecoder();
+
+    /**
+     * The request whose head has been decoded while its body is still being
+     * received, or null.
+     */
+    private HttpRequest pendingRequest;
+
+    /**
+     * Removes the framing of the chunked body being received, or null.
+     */
+    private ChunkedBodyDecoder chunkedDecoder;
+
+    /**
+     * Collects the decoded data of the chunked body being received. The
+     * array is kept for the next chunked body of the connection unless it
+     * has grown beyond {@link #INITIAL_BUFFER_SIZE}, so that an idle
+     * connection does not hold on to the largest body it has received.
+     */
+    private byte[] chunkedBody;
+
+    /**
+     * The number of decoded bytes in {@link #chunkedBody}.
+     */
+    private int chunkedBodyLength;
+
+    /**
+     * Accumulates the bytes of the request being read. The buffer is kept
+     * in write mode: its position is the number of bytes read so far. It
+     * is returned to the pool whenever every received byte has been
+     * consumed, so an idle connection holds none, and is null then.
+     */
+    private ByteBuffer readBuffer;
+
+    /**
+     * Collects the responses to the requests of one read.
+     */
+    private final PooledOutputStream responses =
+            new PooledOutputStream(pool, RESPONSE_BUFFER_SIZE,
+                    this::flushAsync);
+
+    /**
+     * The response object reused for every request of the connection.
+     */
+    private final HttpResponse response = new HttpResponse(responses);
+
+    /**
+     * The response bytes, cached content and file regions still to be
+     * written, in order; empty when nothing is pending.
+     */
+    private final ArrayDeque<Segment> pending = new ArrayDeque<>();
+
+    /**
+     * The context of the request being processed asynchronously, or null.
+     */
+    private HttpAsyncContext asyncContext;
+
+    /**
+     * The file regions and cached content the asynchronous response sends,
+     * collected by the completing thread until the response is handed back.
+     */
+    private final ArrayDeque<Segment> asyncSegments = new ArrayDeque<>();
+
+    /**
+     * The Content-Length delimited body of the request being serviced, a
+     * view of the read buffer, or null.
+     */
+    private ByteBuffer requestBody;
+
+    /**
+     * Supplies the rest of a request body that went asynchronous before it
+     * was read.
+     */
+    private final DetachedBody detachedBody = new DetachedBody();
+
+    /**
+     * Constructs a connection for an accepted channel.
+     *
+     * @param channel              the non-blocking client channel
+     * @param key                  the selection key of the channel
+     * @param loop                 the loop serving the connection
+     * @param requestProcessor     the processor used to service requests
+     * @param maxKeepAliveRequests the maximum number of requests served on
+     *                             the connection
+     */
+    NioConnection(SocketChannel channel, SelectionKey key, NioEventLoop loop,
+                  RequestProcessor requestProcessor,
+                  int maxKeepAliveRequests) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.requestProcessor = requestProcessor;
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        response.setFileTransfer(new QueuedTransfer());
+    }
+
+    /**
+     * Reads the available bytes and services every request that has been
+     * received completely.
+     *
+     * @throws IOException if reading from the channel fails
+     */
+    void onReadable() throws IOException {
+        if (readBuffer == null) {
+            readBuffer = pool.acquire(INITIAL_BUFFER_SIZE);
+        }
+        if (channel.read(readBuffer) < 0) {
+            close();
+            return;
+        }
+        lastActivity = System.nanoTime();
+        serviceBufferedRequests();
+    }
+
+    /**
+     * Writes as much of the pending response as the socket accepts. Once
+     * everything has been written the connection is either closed or goes
+     * back to reading the next request.
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    void onWritable() throws IOException {
+        if (writeResponse() && key.isValid()) {
+            key.interestOps(asyncContext == null ? SelectionKey.OP_READ : 0);
+            serviceBufferedRequests();
+        }
+    }
+
+    /**
+     * Sends the response of the request processed asynchronously once it
+     * has been completed, and goes on with the requests received behind
+     * it.
+     *
+     * @throws IOException if the response cannot be sent
+     */
+    void onAsyncComplete() throws IOException {
+        HttpRequest request = asyncContext.getRequest();
+        asyncContext = null;
+        detachedBody.rest = null;
+        if (!key.isValid()) {
+            // Closed meanwhile; the buffers were left to the response
+            responses.release();
+            closeSegments(asyncSegments);
+            return;
+        }
+        try {
+            response.finish();
+        } finally {
+            decoder.release(request);
+        }
+        closeAfterWrite = !response.isKeepAlive();
+        response.recycle();
+        queueResponses(asyncSegments);
+        pending.addAll(asyncSegments);
+        asyncSegments.clear();
+        key.interestOps(SelectionKey.OP_READ);
+        if (!writeResponse()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        serviceBufferedRequests();
+    }
+
+    /**
+     * Appends the segments flushed by the completing thread of an
+     * asynchronous response to the pending output and writes them.
+     *
+     * @param flushed the flushed segments
+     * @throws IOException if writing to the channel fails
+     */
+    void onAsyncFlush(Deque<Segment> flushed) throws IOException {
+        if (!key.isValid()) {
+            closeSegments(flushed);
+            return;
+        }
+        // Otherwise the write in progress goes on with the new segments
+        boolean idle = pending.isEmpty();
+        pending.addAll(flushed);
+        if (idle && !writeResponse()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Answers the request processed asynchronously if its timeout has
+     * expired.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    void checkAsyncTimeout(long now) {
+        if (asyncContext != null && asyncContext.isExpired(now)) {
+            requestProcessor.timeout(asyncContext);
+        }
+    }
+
+    /**
+     * Returns whether the connection has been idle for at least the given
+     * time while waiting for the next request.
+     *
+     * @param now     the current {@link System#nanoTime()}
+     * @param timeout the keep-alive timeout in nanoseconds
+     * @return true if the connection should be closed as idle
+     */
+    boolean isIdle(long now, long timeout) {
+        return asyncContext == null && pending.isEmpty()
+                && now - lastActivity >= timeout;
+    }
+
+    /**
+     * Closes the channel and cancels its selection key, returning the
+     * buffers of the connection to the pool. The buffers of a response
+     * still being produced asynchronously are released once it completes;
+     * the listeners of its request are told that the connection is gone,
+     * and the request is completed if none of them completes it, so that
+     * a servlet that never completes it does not keep them.
+     */
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing channel", e);
+        } finally {
+            closeSegments(pending);
+            if (asyncContext == null) {
+                responses.release();
+            }
+            releaseReadBuffer();
+        }
+        HttpAsyncContext context = asyncContext;
+        if (context != null) {
+            context.fireError(new ClosedChannelException());
+            context.abandon();
+        }
+    }
+
+    /**
+     * Services every complete request found in the read buffer in order and
+     * writes their responses with a single write, so that requests pipelined
+     * by the client do not cost one system call each.
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    private void serviceBufferedRequests() throws IOException {
+        // A batch ends at a file body; the requests behind it come next
+        while (pending.isEmpty() && key.isValid()) {
+            collectResponses();
+            if (asyncContext == null) {
+                queueResponses(pending);
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (!writeResponse()) {
+                // Wait until the socket accepts the rest of the responses
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Services the complete requests found in the read buffer in order,
+     * collecting their responses, until the buffer holds no further complete
+     * request, the connection is to be closed, a response queues a file
+     * body or a request is processed asynchronously.
+     *
+     * @throws IOException if a request cannot be serviced
+     */
+    private void collectResponses() throws IOException {
+        if (readBuffer == null || asyncContext != null) {
+            return;
+        }
+        readBuffer.flip();
+        try {
+            while (!closeAfterWrite && pending.isEmpty()
+                    && asyncContext == null) {
+                if (pendingRequest == null) {
+                    pendingRequest = decode();
+                    if (pendingRequest == null) {
+                        break;
+                    }
+                }
+                ByteBuffer body;
+                try {
+                    body = RequestProcessor.isChunked(pendingRequest)
+                            ? receiveChunkedBody() : receiveBody();
+                } catch (HttpParseException e) {
+                    decoder.release(pendingRequest);
+                    pendingRequest = null;
+                    chunkedDecoder = null;
+                    reject(e);
+                    break;
+                }
+                if (body == null) {
+                    break; // wait for the rest of the body
+                }
+                HttpRequest request = pendingRequest;
+                pendingRequest = null;
+                requestBody = body;
+                request.setInputStream(new ContentLengthInputStream(body,
+                        detachedBody, body.remaining()));
+                service(request);
+                requestBody = null;
+                releaseChunkedBody();
+            }
+        } finally {
+            readBuffer.compact();
+        }
+        if (readBuffer.position() == 0) {
+            releaseReadBuffer();
+        } else if (!closeAfterWrite && !readBuffer.hasRemaining()) {
+            growReadBuffer();
+        }
+    }
+
+    /**
+     * Decodes the next request from the read buffer. A malformed request is
+     * answered with 400 Bad Request, or 431 Request Header Fields Too Large,
+     * and the connection is closed once the responses before it have been
+     * written.
+     *
+     * @return the request, or null if it has not been received completely
+     * or has been rejected
+     * @throws IOException if the rejection cannot be written
+     */
+    private HttpRequest decode() throws IOException {
+        try {
+            return decoder.decode(readBuffer);
+        } catch (HttpParseException e) {
+            reject(e);
+            return null;
+        }
+    }
+
+    /**
+     * Answers a request that cannot be accepted with the status of the
+     * failure and closes the connection once the responses before it have
+     * been written.
+     *
+     * @param failure the failure
+     * @throws IOException if the rejection cannot be written
+     */
+    private void reject(HttpParseException failure) throws IOException {
+        requestProcessor.reject(response, failure);
+        response.finish();
+        response.recycle();
+        closeAfterWrite = true;
+        // Nothing behind the rejected request is read
+        readBuffer.position(readBuffer.limit());
+    }
+
+    /**
+     * Takes the body of the pending request, delimited by its
+     * Content-Length, from the read buffer once it has been received. The
+     * returned buffer shares the read buffer's content, which stays in
+     * place until the request has been serviced.
+     *
+     * @return the body, or null if it has not been received completely
+     * @throws HttpParseException if the body is too large
+     */
+    private ByteBuffer receiveBody() {
+        int bodyLength = Math.max(0, pendingRequest.getContentLength());
+        if (bodyLength > MAX_REQUEST_SIZE) {
+            throw new HttpParseException(
+                    HttpParseException.CONTENT_TOO_LARGE,
+                    "Request body exceeds " + MAX_REQUEST_SIZE + " bytes");
+        }
+        if (readBuffer.remaining() < bodyLength) {
+            return null;
+        }
+        ByteBuffer body = readBuffer.slice(readBuffer.position(), bodyLength);
+        readBuffer.position(readBuffer.position() + bodyLength);
+        return body;
+    }
+
+    /**
+     * Decodes the chunked body of the pending request from the read buffer
+     * into a separate buffer, which is handed out once the last chunk has
+     * been received.
+     *
+     * @return the decoded body, or null if it has not been received
+     * completely
+     * @throws IOException if the chunked framing is malformed
+     * @throws HttpParseException if the body is too large
+     */
+    private ByteBuffer receiveChunkedBody() throws IOException {
+        if (chunkedDecoder == null) {
+            chunkedDecoder = new ChunkedBodyDecoder();
+            if (chunkedBody == null) {
+                chunkedBody = new byte[INITIAL_BUFFER_SIZE];
+            }
+            chunkedBodyLength = 0;
+        }
+        while (true) {
+            if (chunkedBodyLength == chunkedBody.length) {
+                if (chunkedBody.length >= MAX_REQUEST_SIZE) {
+                    throw new HttpParseException(
+                            HttpParseException.CONTENT_TOO_LARGE,
+                            "Request body exceeds " + MAX_REQUEST_SIZE
+                                    + " bytes");
+                }
+                chunkedBody = Arrays.copyOf(chunkedBody, Math.min(
+                        chunkedBody.length * 2, MAX_REQUEST_SIZE));
+            }
+            int count = chunkedDecoder.read(readBuffer, chunkedBody,
+                    chunkedBodyLength, chunkedBody.length - chunkedBodyLength);
+            if (count == 0) {
+                return null;
+            }
+            if (count < 0) {
+                pendingRequest.setTrailerFields(chunkedDecoder.getTrailers());
+                chunkedDecoder = null;
+                return ByteBuffer.wrap(chunkedBody, 0, chunkedBodyLength);
+            }
+            chunkedBodyLength += count;
+        }
+    }
+
+    /**
+     * Drops the array of the chunked body once its request has been
+     * serviced, if it has grown beyond {@link #INITIAL_BUFFER_SIZE}. The
+     * servlet no longer reads from it: what an asynchronous request has
+     * left unread has been copied aside by {@link #startAsync}.
+     */
+    private void releaseChunkedBody() {
+        if (chunkedBody != null && chunkedBody.length > INITIAL_BUFFER_SIZE) {
+            chunkedBody = null;
+        }
+    }
+
+    /**
+     * Lets the servlet produce the response to a decoded request and appends
+     * it to the pending responses. The request and response objects are
+     * recycled afterwards for the next request of the connection.
+     *
+     * @param request the decoded request
+     * @throws IOException if the response cannot be produced
+     */
+    private void service(HttpRequest request) throws IOException {
+        served++;
+
+        response.setProtocol(request.getProtocol());
+        response.setKeepAlive(served < maxKeepAliveRequests
+                && RequestProcessor.isPersistent(request));
+        request.setAsyncStarter(this::startAsync);
+        try {
+            requestProcessor.process(request, response);
+        } catch (ServletException | RuntimeException e) {
+            requestProcessor.fail(request, response, e);
+        } finally {
+            if (asyncContext == null) {
+                decoder.release(request);
+            }
+        }
+        if (asyncContext != null) {
+            // Sent by onAsyncComplete; nothing is read until then
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            return;
+        }
+        response.finish();
+
+        closeAfterWrite = !response.isKeepAlive();
+        response.recycle();
+    }
+
+    /**
+     * Prepares the connection for a request the servlet processes
+     * asynchronously, on the loop thread, before the servlet gets the
+     * context: the responses collected so far are queued to be written
+     * meanwhile, and the unread rest of the body is copied, since the read
+     * buffer moves on.
+     *
+     * @param request the request
+     * @return the context of the request
+     */
+    private HttpAsyncContext startAsync(HttpRequest request) {
+        if (requestBody != null && requestBody.hasRemaining()) {
+            ByteBuffer rest = ByteBuffer.allocate(requestBody.remaining());
+            detachedBody.rest = rest.put(requestBody).flip();
+        }
+        queueResponses(pending);
+        asyncContext = new HttpAsyncContext(request, response,
+                () -> loop.resume(this));
+        return asyncContext;
+    }
+
+    /**
+     * Hands the response bytes an asynchronous response has flushed to the
+     * loop, together with the file bodies queued before them. Runs on the
+     * completing thread; a synchronous response is written once the
+     * servlet returns, so flushing it has no effect.
+     */
+    private void flushAsync() {
+        if (asyncContext == null) {
+            return;
+        }
+        queueResponses(asyncSegments);
+        if (asyncSegments.isEmpty()) {
+            return;
+        }
+        ArrayDeque<Segment> flushed = new ArrayDeque<>(asyncSegments);
+        asyncSegments.clear();
+        loop.execute(this, () -> onAsyncFlush(flushed));
+    }
+
+    /**
+     * Moves the response bytes collected so far to a queue of segments.
+     *
+     * @param target the segments the bytes are appended to
+     */
+    private void queueResponses(Deque<Segment> target) {
+        for (ByteBuffer buffer = responses.poll(); buffer != null;
+             buffer = responses.poll()) {
+            target.add(new Segment(buffer, pool));
+        }
+    }
+
+    /**
+     * Releases the segments of a queue and empties it.
+     *
+     * @param segments the segments
+     */
+    private void closeSegments(Deque<Segment> segments) {
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing file", e);
+            }
+        }
+        segments.clear();
+    }
+
+    /**
+     * Writes as much of the pending segments as the socket accepts, closing
+     * the connection if they included the last response. Adjacent response
+     * bytes and cached content are written by one gathering write.
+     *
+     * @return true if all pending segments have been written
+     * @throws IOException if writing to the channel or reading a file fails
+     */
+    private boolean writeResponse() throws IOException {
+        while (!pending.isEmpty()) {
+            Segment first = pending.peek();
+            if (first.file != null) {
+                if (!transferFile(first)) {
+                    return false;
+                }
+                pending.remove().close();
+                continue;
+            }
+            int count = 0;
+            for (Segment segment : pending) {
+                if (segment.file != null) {
+                    break;
+                }
+                count++;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            Iterator<Segment> segments = pending.iterator();
+            for (int i = 0; i < count; i++) {
+                buffers[i] = segments.next().buffer;
+            }
+            channel.write(buffers);
+            lastActivity = System.nanoTime();
+            while (!pending.isEmpty() && pending.peek().file == null
+                    && !pending.peek().buffer.hasRemaining()) {
+                pending.remove().close();
+            }
+            if (buffers[count - 1].hasRemaining()) {
+                return false;
+            }
+        }
+        if (closeAfterWrite) {
+            close();
+        }
+        return true;
+    }
+
+    /**
+     * Transfers as much of a file segment as the socket accepts.
+     *
+     * @param segment the file segment
+     * @return true if the whole region has been sent
+     * @throws IOException if the file cannot be read or ends early, or
+     *                     writing to the channel fails
+     */
+    private boolean transferFile(Segment segment) throws IOException {
+        while (segment.remaining > 0) {
+            long sent = segment.file.transferTo(segment.position,
+                    segment.remaining, channel);
+            if (sent == 0) {
+                if (segment.position >= segment.file.size()) {
+                    throw new EOFException("File ended before its "
+                            + "Content-Length");
+                }
+                return false;
+            }
+            lastActivity = System.nanoTime();
+            segment.position += sent;
+            segment.remaining -= sent;
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the read buffer, or drops the connection when the request
+     * exceeds {@link #MAX_REQUEST_SIZE}.
+     *
+     * @throws IOException if the request is too large
+     */
+    private void growReadBuffer() throws IOException {
+        if (readBuffer.capacity() >= MAX_REQUEST_SIZE) {
+            throw new IOException("Request exceeds " + MAX_REQUEST_SIZE
+                    + " bytes");
+        }
+        ByteBuffer larger = pool.acquire(Math.min(
+                readBuffer.capacity() * 2, MAX_REQUEST_SIZE));
+        readBuffer.flip();
+        larger.put(readBuffer);
+        pool.release(readBuffer);
+        readBuffer = larger;
+    }
+
+    /**
+     * Returns the read buffer to the pool, if the connection holds one.
+     */
+    private void releaseReadBuffer() {
+        if (readBuffer != null) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * Queues file bodies behind the responses collected so far, which end
+     * with their head, to be sent as the socket accepts them. While the
+     * response is produced asynchronously, they are kept aside until it is
+     * handed back to the loop.
+     */
+    private final class QueuedTransfer implements FileTransfer {
+
+        /**
+         * Returns the segments a body is queued to.
+         *
+         * @return the pending segments, or those of the asynchronous
+         * response
+         */
+        private Deque<Segment> target() {
+            return asyncContext != null ? asyncSegments : pending;
+        }
+
+        /**
+         * Queues a file region.
+         *
+         * @param file     the file
+         * @param position the offset of the first byte to send
+         * @param count    the number of bytes to send
+         * @throws IOException if the file cannot be opened
+         */
+        @Override
+        public void transfer(Path file, long position, long count)
+                throws IOException {
+            FileChannel source = FileChannel.open(file);
+            Deque<Segment> target = target();
+            queueResponses(target);
+            target.add(new Segment(source, position, count));
+        }
+
+        /**
+         * Queues cached content, which is written together with the
+         * response bytes around it.
+         *
+         * @param content the content to send
+         */
+        @Override
+        public void transfer(ByteBuffer content) {
+            Deque<Segment> target = target();
+            queueResponses(target);
+            target.add(new Segment(content, null));
+        }
+    }
+
+    /**
+     * The source a request body is read from once its bytes in the read
+     * buffer are used up, which only happens to a body detached from the
+     * read buffer when its request went asynchronous.
+     */
+    private static final class DetachedBody extends InputStream {
+
+        /**
+         * The unread rest of the detached body, or null.
+         */
+        private ByteBuffer rest;
+
+        /**
+         * Reads a single byte.
+         *
+         * @return the byte, or -1 if there is none
+         */
+        @Override
+        public int read() {
+            return rest != null && rest.hasRemaining() ? rest.get() & 0xFF
+                    : -1;
+        }
+
+        /**
+         * Reads a range of bytes.
+         *
+         * @param b   the array receiving the bytes
+         * @param off the offset of the first byte
+         * @param len the maximum number of bytes
+         * @return the number of bytes read, or -1 if there are none
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (rest == null || !rest.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, rest.remaining());
+            rest.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes left.
+         *
+         * @return the number of unread bytes
+         */
+        @Override
+        public int available() {
+            return rest == null ? 0 : rest.remaining();
+        }
+    }
+
+    /**
+     * A part of the output still to be written: either bytes in a buffer or
+     * a region of a file.
+     */
+    private static final class Segment {
+
+        /**
+         * The bytes to write, or null for a file region.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The pool to return the buffer to once it has been written, or
+         * null if the buffer is not pooled.
+         */
+        private final BufferPool pool;
+
+        /**
+         * The file to transfer from, or null for bytes.
+         */
+        private final FileChannel file;
+
+        /**
+         * The offset of the next byte of the file to send.
+         */
+        private long position;
+
+        /**
+         * The number of bytes of the file still to send.
+         */
+        private long remaining;
+
+        /**
+         * Constructs a segment of bytes.
+         *
+         * @param buffer the bytes to write
+         * @param pool   the pool the buffer was acquired from, or null
+         */
+        Segment(ByteBuffer buffer, BufferPool pool) {
+            this.buffer = buffer;
+            this.pool = pool;
+            this.file = null;
+        }
+
+        /**
+         * Constructs a segment of a file region.
+         *
+         * @param file      the open file
+         * @param position  the offset of the first byte to send
+         * @param remaining the number of bytes to send
+         */
+        Segment(FileChannel file, long position, long remaining) {
+            this.buffer = null;
+            this.pool = null;
+            this.file = file;
+            this.position = position;
+            this.remaining = remaining;
+        }
+
+        /**
+         * Releases what the segment holds once it has been written or
+         * dropped: the file is closed and a pooled buffer returned.
+         *
+         * @throws IOException if the file cannot be closed
+         */
+        void close() throws IOException {
+            if (file != null) {
+                file.close();
+            } else if (pool != null) {
+                pool.release(buffer);
+            }
+        }
+    }
+}
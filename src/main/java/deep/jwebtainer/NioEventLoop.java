@@ -0,0 +1,364 @@
+package deep.jwebtainer;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The NioEventLoop class owns a {@link Selector} and a single thread that
+ * performs every non-blocking read and write for the connections registered
+ * with it. Connections are handed over by the acceptor of the
+ * {@link WebContainer} and stay bound to the same loop for their whole
+ * lifetime, so a {@link NioConnection} is never touched by two threads.
+ *
+ * <p>The loop thread also invokes the servlets, initializing those
+ * registered lazily on their first request, and is not handed back to the
+ * selector until {@code service()} returns. A servlet that blocks
+ * therefore holds up every connection of the loop; only the work of a
+ * request processed asynchronously runs elsewhere, its response being
+ * sent by the loop once {@link #resume(NioConnection)} is called.</p>
+ *
+ * <p>A failure handling one connection, including an {@link Error} thrown
+ * by a servlet, closes that connection only; the loop goes on serving the
+ * others. Once the loop has stopped, it turns away the channels and work
+ * handed to it, so that the acceptor can pick another loop.</p>
+ */
+final class NioEventLoop implements Runnable {
+
+    /**
+     * Logger for logging event loop events and errors.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(NioEventLoop.class.getName());
+
+    /**
+     * How often, in milliseconds, the loop looks for idle connections.
+     */
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    /**
+     * The selector multiplexing the channels of this loop.
+     */
+    private final Selector selector;
+
+    /**
+     * Tasks submitted from other threads, executed by the loop thread
+     * between two selections.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Dispatches parsed requests to the servlets of the registry.
+     */
+    private final RequestProcessor requestProcessor;
+
+    /**
+     * The maximum number of requests served on one connection.
+     */
+    private final int maxKeepAliveRequests;
+
+    /**
+     * The time in nanoseconds a connection may stay idle between requests.
+     */
+    private final long keepAliveTimeout;
+
+    /**
+     * The {@link System#nanoTime()} of the last idle connection check.
+     */
+    private long lastIdleCheck = System.nanoTime();
+
+    /**
+     * The thread running this loop.
+     */
+    private final Thread thread;
+
+    /**
+     * Whether the loop should keep selecting.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Whether the loop thread has left the select loop, after which no
+     * more work is accepted.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructs an event loop. The loop thread is not started until
+     * {@link #start()} is called.
+     *
+     * @param requestProcessor     the processor used to service requests
+     * @param name                 the name of the loop thread
+     * @param maxKeepAliveRequests the maximum number of requests served on
+     *                             one connection
+     * @param keepAliveTimeout     the time in milliseconds a connection may
+     *                             stay idle between requests
+     * @throws IOException if the selector cannot be opened
+     */
+    NioEventLoop(RequestProcessor requestProcessor, String name,
+                 int maxKeepAliveRequests, int keepAliveTimeout)
+            throws IOException {
+        this.selector = Selector.open();
+        this.requestProcessor = requestProcessor;
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        this.keepAliveTimeout =
+                TimeUnit.MILLISECONDS.toNanos(keepAliveTimeout);
+        this.thread = new Thread(this, name);
+    }
+
+    /**
+     * Starts the loop thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands an accepted channel over to this loop. The channel is switched to
+     * non-blocking mode and registered for reads on the loop thread.
+     *
+     * @param channel the accepted client channel
+     * @return true if the loop took the channel, false if it has stopped
+     * and the channel is left to the caller
+     */
+    boolean register(SocketChannel channel) {
+        return execute(() -> {
+            if (stopped) {
+                // Only run by the last pass over the tasks of the loop
+                closeQuietly(channel);
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector,
+                        SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key, this,
+                        requestProcessor, maxKeepAliveRequests));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error registering channel", e);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Hands a connection whose asynchronous request has been completed back
+     * to the loop thread, which sends the response.
+     *
+     * @param connection the connection
+     */
+    void resume(NioConnection connection) {
+        execute(connection, connection::onAsyncComplete);
+    }
+
+    /**
+     * Schedules work on a connection to run on the loop thread. The
+     * connection is closed if the work fails.
+     *
+     * @param connection the connection
+     * @param task       the work
+     */
+    void execute(NioConnection connection, ConnectionTask task) {
+        execute(() -> {
+            try {
+                task.run();
+            } catch (IOException | CancelledKeyException e) {
+                LOGGER.log(Level.FINE, "Connection closed", e);
+                connection.close();
+            } catch (Throwable e) {
+                LOGGER.log(Level.SEVERE, "Connection handling failed", e);
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * Schedules a task to run on the loop thread and wakes the selector up.
+     * A task handed over after the loop has stopped is rejected; its
+     * connections have been closed already.
+     *
+     * @param task the task to run
+     * @return true if the task will run, false if the loop has stopped
+     */
+    boolean execute(Runnable task) {
+        if (stopped) {
+            return false;
+        }
+        tasks.add(task);
+        selector.wakeup();
+        // The last pass over the tasks may have run before the task was
+        // added; whoever removes it decides its fate
+        return !stopped || !tasks.remove(task);
+    }
+
+    /**
+     * Asks the loop to stop. The loop thread closes every channel still
+     * registered with it once it has returned from the work it is doing,
+     * which may be a servlet servicing a request; see
+     * {@link #awaitTermination(long)}.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Waits for the loop thread to stop after {@link #shutdown()}. A loop
+     * never started has nothing to wait for; the loop thread itself, as when
+     * a servlet stops the container, cannot wait for itself.
+     *
+     * @param nanos the maximum time to wait in nanoseconds
+     * @return true if the loop has stopped, false otherwise
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    boolean awaitTermination(long nanos) throws InterruptedException {
+        if (Thread.currentThread() == thread) {
+            return false;
+        }
+        return thread.getState() == Thread.State.NEW
+                || thread.join(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Runs the select loop until {@link #shutdown()} is called.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(IDLE_CHECK_INTERVAL);
+                runTasks();
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                closeIdleConnections();
+            }
+        } catch (Throwable e) {
+            LOGGER.log(Level.SEVERE, "Event loop failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                // Also returns the buffers of the connection to the pool
+                ((NioConnection) key.attachment()).close();
+            }
+            // After the closes, whose completions are still run below
+            stopped = true;
+            // Releases the responses of requests completed by the closes
+            runTasks();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing selector", e);
+            }
+        }
+    }
+
+    /**
+     * Dispatches the ready operations of a key to its connection.
+     *
+     * @param key the selected key
+     */
+    private void handle(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            LOGGER.log(Level.FINE, "Connection closed", e);
+            connection.close();
+        } catch (Throwable e) {
+            LOGGER.log(Level.SEVERE, "Connection handling failed", e);
+            connection.close();
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the
+     * keep-alive timeout and answers the asynchronous requests whose timeout
+     * has expired. The check runs at most once per
+     * {@link #IDLE_CHECK_INTERVAL}.
+     */
+    private void closeIdleConnections() {
+        long now = System.nanoTime();
+        if (now - lastIdleCheck
+                < TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL)) {
+            return;
+        }
+        lastIdleCheck = now;
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (!key.isValid()) {
+                continue;
+            }
+            try {
+                connection.checkAsyncTimeout(now);
+            } catch (Throwable e) {
+                LOGGER.log(Level.SEVERE, "Asynchronous timeout failed", e);
+                connection.close();
+                continue;
+            }
+            if (connection.isIdle(now, keepAliveTimeout)) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Runs all pending tasks submitted from other threads. A failing task
+     * is logged and does not stop the others.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                LOGGER.log(Level.SEVERE, "Event loop task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Closes a channel, logging instead of propagating any failure.
+     *
+     * @param channel the channel to close
+     */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing channel", e);
+        }
+    }
+
+    /**
+     * Work on a connection run by the loop thread.
+     */
+    @FunctionalInterface
+    interface ConnectionTask {
+
+        /**
+         * Runs the work.
+         *
+         * @throws IOException if the connection fails
+         */
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,133 @@
+package deep.jwebtainer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * The PooledOutputStream class collects the bytes written to it in direct
+ * buffers drawn from a {@link BufferPool}, so that a non-blocking transport
+ * can write them to its channel without the copy the JDK makes for heap
+ * buffers. A new buffer is taken whenever the last one is full; the filled
+ * buffers are handed out with {@link #poll()}, and whoever takes a buffer
+ * releases it to the pool once it has been written. Flushing the stream
+ * runs an action of the transport, which decides when the bytes are
+ * handed out.
+ */
+final class PooledOutputStream extends OutputStream {
+
+    /**
+     * The pool the buffers are drawn from.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The capacity of every buffer.
+     */
+    private final int bufferSize;
+
+    /**
+     * The buffers holding the bytes not handed out yet, in write mode; only
+     * the last one can have room left.
+     */
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    /**
+     * Run when the stream is flushed.
+     */
+    private final Runnable flushAction;
+
+    /**
+     * Constructs an empty stream.
+     *
+     * @param pool        the pool the buffers are drawn from
+     * @param bufferSize  the capacity of every buffer
+     * @param flushAction run when the stream is flushed
+     */
+    PooledOutputStream(BufferPool pool, int bufferSize,
+                       Runnable flushAction) {
+        this.pool = pool;
+        this.bufferSize = bufferSize;
+        this.flushAction = flushAction;
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b the byte to write
+     */
+    @Override
+    public void write(int b) {
+        writableBuffer().put((byte) b);
+    }
+
+    /**
+     * Writes a range of bytes, filling as many buffers as needed.
+     *
+     * @param b   the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            ByteBuffer buffer = writableBuffer();
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Runs the flush action of the transport.
+     */
+    @Override
+    public void flush() {
+        flushAction.run();
+    }
+
+    /**
+     * Returns whether no bytes are waiting to be handed out.
+     *
+     * @return true if the stream holds no bytes
+     */
+    boolean isEmpty() {
+        return buffers.isEmpty();
+    }
+
+    /**
+     * Hands out the oldest buffer, ready to be written from. The caller
+     * must release it to the pool.
+     *
+     * @return the buffer, or null if the stream holds no bytes
+     */
+    ByteBuffer poll() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer == null ? null : buffer.flip();
+    }
+
+    /**
+     * Discards the bytes not handed out yet and releases their buffers.
+     */
+    void release() {
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        buffers.clear();
+    }
+
+    /**
+     * Returns the last buffer if it has room left, or a new one.
+     *
+     * @return a buffer with at least one free byte
+     */
+    private ByteBuffer writableBuffer() {
+        ByteBuffer last = buffers.peekLast();
+        if (last == null || !last.hasRemaining()) {
+            last = pool.acquire(bufferSize);
+            buffers.add(last);
+        }
+        return last;
+    }
+}
@@ -4,16 +4,71 @@ import deep.jwebtainer.servlet.http.HttpServlet;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Implementation of {@link ServletLoader} that loads servlets from a
  * properties file.
  * The properties file should map servlet names to their fully qualified
  * class names.
+ *
+ * <p>A class name may be followed by options separated by semicolons, as in
+ * {@code /reports = com.example.ReportServlet; load-on-startup=1}:</p>
+ * <ul>
+ *     <li>{@code load-on-startup=n} orders the initialization of the
+ *     servlet: servlets with a lower number are initialized first, and a
+ *     negative number makes the servlet lazy, as in the servlet
+ *     specification;</li>
+ *     <li>{@code lazy} leaves the servlet to be initialized by the first
+ *     request routed to it.</li>
+ * </ul>
+ *
+ * <p>Servlets sharing a load-on-startup number are initialized in
+ * parallel, each on a virtual thread, so that a slow {@code init()} only
+ * holds up the servlets ordered after it; servlets without a number are
+ * initialized last. The time each initialization took is logged once all
+ * servlets are loaded and available from {@link #getInitTimes()}.</p>
  */
 public class PropertiesServletLoader implements ServletLoader {
 
+    /**
+     * Logger for logging the startup report.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(PropertiesServletLoader.class.getName());
+
+    /**
+     * The option leaving a servlet to be initialized by its first request.
+     */
+    private static final String LAZY = "lazy";
+
+    /**
+     * The option ordering the initialization of a servlet, followed by its
+     * number.
+     */
+    private static final String LOAD_ON_STARTUP = "load-on-startup=";
+
+    /**
+     * The load-on-startup number of servlets without one, which are
+     * initialized after all others.
+     */
+    private static final int UNORDERED = Integer.MAX_VALUE;
+
     /**
      * The name of the properties file containing servlet configurations.
      */
@@ -24,6 +79,12 @@ public class PropertiesServletLoader implements ServletLoader {
      */
     private final ServletFactory servletFactory;
 
+    /**
+     * The time the initialization of each servlet took during the last
+     * load, by path.
+     */
+    private volatile Map<String, Duration> initTimes = Map.of();
+
     /**
      * Constructs a new PropertiesServletLoader with the specified
      * configuration  file name and servlet factory.
@@ -40,15 +101,20 @@ public class PropertiesServletLoader implements ServletLoader {
 
     /**
      * Loads servlets from the specified properties file and registers them
-     * in the provided registry.
+     * in the provided registry, initializing them in load-on-startup order
+     * and in parallel within the same order.
      *
      * @param registry the {@link DefaultServletRegistry} where servlets will
      *                be registered
      * @throws IOException if an I/O error occurs while loading the
      * properties file
+     * @throws IllegalArgumentException if an entry is malformed, or a
+     * servlet cannot be created or registered; the servlets ordered after
+     * it are not loaded
      */
     @Override
     public void load(DefaultServletRegistry registry) throws IOException {
+        Properties properties = new Properties();
         try (InputStream input =
                      getClass().getClassLoader()
                              .getResourceAsStream(configFileName)) {
@@ -56,16 +122,204 @@ public class PropertiesServletLoader implements ServletLoader {
                 throw new IOException("Configuration file not found: "
                         + configFileName);
             }
-            Properties properties = new Properties();
             properties.load(input);
-            properties.forEach((key, value) -> {
-                String className = (String) value;
-                HttpServlet servlet = servletFactory.createServlet(className);
-                registry.registerServlet((String) key, servlet);
-            });
         } catch (IOException e) {
             throw new IOException("Error loading servlets from "
                     + "configuration file: " + configFileName, e);
         }
+
+        NavigableMap<Integer, List<Entry>> eager = new TreeMap<>();
+        List<Entry> lazy = new ArrayList<>();
+        for (String path : new TreeSet<>(properties.stringPropertyNames())) {
+            Entry entry = new Entry(path, properties.getProperty(path));
+            if (entry.lazy) {
+                lazy.add(entry);
+            } else {
+                eager.computeIfAbsent(entry.order, order -> new ArrayList<>())
+                        .add(entry);
+            }
+        }
+
+        long start = System.nanoTime();
+        Map<String, Duration> times = new LinkedHashMap<>();
+        for (List<Entry> group : eager.values()) {
+            register(registry, group);
+            for (Entry entry : group) {
+                times.put(entry.path, entry.initTime);
+            }
+        }
+        for (Entry entry : lazy) {
+            registry.registerLazyServlet(entry.path,
+                    servletFactory.createServlet(entry.className));
+        }
+        initTimes = Collections.unmodifiableMap(times);
+        report(eager, lazy, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the time the initialization of each servlet took during the
+     * last load, including the time taken to register it.
+     *
+     * @return the times by path, in the order the servlets were loaded;
+     * lazy servlets are not included
+     */
+    public Map<String, Duration> getInitTimes() {
+        return initTimes;
+    }
+
+    /**
+     * Creates and registers the servlets of a load-on-startup group in
+     * parallel, returning once all of them have been registered or have
+     * failed to.
+     *
+     * @param registry the registry
+     * @param group    the entries of the group
+     * @throws IllegalArgumentException if a servlet cannot be created or
+     *                                  registered, with the failures of the
+     *                                  other servlets suppressed
+     */
+    private void register(DefaultServletRegistry registry,
+                          List<Entry> group) {
+        List<Future<?>> tasks = new ArrayList<>();
+        try (ExecutorService executor =
+                     Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Entry entry : group) {
+                tasks.add(executor.submit(() -> {
+                    HttpServlet servlet =
+                            servletFactory.createServlet(entry.className);
+                    long start = System.nanoTime();
+                    registry.registerServlet(entry.path, servlet);
+                    entry.initTime =
+                            Duration.ofNanos(System.nanoTime() - start);
+                }));
+            }
+        }
+        Throwable failure = null;
+        for (Future<?> task : tasks) {
+            if (task.state() != Future.State.FAILED) {
+                continue;
+            }
+            if (failure == null) {
+                failure = task.exceptionNow();
+            } else {
+                failure.addSuppressed(task.exceptionNow());
+            }
+        }
+        if (failure instanceof RuntimeException e) {
+            throw e;
+        }
+        if (failure instanceof Error e) {
+            throw e;
+        }
+    }
+
+    /**
+     * Logs the time the initialization of each servlet took.
+     *
+     * @param eager   the entries initialized at startup, by load-on-startup
+     *                number
+     * @param lazy    the entries left to their first request
+     * @param elapsed the time the whole load took in nanoseconds
+     */
+    private static void report(NavigableMap<Integer, List<Entry>> eager,
+                               List<Entry> lazy, long elapsed) {
+        if (!LOGGER.isLoggable(Level.INFO)) {
+            return;
+        }
+        StringBuilder report = new StringBuilder("Loaded servlets in ")
+                .append(TimeUnit.NANOSECONDS.toMillis(elapsed))
+                .append(" ms");
+        for (List<Entry> group : eager.values()) {
+            for (Entry entry : group) {
+                report.append("\n  ").append(entry.describe()).append(": ")
+                        .append(entry.initTime.toMillis()).append(" ms");
+            }
+        }
+        for (Entry entry : lazy) {
+            report.append("\n  ").append(entry.describe())
+                    .append(": on first request");
+        }
+        LOGGER.info(report.toString());
+    }
+
+    /**
+     * A servlet entry of the properties file.
+     */
+    private static final class Entry {
+
+        /**
+         * The path the servlet is registered with.
+         */
+        private final String path;
+
+        /**
+         * The fully qualified class name of the servlet.
+         */
+        private final String className;
+
+        /**
+         * The load-on-startup number, {@link #UNORDERED} if there is none.
+         */
+        private final int order;
+
+        /**
+         * Whether the servlet is initialized by its first request.
+         */
+        private final boolean lazy;
+
+        /**
+         * The time the registration of the servlet took, set once it has
+         * been registered.
+         */
+        private Duration initTime;
+
+        /**
+         * Parses an entry.
+         *
+         * @param path  the key of the entry
+         * @param value the class name, followed by options separated by
+         *              semicolons
+         * @throws IllegalArgumentException if an option is malformed or
+         *                                  unknown
+         */
+        Entry(String path, String value) {
+            String[] parts = value.split(";");
+            int order = UNORDERED;
+            boolean lazy = false;
+            for (int i = 1; i < parts.length; i++) {
+                String option = parts[i].trim();
+                if (option.equals(LAZY)) {
+                    lazy = true;
+                } else if (option.startsWith(LOAD_ON_STARTUP)) {
+                    try {
+                        order = Integer.parseInt(option.substring(
+                                LOAD_ON_STARTUP.length()).trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid "
+                                + "load-on-startup for servlet " + path
+                                + ": " + option, e);
+                    }
+                    lazy |= order < 0;
+                } else {
+                    throw new IllegalArgumentException("Unknown option for "
+                            + "servlet " + path + ": " + option);
+                }
+            }
+            this.path = path;
+            this.className = parts[0].trim();
+            this.order = order;
+            this.lazy = lazy;
+        }
+
+        /**
+         * Describes the entry for the startup report.
+         *
+         * @return the path, class name and load-on-startup number
+         */
+        String describe() {
+            String description = path + " -> " + className;
+            return order == UNORDERED ? description
+                    : description + " (load-on-startup " + order + ")";
+        }
     }
 }
@@ -0,0 +1,322 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.http.HttpParseException;
+import deep.jwebtainer.http.ResponseCompression;
+import deep.jwebtainer.http.adaptor.HttpAsyncContext;
+import deep.jwebtainer.http.adaptor.HttpRequest;
+import deep.jwebtainer.http.adaptor.HttpResponse;
+import deep.jwebtainer.servlet.AsyncContext;
+import deep.jwebtainer.servlet.AsyncListener;
+import deep.jwebtainer.servlet.ServletException;
+import deep.jwebtainer.servlet.http.HttpServlet;
+import deep.jwebtainer.servlet.http.HttpServletRequest;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The RequestProcessor class dispatches a parsed HTTP request to the servlet
+ * registered for its path. It is shared by every transport so that the
+ * blocking {@link SocketHandler} and the non-blocking {@link NioEventLoop}
+ * route requests and render error pages in exactly the same way.
+ *
+ * <p>A servlet may process a request asynchronously; the transport then
+ * sends the response once the request has been completed, and asks the
+ * processor to {@linkplain #timeout(HttpAsyncContext) answer it} if that
+ * takes too long.</p>
+ */
+final class RequestProcessor {
+
+    /**
+     * Logger for logging failed servlets and the initialization of servlets
+     * registered lazily.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(RequestProcessor.class.getName());
+
+    /**
+     * The registry used to look up the servlet for a request path.
+     */
+    private final ServletRegistry servletRegistry;
+
+    /**
+     * The match reused by every request a thread routes.
+     */
+    private final ThreadLocal<ServletMatch> matches =
+            ThreadLocal.withInitial(ServletMatch::new);
+
+    /**
+     * Constructs a RequestProcessor backed by the given servlet registry.
+     *
+     * @param servletRegistry the registry of servlets to handle requests
+     */
+    RequestProcessor(ServletRegistry servletRegistry) {
+        this.servletRegistry = servletRegistry;
+    }
+
+    /**
+     * Looks up the servlet for the request URI, records the servlet path
+     * and path parameters that selected it and lets it service the
+     * request, compressing the response as the client allows. A 404 error
+     * page is written when no servlet is registered for the path.
+     *
+     * <p>The request is counted against the servlet until it has been
+     * processed, or completed if it is processed asynchronously, so that
+     * the registry can drain a servlet it takes out of service. A request
+     * routed to a servlet taken out of service meanwhile is routed
+     * again. A servlet registered lazily is initialized by its first
+     * request; if that fails, the request is answered with 503 Service
+     * Unavailable and the next one tries again.</p>
+     *
+     * @param request  the parsed HTTP request
+     * @param response the response bound to the client connection
+     * @throws ServletException if the servlet fails to process the request
+     */
+    void process(HttpRequest request, HttpResponse response)
+            throws ServletException {
+        response.setAcceptedEncoding(ResponseCompression.negotiate(
+                request.getHeader("Accept-Encoding")));
+        ServletMatch match = matches.get();
+        ServletHolder holder;
+        do {
+            if (!servletRegistry.match(request.getRequestURI(), match)) {
+                sendErrorResponse(response, 404, "Not Found");
+                return;
+            }
+            holder = match.holder();
+        } while (holder != null && !holder.acquire());
+        HttpServlet servlet = (HttpServlet) match.getServlet();
+        request.setPathMatch(match.servletPathLength(),
+                match.parameterNames(), match.parameterBounds());
+        match.clear();
+        if (holder != null && !initialize(holder, response)) {
+            return;
+        }
+
+        try {
+            servlet.service(request, response);
+        } finally {
+            if (holder != null) {
+                release(request, holder);
+            }
+        }
+    }
+
+    /**
+     * Initializes the servlet a request acquired if it was registered
+     * lazily and this is its first request.
+     *
+     * @param holder   the holder of the servlet
+     * @param response the response, answered with 503 Service Unavailable
+     *                 if the initialization fails
+     * @return true if the servlet is ready to service the request
+     */
+    private boolean initialize(ServletHolder holder, HttpResponse response) {
+        try {
+            long nanos = holder.initialize();
+            if (nanos > 0) {
+                LOGGER.log(Level.INFO, "Initialized {0} on its first request"
+                        + " in {1} ms", new Object[]{
+                        holder.getServlet().getClass().getName(),
+                        TimeUnit.NANOSECONDS.toMillis(nanos)});
+            }
+            return true;
+        } catch (RuntimeException e) {
+            holder.release();
+            LOGGER.log(Level.SEVERE, "Servlet initialization failed", e);
+            sendErrorResponse(response, 503, "Service Unavailable");
+            return false;
+        }
+    }
+
+    /**
+     * Releases the servlet a request acquired once the request has been
+     * processed: right away, or when it completes if it is processed
+     * asynchronously.
+     *
+     * @param request the request processed
+     * @param holder  the holder of its servlet
+     */
+    private static void release(HttpRequest request, ServletHolder holder) {
+        HttpAsyncContext context = request.getAsyncContext();
+        if (context == null) {
+            holder.release();
+            return;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncContext completed) {
+                if (released.compareAndSet(false, true)) {
+                    holder.release();
+                }
+            }
+        });
+        // The request may have completed before the listener was added
+        if (context.isCompleted() && released.compareAndSet(false, true)) {
+            holder.release();
+        }
+    }
+
+    /**
+     * Handles a request processed asynchronously whose timeout has expired.
+     * The response is first claimed from the servlet, which may still be
+     * writing to it and is turned away from then on; nothing is done if the
+     * servlet completed the request first. The listeners may still complete
+     * it; otherwise the request is answered with 503 Service Unavailable, or
+     * its response ended if it has already been committed. Either way the
+     * connection is closed after it.
+     *
+     * @param context the context of the expired request
+     */
+    void timeout(HttpAsyncContext context) {
+        if (!context.claimTimeout()) {
+            return;
+        }
+        try {
+            HttpResponse response = context.getResponse();
+            response.setKeepAlive(false);
+            if (context.fireTimeout()) {
+                return;
+            }
+            if (!response.isCommitted()) {
+                response.reset();
+                sendErrorResponse(response, 503, "Service Unavailable");
+            }
+            context.complete();
+        } finally {
+            context.releaseClaim();
+        }
+    }
+
+    /**
+     * Answers a request whose servlet failed with 500 Internal Server Error
+     * and closes the connection after it; a response already committed is
+     * only ended. A request the servlet had started processing
+     * asynchronously is completed the same way, unless it has been
+     * completed or has timed out meanwhile.
+     *
+     * @param request  the request
+     * @param response the response bound to the client connection
+     * @param failure  the exception the servlet threw
+     */
+    void fail(HttpRequest request, HttpResponse response, Exception failure) {
+        LOGGER.log(Level.SEVERE, "Request processing failed", failure);
+        HttpAsyncContext context = request.getAsyncContext();
+        if (context != null) {
+            context.fail();
+            return;
+        }
+        response.setKeepAlive(false);
+        if (!response.isCommitted()) {
+            response.reset();
+            sendErrorResponse(response, 500, "Internal Server Error");
+        }
+    }
+
+    /**
+     * Decides whether the connection may stay open after answering the
+     * request. HTTP/1.1 connections are persistent unless the client sends
+     * {@code Connection: close}; HTTP/1.0 connections only if the client
+     * asks for {@code Connection: keep-alive}. Requests whose body uses a
+     * transfer-coding other than chunked cannot be delimited and always end
+     * the connection.
+     *
+     * @param request the parsed HTTP request
+     * @return true if the connection may serve further requests
+     */
+    static boolean isPersistent(HttpServletRequest request) {
+        if (request.getHeader("Transfer-Encoding") != null
+                && !isChunked(request)) {
+            return false;
+        }
+        String connection = request.getHeader("Connection");
+        if (connection != null) {
+            for (String token : connection.split(",")) {
+                if (token.trim().equalsIgnoreCase("close")) {
+                    return false;
+                }
+                if (token.trim().equalsIgnoreCase("keep-alive")) {
+                    return true;
+                }
+            }
+        }
+        return !"HTTP/1.0".equals(request.getProtocol());
+    }
+
+    /**
+     * Decides whether the request body is sent with the chunked
+     * transfer-coding, which must then be the last coding applied. A chunked
+     * body takes precedence over a Content-Length header.
+     *
+     * @param request the parsed HTTP request
+     * @return true if the body is chunked
+     */
+    static boolean isChunked(HttpServletRequest request) {
+        String transferEncoding = request.getHeader("Transfer-Encoding");
+        if (transferEncoding == null) {
+            return false;
+        }
+        int lastComma = transferEncoding.lastIndexOf(',');
+        return transferEncoding.substring(lastComma + 1).trim()
+                .equalsIgnoreCase("chunked");
+    }
+
+    /**
+     * Answers a request that could not be decoded with the status of the
+     * failure, such as 400 Bad Request or 431 Request Header Fields Too
+     * Large, and closes the connection after it. The client is at fault, so
+     * the failure is only logged at FINE.
+     *
+     * @param response the response bound to the client connection
+     * @param failure  the decoding failure
+     */
+    void reject(HttpResponse response, HttpParseException failure) {
+        LOGGER.log(Level.FINE, "Rejected request", failure);
+        response.setKeepAlive(false);
+        sendErrorResponse(response, failure.getStatus(),
+                failure.getReason());
+    }
+
+    /**
+     * Sends a classic HTTP error response to the client with a simple HTML
+     * page.
+     *
+     * @param response   the response bound to the client connection
+     * @param statusCode the HTTP status code (e.g., 404, 500)
+     * @param message    the HTTP status message (e.g., "Not Found",
+     *                   "Internal Server Error")
+     */
+    void sendErrorResponse(HttpResponse response, int statusCode,
+                           String message) {
+        response.setStatus(statusCode);
+        response.setHeader("Content-Type", "text/html; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.printf(
+                "<!DOCTYPE html>" +
+                        "<html>" +
+                        "<head>" +
+                        "  <meta charset='UTF-8'>" +
+                        "  <title>HTTP Status %d – %s</title>" +
+                        "  <style type='text/css'>" +
+                        "    body {font-family: Tahoma, Arial, sans-serif; background-color: #fff; color: #000;}" +
+                        "    h1 {font-size: 22px; font-weight: bold; margin: 20px 0 10px;}" +
+                        "    p {margin: 5px 0;}" +
+                        "    hr {border: none; border-top: 1px solid #aaa; margin: 20px 0;}" +
+                        "    .footer {font-size: 12px; color: #555;}" +
+                        "  </style>" +
+                        "</head>" +
+                        "<body>" +
+                        "  <h1>HTTP Status %d – %s</h1>" +
+                        "  <p>The server encountered an error while processing your request.</p>" +
+                        "  <hr/>" +
+                        "  <div class='footer'>JWebtainer (Java Web Container)</div>" +
+                        "</body>" +
+                        "</html>",
+                statusCode, message, statusCode, message
+        );
+    }
+}
@@ -0,0 +1,241 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.servlet.Servlet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ServletHolder class wraps a registered servlet and counts the
+ * requests it is processing, so that the registry can take it out of
+ * service while traffic flows: once the servlet has been unmapped, the
+ * holder is retired, turns new requests away and lets the registry wait
+ * for the requests in flight before the servlet is destroyed.
+ *
+ * <p>A request enters the servlet with {@link #acquire()} and leaves it with
+ * {@link #release()}, which for a request processed asynchronously happens
+ * when the request completes. A request routed to a holder retired in the
+ * meantime fails to acquire it and is routed again, which then finds the
+ * mapping that replaced the servlet, if any.</p>
+ *
+ * <p>The holder also initializes the servlet, once, whether at
+ * registration or on the first request of a servlet registered lazily,
+ * and only destroys a servlet that has been initialized. A servlet mapped
+ * again while it drains is revived rather than destroyed; each retirement
+ * has a generation, so that the thread draining one retirement never
+ * destroys the servlet for a later one.</p>
+ */
+final class ServletHolder {
+
+    /**
+     * The servlet held.
+     */
+    private final Servlet servlet;
+
+    /**
+     * The number of requests that have acquired the servlet and not yet
+     * released it.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Whether the servlet has been taken out of service.
+     */
+    private volatile boolean retired;
+
+    /**
+     * Whether the servlet has been initialized and not yet destroyed.
+     */
+    private volatile boolean initialized;
+
+    /**
+     * Counts the times the servlet has been retired or revived, guarded by
+     * {@link #lifecycleLock}.
+     */
+    private int generation;
+
+    /**
+     * The lock serializing the initialization and destruction of the
+     * servlet.
+     */
+    private final ReentrantLock lifecycleLock = new ReentrantLock();
+
+    /**
+     * The lock guarding {@link #drained}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the last request leaves a retired servlet.
+     */
+    private final Condition drained = lock.newCondition();
+
+    /**
+     * Constructs a holder for a servlet.
+     *
+     * @param servlet the servlet
+     */
+    ServletHolder(Servlet servlet) {
+        this.servlet = servlet;
+    }
+
+    /**
+     * Returns the servlet held.
+     *
+     * @return the servlet
+     */
+    Servlet getServlet() {
+        return servlet;
+    }
+
+    /**
+     * Initializes the servlet unless it already has been, waiting while
+     * another thread does. A servlet whose initialization fails stays
+     * uninitialized, so the next call tries again.
+     *
+     * @return the time the initialization took in nanoseconds, or 0 if the
+     * servlet had already been initialized
+     */
+    long initialize() {
+        if (initialized) {
+            return 0;
+        }
+        lifecycleLock.lock();
+        try {
+            if (initialized) {
+                return 0;
+            }
+            long start = System.nanoTime();
+            servlet.init();
+            initialized = true;
+            return Math.max(System.nanoTime() - start, 1);
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    /**
+     * Destroys the servlet if it has been initialized.
+     */
+    void destroy() {
+        lifecycleLock.lock();
+        try {
+            if (initialized) {
+                initialized = false;
+                servlet.destroy();
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    /**
+     * Enters the servlet for a request.
+     *
+     * @return true if the servlet may process the request, false if it has
+     * been retired and the request must be routed again
+     */
+    boolean acquire() {
+        active.incrementAndGet();
+        if (retired) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Leaves the servlet once a request acquired has been processed.
+     */
+    void release() {
+        if (active.decrementAndGet() == 0 && retired) {
+            lock.lock();
+            try {
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes the servlet out of service, so that the requests routed to it
+     * from now on are routed again.
+     *
+     * @return the generation of the retirement, to be passed to
+     * {@link #destroyRetired(int)}
+     */
+    int retire() {
+        lifecycleLock.lock();
+        try {
+            retired = true;
+            return ++generation;
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    /**
+     * Puts a retired servlet back in service, once it has been mapped
+     * again. A servlet destroyed in the meantime is initialized again by
+     * {@link #initialize()}.
+     */
+    void revive() {
+        lifecycleLock.lock();
+        try {
+            retired = false;
+            generation++;
+        } finally {
+            lifecycleLock.unlock();
+        }
+        lock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the requests a retired servlet is processing to leave it,
+     * or for the servlet to be revived.
+     *
+     * @param timeout the longest time to wait in milliseconds
+     * @return the number of requests still in flight, 0 once drained
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    int awaitDrained(long timeout) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            while (retired && active.get() > 0 && nanos > 0) {
+                nanos = drained.awaitNanos(nanos);
+            }
+            return active.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Destroys the servlet unless it has been revived, or retired again,
+     * since a retirement.
+     *
+     * @param generation the generation returned by {@link #retire()}
+     * @return true if the servlet is still retired by that retirement
+     */
+    boolean destroyRetired(int generation) {
+        lifecycleLock.lock();
+        try {
+            if (!retired || this.generation != generation) {
+                return false;
+            }
+            destroy();
+            return true;
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+}
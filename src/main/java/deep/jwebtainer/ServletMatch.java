@@ -0,0 +1,243 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.servlet.Servlet;
+
+import java.util.Arrays;
+
+/**
+ * The ServletMatch class receives the outcome of routing a request path:
+ * the servlet selected, how much of the path selected it and where the
+ * values of its path parameters are. A match is filled in by
+ * {@link ServletRegistry#match(String, ServletMatch)} and meant to be
+ * reused, so that routing a request allocates nothing; the servlet path
+ * and parameter values are only cut out of the path when asked for.
+ */
+public final class ServletMatch {
+
+    /**
+     * The parameter names of a mapping without path parameters.
+     */
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * The path that was matched, or null.
+     */
+    private String path;
+
+    /**
+     * The servlet selected, or null.
+     */
+    private Servlet servlet;
+
+    /**
+     * The holder counting the requests of the servlet, or null if the
+     * registry does not track them.
+     */
+    private ServletHolder holder;
+
+    /**
+     * The length of the part of the path that selected the servlet.
+     */
+    private int servletPathLength;
+
+    /**
+     * The names of the path parameters of the mapping, in order.
+     */
+    private String[] names = NO_NAMES;
+
+    /**
+     * The offsets of the parameter values in the path; the value of
+     * parameter {@code i} runs from {@code bounds[2 * i]} to
+     * {@code bounds[2 * i + 1]}.
+     */
+    private int[] bounds = new int[8];
+
+    /**
+     * The bounds of the parameters of the best prefix mapping found while
+     * matching, kept apart from those of the branches tried after it.
+     */
+    private int[] prefixBounds = new int[8];
+
+    /**
+     * Returns the servlet selected.
+     *
+     * @return the servlet, or null if nothing has been matched
+     */
+    public Servlet getServlet() {
+        return servlet;
+    }
+
+    /**
+     * Returns the part of the path that selected the servlet: the whole
+     * path for an exact, templated or extension mapping, or the prefix of a
+     * {@code /*} mapping.
+     *
+     * @return the servlet path, or null if nothing has been matched
+     */
+    public String getServletPath() {
+        if (path == null || servletPathLength == path.length()) {
+            return path;
+        }
+        return path.substring(0, servletPathLength);
+    }
+
+    /**
+     * Returns the number of path parameters of the mapping.
+     *
+     * @return the number of parameters, 0 unless the mapping is templated
+     */
+    public int getParameterCount() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of a path parameter.
+     *
+     * @param index the index of the parameter
+     * @return the name, e.g. {@code id} for {@code /users/{id}}
+     */
+    public String getParameterName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the value of a path parameter.
+     *
+     * @param index the index of the parameter
+     * @return the path segment the parameter matched
+     */
+    public String getParameterValue(int index) {
+        return path.substring(bounds[2 * index], bounds[2 * index + 1]);
+    }
+
+    /**
+     * Records a match without path parameters.
+     *
+     * @param path              the path matched
+     * @param servlet           the servlet selected
+     * @param servletPathLength the length of the servlet path
+     */
+    void set(String path, Servlet servlet, int servletPathLength) {
+        this.path = path;
+        this.servlet = servlet;
+        this.holder = null;
+        this.servletPathLength = servletPathLength;
+        this.names = NO_NAMES;
+    }
+
+    /**
+     * Records a match without path parameters of a servlet whose requests
+     * are counted.
+     *
+     * @param path              the path matched
+     * @param holder            the holder of the servlet selected
+     * @param servletPathLength the length of the servlet path
+     */
+    void set(String path, ServletHolder holder, int servletPathLength) {
+        set(path, holder.getServlet(), servletPathLength);
+        this.holder = holder;
+    }
+
+    /**
+     * Forgets the match.
+     */
+    void clear() {
+        this.path = null;
+        this.servlet = null;
+        this.holder = null;
+        this.servletPathLength = 0;
+        this.names = NO_NAMES;
+    }
+
+    /**
+     * Returns the holder of the servlet selected.
+     *
+     * @return the holder, or null if the registry does not count the
+     * requests of its servlets or nothing has been matched
+     */
+    ServletHolder holder() {
+        return holder;
+    }
+
+    /**
+     * Returns the length of the servlet path without cutting it out.
+     *
+     * @return the length, 0 if nothing has been matched
+     */
+    int servletPathLength() {
+        return servletPathLength;
+    }
+
+    /**
+     * Returns the names of the path parameters, shared with the router and
+     * never modified.
+     *
+     * @return the names, empty if the mapping has no parameters
+     */
+    String[] parameterNames() {
+        return names;
+    }
+
+    /**
+     * Returns the offsets of the parameter values in the path, as the start
+     * and end of each value in turn.
+     *
+     * @return the offsets, of which the first two per parameter are in use
+     */
+    int[] parameterBounds() {
+        return bounds;
+    }
+
+    /**
+     * Records the bounds of a parameter value while matching.
+     *
+     * @param index the index of the parameter
+     * @param start the offset of the first character of the value
+     * @param end   the offset after the value
+     */
+    void bind(int index, int start, int end) {
+        if (2 * index + 1 >= bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            prefixBounds = Arrays.copyOf(prefixBounds, bounds.length);
+        }
+        bounds[2 * index] = start;
+        bounds[2 * index + 1] = end;
+    }
+
+    /**
+     * Records a match of the whole path by an exact or templated mapping,
+     * whose parameters are the ones bound last.
+     *
+     * @param path   the path matched
+     * @param holder the holder of the servlet selected
+     * @param names  the names of the parameters of the mapping
+     */
+    void setExact(String path, ServletHolder holder, String[] names) {
+        set(path, holder, path.length());
+        this.names = names;
+    }
+
+    /**
+     * Records a prefix mapping as the best match so far. The parameters
+     * bound for it are put aside, since the search goes on.
+     *
+     * @param path              the path matched
+     * @param holder            the holder of the servlet selected
+     * @param servletPathLength the length of the prefix
+     * @param names             the names of the parameters of the mapping
+     */
+    void setPrefix(String path, ServletHolder holder, int servletPathLength,
+                   String[] names) {
+        set(path, holder, servletPathLength);
+        this.names = names;
+        System.arraycopy(bounds, 0, prefixBounds, 0, 2 * names.length);
+    }
+
+    /**
+     * Restores the parameters of the prefix mapping recorded last, once
+     * the search has ended on it.
+     */
+    void restorePrefix() {
+        System.arraycopy(prefixBounds, 0, bounds, 0, 2 * names.length);
+    }
+}
@@ -6,6 +6,19 @@ import deep.jwebtainer.servlet.Servlet;
  * The {@code ServletRegistry} interface defines methods for managing servlets
  * in a web application. It allows for registering servlets with specific paths,
  * retrieving them by path, and destroying all registered servlets.
+ *
+ * <p>A path ending in {@code /*} registers a servlet for every path below
+ * it, such as {@code /static/*} for a tree of static resources, and a path
+ * starting with {@code *.} every path with that extension, such as
+ * {@code *.json}. A segment written as {@code {name}} matches any segment
+ * and makes it available to the servlet as a path parameter, as in
+ * {@code /users/{id}}. A servlet registered for the exact path takes
+ * precedence, then a templated path, then the longest matching prefix and
+ * finally the extension.</p>
+ *
+ * <p>Servlets may be registered, replaced and unregistered while the
+ * container is serving requests. A servlet taken out of service is
+ * destroyed once the requests it is processing have completed.</p>
  */
 public interface ServletRegistry {
 
@@ -19,6 +32,24 @@ public interface ServletRegistry {
      */
     void registerServlet(String path, Servlet servlet);
 
+    /**
+     * Registers a servlet with a specific path, replacing the servlet
+     * registered for it if there is one.
+     *
+     * @param path    the URL path to associate with the servlet
+     * @param servlet the servlet instance to register
+     * @return the servlet replaced, or {@code null} if there was none
+     */
+    Servlet replaceServlet(String path, Servlet servlet);
+
+    /**
+     * Removes the servlet registered for a path.
+     *
+     * @param path the URL path the servlet is registered with
+     * @return the servlet removed, or {@code null} if there was none
+     */
+    Servlet unregisterServlet(String path);
+
     /**
      * Retrieves the servlet registered for the specified path.
      *
@@ -28,6 +59,38 @@ public interface ServletRegistry {
      */
     Servlet getServlet(String path);
 
+    /**
+     * Returns the part of a request path that selected its servlet: the path
+     * itself for an exact, templated or extension mapping, or the prefix of
+     * a {@code /*} mapping.
+     * The rest of the path is the path info handed to the servlet.
+     *
+     * @param path the URL path of the request
+     * @return the servlet path, or {@code null} if no servlet is registered
+     * for the path
+     */
+    String getServletPath(String path);
+
+    /**
+     * Finds the servlet for a request path and fills in a match with it,
+     * its servlet path and its path parameters. The match can be reused for
+     * the next request; this implementation looks the path up with
+     * {@link #getServlet(String)} and {@link #getServletPath(String)}.
+     *
+     * @param path  the URL path of the request
+     * @param match receives the outcome
+     * @return true if a servlet is registered for the path
+     */
+    default boolean match(String path, ServletMatch match) {
+        Servlet servlet = getServlet(path);
+        if (servlet == null) {
+            match.clear();
+            return false;
+        }
+        match.set(path, servlet, getServletPath(path).length());
+        return true;
+    }
+
     /**
      * Destroys all registered servlets by invoking their
      * {@link Servlet#destroy()} method.
@@ -0,0 +1,431 @@
+package deep.jwebtainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ServletRouter class maps request paths to servlets with a radix tree:
+ * every edge of the tree is labelled with a run of characters shared by
+ * the mappings below it, so a lookup compares each character of the path
+ * at most once per branch taken, no matter how many mappings there are,
+ * and allocates nothing.
+ *
+ * <p>Four kinds of mappings are supported, tried in this order like the
+ * servlet specification does:</p>
+ * <ol>
+ *     <li>exact paths, such as {@code /login};</li>
+ *     <li>templated paths, such as {@code /users/{id}}, whose parameters
+ *     match a whole non-empty segment each; a literal segment is preferred
+ *     over a parameter at every position;</li>
+ *     <li>prefixes, such as {@code /static/*}, of which the longest
+ *     matching one wins; a prefix may contain parameters, too;</li>
+ *     <li>extensions, such as {@code *.json}, matched against the last
+ *     segment of the path.</li>
+ * </ol>
+ *
+ * <p>A templated path is a branch of the tree like any other: a parameter
+ * is a child of its own that consumes a segment. The lookup walks literal
+ * edges first and only backtracks into a parameter child if the literal
+ * branch leads to no templated mapping, remembering the longest prefix
+ * mapping passed on the way.</p>
+ *
+ * <p>Exact paths, which take precedence over everything else, are kept in
+ * a hash map instead and looked up first. A lookup there costs one hash of
+ * the path and one comparison, while a walk down a tree of thousands of
+ * mappings follows a chain of nodes scattered over the heap, so the tree
+ * is left to the mappings a hash map cannot resolve.</p>
+ *
+ * <p>Servlets are mapped through their {@link ServletHolder}, which the
+ * match hands back so that the requests routed to them can be counted.</p>
+ */
+final class ServletRouter {
+
+    /**
+     * The suffix of a pattern that maps every path below it.
+     */
+    private static final String WILDCARD = "/*";
+
+    /**
+     * The prefix of a pattern that maps an extension.
+     */
+    private static final String EXTENSION = "*.";
+
+    /**
+     * The exact mappings, by path.
+     */
+    private final Map<String, Route> exact = new HashMap<>();
+
+    /**
+     * The root of the tree, with an empty label.
+     */
+    private final Node root = new Node("");
+
+    /**
+     * The extensions mapped, without the dot.
+     */
+    private String[] extensions = new String[0];
+
+    /**
+     * The mappings of {@link #extensions}, at the same indexes.
+     */
+    private Route[] extensionRoutes = new Route[0];
+
+    /**
+     * Adds a mapping.
+     *
+     * @param pattern the exact, templated, prefix or extension pattern
+     * @param holder  the holder of the servlet it selects
+     * @throws IllegalArgumentException if the pattern is malformed or
+     *                                  already mapped
+     */
+    void add(String pattern, ServletHolder holder) {
+        if (pattern.startsWith(EXTENSION)) {
+            addExtension(pattern, holder);
+            return;
+        }
+        boolean prefix = pattern.endsWith(WILDCARD);
+        String path = prefix
+                ? pattern.substring(0, pattern.length() - WILDCARD.length())
+                : pattern;
+        if (path.indexOf('*') >= 0) {
+            throw new IllegalArgumentException("Wildcard only allowed as "
+                    + "/* suffix or *. prefix: " + pattern);
+        }
+        if (!prefix && path.indexOf('{') < 0) {
+            if (exact.putIfAbsent(path, new Route(holder, new String[0]))
+                    != null) {
+                throw new IllegalArgumentException("Servlet already "
+                        + "registered for path: " + pattern);
+            }
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        Node node = root;
+        int start = 0;
+        while (start < path.length()) {
+            int open = path.indexOf('{', start);
+            if (open < 0) {
+                node = node.insert(path.substring(start));
+                break;
+            }
+            int close = path.indexOf('}', open);
+            String name = close < 0 ? "" : path.substring(open + 1, close);
+            if (name.isEmpty() || name.indexOf('{') >= 0
+                    || open == 0 || path.charAt(open - 1) != '/'
+                    || close + 1 < path.length()
+                    && path.charAt(close + 1) != '/') {
+                throw new IllegalArgumentException("Path parameter must be "
+                        + "a whole segment {name}: " + pattern);
+            }
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate path "
+                        + "parameter " + name + ": " + pattern);
+            }
+            names.add(name);
+            node = node.insert(path.substring(start, open));
+            if (node.parameter == null) {
+                node.parameter = new Node("");
+            }
+            node = node.parameter;
+            start = close + 1;
+        }
+        Route route = new Route(holder, names.toArray(new String[0]));
+        if (prefix ? node.prefix != null : node.exact != null) {
+            throw new IllegalArgumentException("Servlet already registered "
+                    + "for path: " + pattern);
+        }
+        if (prefix) {
+            node.prefix = route;
+        } else {
+            node.exact = route;
+        }
+    }
+
+    /**
+     * Finds the mapping of a path.
+     *
+     * @param path  the request path
+     * @param match receives the servlet and parameters found
+     * @return true if a mapping applies
+     */
+    boolean match(String path, ServletMatch match) {
+        Route route = exact.get(path);
+        if (route != null) {
+            match.set(path, route.holder, path.length());
+            return true;
+        }
+        match.clear();
+        if (walk(root, path, 0, 0, match)) {
+            return true;
+        }
+        if (match.getServlet() != null) {
+            // The longest prefix; backtracking may have moved the bounds
+            match.restorePrefix();
+            return true;
+        }
+        route = matchExtension(path);
+        if (route == null) {
+            return false;
+        }
+        match.set(path, route.holder, path.length());
+        return true;
+    }
+
+    /**
+     * Matches the rest of a path below a node whose label has been
+     * matched, recording the longest prefix mapping on the way. The walk
+     * only recurses where both a literal and a parameter branch apply.
+     *
+     * @param node   the node reached
+     * @param path   the request path
+     * @param pos    the offset of the first unmatched character
+     * @param bound  the number of parameters bound so far
+     * @param match  receives the result
+     * @return true if a templated mapping matched the whole path
+     */
+    private boolean walk(Node node, String path, int pos, int bound,
+                         ServletMatch match) {
+        int length = path.length();
+        while (true) {
+            if (pos == length && node.exact != null) {
+                match.setExact(path, node.exact.holder, node.exact.names);
+                return true;
+            }
+            if (node.prefix != null
+                    && (pos == length || path.charAt(pos) == '/')
+                    && (match.getServlet() == null
+                    || pos > match.servletPathLength())) {
+                match.setPrefix(path, node.prefix.holder, pos,
+                        node.prefix.names);
+            }
+            if (pos == length) {
+                return false;
+            }
+            Node child = node.child(path.charAt(pos));
+            if (child != null && !path.startsWith(child.label, pos)) {
+                child = null;
+            }
+            if (node.parameter == null) {
+                if (child == null) {
+                    return false;
+                }
+                pos += child.label.length();
+                node = child;
+                continue;
+            }
+            if (child != null && walk(child, path,
+                    pos + child.label.length(), bound, match)) {
+                return true;
+            }
+            int end = path.indexOf('/', pos);
+            if (end < 0) {
+                end = length;
+            }
+            if (end == pos) {
+                return false;
+            }
+            match.bind(bound++, pos, end);
+            pos = end;
+            node = node.parameter;
+        }
+    }
+
+    /**
+     * Adds an extension mapping.
+     *
+     * @param pattern the pattern, {@code *.} followed by the extension
+     * @param holder  the holder of the servlet it selects
+     * @throws IllegalArgumentException if the extension is malformed or
+     *                                  already mapped
+     */
+    private void addExtension(String pattern, ServletHolder holder) {
+        String extension = pattern.substring(EXTENSION.length());
+        if (extension.isEmpty() || extension.indexOf('/') >= 0
+                || extension.indexOf('*') >= 0) {
+            throw new IllegalArgumentException("Malformed extension "
+                    + "mapping: " + pattern);
+        }
+        if (Arrays.asList(extensions).contains(extension)) {
+            throw new IllegalArgumentException("Servlet already registered "
+                    + "for path: " + pattern);
+        }
+        int count = extensions.length;
+        extensions = Arrays.copyOf(extensions, count + 1);
+        extensionRoutes = Arrays.copyOf(extensionRoutes, count + 1);
+        extensions[count] = extension;
+        extensionRoutes[count] = new Route(holder, new String[0]);
+    }
+
+    /**
+     * Finds the extension mapping of the last segment of a path.
+     *
+     * @param path the request path
+     * @return the mapping, or null if there is none
+     */
+    private Route matchExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || path.indexOf('/', dot) >= 0) {
+            return null;
+        }
+        int length = path.length() - dot - 1;
+        for (int i = 0; i < extensions.length; i++) {
+            if (extensions[i].length() == length
+                    && path.startsWith(extensions[i], dot + 1)) {
+                return extensionRoutes[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A servlet mapped by a pattern, with the names of its parameters.
+     */
+    private static final class Route {
+
+        /**
+         * The holder of the servlet selected.
+         */
+        private final ServletHolder holder;
+
+        /**
+         * The names of the path parameters, in order.
+         */
+        private final String[] names;
+
+        /**
+         * Constructs a mapping.
+         *
+         * @param holder the holder of the servlet selected
+         * @param names  the names of the path parameters, in order
+         */
+        Route(ServletHolder holder, String[] names) {
+            this.holder = holder;
+            this.names = names;
+        }
+    }
+
+    /**
+     * A node of the tree: the mappings ending where its label ends and the
+     * branches continuing from there.
+     */
+    private static final class Node {
+
+        /**
+         * The characters matched on the edge leading to the node.
+         */
+        private String label;
+
+        /**
+         * The first characters of the labels of {@link #children}.
+         */
+        private char[] firsts = new char[0];
+
+        /**
+         * The literal branches, at the indexes of their first character in
+         * {@link #firsts}.
+         */
+        private Node[] children = new Node[0];
+
+        /**
+         * The branch matching a path parameter, or null.
+         */
+        private Node parameter;
+
+        /**
+         * The templated mapping ending here, or null.
+         */
+        private Route exact;
+
+        /**
+         * The prefix mapping ending here, or null.
+         */
+        private Route prefix;
+
+        /**
+         * Constructs a node without mappings.
+         *
+         * @param label the characters on the edge leading to it
+         */
+        Node(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the literal branch starting with a character.
+         *
+         * @param c the character
+         * @return the child, or null if there is none
+         */
+        Node child(char c) {
+            for (int i = 0; i < firsts.length; i++) {
+                if (firsts[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Inserts literal characters below the node, splitting an edge
+         * where they diverge from it.
+         *
+         * @param s the characters
+         * @return the node where they end
+         */
+        Node insert(String s) {
+            if (s.isEmpty()) {
+                return this;
+            }
+            Node child = child(s.charAt(0));
+            if (child == null) {
+                child = new Node(s);
+                add(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(s.length(), child.label.length());
+            while (common < max
+                    && s.charAt(common) == child.label.charAt(common)) {
+                common++;
+            }
+            if (common < child.label.length()) {
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.add(child);
+                children[indexOf(s.charAt(0))] = split;
+                child = split;
+            }
+            return child.insert(s.substring(common));
+        }
+
+        /**
+         * Appends a literal branch.
+         *
+         * @param child the child
+         */
+        private void add(Node child) {
+            int count = firsts.length;
+            firsts = Arrays.copyOf(firsts, count + 1);
+            children = Arrays.copyOf(children, count + 1);
+            firsts[count] = child.label.charAt(0);
+            children[count] = child;
+        }
+
+        /**
+         * Returns the index of the branch starting with a character.
+         *
+         * @param c the character
+         * @return the index in {@link #children}
+         */
+        private int indexOf(char c) {
+            int i = 0;
+            while (firsts[i] != c) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
@@ -1,13 +1,24 @@
 package deep.jwebtainer;
 
-import deep.jwebtainer.http.HttpRequestParser;
+import deep.jwebtainer.http.ChunkedInputStream;
+import deep.jwebtainer.http.ContentLengthInputStream;
+import deep.jwebtainer.http.HttpParseException;
+import deep.jwebtainer.http.HttpRequestDecoder;
+import deep.jwebtainer.http.RequestBodyInputStream;
+import deep.jwebtainer.http.adaptor.FileTransfer;
+import deep.jwebtainer.http.adaptor.HttpAsyncContext;
+import deep.jwebtainer.http.adaptor.HttpRequest;
 import deep.jwebtainer.http.adaptor.HttpResponse;
 import deep.jwebtainer.servlet.ServletException;
-import deep.jwebtainer.servlet.http.HttpServlet;
-import deep.jwebtainer.servlet.http.HttpServletRequest;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +28,40 @@ import java.util.logging.Logger;
  * in the JWebtainer framework. It processes HTTP requests, invokes the
  * appropriate
  * servlets, and sends back HTTP responses.
+ *
+ * <p>Connections are persistent: the handler keeps serving requests on the
+ * same socket until the client asks to close it, the maximum number of
+ * requests per connection is reached or the connection stays idle for longer
+ * than the keep-alive timeout. Requests pipelined by the client are
+ * answered in order, and their responses are only flushed before the handler
+ * has to wait for more input, so a batch of pipelined requests is answered
+ * with a single write.</p>
+ *
+ * <p>Requests are decoded straight from the received bytes by an
+ * {@link HttpRequestDecoder}, without going through a character reader. The
+ * body, delimited by its Content-Length or by the chunked transfer-coding,
+ * is streamed to the servlet from the socket as it reads it; whatever
+ * the servlet leaves unread is skipped before the next request, or ends the
+ * connection if it is too large to be worth skipping.</p>
+ *
+ * <p>The handler is safe to run on a virtual thread: no read or write of
+ * the socket happens while an object monitor is held, so a blocked one
+ * unmounts the virtual thread instead of pinning its carrier. The socket's
+ * streams are the JDK's own classes, used as they are so that they guard
+ * their state with internal locks, or the container's, which take no
+ * monitor. The writer handed to servlets is a {@link PrintWriter}, whose
+ * subclasses synchronize on a monitor, so it overrides every method that
+ * would and guards its buffer with a lock instead.</p>
+ *
+ * <p>A request the servlet processes asynchronously keeps the connection's
+ * thread waiting until it has been completed, since the connection could
+ * not be served by any other thread meanwhile anyway.</p>
+ *
+ * <p>When the socket was accepted through a channel, responses are
+ * buffered in a direct buffer from the {@link BufferPool} and written to the
+ * channel, file bodies are sent with {@link FileChannel#transferTo} from the
+ * file straight to the socket, and cached file content is written from its
+ * direct or mapped buffer, without passing through the Java heap.</p>
  */
 public class SocketHandler implements Runnable {
 
@@ -26,62 +71,191 @@ public class SocketHandler implements Runnable {
     private static final Logger LOGGER =
             Logger.getLogger(SocketHandler.class.getName());
 
+    /**
+     * The default maximum number of requests served on one connection.
+     */
+    public static final int DEFAULT_MAX_KEEP_ALIVE_REQUESTS = 100;
+
+    /**
+     * The default time in milliseconds a connection may stay idle between
+     * two requests before it is closed.
+     */
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 20_000;
+
+    /**
+     * The size of the buffer collecting the responses written to the socket.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The initial capacity of the buffer receiving the requests.
+     */
+    private static final int INPUT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The largest request head that is buffered before the connection is
+     * dropped.
+     */
+    private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+    /**
+     * The largest unread request body that is skipped to keep the
+     * connection open.
+     */
+    private static final int MAX_DISCARDED_BODY = 64 * 1024;
+
     /**
      * The socket representing the client connection.
      */
     private final Socket socket;
 
     /**
-     * A registry of servlets that can handle incoming requests.
-     * This map is keyed by the request path.
+     * Dispatches parsed requests to the servlets of the registry.
+     */
+    private final RequestProcessor requestProcessor;
+
+    /**
+     * The maximum number of requests served on this connection.
+     */
+    private final int maxKeepAliveRequests;
+
+    /**
+     * The time in milliseconds the connection may stay idle.
+     */
+    private final int keepAliveTimeout;
+
+    /**
+     * Decodes the requests received on the connection.
+     */
+    private final HttpRequestDecoder decoder = new HttpRequestDecoder();
+
+    /**
+     * Holds the received bytes that have not been decoded yet. The buffer is
+     * kept in read mode between requests.
+     */
+    private ByteBuffer inputBuffer =
+            ByteBuffer.allocate(INPUT_BUFFER_SIZE).flip();
+
+    /**
+     * The stream reused for the Content-Length delimited bodies of the
+     * connection, or null until the first request. It is replaced when the
+     * input buffer grows.
      */
-    private final ServletRegistry servletRegistry;
+    private ContentLengthInputStream contentLengthBody;
 
     /**
      * Constructs a SocketHandler with the specified socket and servlet
-     * registry.
+     * registry, using the default keep-alive limits.
      *
      * @param socket the socket representing the client connection
      * @param servletRegistry the registry of servlets to handle requests
      */
     public SocketHandler(Socket socket, ServletRegistry servletRegistry) {
+        this(socket, servletRegistry, DEFAULT_MAX_KEEP_ALIVE_REQUESTS,
+                DEFAULT_KEEP_ALIVE_TIMEOUT);
+    }
+
+    /**
+     * Constructs a SocketHandler with the specified socket, servlet registry
+     * and keep-alive limits.
+     *
+     * @param socket               the socket representing the client
+     *                             connection
+     * @param servletRegistry      the registry of servlets to handle requests
+     * @param maxKeepAliveRequests the maximum number of requests served on
+     *                             the connection
+     * @param keepAliveTimeout     the time in milliseconds the connection may
+     *                             stay idle between requests
+     */
+    public SocketHandler(Socket socket, ServletRegistry servletRegistry,
+                         int maxKeepAliveRequests, int keepAliveTimeout) {
         this.socket = socket;
-        this.servletRegistry = servletRegistry;
+        this.requestProcessor = new RequestProcessor(servletRegistry);
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        this.keepAliveTimeout = keepAliveTimeout;
     }
 
     /**
      * The run method is executed when the thread is started.
-     * It reads the request from the socket, processes it, and sends a response.
+     * It reads requests from the socket, processes them, and sends the
+     * responses until the connection is no longer kept alive.
      */
     @Override
     public void run() {
-        try (BufferedReader reader =
-                     new BufferedReader(new InputStreamReader
-                             (socket.getInputStream()));
-             OutputStream outputStream = socket.getOutputStream();
-             PrintWriter writer = new PrintWriter(outputStream, true)) {
-
-            HttpServletRequest request = HttpRequestParser.parse(reader);
+        SocketChannel channel = socket.getChannel();
+        try (InputStream inputStream = socket.getInputStream();
+             OutputStream outputStream = channel != null
+                     ? new ChannelOutputStream(channel, BufferPool.shared(),
+                     OUTPUT_BUFFER_SIZE)
+                     : new BufferedOutputStream(socket.getOutputStream(),
+                     OUTPUT_BUFFER_SIZE)) {
 
-            HttpServlet servlet =
-                    (HttpServlet) servletRegistry
-                                        .getServlet(request.getRequestURI());
-
-            if (servlet == null) {
-                sendErrorResponse(writer, 404, "Not Found");
-                return;
+            socket.setSoTimeout(keepAliveTimeout);
+            int served = 0;
+            boolean keepAlive = true;
+            // Reused for every request of the connection
+            HttpResponse response = new HttpResponse(outputStream);
+            Function<HttpRequest, HttpAsyncContext> asyncStarter =
+                    request -> new HttpAsyncContext(request, response, () -> {
+                    });
+            if (channel != null) {
+                response.setFileTransfer(
+                        new ChannelTransfer(outputStream, channel));
             }
 
-            HttpResponse response = new HttpResponse(outputStream);
+            while (keepAlive) {
+                HttpRequest request;
+                try {
+                    request = readRequest(inputStream, outputStream);
+                } catch (HttpParseException e) {
+                    requestProcessor.reject(response, e);
+                    response.finish();
+                    outputStream.flush();
+                    break;
+                }
+                if (request == null) {
+                    break; // client closed the connection
+                }
+                served++;
 
-            // TODO: add response part
+                RequestBodyInputStream body = openBody(request, inputStream);
+                if (!body.isFinished()) {
+                    // The servlet may block on the body, send what we have
+                    outputStream.flush();
+                }
 
-            servlet.service(request, response);
+                response.setProtocol(request.getProtocol());
+                response.setKeepAlive(served < maxKeepAliveRequests
+                        && RequestProcessor.isPersistent(request));
 
-            response.flush();
+                request.setAsyncStarter(asyncStarter);
+                try {
+                    try {
+                        requestProcessor.process(request, response);
+                    } catch (ServletException | RuntimeException e) {
+                        requestProcessor.fail(request, response, e);
+                    }
+                    awaitAsync(request);
+
+                    if (!body.discardRemaining(MAX_DISCARDED_BODY)) {
+                        response.setKeepAlive(false);
+                    }
+                    response.finish();
+                } finally {
+                    decoder.release(request);
+                }
+                keepAlive = response.isKeepAlive();
+                response.recycle();
+            }
 
-        } catch (IOException | ServletException e) {
-            LOGGER.log(Level.SEVERE, "Socket handling failed", e);
+        } catch (SocketTimeoutException e) {
+            LOGGER.log(Level.FINE, "Idle connection timed out", e);
+        } catch (IOException e) {
+            if (socket.isClosed()) {
+                LOGGER.log(Level.FINE, "Connection closed", e);
+            } else {
+                LOGGER.log(Level.SEVERE, "Socket handling failed", e);
+            }
         } finally {
             try {
                 socket.close();
@@ -92,39 +266,184 @@ public class SocketHandler implements Runnable {
     }
 
     /**
-     * Sends a classic HTTP error response to the client with a simple HTML page.
-     * @param writer     the PrintWriter connected to the client socket used to send the response
-     * @param statusCode the HTTP status code (e.g., 404, 500)
-     * @param message    the HTTP status message (e.g., "Not Found", "Internal Server Error")
-     */
-    private void sendErrorResponse(PrintWriter writer, int statusCode, String message) {
-        writer.printf("HTTP/1.1 %d %s\r\n", statusCode, message);
-        writer.println("Content-Type: text/html; charset=UTF-8");
-        writer.println("Connection: close");
-        writer.println();
-        writer.printf(
-                "<!DOCTYPE html>" +
-                        "<html>" +
-                        "<head>" +
-                        "  <meta charset='UTF-8'>" +
-                        "  <title>HTTP Status %d – %s</title>" +
-                        "  <style type='text/css'>" +
-                        "    body {font-family: Tahoma, Arial, sans-serif; background-color: #fff; color: #000;}" +
-                        "    h1 {font-size: 22px; font-weight: bold; margin: 20px 0 10px;}" +
-                        "    p {margin: 5px 0;}" +
-                        "    hr {border: none; border-top: 1px solid #aaa; margin: 20px 0;}" +
-                        "    .footer {font-size: 12px; color: #555;}" +
-                        "  </style>" +
-                        "</head>" +
-                        "<body>" +
-                        "  <h1>HTTP Status %d – %s</h1>" +
-                        "  <p>The server encountered an error while processing your request.</p>" +
-                        "  <hr/>" +
-                        "  <div class='footer'>JWebtainer (Java Web Container)</div>" +
-                        "</body>" +
-                        "</html>",
-                statusCode, message, statusCode, message
-        );
+     * Waits until a request the servlet processes asynchronously has been
+     * completed, answering it if it times out. The connection's thread is
+     * not released meanwhile; on a virtual thread, waiting does not hold a
+     * carrier thread.
+     *
+     * @param request the request just serviced
+     * @throws IOException if the thread is interrupted while waiting
+     */
+    private void awaitAsync(HttpRequest request) throws IOException {
+        HttpAsyncContext context = request.getAsyncContext();
+        if (context == null) {
+            return;
+        }
+        try {
+            if (!context.awaitCompletion()) {
+                requestProcessor.timeout(context);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException failure = new InterruptedIOException(
+                    "Interrupted waiting for an asynchronous response");
+            // The connection is closed next; stop whoever produces it
+            context.fireError(failure);
+            context.abandon();
+            throw failure;
+        }
+    }
+
+    /**
+     * Attaches the stream of the request body to the request. The body is
+     * read from the input buffer and then from the socket.
+     *
+     * @param request the decoded request
+     * @param in      the input stream of the socket
+     * @return the stream of the request body
+     */
+    private RequestBodyInputStream openBody(HttpRequest request,
+                                            InputStream in) {
+        if (RequestProcessor.isChunked(request)) {
+            ChunkedInputStream body = new ChunkedInputStream(inputBuffer, in);
+            request.setInputStream(body);
+            request.setTrailerFields(body.getTrailers());
+            return body;
+        }
+        if (contentLengthBody == null) {
+            contentLengthBody = new ContentLengthInputStream(inputBuffer, in,
+                    0);
+        }
+        contentLengthBody.reset(Math.max(0, request.getContentLength()));
+        request.setInputStream(contentLengthBody);
+        return contentLengthBody;
+    }
+
+    /**
+     * Decodes the next request, reading from the socket until it has been
+     * received completely. The pending responses are flushed before the
+     * handler blocks on the socket, so the responses to requests that were
+     * pipelined into the same read go out together.
+     *
+     * @param in  the input stream of the socket
+     * @param out the buffered output stream of the socket
+     * @return the next request, or null if the client closed the connection
+     * @throws IOException if the request head cannot be read or is too
+     *                     large
+     */
+    private HttpRequest readRequest(InputStream in, OutputStream out)
+            throws IOException {
+        while (true) {
+            HttpRequest request = decoder.decode(inputBuffer);
+            if (request != null) {
+                return request;
+            }
+            out.flush();
+
+            inputBuffer.compact();
+            if (!inputBuffer.hasRemaining()) {
+                growInputBuffer();
+            }
+            int read = in.read(inputBuffer.array(), inputBuffer.position(),
+                    inputBuffer.remaining());
+            if (read > 0) {
+                inputBuffer.position(inputBuffer.position() + read);
+            }
+            inputBuffer.flip();
+            if (read < 0) {
+                return decoder.decodeLast(inputBuffer);
+            }
+        }
+    }
+
+    /**
+     * Doubles the input buffer, or drops the connection when the request
+     * exceeds {@link #MAX_REQUEST_SIZE}. The buffer is in write mode.
+     *
+     * @throws IOException if the request is too large
+     */
+    private void growInputBuffer() throws IOException {
+        if (inputBuffer.capacity() >= MAX_REQUEST_SIZE) {
+            throw new IOException("Request exceeds " + MAX_REQUEST_SIZE
+                    + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.min(
+                inputBuffer.capacity() * 2, MAX_REQUEST_SIZE));
+        inputBuffer.flip();
+        larger.put(inputBuffer);
+        inputBuffer = larger;
+        contentLengthBody = null; // bound to the old buffer
     }
 
+
+    /**
+     * Sends file bodies from the file or the cache straight to the socket
+     * channel, after flushing the response head that is still in the
+     * output buffer.
+     */
+    private static final class ChannelTransfer implements FileTransfer {
+
+        /**
+         * The buffered output stream of the socket.
+         */
+        private final OutputStream out;
+
+        /**
+         * The channel of the socket.
+         */
+        private final SocketChannel channel;
+
+        /**
+         * Constructs a transfer to the given socket.
+         *
+         * @param out     the buffered output stream of the socket
+         * @param channel the channel of the socket
+         */
+        ChannelTransfer(OutputStream out, SocketChannel channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        /**
+         * Sends a file region with {@link FileChannel#transferTo}, which
+         * the operating system performs as sendfile.
+         *
+         * @param file     the file
+         * @param position the offset of the first byte to send
+         * @param count    the number of bytes to send
+         * @throws IOException if the file cannot be read or the connection
+         *                     fails
+         */
+        @Override
+        public void transfer(Path file, long position, long count)
+                throws IOException {
+            out.flush();
+            try (FileChannel source = FileChannel.open(file)) {
+                while (count > 0) {
+                    long sent = source.transferTo(position, count, channel);
+                    if (sent <= 0) {
+                        throw new EOFException("File ended before its "
+                                + "Content-Length: " + file);
+                    }
+                    position += sent;
+                    count -= sent;
+                }
+            }
+        }
+
+        /**
+         * Writes the remaining bytes of a buffer to the channel, which for
+         * a direct or mapped buffer needs no copy into the Java heap.
+         *
+         * @param content the content to send
+         * @throws IOException if the connection fails
+         */
+        @Override
+        public void transfer(ByteBuffer content) throws IOException {
+            out.flush();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
 }
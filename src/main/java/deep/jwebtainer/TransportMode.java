@@ -0,0 +1,41 @@
+package deep.jwebtainer;
+
+/**
+ * Enumerates the connection handling strategies supported by the
+ * {@link WebContainer}. The mode is chosen when the container is constructed
+ * and decides how client connections are accepted, read and written.
+ */
+public enum TransportMode {
+
+    /**
+     * Classic blocking transport. A {@link java.net.ServerSocket} accept loop
+     * hands every connection to a {@link SocketHandler} running on a pooled
+     * platform thread.
+     */
+    BLOCKING,
+
+    /**
+     * Blocking transport that runs every {@link SocketHandler} on its own
+     * virtual thread. Blocking socket reads and writes park the virtual
+     * thread instead of its carrier, so tens of thousands of slow clients
+     * can be held open with a small number of platform threads.
+     */
+    VIRTUAL_THREADS,
+
+    /**
+     * Non-blocking transport built on a
+     * {@link java.nio.channels.ServerSocketChannel} and a small, fixed number
+     * of {@link java.nio.channels.Selector} based event loops that perform
+     * all socket reads and writes. A request body is received completely
+     * before the servlet is invoked, so it is limited to 1 MiB; a larger
+     * one is answered with 413 Content Too Large.
+     *
+     * <p>Servlets, including the lazy initialization of a servlet on its
+     * first request, run on the event loop thread that owns the
+     * connection. A servlet that blocks, on a database or a remote call,
+     * stalls every other connection of its loop meanwhile; such work
+     * belongs behind {@code startAsync()}, or on one of the blocking
+     * transports.</p>
+     */
+    NON_BLOCKING
+}
@@ -1,10 +1,21 @@
 package deep.jwebtainer;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +25,15 @@ import java.util.logging.Logger;
  * It is responsible for initializing and managing the web application
  * lifecycle,
  * including servlet management, request handling, and response generation.
+ *
+ * <p>Connections are served by the {@link TransportMode} chosen at
+ * construction. The blocking transports stream request bodies to the
+ * servlets, whatever their size; the {@link TransportMode#NON_BLOCKING}
+ * transport buffers each body before invoking the servlet and answers one
+ * larger than 1 MiB with 413 Content Too Large. It also runs the servlets,
+ * and their lazy initialization, on its event loop threads, so a servlet
+ * served that way must not block; it can hand slow work to another thread
+ * with {@code startAsync()}.</p>
  */
 public class WebContainer {
 
@@ -26,6 +46,19 @@ public class WebContainer {
     private static final Logger LOGGER =
             Logger.getLogger(WebContainer.class.getName());
 
+    /**
+     * The number of event loops started in
+     * {@link TransportMode#NON_BLOCKING} mode.
+     */
+    private static final int EVENT_LOOP_COUNT =
+            Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The default time in milliseconds {@link #stop()} waits for the
+     * requests being served before it destroys the servlets.
+     */
+    public static final long DEFAULT_STOP_TIMEOUT = 30_000;
+
     /** The port on which the web container listens for incoming requests. */
     private final int port;
 
@@ -33,48 +66,264 @@ public class WebContainer {
      * */
     private final ServletRegistry servletRegistry;
 
+    /** The transport used to accept and serve client connections. */
+    private final TransportMode transportMode;
+
     /** The server socket used to accept incoming connections. */
     private ServerSocket serverSocket;
 
+    /**
+     * The server channel used to accept incoming connections in
+     * {@link TransportMode#NON_BLOCKING} mode.
+     */
+    private volatile ServerSocketChannel serverChannel;
+
+    /**
+     * The selector the non-blocking acceptor waits on for new connections.
+     */
+    private volatile Selector acceptSelector;
+
+    /**
+     * The event loops serving the connections in
+     * {@link TransportMode#NON_BLOCKING} mode.
+     */
+    private volatile NioEventLoop[] eventLoops = new NioEventLoop[0];
+
+    /**
+     * The sockets currently served by the blocking transports, closed when
+     * the container stops.
+     */
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The maximum number of requests served on one connection.
+     */
+    private int maxKeepAliveRequests =
+            SocketHandler.DEFAULT_MAX_KEEP_ALIVE_REQUESTS;
+
+    /**
+     * The time in milliseconds a connection may stay idle between requests.
+     */
+    private int keepAliveTimeout = SocketHandler.DEFAULT_KEEP_ALIVE_TIMEOUT;
+
+    /**
+     * The time in milliseconds {@link #stop()} waits for the requests being
+     * served before it destroys the servlets.
+     */
+    private volatile long stopTimeout = DEFAULT_STOP_TIMEOUT;
+
     /**
      * The executor service used to handle incoming requests concurrently.
      * It allows for efficient management of threads and task execution.
      */
-    private final ExecutorService executorService =
-            Executors.newCachedThreadPool();
+    private final ExecutorService executorService;
 
     /**
-     * Constructs a WebContainer with the specified port and servlet.
-     * @param port
-     * @param servletRegistry
+     * Constructs a WebContainer with the specified port and servlet
+     * registry, using the {@link TransportMode#BLOCKING} transport.
+     *
+     * @param port            the port to listen on
+     * @param servletRegistry the registry of servlets to serve
      */
     public WebContainer(int port, ServletRegistry servletRegistry) {
+        this(port, servletRegistry, TransportMode.BLOCKING);
+    }
+
+    /**
+     * Constructs a WebContainer with the specified port, servlet registry
+     * and transport mode.
+     *
+     * @param port            the port to listen on
+     * @param servletRegistry the registry of servlets to serve
+     * @param transportMode   the transport used to serve connections
+     */
+    public WebContainer(int port, ServletRegistry servletRegistry,
+                        TransportMode transportMode) {
         this.port = port;
         this.servletRegistry = servletRegistry;
+        this.transportMode = transportMode;
+        this.executorService = createExecutorService(transportMode);
+    }
+
+    /**
+     * Creates the executor running the {@link SocketHandler} tasks of the
+     * blocking transports.
+     *
+     * @param transportMode the transport used to serve connections
+     * @return a virtual-thread-per-task executor for
+     * {@link TransportMode#VIRTUAL_THREADS}, a cached platform thread pool
+     * otherwise
+     */
+    private static ExecutorService createExecutorService(
+            TransportMode transportMode) {
+        if (transportMode == TransportMode.VIRTUAL_THREADS) {
+            return Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("jwebtainer-vt-", 0).factory());
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Sets the maximum number of requests served on one persistent
+     * connection before it is closed. Must be called before
+     * {@link #start()}.
+     *
+     * @param maxKeepAliveRequests the maximum number of requests per
+     *                             connection
+     */
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    /**
+     * Sets the time a persistent connection may stay idle between two
+     * requests before it is closed. Must be called before {@link #start()}.
+     *
+     * @param keepAliveTimeout the idle timeout in milliseconds
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Sets the time {@link #stop()} waits for the requests being served,
+     * including those processed asynchronously, before it destroys the
+     * servlets regardless.
+     *
+     * @param millis the timeout in milliseconds
+     */
+    public void setStopTimeout(long millis) {
+        this.stopTimeout = millis;
     }
 
     /**
      * Starts the web container, initializing the server socket and accepting
-     * incoming client connections. Each connection is handled in a separate
-     * thread.
+     * incoming client connections until the container is stopped. Depending
+     * on the transport mode each connection is either handled in a separate
+     * thread or multiplexed on one of the non-blocking event loops.
      *
      * @throws IOException if an I/O error occurs when opening the socket.
      */
     public void start() throws IOException {
-        LOGGER.log(Level.INFO, "Starting WebContainer on port {0}", port);
+        LOGGER.log(Level.INFO, "Starting WebContainer on port {0} using {1}"
+                + " transport", new Object[]{port, transportMode});
         // TODO: Receive the port from the configuration file
-        serverSocket = new ServerSocket(port);
+        switch (transportMode) {
+            case BLOCKING, VIRTUAL_THREADS -> startBlocking();
+            case NON_BLOCKING -> startNonBlocking();
+        }
+    }
+
+    /**
+     * Runs the blocking accept loop, handing every accepted socket to a
+     * {@link SocketHandler} on the executor service. The server socket is
+     * opened through a channel in blocking mode, so that the accepted
+     * sockets have a channel that files can be transferred to.
+     *
+     * @throws IOException if an I/O error occurs when opening the socket.
+     */
+    private void startBlocking() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        serverSocket = channel.socket();
 
         while (!serverSocket.isClosed()) {
-            Socket clientSocket = serverSocket.accept();
-            executorService.submit(new SocketHandler(clientSocket,
-                    servletRegistry));
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept();
+            } catch (SocketException | ClosedChannelException e) {
+                // The channel's socket reports stop() as a closed channel
+                if (serverSocket.isClosed()) {
+                    LOGGER.log(Level.FINE, "Acceptor stopped", e);
+                    return;
+                }
+                throw e;
+            }
+            SocketHandler socketHandler = new SocketHandler(clientSocket,
+                    servletRegistry, maxKeepAliveRequests, keepAliveTimeout);
+            openSockets.add(clientSocket);
+            executorService.submit(() -> {
+                try {
+                    socketHandler.run();
+                } finally {
+                    openSockets.remove(clientSocket);
+                }
+            });
         }
     }
 
     /**
-     * Stops the web container, closing the server socket and shutting down the
-     * executor service.
+     * Starts the event loops and runs the non-blocking acceptor, which
+     * distributes accepted channels round-robin over the loops.
+     *
+     * @throws IOException if an I/O error occurs when opening the channel.
+     */
+    private void startNonBlocking() throws IOException {
+        RequestProcessor requestProcessor =
+                new RequestProcessor(servletRegistry);
+        eventLoops = new NioEventLoop[EVENT_LOOP_COUNT];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(requestProcessor,
+                    "jwebtainer-nio-" + i, maxKeepAliveRequests,
+                    keepAliveTimeout);
+            eventLoops[i].start();
+        }
+
+        acceptSelector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        int next = 0;
+        try {
+            while (serverChannel.isOpen()) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel clientChannel;
+                while ((clientChannel = serverChannel.accept()) != null) {
+                    next = dispatch(clientChannel, next);
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException e) {
+            LOGGER.log(Level.FINE, "Acceptor stopped", e);
+        } finally {
+            acceptSelector.close();
+        }
+    }
+
+    /**
+     * Hands an accepted channel to the next event loop still running,
+     * skipping loops that have stopped. The channel is closed if none is
+     * running.
+     *
+     * @param channel the accepted client channel
+     * @param next    the index of the loop whose turn it is
+     * @return the index of the loop whose turn is next
+     */
+    private int dispatch(SocketChannel channel, int next) {
+        for (int i = 0; i < eventLoops.length; i++) {
+            int index = (next + i) % eventLoops.length;
+            if (eventLoops[index].register(channel)) {
+                return (index + 1) % eventLoops.length;
+            }
+        }
+        LOGGER.log(Level.SEVERE, "No event loop running, closing "
+                + "connection");
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing channel", e);
+        }
+        return next;
+    }
+
+    /**
+     * Stops the web container, closing the server socket and the open
+     * connections and shutting down the executor service and event loops.
+     * The servlets are destroyed once the threads serving the connections
+     * have finished, so never while a servlet is still servicing a request,
+     * unless the stop timeout expires first.
      *
      * @throws IOException if an I/O error occurs when closing the socket.
      */
@@ -84,12 +333,58 @@ public class WebContainer {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+                // Closing the selector deregisters the channel, which
+                // releases the port before stop() returns
+                acceptSelector.close();
+            }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error closing server socket: {0}",
                      e.getMessage());
         }
-        servletRegistry.destroyAll();
+        for (Socket socket : openSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing socket", e);
+            }
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
         executorService.shutdown();
+        if (!awaitTermination()) {
+            LOGGER.log(Level.WARNING, "Destroying servlets while requests "
+                    + "are still being served");
+            // Wakes up the handlers still waiting for asynchronous requests
+            executorService.shutdownNow();
+        }
+        servletRegistry.destroyAll();
+    }
+
+    /**
+     * Waits, for at most the stop timeout, until the event loops have
+     * stopped and the executor service has run its last handler.
+     *
+     * @return true if every thread serving connections has finished
+     */
+    private boolean awaitTermination() {
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(stopTimeout);
+        try {
+            for (NioEventLoop eventLoop : eventLoops) {
+                if (!eventLoop.awaitTermination(
+                        deadline - System.nanoTime())) {
+                    return false;
+                }
+            }
+            return executorService.awaitTermination(
+                    deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
 
@@ -0,0 +1,185 @@
+package deep.jwebtainer.http;
+
+import java.util.Arrays;
+
+/**
+ * The ByteRanges class holds the byte ranges a request selects from a
+ * representation of known length, as parsed from its Range header. Ranges
+ * are kept in the order requested, with their ends clipped to the length;
+ * ranges starting beyond the end are dropped, and a request left without
+ * any is answered with 416 Range Not Satisfiable.
+ *
+ * <p>A header that is malformed, uses another unit than bytes or asks for
+ * more than {@link #MAX_RANGES} ranges is ignored, as RFC 9110 allows, and
+ * the whole representation is sent instead. This bounds the work a single
+ * request can cause with many tiny or overlapping ranges.</p>
+ */
+public final class ByteRanges {
+
+    /**
+     * The largest number of ranges served in one response.
+     */
+    public static final int MAX_RANGES = 16;
+
+    /**
+     * The length of the representation.
+     */
+    private final long length;
+
+    /**
+     * The first byte of every range.
+     */
+    private final long[] starts;
+
+    /**
+     * The last byte of every range, inclusive.
+     */
+    private final long[] ends;
+
+    /**
+     * Constructs the ranges of a representation.
+     *
+     * @param length the length of the representation
+     * @param starts the first byte of every range
+     * @param ends   the last byte of every range
+     */
+    private ByteRanges(long length, long[] starts, long[] ends) {
+        this.length = length;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Parses a Range header against a representation.
+     *
+     * @param range  the Range header, or null
+     * @param length the length of the representation
+     * @return the selected ranges, which may be none if no range can be
+     * satisfied, or null if the header is absent or must be ignored
+     */
+    public static ByteRanges parse(String range, long length) {
+        if (range == null || !range.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specs = range.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        long[] starts = new long[specs.length];
+        long[] ends = new long[specs.length];
+        int count = 0;
+        for (String spec : specs) {
+            String trimmed = spec.trim();
+            int dash = trimmed.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long first = parseNumber(trimmed.substring(0, dash));
+            long last = parseNumber(trimmed.substring(dash + 1));
+            if (first == -1 && last == -1 || first == -2 || last == -2) {
+                return null;
+            }
+            if (first == -1) {
+                // A suffix range: the last bytes of the representation
+                if (last == 0 || length == 0) {
+                    continue;
+                }
+                first = Math.max(0, length - last);
+                last = length - 1;
+            } else if (last != -1 && last < first) {
+                return null;
+            } else if (last == -1 || last >= length) {
+                last = length - 1;
+            }
+            if (first >= length) {
+                continue;
+            }
+            starts[count] = first;
+            ends[count] = last;
+            count++;
+        }
+        return new ByteRanges(length, Arrays.copyOf(starts, count),
+                Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * Returns the Content-Range header of a 416 response.
+     *
+     * @param length the length of the representation
+     * @return the unsatisfied range
+     */
+    public static String unsatisfied(long length) {
+        return "bytes */" + length;
+    }
+
+    /**
+     * Returns the length of the representation.
+     *
+     * @return the length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of satisfiable ranges.
+     *
+     * @return the number of ranges, 0 if none can be satisfied
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the first byte of a range.
+     *
+     * @param index the index of the range
+     * @return the offset of the first byte
+     */
+    public long getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Returns the number of bytes of a range.
+     *
+     * @param index the index of the range
+     * @return the number of bytes
+     */
+    public long getCount(int index) {
+        return ends[index] - starts[index] + 1;
+    }
+
+    /**
+     * Returns the Content-Range header value of a range.
+     *
+     * @param index the index of the range
+     * @return the range, e.g. {@code bytes 0-499/1234}
+     */
+    public String contentRange(int index) {
+        return "bytes " + starts[index] + "-" + ends[index] + "/" + length;
+    }
+
+    /**
+     * Parses the digits of a range bound.
+     *
+     * @param digits the digits, possibly surrounded by whitespace
+     * @return the number, -1 if the bound is empty, or -2 if it is
+     * malformed
+     */
+    private static long parseNumber(String digits) {
+        String trimmed = digits.trim();
+        if (trimmed.isEmpty()) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < trimmed.length(); i++) {
+            int digit = trimmed.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - 9) / 10) {
+                return -2;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,253 @@
+package deep.jwebtainer.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ChunkedBodyDecoder class removes the HTTP/1.1 chunked transfer-coding
+ * from a request body. Like the {@link HttpRequestDecoder}, it is
+ * incremental: it consumes whatever framing and data the given buffer holds,
+ * keeps the state of a partly received chunk-size or trailer line, and
+ * continues with the next bytes, so the body never has to be received as a
+ * whole. The trailer fields sent after the last chunk are collected.
+ *
+ * <p>Chunk-size and trailer lines are limited in length, and a chunk may not
+ * be larger than {@link Integer#MAX_VALUE} bytes.</p>
+ */
+public final class ChunkedBodyDecoder {
+
+    /**
+     * The longest chunk-size or trailer line accepted.
+     */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    /**
+     * The largest trailer section accepted.
+     */
+    private static final int MAX_TRAILER_SIZE = 8 * 1024;
+
+    /**
+     * Waiting for a chunk-size line.
+     */
+    private static final int SIZE = 0;
+
+    /**
+     * Copying the data of a chunk.
+     */
+    private static final int DATA = 1;
+
+    /**
+     * Waiting for the line break that ends the data of a chunk.
+     */
+    private static final int DATA_END = 2;
+
+    /**
+     * Reading the trailer lines after the last chunk.
+     */
+    private static final int TRAILER = 3;
+
+    /**
+     * The whole body has been decoded.
+     */
+    private static final int DONE = 4;
+
+    /**
+     * The current decoding state.
+     */
+    private int state = SIZE;
+
+    /**
+     * The number of data bytes of the current chunk not copied yet.
+     */
+    private int chunkRemaining;
+
+    /**
+     * Collects the line being received.
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * The number of trailer bytes received so far.
+     */
+    private int trailerSize;
+
+    /**
+     * The trailer fields received after the last chunk.
+     */
+    private final Map<String, String> trailers = new LinkedHashMap<>();
+
+    /**
+     * Decodes the chunked body from the buffer into the given array. The
+     * framing is consumed from the buffer along with the data.
+     *
+     * @param in  the received bytes, in read mode
+     * @param b   the array receiving the body data
+     * @param off the start offset in the array
+     * @param len the maximum number of data bytes to copy
+     * @return the number of data bytes copied, 0 if the buffer ran out
+     * before any data could be copied, or -1 once the body, including its
+     * trailer, has ended
+     * @throws IOException if the chunked framing is malformed or exceeds
+     *                     the limits
+     */
+    public int read(ByteBuffer in, byte[] b, int off, int len)
+            throws IOException {
+        int copied = 0;
+        while (state != DONE && copied < len) {
+            if (state == DATA) {
+                int count = Math.min(Math.min(len - copied, chunkRemaining),
+                        in.remaining());
+                if (count == 0) {
+                    return copied;
+                }
+                in.get(b, off + copied, count);
+                copied += count;
+                chunkRemaining -= count;
+                if (chunkRemaining == 0) {
+                    state = DATA_END;
+                }
+                continue;
+            }
+            if (!readLine(in)) {
+                return copied;
+            }
+            switch (state) {
+                case SIZE -> {
+                    chunkRemaining = parseChunkSize(line);
+                    state = chunkRemaining == 0 ? TRAILER : DATA;
+                }
+                case DATA_END -> {
+                    if (!line.isEmpty()) {
+                        throw new IOException("Chunk data longer than its "
+                                + "size");
+                    }
+                    state = SIZE;
+                }
+                default -> decodeTrailerLine();
+            }
+            line.setLength(0);
+        }
+        return copied > 0 || state != DONE ? copied : -1;
+    }
+
+    /**
+     * Returns the number of data bytes that can be copied from the buffer
+     * without waiting for more input.
+     *
+     * @param in the received bytes, in read mode
+     * @return the number of data bytes available
+     */
+    public int available(ByteBuffer in) {
+        return state == DATA ? Math.min(chunkRemaining, in.remaining()) : 0;
+    }
+
+    /**
+     * Returns whether the whole body, including its trailer, has been
+     * decoded.
+     *
+     * @return true if the body has ended
+     */
+    public boolean isFinished() {
+        return state == DONE;
+    }
+
+    /**
+     * Returns the trailer fields sent after the last chunk. The map is
+     * filled once the body has been decoded completely.
+     *
+     * @return an unmodifiable view of the trailer fields
+     */
+    public Map<String, String> getTrailers() {
+        return Collections.unmodifiableMap(trailers);
+    }
+
+    /**
+     * Appends the buffered bytes up to the next line feed to the current
+     * line.
+     *
+     * @param in the received bytes, in read mode
+     * @return true if the line is complete, false if the buffer ran out
+     * first
+     * @throws IOException if the line is too long
+     */
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xFF);
+            if (state == TRAILER && ++trailerSize > MAX_TRAILER_SIZE) {
+                throw new IOException("Chunked trailer exceeds "
+                        + MAX_TRAILER_SIZE + " bytes");
+            }
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return true;
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Chunk line exceeds "
+                        + MAX_LINE_LENGTH + " bytes");
+            }
+            line.append(c);
+        }
+        return false;
+    }
+
+    /**
+     * Parses a chunk-size line, ignoring any chunk extensions.
+     *
+     * @param sizeLine the chunk-size line without its line terminator
+     * @return the size of the chunk
+     * @throws IOException if the size is not a valid hexadecimal number or
+     *                     is too large
+     */
+    private static int parseChunkSize(CharSequence sizeLine)
+            throws IOException {
+        int end = sizeLine.length();
+        for (int i = 0; i < end; i++) {
+            char c = sizeLine.charAt(i);
+            if (c == ';' || c == ' ' || c == '\t') {
+                end = i;
+                break;
+            }
+        }
+        if (end == 0) {
+            throw new IOException("Missing chunk size: " + sizeLine);
+        }
+        long size = 0;
+        for (int i = 0; i < end; i++) {
+            int digit = Character.digit(sizeLine.charAt(i), 16);
+            if (digit < 0) {
+                throw new IOException("Invalid chunk size: " + sizeLine);
+            }
+            size = size * 16 + digit;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Chunk size exceeds "
+                        + Integer.MAX_VALUE + " bytes");
+            }
+        }
+        return (int) size;
+    }
+
+    /**
+     * Records the trailer field of the current line, or ends the body on
+     * the blank line closing the trailer.
+     *
+     * @throws IOException if the trailer line is malformed
+     */
+    private void decodeTrailerLine() throws IOException {
+        if (line.isEmpty()) {
+            state = DONE;
+            return;
+        }
+        int colon = line.indexOf(":");
+        if (colon <= 0) {
+            throw new IOException("Invalid chunked trailer line: " + line);
+        }
+        trailers.put(line.substring(0, colon).trim(),
+                line.substring(colon + 1).trim());
+    }
+}
@@ -0,0 +1,133 @@
+package deep.jwebtainer.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * An input stream over a request body sent with the chunked
+ * transfer-coding. The framing is removed by a {@link ChunkedBodyDecoder}
+ * while the servlet reads, so the body is consumed with constant memory
+ * whatever its size.
+ *
+ * <p>The stream reads through the transport's input buffer, refilling it
+ * from the connection when it runs empty. Bytes received behind the end of
+ * the body therefore stay in that buffer for the next request.</p>
+ */
+public final class ChunkedInputStream extends RequestBodyInputStream {
+
+    /**
+     * Removes the chunked framing.
+     */
+    private final ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+
+    /**
+     * The transport's input buffer holding the received bytes, in read
+     * mode. It must be backed by an array.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The connection stream the buffer is refilled from.
+     */
+    private final InputStream in;
+
+    /**
+     * Constructs a stream over a chunked body.
+     *
+     * @param buffer the input buffer starting with the body, in read mode
+     * @param in     the connection stream holding the rest of the body
+     */
+    public ChunkedInputStream(ByteBuffer buffer, InputStream in) {
+        this.buffer = buffer;
+        this.in = in;
+    }
+
+    /**
+     * Reads a single body byte.
+     *
+     * @return the byte, or -1 at the end of the body
+     * @throws IOException if the framing is malformed or the connection
+     *                     ends before the body
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    /**
+     * Reads up to the given number of body bytes.
+     *
+     * @param b   the array receiving the bytes
+     * @param off the start offset in the array
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 at the end of the body
+     * @throws IOException if the framing is malformed or the connection
+     *                     ends before the body
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return decoder.isFinished() ? -1 : 0;
+        }
+        while (true) {
+            int count = decoder.read(buffer, b, off, len);
+            if (count != 0) {
+                return count;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Returns the number of body bytes that can be read without blocking.
+     *
+     * @return the number of bytes available
+     */
+    @Override
+    public int available() {
+        return decoder.available(buffer);
+    }
+
+    /**
+     * Returns whether the whole body, including its trailer, has been read.
+     *
+     * @return true if no more body data is available
+     */
+    @Override
+    public boolean isFinished() {
+        return decoder.isFinished();
+    }
+
+    /**
+     * Returns the trailer fields sent after the last chunk. The map is
+     * filled once the body has been read completely.
+     *
+     * @return an unmodifiable view of the trailer fields
+     */
+    public Map<String, String> getTrailers() {
+        return decoder.getTrailers();
+    }
+
+    /**
+     * Reads more bytes from the connection into the drained buffer.
+     *
+     * @throws IOException if the connection ends before the body
+     */
+    private void fill() throws IOException {
+        buffer.compact();
+        int read = in.read(buffer.array(),
+                buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+        if (read <= 0) {
+            throw new EOFException("Connection closed inside the chunked "
+                    + "request body");
+        }
+    }
+}
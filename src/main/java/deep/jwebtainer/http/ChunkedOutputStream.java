@@ -0,0 +1,123 @@
+package deep.jwebtainer.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An output stream that frames everything written to it with the HTTP/1.1
+ * chunked transfer-coding. Every write becomes one chunk, so callers should
+ * write through a buffer to avoid tiny chunks. {@link #finish()} emits the
+ * terminating zero-length chunk without closing the underlying stream, which
+ * stays usable for the next response on a persistent connection.
+ */
+public final class ChunkedOutputStream extends FilterOutputStream {
+
+    /**
+     * The line terminator used by the chunked framing.
+     */
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * The last chunk and the empty trailer ending a chunked body.
+     */
+    private static final byte[] LAST_CHUNK =
+            "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The hexadecimal digits of a chunk size.
+     */
+    private static final byte[] HEX_DIGITS =
+            "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The size line of the current chunk, encoded in place: up to eight
+     * hexadecimal digits followed by CRLF.
+     */
+    private final byte[] sizeLine = new byte[10];
+
+    /**
+     * Whether the terminating chunk has been written.
+     */
+    private boolean finished;
+
+    /**
+     * Constructs a ChunkedOutputStream writing to the given stream.
+     *
+     * @param out the stream receiving the framed body
+     */
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Writes a single byte as a chunk of its own.
+     *
+     * @param b the byte to write
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Writes the given bytes as one chunk. Empty writes are ignored, since a
+     * zero-length chunk would end the body.
+     *
+     * @param b   the data
+     * @param off the start offset in the data
+     * @param len the number of bytes to write
+     * @throws IOException if an I/O error occurs or the stream is finished
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Chunked body already finished");
+        }
+        if (len == 0) {
+            return;
+        }
+        int start = sizeLine.length - CRLF.length;
+        sizeLine[start] = '\r';
+        sizeLine[start + 1] = '\n';
+        for (int size = len; size != 0; size >>>= 4) {
+            sizeLine[--start] = HEX_DIGITS[size & 0xF];
+        }
+        out.write(sizeLine, start, sizeLine.length - start);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes the terminating chunk. Subsequent calls have no effect.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            out.write(LAST_CHUNK);
+        }
+    }
+
+    /**
+     * Prepares the stream for the next chunked body on the same connection.
+     */
+    public void reset() {
+        finished = false;
+    }
+
+    /**
+     * Finishes the chunked body and flushes the underlying stream without
+     * closing it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        flush();
+    }
+}
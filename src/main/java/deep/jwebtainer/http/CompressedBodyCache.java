@@ -0,0 +1,184 @@
+package deep.jwebtainer.http;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The CompressedBodyCache class remembers the compressed form of response
+ * bodies that are sent again and again, so that their compression is paid
+ * once. Entries are keyed by the content-coding and the uncompressed bytes
+ * themselves: a body is only served from the cache if it is byte for byte
+ * the one that was compressed, so a servlet that changes its output can
+ * never get a stale compressed body. Hashing and comparing the bytes costs a
+ * small fraction of compressing them.
+ *
+ * <p>The cache holds at most {@link #MAX_BYTES} uncompressed and compressed
+ * bytes together and evicts the least recently used bodies beyond that. It
+ * is guarded by a ReentrantLock rather than a monitor, so that virtual
+ * threads waiting for it do not pin their carrier.</p>
+ */
+final class CompressedBodyCache {
+
+    /**
+     * The largest body that is cached.
+     */
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * The total number of bytes held by the cache.
+     */
+    static final long MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * The cached bodies in access order, least recently used first.
+     */
+    private final Map<Key, byte[]> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Guards {@link #entries} and {@link #size}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The number of uncompressed and compressed bytes held.
+     */
+    private long size;
+
+    /**
+     * Looks up the compressed form of a body.
+     *
+     * @param encoding the content-coding
+     * @param body     the bytes holding the uncompressed body
+     * @param off      the start offset of the body
+     * @param len      the length of the body
+     * @return the compressed body, or null if it is not cached
+     */
+    byte[] get(String encoding, byte[] body, int off, int len) {
+        Key key = new Key(encoding, body, off, len);
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remembers the compressed form of a body, copying the uncompressed
+     * bytes.
+     *
+     * @param encoding   the content-coding
+     * @param body       the bytes holding the uncompressed body
+     * @param off        the start offset of the body
+     * @param len        the length of the body
+     * @param compressed the compressed body
+     */
+    void put(String encoding, byte[] body, int off, int len,
+             byte[] compressed) {
+        if (len > MAX_BODY_SIZE) {
+            return;
+        }
+        Key key = new Key(encoding,
+                Arrays.copyOfRange(body, off, off + len), 0, len);
+        lock.lock();
+        try {
+            byte[] previous = entries.put(key, compressed);
+            if (previous != null) {
+                size -= len + previous.length;
+            }
+            size += len + compressed.length;
+            Iterator<Map.Entry<Key, byte[]>> eldest =
+                    entries.entrySet().iterator();
+            while (size > MAX_BYTES && eldest.hasNext()) {
+                Map.Entry<Key, byte[]> entry = eldest.next();
+                size -= entry.getKey().len + entry.getValue().length;
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Identifies a body by its content-coding and uncompressed bytes. Keys
+     * used for lookups point into the response buffer; keys stored in the
+     * cache own a copy.
+     */
+    private static final class Key {
+
+        /**
+         * The content-coding.
+         */
+        private final String encoding;
+
+        /**
+         * The bytes holding the uncompressed body.
+         */
+        private final byte[] body;
+
+        /**
+         * The start offset of the body.
+         */
+        private final int off;
+
+        /**
+         * The length of the body.
+         */
+        private final int len;
+
+        /**
+         * The hash of the content-coding and the body.
+         */
+        private final int hash;
+
+        /**
+         * Constructs a key over a body.
+         *
+         * @param encoding the content-coding
+         * @param body     the bytes holding the uncompressed body
+         * @param off      the start offset of the body
+         * @param len      the length of the body
+         */
+        Key(String encoding, byte[] body, int off, int len) {
+            this.encoding = encoding;
+            this.body = body;
+            this.off = off;
+            this.len = len;
+            int h = encoding.hashCode();
+            for (int i = off; i < off + len; i++) {
+                h = 31 * h + body[i];
+            }
+            this.hash = h;
+        }
+
+        /**
+         * Returns the hash of the content-coding and the body.
+         *
+         * @return the hash
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Compares the content-coding and the bytes of two keys.
+         *
+         * @param o the other key
+         * @return true if both identify the same body
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key other)) {
+                return false;
+            }
+            return hash == other.hash && encoding.equals(other.encoding)
+                    && Arrays.equals(body, off, off + len,
+                    other.body, other.off, other.off + other.len);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package deep.jwebtainer.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that compresses everything written to it with the gzip
+ * or deflate content-coding. Unlike the JDK's GZIPOutputStream it borrows
+ * its {@link Deflater} from a {@link DeflaterPool} and gives it back once the
+ * body is finished, and {@link #flush()} pushes the data compressed so far
+ * to the client with a sync flush, so a streamed response keeps making
+ * progress.
+ *
+ * <p>{@link #finish()} writes the end of the compressed data without closing
+ * the underlying stream, which stays usable for the rest of the response
+ * framing and the next response on the connection.</p>
+ */
+public final class CompressingOutputStream extends FilterOutputStream {
+
+    /**
+     * The size of the buffer the compressed data is collected in.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The gzip member header: magic number, deflate method, no flags, no
+     * modification time, no extra flags and an unknown operating system.
+     */
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    /**
+     * The pool the Deflater is returned to.
+     */
+    private final DeflaterPool pool;
+
+    /**
+     * Whether the gzip framing is written around the deflate data.
+     */
+    private final boolean gzip;
+
+    /**
+     * The Deflater borrowed from the pool, or null once it is returned.
+     */
+    private Deflater deflater;
+
+    /**
+     * The checksum of the uncompressed data, for the gzip trailer.
+     */
+    private final CRC32 crc;
+
+    /**
+     * Collects the compressed data before it is written.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Whether the gzip header has been written.
+     */
+    private boolean started;
+
+    /**
+     * Constructs a stream compressing into the given stream.
+     *
+     * @param out      the stream receiving the compressed data
+     * @param encoding {@link ResponseCompression#GZIP} or
+     *                 {@link ResponseCompression#DEFLATE}
+     * @param pool     the pool to borrow the Deflater from
+     */
+    CompressingOutputStream(OutputStream out, String encoding,
+                            DeflaterPool pool) {
+        super(out);
+        this.pool = pool;
+        this.gzip = ResponseCompression.GZIP.equals(encoding);
+        this.deflater = pool.acquire(gzip);
+        this.crc = gzip ? new CRC32() : null;
+    }
+
+    /**
+     * Compresses a single byte.
+     *
+     * @param b the byte to write
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Compresses the given bytes, writing compressed data whenever the
+     * Deflater produces some.
+     *
+     * @param b   the data
+     * @param off the start offset in the data
+     * @param len the number of bytes to write
+     * @throws IOException if an I/O error occurs or the stream is finished
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (deflater == null) {
+            throw new IOException("Compressed body already finished");
+        }
+        if (len == 0) {
+            return;
+        }
+        start();
+        if (gzip) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Writes the data compressed so far, so that the client can decompress
+     * everything written up to now, and flushes the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        if (deflater != null && started) {
+            while (deflate(Deflater.SYNC_FLUSH) == buffer.length) {
+                // the buffer was filled, so more output may be pending
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the end of the compressed data and returns the Deflater to the
+     * pool. Subsequent calls have no effect.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (deflater == null) {
+            return;
+        }
+        start();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+        if (gzip) {
+            byte[] trailer = new byte[8];
+            writeIntLE(trailer, 0, (int) crc.getValue());
+            writeIntLE(trailer, 4, (int) deflater.getBytesRead());
+            out.write(trailer);
+        }
+        release();
+    }
+
+    /**
+     * Returns the Deflater to the pool without finishing the compressed
+     * data, for a response that was abandoned. Subsequent calls have no
+     * effect.
+     */
+    public void release() {
+        if (deflater != null) {
+            pool.release(deflater, gzip);
+            deflater = null;
+        }
+    }
+
+    /**
+     * Finishes the compressed data and flushes the underlying stream
+     * without closing it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        flush();
+    }
+
+    /**
+     * Writes the gzip header before the first compressed data.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+    }
+
+    /**
+     * Runs the Deflater once and writes the data it produced.
+     *
+     * @param flush the flush mode
+     * @return the number of compressed bytes written
+     * @throws IOException if an I/O error occurs
+     */
+    private int deflate(int flush) throws IOException {
+        int count = deflater.deflate(buffer, 0, buffer.length, flush);
+        if (count > 0) {
+            out.write(buffer, 0, count);
+        }
+        return count;
+    }
+
+    /**
+     * Stores an int in little-endian byte order, as gzip requires.
+     *
+     * @param b     the destination
+     * @param off   the offset of the first byte
+     * @param value the value
+     */
+    private static void writeIntLE(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,147 @@
+package deep.jwebtainer.http;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * The ConditionalRequest class evaluates the If-None-Match and
+ * If-Modified-Since headers of a GET request against the validators of the
+ * selected representation, its entity tag and modification time, so that a
+ * client holding the current version can be answered with 304 Not Modified
+ * instead of the body. It also evaluates If-Range, which makes a range
+ * request fall back to the whole representation once it has changed.
+ *
+ * <p>As RFC 9110 requires, If-Modified-Since is only evaluated when the
+ * request has no If-None-Match header, and entity tags are compared weakly
+ * for If-None-Match. HTTP dates are formatted as IMF-fixdate and parsed
+ * from it; the obsolete RFC 850 and asctime forms are treated as
+ * unparseable, which only costs such a client a full response.</p>
+ */
+public final class ConditionalRequest {
+
+    /**
+     * The IMF-fixdate format, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+     */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * Prevents instantiation.
+     */
+    private ConditionalRequest() {
+    }
+
+    /**
+     * Decides whether the client already holds the selected representation.
+     *
+     * @param ifNoneMatch     the If-None-Match header, or null
+     * @param ifModifiedSince the If-Modified-Since header, or null
+     * @param etag            the entity tag of the representation, or null
+     * @param lastModified    the modification time of the representation in
+     *                        milliseconds since the epoch, or -1 if unknown
+     * @return true if the request should be answered with 304 Not Modified
+     */
+    public static boolean isNotModified(String ifNoneMatch,
+                                        String ifModifiedSince, String etag,
+                                        long lastModified) {
+        if (ifNoneMatch != null) {
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+        if (ifModifiedSince == null || lastModified < 0) {
+            return false;
+        }
+        long since = parseDate(ifModifiedSince);
+        // HTTP dates have a resolution of one second
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Decides whether the ranges of a request may be served, which is only
+     * the case if the If-Range header, when present, names the current
+     * representation. An entity tag must match with the strong comparison
+     * and a date must equal the modification time.
+     *
+     * @param ifRange      the If-Range header, or null
+     * @param etag         the entity tag of the representation, or null
+     * @param lastModified the modification time of the representation in
+     *                     milliseconds since the epoch, or -1 if unknown
+     * @return true if the Range header applies
+     */
+    public static boolean isRangeCurrent(String ifRange, String etag,
+                                         long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String validator = ifRange.trim();
+        if (validator.startsWith("\"") || validator.startsWith("W/")) {
+            return etag != null && !etag.startsWith("W/")
+                    && validator.equals(etag);
+        }
+        long date = parseDate(validator);
+        return date >= 0 && lastModified >= 0
+                && lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * Formats a time as an HTTP date.
+     *
+     * @param millis the time in milliseconds since the epoch
+     * @return the IMF-fixdate
+     */
+    public static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Parses an HTTP date.
+     *
+     * @param date the IMF-fixdate
+     * @return the time in milliseconds since the epoch, or -1 if the date
+     * cannot be parsed
+     */
+    public static long parseDate(String date) {
+        try {
+            return Instant.from(HTTP_DATE.parse(date.trim())).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Matches an entity tag against the list of an If-None-Match header
+     * with the weak comparison, which ignores the {@code W/} prefix.
+     *
+     * @param list the If-None-Match header
+     * @param etag the entity tag of the representation
+     * @return true if the list is {@code *} or contains the entity tag
+     */
+    static boolean matches(String list, String etag) {
+        String opaque = opaqueTag(etag);
+        int start = 0;
+        while (start < list.length()) {
+            int comma = list.indexOf(',', start);
+            int end = comma < 0 ? list.length() : comma;
+            String candidate = list.substring(start, end).trim();
+            if (candidate.equals("*")
+                    || opaqueTag(candidate).equals(opaque)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Strips the weakness indicator from an entity tag.
+     *
+     * @param etag the entity tag
+     * @return the quoted opaque tag
+     */
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,149 @@
+package deep.jwebtainer.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream over a request body delimited by a Content-Length. The
+ * body is read first from the bytes the transport has already received
+ * behind the request head and then straight from the connection, and the
+ * stream ends after exactly the announced number of bytes, leaving the
+ * connection positioned at the next request.
+ *
+ * <p>Bulk reads go directly into the caller's array, so a servlet reading
+ * a large upload through its own buffer needs no further memory.</p>
+ */
+public final class ContentLengthInputStream extends RequestBodyInputStream {
+
+    /**
+     * The bytes received ahead of the body reads, in read mode. Reading
+     * from the stream consumes them.
+     */
+    private final ByteBuffer buffered;
+
+    /**
+     * The connection stream the rest of the body is read from.
+     */
+    private final InputStream in;
+
+    /**
+     * The number of body bytes not read yet.
+     */
+    private long remaining;
+
+    /**
+     * Constructs a stream over a body of the given length.
+     *
+     * @param buffered the received bytes starting with the body, in read
+     *                 mode
+     * @param in       the connection stream holding the rest of the body
+     * @param length   the length of the body
+     */
+    public ContentLengthInputStream(ByteBuffer buffered, InputStream in,
+                                    long length) {
+        this.buffered = buffered;
+        this.in = in;
+        this.remaining = length;
+    }
+
+    /**
+     * Starts the next body on the same connection, so that a persistent
+     * connection can reuse one stream for all its requests.
+     *
+     * @param length the length of the body
+     */
+    public void reset(long length) {
+        this.remaining = length;
+    }
+
+    /**
+     * Reads a single body byte.
+     *
+     * @return the byte, or -1 at the end of the body
+     * @throws IOException if the connection ends before the body
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    /**
+     * Reads up to the given number of body bytes.
+     *
+     * @param b   the array receiving the bytes
+     * @param off the start offset in the array
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 at the end of the body
+     * @throws IOException if the connection ends before the body
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int count = (int) Math.min(len, remaining);
+        if (buffered.hasRemaining()) {
+            count = Math.min(count, buffered.remaining());
+            buffered.get(b, off, count);
+        } else {
+            count = in.read(b, off, count);
+            if (count < 0) {
+                throw new EOFException("Connection closed with " + remaining
+                        + " bytes of the request body missing");
+            }
+        }
+        remaining -= count;
+        return count;
+    }
+
+    /**
+     * Returns the number of body bytes that can be read without blocking.
+     *
+     * @return the number of bytes available
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public int available() throws IOException {
+        long available = buffered.hasRemaining() ? buffered.remaining()
+                : in.available();
+        return (int) Math.min(available, remaining);
+    }
+
+    /**
+     * Returns whether the whole body has been read.
+     *
+     * @return true if no more body data is available
+     */
+    @Override
+    public boolean isFinished() {
+        return remaining == 0;
+    }
+
+    /**
+     * Returns the number of body bytes not read yet.
+     *
+     * @return the number of unread bytes
+     */
+    public long remaining() {
+        return remaining;
+    }
+
+    /**
+     * Reads and drops the rest of the body, unless more than the given
+     * number of bytes are left, in which case nothing is read.
+     *
+     * @param maxBytes the largest remainder worth reading
+     * @return true if the whole body has been consumed
+     * @throws IOException if the connection ends before the body
+     */
+    @Override
+    public boolean discardRemaining(long maxBytes) throws IOException {
+        return remaining <= maxBytes && super.discardRemaining(maxBytes);
+    }
+}
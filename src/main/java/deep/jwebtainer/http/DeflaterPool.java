@@ -0,0 +1,93 @@
+package deep.jwebtainer.http;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * The DeflaterPool class keeps idle {@link Deflater} instances for reuse.
+ * Creating a Deflater allocates the native zlib state, which costs more than
+ * compressing a small response, and releasing it is left to a cleaner unless
+ * {@link Deflater#end()} is called. Pooled instances are only reset between
+ * uses.
+ *
+ * <p>Deflaters for the raw format used inside gzip and for the zlib format
+ * sent as the deflate content-coding are kept apart, since the format of a
+ * Deflater cannot be changed after it has been created.</p>
+ */
+final class DeflaterPool {
+
+    /**
+     * The number of idle Deflaters kept for each format. Further released
+     * Deflaters are ended.
+     */
+    static final int MAX_IDLE = 32;
+
+    /**
+     * The compression level of the pooled Deflaters.
+     */
+    private final int level;
+
+    /**
+     * The idle Deflaters producing raw deflate data, for gzip.
+     */
+    private final Queue<Deflater> raw = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The idle Deflaters producing zlib data, for deflate.
+     */
+    private final Queue<Deflater> zlib = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of Deflaters in {@link #raw}.
+     */
+    private final AtomicInteger rawIdle = new AtomicInteger();
+
+    /**
+     * The number of Deflaters in {@link #zlib}.
+     */
+    private final AtomicInteger zlibIdle = new AtomicInteger();
+
+    /**
+     * Constructs an empty pool.
+     *
+     * @param level the compression level of the Deflaters, from 0 to 9
+     */
+    DeflaterPool(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Takes an idle Deflater of the given format, or creates one.
+     *
+     * @param nowrap true for raw deflate data, false for the zlib format
+     * @return a Deflater ready for new input
+     */
+    Deflater acquire(boolean nowrap) {
+        Deflater deflater = (nowrap ? raw : zlib).poll();
+        if (deflater == null) {
+            return new Deflater(level, nowrap);
+        }
+        (nowrap ? rawIdle : zlibIdle).decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Resets a Deflater and returns it to the pool, or ends it if the pool
+     * is full.
+     *
+     * @param deflater the Deflater, which must not be used afterwards
+     * @param nowrap   the format it was acquired for
+     */
+    void release(Deflater deflater, boolean nowrap) {
+        AtomicInteger idle = nowrap ? rawIdle : zlibIdle;
+        if (idle.incrementAndGet() > MAX_IDLE) {
+            idle.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        (nowrap ? raw : zlib).offer(deflater);
+    }
+}
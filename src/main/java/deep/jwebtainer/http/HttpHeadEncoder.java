@@ -0,0 +1,311 @@
+package deep.jwebtainer.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HttpHeadEncoder class writes the status line and headers of a
+ * response as bytes into a buffer it keeps for the connection. The status
+ * lines of the common status codes and the names of the common response
+ * headers are encoded once, when the class is loaded, and copied from then
+ * on; other names and all values are encoded as ISO-8859-1 character by
+ * character, without a Formatter or a charset encoder.
+ *
+ * <p>An encoder is reused for every response of a connection and must only
+ * be used by one thread at a time.</p>
+ */
+public final class HttpHeadEncoder {
+
+    /**
+     * The initial size of the head buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    /**
+     * The status codes whose status line is encoded in advance.
+     */
+    private static final int[] COMMON_STATUS_CODES = {
+            200, 201, 204, 206, 301, 302, 304, 400, 401, 403, 404, 405,
+            412, 416, 500, 503
+    };
+
+    /**
+     * The encoded status lines of the common status codes, by code, or null
+     * for the other codes.
+     */
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    /**
+     * The response header names encoded in advance, together with the
+     * separator following them.
+     */
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    /**
+     * The separator between a header name and its value.
+     */
+    private static final byte[] SEPARATOR = {':', ' '};
+
+    /**
+     * The line terminator.
+     */
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    static {
+        for (int code : COMMON_STATUS_CODES) {
+            STATUS_LINES[code] = encode("HTTP/1.1 " + code + " "
+                    + reasonPhrase(code) + "\r\n");
+        }
+        for (String name : new String[]{"Content-Type", "Content-Length",
+                "Transfer-Encoding", "Connection", "Location", "Date",
+                "Server", "Cache-Control", "Content-Encoding", "Vary",
+                "ETag", "Last-Modified", "Accept-Ranges", "Content-Range",
+                "Set-Cookie"}) {
+            HEADER_NAMES.put(name, encode(name + ": "));
+        }
+    }
+
+    /**
+     * The buffer the head is encoded into.
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The number of encoded bytes in {@link #buffer}.
+     */
+    private int length;
+
+    /**
+     * Returns the reason phrase sent with a status code.
+     *
+     * @param statusCode the HTTP status code
+     * @return the corresponding reason phrase
+     */
+    public static String reasonPhrase(int statusCode) {
+        return switch (statusCode) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 301 -> "Moved Permanently";
+            case 302 -> "Found";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 412 -> "Precondition Failed";
+            case 413 -> "Content Too Large";
+            case 416 -> "Range Not Satisfiable";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "HTTP Status " + statusCode;
+        };
+    }
+
+    /**
+     * Starts a new head with its status line, discarding the previous head.
+     *
+     * @param statusCode    the status code
+     * @param statusMessage the reason phrase
+     */
+    public void statusLine(int statusCode, String statusMessage) {
+        length = 0;
+        byte[] line = statusCode >= 0 && statusCode < STATUS_LINES.length
+                ? STATUS_LINES[statusCode] : null;
+        if (line != null && statusMessage.equals(reasonPhrase(statusCode))) {
+            append(line);
+            return;
+        }
+        appendAscii("HTTP/1.1 ");
+        appendNumber(statusCode);
+        append((byte) ' ');
+        appendText(statusMessage);
+        append(CRLF);
+    }
+
+    /**
+     * Appends a header line.
+     *
+     * @param name  the header name
+     * @param value the header value
+     */
+    public void header(String name, String value) {
+        headerName(name);
+        appendText(value);
+        append(CRLF);
+    }
+
+    /**
+     * Appends a header line with a numeric value.
+     *
+     * @param name  the header name
+     * @param value the header value
+     */
+    public void header(String name, long value) {
+        headerName(name);
+        appendNumber(value);
+        append(CRLF);
+    }
+
+    /**
+     * Ends the head with the blank line.
+     */
+    public void end() {
+        append(CRLF);
+    }
+
+    /**
+     * Writes the encoded head to the stream with a single write.
+     *
+     * @param out the stream of the connection
+     * @throws IOException if the head cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Writes the encoded head followed by a body with a single write. The
+     * body is copied behind the head in the buffer, which keeps the larger
+     * size for the next response.
+     *
+     * @param out  the stream of the connection
+     * @param body the body bytes, or null if {@code len} is 0
+     * @param off  the start offset of the body
+     * @param len  the length of the body
+     * @throws IOException if the response cannot be written
+     */
+    public void writeTo(OutputStream out, byte[] body, int off, int len)
+            throws IOException {
+        int headLength = length;
+        ensureCapacity(len);
+        if (len > 0) {
+            System.arraycopy(body, off, buffer, length, len);
+        }
+        out.write(buffer, 0, headLength + len);
+    }
+
+    /**
+     * Returns a copy of the encoded head.
+     *
+     * @return the encoded bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Appends a header name and the separator following it.
+     *
+     * @param name the header name
+     */
+    private void headerName(String name) {
+        byte[] encoded = HEADER_NAMES.get(name);
+        if (encoded != null) {
+            append(encoded);
+        } else {
+            appendText(name);
+            append(SEPARATOR);
+        }
+    }
+
+    /**
+     * Appends the decimal digits of a number.
+     *
+     * @param value the number
+     */
+    private void appendNumber(long value) {
+        if (value < 0) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Appends a String as ISO-8859-1, replacing characters outside of it
+     * with '?'. Line breaks are replaced as well, so that a value cannot
+     * start a header of its own.
+     *
+     * @param text the text
+     */
+    private void appendText(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            buffer[length++] = (byte) (c > 0xFF || c == '\r' || c == '\n'
+                    ? '?' : c);
+        }
+    }
+
+    /**
+     * Appends a String known to be ASCII.
+     *
+     * @param text the text
+     */
+    private void appendAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    /**
+     * Appends encoded bytes.
+     *
+     * @param bytes the bytes
+     */
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Appends a single byte.
+     *
+     * @param b the byte
+     */
+    private void append(byte b) {
+        ensureCapacity(1);
+        buffer[length++] = b;
+    }
+
+    /**
+     * Grows the buffer to take the given number of further bytes.
+     *
+     * @param extra the number of bytes to append
+     */
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer,
+                    Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * Encodes an ASCII constant.
+     *
+     * @param text the constant
+     * @return the encoded bytes
+     */
+    private static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
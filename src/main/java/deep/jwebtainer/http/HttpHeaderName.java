@@ -0,0 +1,346 @@
+package deep.jwebtainer.http;
+
+/**
+ * The HttpHeaderName class lists the well-known HTTP header names as
+ * integer constants. The {@link HttpRequestDecoder} resolves the name of
+ * every received header against this table while decoding, ignoring ASCII
+ * case, so looking up a well-known header afterwards is an array access
+ * rather than a String comparison.
+ *
+ * <p>The names are found through a small open-addressing table keyed by a
+ * case-insensitive hash that is the same for bytes and Strings, and is also
+ * used by {@link HttpHeaders} for the names that are not in the list.</p>
+ */
+public final class HttpHeaderName {
+
+    /**
+     * The Host header.
+     */
+    public static final int HOST = 0;
+
+    /**
+     * The Connection header.
+     */
+    public static final int CONNECTION = 1;
+
+    /**
+     * The Content-Length header.
+     */
+    public static final int CONTENT_LENGTH = 2;
+
+    /**
+     * The Content-Type header.
+     */
+    public static final int CONTENT_TYPE = 3;
+
+    /**
+     * The Transfer-Encoding header.
+     */
+    public static final int TRANSFER_ENCODING = 4;
+
+    /**
+     * The Accept header.
+     */
+    public static final int ACCEPT = 5;
+
+    /**
+     * The Accept-Encoding header.
+     */
+    public static final int ACCEPT_ENCODING = 6;
+
+    /**
+     * The Accept-Language header.
+     */
+    public static final int ACCEPT_LANGUAGE = 7;
+
+    /**
+     * The User-Agent header.
+     */
+    public static final int USER_AGENT = 8;
+
+    /**
+     * The Cookie header.
+     */
+    public static final int COOKIE = 9;
+
+    /**
+     * The Authorization header.
+     */
+    public static final int AUTHORIZATION = 10;
+
+    /**
+     * The Cache-Control header.
+     */
+    public static final int CACHE_CONTROL = 11;
+
+    /**
+     * The Referer header.
+     */
+    public static final int REFERER = 12;
+
+    /**
+     * The Origin header.
+     */
+    public static final int ORIGIN = 13;
+
+    /**
+     * The Expect header.
+     */
+    public static final int EXPECT = 14;
+
+    /**
+     * The Upgrade header.
+     */
+    public static final int UPGRADE = 15;
+
+    /**
+     * The If-None-Match header.
+     */
+    public static final int IF_NONE_MATCH = 16;
+
+    /**
+     * The If-Modified-Since header.
+     */
+    public static final int IF_MODIFIED_SINCE = 17;
+
+    /**
+     * The If-Match header.
+     */
+    public static final int IF_MATCH = 18;
+
+    /**
+     * The If-Unmodified-Since header.
+     */
+    public static final int IF_UNMODIFIED_SINCE = 19;
+
+    /**
+     * The Range header.
+     */
+    public static final int RANGE = 20;
+
+    /**
+     * The If-Range header.
+     */
+    public static final int IF_RANGE = 21;
+
+    /**
+     * The Keep-Alive header.
+     */
+    public static final int KEEP_ALIVE = 22;
+
+    /**
+     * The TE header.
+     */
+    public static final int TE = 23;
+
+    /**
+     * The Content-Encoding header.
+     */
+    public static final int CONTENT_ENCODING = 24;
+
+    /**
+     * The X-Forwarded-For header.
+     */
+    public static final int X_FORWARDED_FOR = 25;
+
+    /**
+     * The canonical spelling of every well-known name, by index.
+     */
+    private static final String[] NAMES = {
+            "Host", "Connection", "Content-Length", "Content-Type",
+            "Transfer-Encoding", "Accept", "Accept-Encoding",
+            "Accept-Language", "User-Agent", "Cookie", "Authorization",
+            "Cache-Control", "Referer", "Origin", "Expect", "Upgrade",
+            "If-None-Match", "If-Modified-Since", "If-Match",
+            "If-Unmodified-Since", "Range", "If-Range", "Keep-Alive", "TE",
+            "Content-Encoding", "X-Forwarded-For"
+    };
+
+    /**
+     * The number of well-known names.
+     */
+    public static final int COUNT = NAMES.length;
+
+    /**
+     * The open-addressing table mapping a name hash to the index of the name
+     * plus one, or 0 for an empty slot.
+     */
+    private static final int[] TABLE = new int[64];
+
+    static {
+        for (int i = 0; i < COUNT; i++) {
+            int slot = hash(NAMES[i]) & (TABLE.length - 1);
+            while (TABLE[slot] != 0) {
+                slot = (slot + 1) & (TABLE.length - 1);
+            }
+            TABLE[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Prevents instantiation of this constant class.
+     */
+    private HttpHeaderName() {
+    }
+
+    /**
+     * Returns the canonical spelling of a well-known name.
+     *
+     * @param index the index of the name
+     * @return the name
+     */
+    public static String name(int index) {
+        return NAMES[index];
+    }
+
+    /**
+     * Resolves a header name given as bytes, ignoring ASCII case.
+     *
+     * @param b    the bytes holding the name
+     * @param from the offset of the name
+     * @param to   the offset just past the name
+     * @return the index of the well-known name, or -1 if it is not one
+     */
+    public static int indexOf(byte[] b, int from, int to) {
+        return indexOf(b, from, to, hash(b, from, to));
+    }
+
+    /**
+     * Resolves a header name given as bytes whose hash is already known.
+     *
+     * @param b    the bytes holding the name
+     * @param from the offset of the name
+     * @param to   the offset just past the name
+     * @param hash the {@link #hash(byte[], int, int)} of the name
+     * @return the index of the well-known name, or -1 if it is not one
+     */
+    static int indexOf(byte[] b, int from, int to, int hash) {
+        for (int slot = hash & (TABLE.length - 1); TABLE[slot] != 0;
+             slot = (slot + 1) & (TABLE.length - 1)) {
+            String name = NAMES[TABLE[slot] - 1];
+            if (equalsIgnoreCase(b, from, to, name)) {
+                return TABLE[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resolves a header name given as a String, ignoring ASCII case.
+     *
+     * @param name the header name
+     * @return the index of the well-known name, or -1 if it is not one
+     */
+    public static int indexOf(String name) {
+        return indexOf(name, hash(name));
+    }
+
+    /**
+     * Resolves a header name given as a String whose hash is already known.
+     *
+     * @param name the header name
+     * @param hash the {@link #hash(String)} of the name
+     * @return the index of the well-known name, or -1 if it is not one
+     */
+    static int indexOf(String name, int hash) {
+        for (int slot = hash & (TABLE.length - 1); TABLE[slot] != 0;
+             slot = (slot + 1) & (TABLE.length - 1)) {
+            if (equalsIgnoreCase(NAMES[TABLE[slot] - 1], name)) {
+                return TABLE[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the case-insensitive hash of a name given as bytes.
+     *
+     * @param b    the bytes holding the name
+     * @param from the offset of the name
+     * @param to   the offset just past the name
+     * @return the hash, equal to that of the same name as a String
+     */
+    static int hash(byte[] b, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + toLowerCase(b[i] & 0xFF);
+        }
+        return spread(hash);
+    }
+
+    /**
+     * Computes the case-insensitive hash of a name given as a String.
+     *
+     * @param name the name
+     * @return the hash, equal to that of the same name as bytes
+     */
+    static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + toLowerCase(name.charAt(i));
+        }
+        return spread(hash);
+    }
+
+    /**
+     * Compares a name given as bytes with a String, ignoring ASCII case.
+     *
+     * @param b    the bytes holding the name
+     * @param from the offset of the name
+     * @param to   the offset just past the name
+     * @param name the String to compare with
+     * @return true if both spell the same name
+     */
+    static boolean equalsIgnoreCase(byte[] b, int from, int to, String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (toLowerCase(b[from + i] & 0xFF)
+                    != toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two names, ignoring ASCII case only.
+     *
+     * @param a the first name
+     * @param b the second name
+     * @return true if both spell the same name
+     */
+    static boolean equalsIgnoreCase(String a, String b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            if (toLowerCase(a.charAt(i)) != toLowerCase(b.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower-cases an ASCII letter, leaving every other character alone.
+     *
+     * @param c the character
+     * @return the lower-case character
+     */
+    static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits used for the table
+     * slots.
+     *
+     * @param hash the hash
+     * @return the spread hash
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
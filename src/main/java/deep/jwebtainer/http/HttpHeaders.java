@@ -0,0 +1,432 @@
+package deep.jwebtainer.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The HttpHeaders class holds the headers of a request, looked up ignoring
+ * ASCII case. Every header is an entry in a set of parallel arrays; entries
+ * with the same name are linked in the order they were received, so
+ * repeated headers keep all their values.
+ *
+ * <p>Well-known names are resolved to their {@link HttpHeaderName} index
+ * when a header is added, and the first entry of each is found by that index
+ * directly. Other names go through an open-addressing table keyed by their
+ * case-insensitive hash, which is computed once per header. Headers decoded
+ * from the wire are kept as offsets into the received bytes and their names
+ * and values are only turned into Strings when they are asked for.</p>
+ */
+public final class HttpHeaders {
+
+    /**
+     * The number of entries the arrays can hold before they grow.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The number of offsets stored for every entry decoded from the wire.
+     */
+    private static final int SLICE_SIZE = 4;
+
+    /**
+     * The received bytes the decoded entries point into, or null if the
+     * headers were not decoded from the wire.
+     */
+    private byte[] raw;
+
+    /**
+     * The name start, name end, value start and value end offsets into
+     * {@link #raw} of every decoded entry.
+     */
+    private int[] slices = new int[0];
+
+    /**
+     * The name of every entry, or null while it has not been decoded.
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * The value of every entry, or null while it has not been decoded.
+     */
+    private String[] values = new String[INITIAL_CAPACITY];
+
+    /**
+     * The case-insensitive hash of the name of every entry.
+     */
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    /**
+     * The next entry with the same name, or -1 for the last one.
+     */
+    private int[] next = new int[INITIAL_CAPACITY];
+
+    /**
+     * The first entry of every well-known name, or -1 if it is absent.
+     */
+    private final int[] known = new int[HttpHeaderName.COUNT];
+
+    /**
+     * The open-addressing table holding the first entry of every other name
+     * plus one, or 0 for an empty slot.
+     */
+    private int[] table = new int[INITIAL_CAPACITY];
+
+    /**
+     * The number of names in {@link #table}.
+     */
+    private int tableSize;
+
+    /**
+     * The number of entries.
+     */
+    private int size;
+
+    /**
+     * Constructs an empty set of headers.
+     */
+    public HttpHeaders() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty set of headers whose entries are decoded from the
+     * given bytes.
+     *
+     * @param raw the received bytes holding the headers
+     */
+    public HttpHeaders(byte[] raw) {
+        this.raw = raw;
+        Arrays.fill(known, -1);
+        if (raw != null) {
+            slices = new int[INITIAL_CAPACITY * SLICE_SIZE];
+        }
+    }
+
+    /**
+     * Removes all headers so that the container can be filled again,
+     * keeping its arrays.
+     *
+     * @param raw the received bytes the next decoded entries point into, or
+     *            null
+     */
+    public void reset(byte[] raw) {
+        this.raw = raw;
+        if (raw != null && slices.length < names.length * SLICE_SIZE) {
+            slices = new int[names.length * SLICE_SIZE];
+        }
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(known, -1);
+        if (tableSize > 0) {
+            Arrays.fill(table, 0);
+            tableSize = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Adds a header decoded from the received bytes. Its name is resolved
+     * and hashed, but no String is created.
+     *
+     * @param nameStart  the offset of the name
+     * @param nameEnd    the offset just past the name
+     * @param valueStart the offset of the value
+     * @param valueEnd   the offset just past the value
+     */
+    public void add(int nameStart, int nameEnd, int valueStart,
+                    int valueEnd) {
+        int entry = newEntry();
+        int slot = entry * SLICE_SIZE;
+        slices[slot] = nameStart;
+        slices[slot + 1] = nameEnd;
+        slices[slot + 2] = valueStart;
+        slices[slot + 3] = valueEnd;
+        int hash = HttpHeaderName.hash(raw, nameStart, nameEnd);
+        link(entry, hash,
+                HttpHeaderName.indexOf(raw, nameStart, nameEnd, hash));
+    }
+
+    /**
+     * Adds a header after the existing values of the same name.
+     *
+     * @param name  the name of the header
+     * @param value the value of the header
+     */
+    public void add(String name, String value) {
+        int entry = newEntry();
+        names[entry] = name;
+        values[entry] = value;
+        int hash = HttpHeaderName.hash(name);
+        link(entry, hash, HttpHeaderName.indexOf(name, hash));
+    }
+
+    /**
+     * Returns the first value of a well-known header.
+     *
+     * @param name the {@link HttpHeaderName} index of the header
+     * @return the first value, or null if the header is absent
+     */
+    public String get(int name) {
+        int entry = known[name];
+        return entry < 0 ? null : value(entry);
+    }
+
+    /**
+     * Returns the first value of a header.
+     *
+     * @param name the name of the header, in any case
+     * @return the first value, or null if the header is absent
+     */
+    public String get(String name) {
+        int entry = first(name);
+        return entry < 0 ? null : value(entry);
+    }
+
+    /**
+     * Returns all values of a header in the order they were received.
+     *
+     * @param name the name of the header, in any case
+     * @return the values, empty if the header is absent
+     */
+    public List<String> getAll(String name) {
+        List<String> all = new ArrayList<>(1);
+        for (int entry = first(name); entry >= 0; entry = next[entry]) {
+            all.add(value(entry));
+        }
+        return all;
+    }
+
+    /**
+     * Returns the number of header entries, counting every repeated header.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of an entry as it was received.
+     *
+     * @param entry the index of the entry
+     * @return the name
+     */
+    public String name(int entry) {
+        if (names[entry] == null) {
+            names[entry] = decode(entry * SLICE_SIZE);
+        }
+        return names[entry];
+    }
+
+    /**
+     * Returns the value of an entry.
+     *
+     * @param entry the index of the entry
+     * @return the value
+     */
+    public String value(int entry) {
+        if (values[entry] == null) {
+            values[entry] = decode(entry * SLICE_SIZE + 2);
+        }
+        return values[entry];
+    }
+
+    /**
+     * Copies the headers into a map whose keys are compared ignoring case.
+     *
+     * @return an unmodifiable map from the first spelling of every name to
+     * all its values
+     */
+    public Map<String, String[]> toMap() {
+        Map<String, String[]> map =
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int entry = 0; entry < size; entry++) {
+            String name = name(entry);
+            if (!map.containsKey(name)) {
+                map.put(name, getAll(name).toArray(new String[0]));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Returns the first entry with the given name.
+     *
+     * @param name the name of the header, in any case
+     * @return the index of the entry, or -1 if there is none
+     */
+    private int first(String name) {
+        int hash = HttpHeaderName.hash(name);
+        int index = HttpHeaderName.indexOf(name, hash);
+        if (index >= 0) {
+            return known[index];
+        }
+        for (int slot = hash & (table.length - 1); table[slot] != 0;
+             slot = (slot + 1) & (table.length - 1)) {
+            int entry = table[slot] - 1;
+            if (hashes[entry] == hash && nameEquals(entry, name)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Links a new entry behind the earlier entries of the same name, or
+     * makes it the first entry of its name.
+     *
+     * @param entry the index of the entry
+     * @param hash  the case-insensitive hash of its name
+     * @param index the {@link HttpHeaderName} index of its name, or -1
+     */
+    private void link(int entry, int hash, int index) {
+        hashes[entry] = hash;
+        next[entry] = -1;
+        int first;
+        if (index >= 0) {
+            first = known[index];
+            if (first < 0) {
+                known[index] = entry;
+                return;
+            }
+        } else {
+            int slot = hash & (table.length - 1);
+            while (table[slot] != 0 && !(hashes[table[slot] - 1] == hash
+                    && sameName(table[slot] - 1, entry))) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if (table[slot] == 0) {
+                table[slot] = entry + 1;
+                if (++tableSize * 2 > table.length) {
+                    rehash();
+                }
+                return;
+            }
+            first = table[slot] - 1;
+        }
+        while (next[first] >= 0) {
+            first = next[first];
+        }
+        next[first] = entry;
+    }
+
+    /**
+     * Doubles the open-addressing table and reinserts its names.
+     */
+    private void rehash() {
+        int[] old = table;
+        table = new int[old.length * 2];
+        for (int first : old) {
+            if (first != 0) {
+                int slot = hashes[first - 1] & (table.length - 1);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & (table.length - 1);
+                }
+                table[slot] = first;
+            }
+        }
+    }
+
+    /**
+     * Allocates the next entry, growing the arrays if needed.
+     *
+     * @return the index of the new entry
+     */
+    private int newEntry() {
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            next = Arrays.copyOf(next, capacity);
+            if (slices.length > 0) {
+                slices = Arrays.copyOf(slices, capacity * SLICE_SIZE);
+            }
+        }
+        return size++;
+    }
+
+    /**
+     * Compares the name of an entry with the given name, ignoring ASCII
+     * case.
+     *
+     * @param entry the index of the entry
+     * @param name  the name to compare with
+     * @return true if the entry has the given name
+     */
+    private boolean nameEquals(int entry, String name) {
+        if (names[entry] != null) {
+            return HttpHeaderName.equalsIgnoreCase(names[entry], name);
+        }
+        int slot = entry * SLICE_SIZE;
+        return HttpHeaderName.equalsIgnoreCase(raw, slices[slot],
+                slices[slot + 1], name);
+    }
+
+    /**
+     * Compares the names of two entries, ignoring ASCII case, without
+     * decoding them.
+     *
+     * @param a the index of the first entry
+     * @param b the index of the second entry
+     * @return true if both entries have the same name
+     */
+    private boolean sameName(int a, int b) {
+        int length = nameLength(a);
+        if (length != nameLength(b)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (HttpHeaderName.toLowerCase(nameChar(a, i))
+                    != HttpHeaderName.toLowerCase(nameChar(b, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the name of an entry.
+     *
+     * @param entry the index of the entry
+     * @return the length of the name
+     */
+    private int nameLength(int entry) {
+        if (names[entry] != null) {
+            return names[entry].length();
+        }
+        int slot = entry * SLICE_SIZE;
+        return slices[slot + 1] - slices[slot];
+    }
+
+    /**
+     * Returns a character of the name of an entry.
+     *
+     * @param entry the index of the entry
+     * @param i     the position of the character
+     * @return the character
+     */
+    private char nameChar(int entry, int i) {
+        if (names[entry] != null) {
+            return names[entry].charAt(i);
+        }
+        return (char) (raw[slices[entry * SLICE_SIZE] + i] & 0xFF);
+    }
+
+    /**
+     * Decodes a slice of the received bytes.
+     *
+     * @param slot the position of the start offset in {@link #slices}
+     * @return the decoded String
+     */
+    private String decode(int slot) {
+        int start = slices[slot];
+        return new String(raw, start, slices[slot + 1] - start,
+                StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,65 @@
+package deep.jwebtainer.http;
+
+import java.io.Serial;
+
+/**
+ * The <code>HttpParseException</code> class signals a request that cannot
+ * be decoded. It carries the status the request is answered with before
+ * the connection is closed: 400 Bad Request for a malformed head,
+ * 431 Request Header Fields Too Large for one that is too large, and
+ * 413 Content Too Large for a body larger than the transport accepts.
+ * It extends IllegalArgumentException, which the decoder threw before.
+ */
+public class HttpParseException extends IllegalArgumentException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The status of a malformed request.
+     */
+    public static final int BAD_REQUEST = 400;
+
+    /**
+     * The status of a request whose body is too large.
+     */
+    public static final int CONTENT_TOO_LARGE = 413;
+
+    /**
+     * The status of a request whose head is too large.
+     */
+    public static final int HEADER_FIELDS_TOO_LARGE = 431;
+
+    /**
+     * The status the request is answered with.
+     */
+    private final int status;
+
+    /**
+     * Constructs a new HttpParseException.
+     *
+     * @param status  the status the request is answered with
+     * @param message the detail message
+     */
+    public HttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Returns the status the request is answered with.
+     *
+     * @return the status code
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the reason phrase of the status.
+     *
+     * @return the reason phrase
+     */
+    public String getReason() {
+        return HttpHeadEncoder.reasonPhrase(status);
+    }
+}
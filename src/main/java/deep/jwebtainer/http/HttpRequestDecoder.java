@@ -0,0 +1,618 @@
+package deep.jwebtainer.http;
+
+import deep.jwebtainer.http.adaptor.HttpRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The HttpRequestDecoder class decodes HTTP requests directly from the bytes
+ * received on a connection. It is incremental: when a request has not been
+ * received completely, {@link #decode(ByteBuffer)} returns null and resumes
+ * where it stopped once more bytes have been appended to the buffer, so the
+ * same decoder serves the blocking and the non-blocking transports. The
+ * decoder stops at the end of the request head; the transport provides the
+ * body to the servlet as a stream.
+ *
+ * <p>The decoder does not create a String per line or per header. It only
+ * records the offsets of the method, target, query string and header
+ * name/value slices, and hands them to the {@link HttpRequest} together with
+ * a single copy of the head bytes. Header names are resolved against the
+ * {@link HttpHeaderName} table on the way into the {@link HttpHeaders};
+ * header values and parameters are turned into Strings only when a servlet
+ * asks for them.</p>
+ *
+ * <p>A decoder holds the state of the request being received and must only
+ * be used by one connection at a time. A connection hands every request
+ * back through {@link #release(HttpRequest)} once its response has
+ * completed; the decoder then fills the same request object, head array and
+ * header table with the next request, so a keep-alive connection decodes
+ * its requests without allocating new ones.</p>
+ *
+ * <p>Heads that transports and proxies may read differently, and that are
+ * therefore used to smuggle requests, are rejected: a header name preceded
+ * or followed by whitespace, which includes a line folded onto the
+ * previous one, and Content-Length headers that disagree.</p>
+ */
+public final class HttpRequestDecoder {
+
+    /**
+     * The largest request head accepted before the request is rejected.
+     */
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    /**
+     * The number of headers the slice table can hold before it grows.
+     */
+    private static final int INITIAL_HEADER_CAPACITY = 16;
+
+    /**
+     * The number of offsets stored in the slice table for every header.
+     */
+    private static final int SLICE_SIZE = 4;
+
+    /**
+     * The request methods returned as constants instead of new Strings.
+     */
+    private static final String[] KNOWN_METHODS = {
+            "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH",
+            "TRACE", "CONNECT"
+    };
+
+    /**
+     * The protocol versions returned as constants instead of new Strings.
+     */
+    private static final String[] KNOWN_PROTOCOLS = {"HTTP/1.1", "HTTP/1.0"};
+
+    /**
+     * The lower-case name of the header carrying the length of the body.
+     */
+    private static final byte[] CONTENT_LENGTH =
+            "content-length".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The number of bytes of the current request examined so far, counted
+     * from the start of the request.
+     */
+    private int scanned;
+
+    /**
+     * The offset of the line being received, counted from the start of the
+     * request.
+     */
+    private int lineStart;
+
+    /**
+     * Whether the request line has been decoded.
+     */
+    private boolean requestLineDecoded;
+
+    /**
+     * The length of the request head including the blank line ending it,
+     * or -1 while the head is incomplete.
+     */
+    private int headLength = -1;
+
+    /**
+     * The body length announced by the Content-Length header, or -1 if the
+     * request has no such header.
+     */
+    private int contentLength = -1;
+
+    /**
+     * The offset just past the request method.
+     */
+    private int methodEnd;
+
+    /**
+     * The offset of the request target.
+     */
+    private int targetStart;
+
+    /**
+     * The offset of the '?' in the request target, or -1 if the target has
+     * no query string.
+     */
+    private int queryStart;
+
+    /**
+     * The offset just past the request target.
+     */
+    private int targetEnd;
+
+    /**
+     * The offset of the protocol version.
+     */
+    private int protocolStart;
+
+    /**
+     * The offset just past the protocol version.
+     */
+    private int protocolEnd;
+
+    /**
+     * The name start, name end, value start and value end offsets of every
+     * header decoded so far.
+     */
+    private int[] headerSlices = new int[INITIAL_HEADER_CAPACITY * SLICE_SIZE];
+
+    /**
+     * The number of headers decoded so far.
+     */
+    private int headerCount;
+
+    /**
+     * The released request to fill with the next request, or null if a new
+     * one has to be created.
+     */
+    private HttpRequest recycledRequest;
+
+    /**
+     * Decodes the request starting at the position of the buffer. Blank
+     * lines in front of the request are skipped. If the request head is
+     * complete, the buffer position is moved past it, to the start of the
+     * body; otherwise the position is left at the start of the request and
+     * the call should be repeated with the same bytes followed by more
+     * input.
+     *
+     * @param buffer the received bytes, in read mode
+     * @return the decoded request, or null if more bytes are needed
+     * @throws HttpParseException if the request is malformed
+     */
+    public HttpRequest decode(ByteBuffer buffer) {
+        return decode(buffer, false);
+    }
+
+    /**
+     * Hands back a request whose response has completed. The request is
+     * recycled and reused for the next request decoded, together with its
+     * header table and head array, so the caller must not use it anymore.
+     *
+     * @param request the request decoded last by this decoder
+     */
+    public void release(HttpRequest request) {
+        request.recycle();
+        recycledRequest = request;
+    }
+
+    /**
+     * Decodes the request starting at the position of the buffer after the
+     * input has ended. An unterminated last line ends the head.
+     *
+     * @param buffer the received bytes, in read mode
+     * @return the decoded request, or null if the buffer holds nothing but
+     * blank lines
+     * @throws HttpParseException if the request is malformed
+     */
+    public HttpRequest decodeLast(ByteBuffer buffer) {
+        return decode(buffer, true);
+    }
+
+    /**
+     * Decodes the request starting at the position of the buffer.
+     *
+     * @param buffer     the received bytes, in read mode
+     * @param endOfInput whether no more bytes will follow
+     * @return the decoded request, or null if more bytes are needed
+     */
+    private HttpRequest decode(ByteBuffer buffer, boolean endOfInput) {
+        int start = buffer.position();
+        int available = buffer.limit() - start;
+
+        while (headLength < 0) {
+            int lineFeed = indexOf(buffer, (byte) '\n', start + scanned,
+                    buffer.limit());
+            int lineEnd;
+            int next;
+            if (lineFeed >= 0) {
+                lineEnd = lineFeed - start;
+                next = lineEnd + 1;
+            } else {
+                scanned = available;
+                checkHeadSize();
+                if (!endOfInput) {
+                    return null;
+                }
+                if (lineStart == available) {
+                    if (!requestLineDecoded) {
+                        return null;
+                    }
+                    headLength = available; // input ended after a header
+                    break;
+                }
+                lineEnd = available;
+                next = available;
+            }
+            if (lineEnd > lineStart
+                    && buffer.get(start + lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            if (!requestLineDecoded) {
+                if (lineEnd == lineStart) {
+                    // Skip a blank line sent ahead of the request
+                    start += next;
+                    available -= next;
+                    buffer.position(start);
+                    scanned = 0;
+                    continue;
+                }
+                decodeRequestLine(buffer, start, lineEnd);
+                requestLineDecoded = true;
+            } else if (lineEnd == lineStart) {
+                headLength = next;
+            } else {
+                decodeHeaderLine(buffer, start, lineEnd);
+            }
+            scanned = next;
+            lineStart = next;
+            checkHeadSize();
+        }
+
+        HttpRequest request = createRequest(buffer, start);
+        buffer.position(start + headLength);
+        reset();
+        return request;
+    }
+
+    /**
+     * Rejects a request whose head has grown past {@link #MAX_HEAD_SIZE}.
+     *
+     * @throws HttpParseException if the head is too large
+     */
+    private void checkHeadSize() {
+        if (scanned > MAX_HEAD_SIZE) {
+            throw new HttpParseException(
+                    HttpParseException.HEADER_FIELDS_TOO_LARGE,
+                    "HTTP request head exceeds " + MAX_HEAD_SIZE + " bytes");
+        }
+    }
+
+    /**
+     * Records the slices of the request line running from the start of the
+     * current line to the given offset.
+     *
+     * @param buffer  the received bytes
+     * @param start   the position of the request in the buffer
+     * @param lineEnd the offset of the end of the line, without its line
+     *                terminator
+     * @throws HttpParseException if the request line is malformed
+     */
+    private void decodeRequestLine(ByteBuffer buffer, int start,
+                                   int lineEnd) {
+        int from = start + lineStart;
+        int to = start + lineEnd;
+        if (isBlank(buffer, from, to)) {
+            throw new HttpParseException(HttpParseException.BAD_REQUEST,
+                    "Empty HTTP request line");
+        }
+        int firstSpace = indexOf(buffer, (byte) ' ', from, to);
+        int secondSpace = firstSpace < 0 ? -1
+                : indexOf(buffer, (byte) ' ', firstSpace + 1, to);
+        if (firstSpace <= from || secondSpace <= firstSpace + 1
+                || secondSpace >= to - 1
+                || indexOf(buffer, (byte) ' ', secondSpace + 1, to) >= 0) {
+            throw new HttpParseException(HttpParseException.BAD_REQUEST,
+                    "Invalid HTTP request line: " + string(buffer, from, to));
+        }
+        methodEnd = firstSpace - start;
+        targetStart = firstSpace + 1 - start;
+        targetEnd = secondSpace - start;
+        int question = indexOf(buffer, (byte) '?', firstSpace + 1,
+                secondSpace);
+        queryStart = question < 0 ? -1 : question - start;
+        protocolStart = secondSpace + 1 - start;
+        protocolEnd = lineEnd;
+    }
+
+    /**
+     * Records the name and value slices of the header line running from the
+     * start of the current line to the given offset, picking up the
+     * Content-Length on the way. The name must run right up to the colon:
+     * a line starting with whitespace is an obsolete line folding, and
+     * whitespace before the colon would let another reader see a different
+     * header.
+     *
+     * @param buffer  the received bytes
+     * @param start   the position of the request in the buffer
+     * @param lineEnd the offset of the end of the line, without its line
+     *                terminator
+     * @throws HttpParseException if the header line is malformed, or
+     *                            announces a Content-Length different from
+     *                            an earlier one
+     */
+    private void decodeHeaderLine(ByteBuffer buffer, int start,
+                                  int lineEnd) {
+        int from = start + lineStart;
+        int to = start + lineEnd;
+        int colon = indexOf(buffer, (byte) ':', from, to);
+        if (colon <= from || isWhitespace(buffer.get(from))
+                || isWhitespace(buffer.get(colon - 1))) {
+            throw new HttpParseException(HttpParseException.BAD_REQUEST,
+                    "Invalid HTTP header line: " + string(buffer, from, to));
+        }
+        int nameStart = from;
+        int nameEnd = colon;
+        int valueStart = skipWhitespace(buffer, colon + 1, to);
+        int valueEnd = trimWhitespace(buffer, valueStart, to);
+
+        if (headerCount * SLICE_SIZE == headerSlices.length) {
+            headerSlices = Arrays.copyOf(headerSlices,
+                    headerSlices.length * 2);
+        }
+        int slot = headerCount++ * SLICE_SIZE;
+        headerSlices[slot] = nameStart - start;
+        headerSlices[slot + 1] = nameEnd - start;
+        headerSlices[slot + 2] = valueStart - start;
+        headerSlices[slot + 3] = valueEnd - start;
+
+        if (equalsIgnoreCase(buffer, nameStart, nameEnd, CONTENT_LENGTH)) {
+            int length = parseContentLength(buffer, valueStart, valueEnd);
+            if (contentLength >= 0 && length != contentLength) {
+                throw new HttpParseException(HttpParseException.BAD_REQUEST,
+                        "Conflicting Content-Length: " + contentLength
+                                + " and " + length);
+            }
+            contentLength = length;
+        }
+    }
+
+    /**
+     * Copies the request head out of the buffer and creates the HttpRequest
+     * reading its headers and parameters from that copy. A released request
+     * is refilled, reusing its head array if the head fits.
+     *
+     * @param buffer the received bytes
+     * @param start  the position of the request in the buffer
+     * @return the decoded request
+     */
+    private HttpRequest createRequest(ByteBuffer buffer, int start) {
+        HttpRequest request = recycledRequest;
+        byte[] raw;
+        HttpHeaders headers;
+        if (request != null) {
+            recycledRequest = null;
+            raw = request.getRawBuffer(headLength);
+            headers = request.getHttpHeaders();
+            headers.reset(raw);
+        } else {
+            request = new HttpRequest();
+            raw = new byte[headLength];
+            headers = new HttpHeaders(raw);
+        }
+        buffer.get(start, raw, 0, headLength);
+
+        request.setMethod(method(raw));
+        request.setRequestURI(new String(raw, targetStart,
+                (queryStart < 0 ? targetEnd : queryStart) - targetStart,
+                StandardCharsets.ISO_8859_1));
+        request.setProtocol(protocol(raw));
+        request.setContentLength(contentLength);
+        for (int i = 0; i < headerCount * SLICE_SIZE; i += SLICE_SIZE) {
+            headers.add(headerSlices[i], headerSlices[i + 1],
+                    headerSlices[i + 2], headerSlices[i + 3]);
+        }
+        request.setRawRequest(raw, headers);
+        if (queryStart >= 0) {
+            request.setQuerySlice(queryStart + 1, targetEnd - queryStart - 1);
+        }
+        return request;
+    }
+
+    /**
+     * Clears the state of the decoded request so that the next one can be
+     * received.
+     */
+    private void reset() {
+        scanned = 0;
+        lineStart = 0;
+        requestLineDecoded = false;
+        headLength = -1;
+        contentLength = -1;
+        headerCount = 0;
+    }
+
+    /**
+     * Returns the method of the decoded request, reusing the constant of a
+     * well-known method.
+     *
+     * @param raw the bytes of the request
+     * @return the request method
+     */
+    private String method(byte[] raw) {
+        for (String known : KNOWN_METHODS) {
+            if (regionMatches(raw, 0, methodEnd, known, false)) {
+                return known;
+            }
+        }
+        return new String(raw, 0, methodEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the upper-cased protocol version of the decoded request,
+     * reusing the constant of a well-known version.
+     *
+     * @param raw the bytes of the request
+     * @return the request protocol
+     */
+    private String protocol(byte[] raw) {
+        for (String known : KNOWN_PROTOCOLS) {
+            if (regionMatches(raw, protocolStart, protocolEnd, known, true)) {
+                return known;
+            }
+        }
+        return new String(raw, protocolStart, protocolEnd - protocolStart,
+                StandardCharsets.ISO_8859_1).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Parses the decimal value of a Content-Length header.
+     *
+     * @param buffer the received bytes
+     * @param from   the position of the value
+     * @param to     the position just past the value
+     * @return the announced body length
+     * @throws HttpParseException if the value is not a valid length
+     */
+    private static int parseContentLength(ByteBuffer buffer, int from,
+                                          int to) {
+        long length = 0;
+        for (int i = from; i < to; i++) {
+            byte digit = buffer.get(i);
+            if (digit < '0' || digit > '9' || length > Integer.MAX_VALUE) {
+                throw new HttpParseException(
+                        HttpParseException.BAD_REQUEST,
+                        "Invalid Content-Length: " + string(buffer, from, to));
+            }
+            length = length * 10 + (digit - '0');
+        }
+        if (from == to || length > Integer.MAX_VALUE) {
+            throw new HttpParseException(HttpParseException.BAD_REQUEST,
+                    "Invalid Content-Length: " + string(buffer, from, to));
+        }
+        return (int) length;
+    }
+
+    /**
+     * Returns the position of the first occurrence of a byte.
+     *
+     * @param buffer the buffer to search
+     * @param b      the byte to find
+     * @param from   the position to start at
+     * @param to     the position to stop before
+     * @return the position of the byte, or -1 if it does not occur
+     */
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the first byte that is not a space or tab.
+     *
+     * @param buffer the buffer to search
+     * @param from   the position to start at
+     * @param to     the position to stop at
+     * @return the position of the first other byte, or {@code to}
+     */
+    private static int skipWhitespace(ByteBuffer buffer, int from, int to) {
+        while (from < to && isWhitespace(buffer.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Returns the position just past the last byte that is not a space or
+     * tab.
+     *
+     * @param buffer the buffer to search
+     * @param from   the position to stop at
+     * @param to     the position just past the region
+     * @return the end of the region without trailing whitespace
+     */
+    private static int trimWhitespace(ByteBuffer buffer, int from, int to) {
+        while (to > from && isWhitespace(buffer.get(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * Returns whether a region holds nothing but spaces and tabs.
+     *
+     * @param buffer the buffer to check
+     * @param from   the position of the region
+     * @param to     the position just past the region
+     * @return true if the region is blank
+     */
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        return skipWhitespace(buffer, from, to) == to;
+    }
+
+    /**
+     * Returns whether a byte is a space or a horizontal tab.
+     *
+     * @param b the byte to check
+     * @return true if the byte is whitespace
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Compares a region of the buffer with a lower-case ASCII name,
+     * ignoring the case of the region.
+     *
+     * @param buffer the buffer holding the region
+     * @param from   the position of the region
+     * @param to     the position just past the region
+     * @param name   the lower-case name to compare with
+     * @return true if the region spells the name
+     */
+    private static boolean equalsIgnoreCase(ByteBuffer buffer, int from,
+                                            int to, byte[] name) {
+        if (to - from != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            byte b = buffer.get(from + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares a region of the request bytes with an ASCII constant.
+     *
+     * @param raw        the request bytes
+     * @param from       the offset of the region
+     * @param to         the offset just past the region
+     * @param constant   the constant to compare with
+     * @param ignoreCase whether lower-case letters of the region match the
+     *                   upper-case letters of the constant
+     * @return true if the region spells the constant
+     */
+    private static boolean regionMatches(byte[] raw, int from, int to,
+                                         String constant,
+                                         boolean ignoreCase) {
+        if (to - from != constant.length()) {
+            return false;
+        }
+        for (int i = 0; i < constant.length(); i++) {
+            int b = raw[from + i];
+            if (ignoreCase && b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != constant.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a region of the buffer for an error message.
+     *
+     * @param buffer the buffer holding the region
+     * @param from   the position of the region
+     * @param to     the position just past the region
+     * @return the region as a String
+     */
+    private static String string(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
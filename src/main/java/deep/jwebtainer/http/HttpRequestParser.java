@@ -4,18 +4,18 @@ import deep.jwebtainer.http.adaptor.HttpRequest;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * The HttpRequestParser class is responsible for parsing HTTP requests from a
- * BufferedReader. It reads the request line, headers, and query parameters
- * and constructs an HttpRequest object.
+ * BufferedReader. It collects the request line and headers from the reader
+ * and decodes them with an {@link HttpRequestDecoder}, which the transports
+ * use directly on the bytes they receive, and provides the body read from
+ * the reader as the request input stream.
  */
 public final class HttpRequestParser {
-    /**
-     * The expected number of parts in the first line of an HTTP request.
-     * This is typically 3 parts: method, request URI, and HTTP version.
-     */
-    private static final int EXPECTED_HTTP_FIRST_LINE_PARTS = 3;
 
     /**
      * Private constructor to prevent instantiation of this utility class.
@@ -26,92 +26,65 @@ public final class HttpRequestParser {
     }
 
     /**
-     * Parses an HTTP request from the given BufferedReader.
+     * Parses an HTTP request from the given BufferedReader. Empty lines
+     * preceding the request line are ignored, and the request body is read
+     * up to the length announced by the Content-Length header so that the
+     * next request on a persistent connection starts right after it.
      *
      * @param in the BufferedReader to read the HTTP request from
-     * @return an HttpRequest object representing the parsed request
+     * @return an HttpRequest object representing the parsed request, or
+     * null if the stream ended before a new request started
      * @throws IOException if an I/O error occurs while reading the request
      */
     public static HttpRequest parse(BufferedReader in) throws IOException {
-        HttpRequest httpRequest = new HttpRequest();
-
         // Parse request line
         String line = in.readLine(); // e.g., "GET /path?name=deep HTTP/1.1"
-        if (line == null || line.isBlank()) {
-            throw new IllegalArgumentException("Empty HTTP request line");
+        while (line != null && line.isEmpty()) {
+            line = in.readLine();
         }
-
-        String[] requestLineParts = line.split(" ");
-        if (requestLineParts.length != EXPECTED_HTTP_FIRST_LINE_PARTS) {
-            throw new IllegalArgumentException(
-                    "Invalid HTTP request line: " + line);
+        if (line == null) {
+            return null;
         }
 
-        String method = requestLineParts[0];
-        String rawPath = requestLineParts[1];
-
-        httpRequest.setMethod(method);
-
-        // Parse URI and query string
-        int queryIndex = rawPath.indexOf("?");
-        if (queryIndex >= 0) {
-            httpRequest.setRequestURI(rawPath.substring(0, queryIndex));
-            parseRequestParameters(httpRequest,
-                    rawPath.substring(queryIndex + 1));
-        } else {
-            httpRequest.setRequestURI(rawPath);
+        StringBuilder head = new StringBuilder();
+        do {
+            head.append(line).append("\r\n");
+        } while ((line = in.readLine()) != null && !line.isEmpty());
+        head.append("\r\n"); // End of headers
+
+        HttpRequest request = new HttpRequestDecoder().decode(ByteBuffer.wrap(
+                head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+        if (request.getContentLength() > 0) {
+            byte[] body = readBody(in, request.getContentLength())
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            request.setInputStream(new ContentLengthInputStream(
+                    ByteBuffer.wrap(body), InputStream.nullInputStream(),
+                    body.length));
         }
-
-        // Parse headers
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
-            int colonIndex = line.indexOf(":");
-            if (colonIndex <= 0) {
-                throw new IllegalArgumentException("Invalid HTTP header "
-                        + "line: " + line);
-            }
-            String headerName = line.substring(0, colonIndex).trim();
-            String headerValue = line.substring(colonIndex + 1).trim();
-            httpRequest.addHeader(headerName, headerValue);
-        }
-
-        if ("POST".equals(method)) {
-            String contentLengthHeader = httpRequest.getHeader("Content-Length");
-            if (contentLengthHeader != null && Integer.parseInt(contentLengthHeader) > 0) {
-                StringBuilder body = new StringBuilder();
-            while(in.ready()) {
-                body.append((char) in.read());
-            }
-                if (!body.isEmpty()) {
-                    parseRequestParameters(httpRequest, body.toString());
-                }
-            }
-
-        }
-        return httpRequest;
+        return request;
     }
 
-
     /**
-     * Parses the query string and form-data from the request URI and adds parameters to
-     * the HttpRequest object.
+     * Reads exactly the given number of characters of request body, or
+     * fewer if the stream ends first.
      *
-     * @param httpRequest the HttpRequest object to add parameters to
-     * @param queryString the query string to parse (e.g., "name=deep&age=30")
+     * @param in            the BufferedReader positioned at the body
+     * @param contentLength the announced length of the body
+     * @return the body read from the stream
+     * @throws IOException if an I/O error occurs while reading the body
      */
-    private static void parseRequestParameters(HttpRequest httpRequest,
-                                                String queryString) {
-        String[] pairs = queryString.split("&");
-        for (String pair : pairs) {
-            String[] keyValue = pair.split("=", 2);
-            if (keyValue.length == 2) {
-                httpRequest.addParameter(keyValue[0], keyValue[1]);
-            } else if (keyValue.length == 1) {
-                httpRequest.addParameter(keyValue[0], "");
-            } else {
-                throw new IllegalArgumentException("Invalid query parameter "
-                        + "format: " + pair);
+    private static String readBody(BufferedReader in, int contentLength)
+            throws IOException {
+        char[] body = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int count = in.read(body, read, contentLength - read);
+            if (count < 0) {
+                break;
             }
+            read += count;
         }
+        return new String(body, 0, read);
     }
 
 }
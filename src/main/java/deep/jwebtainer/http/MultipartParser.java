@@ -0,0 +1,481 @@
+package deep.jwebtainer.http;
+
+import deep.jwebtainer.BufferPool;
+import deep.jwebtainer.servlet.http.Part;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The MultipartParser class splits a multipart/form-data request body into
+ * its parts while reading it. The body passes through a single fixed-size
+ * buffer in which the parser looks for the boundary delimiter; everything
+ * in front of it is appended to the current part. Parts stay in buffers
+ * lent by a {@link BufferPool} up to a threshold and are spilled to
+ * temporary files beyond it, so an upload is never held on the heap as a
+ * whole. Deleting a part hands its buffer back to the pool, so every part
+ * returned must eventually be deleted; the request does that when it is
+ * recycled.
+ *
+ * <p>The size of every part and of the whole body is limited. Exceeding a
+ * limit stops the parsing with an IOException and deletes the temporary
+ * files created so far.</p>
+ */
+public final class MultipartParser {
+
+    /**
+     * The default largest size of a single part.
+     */
+    public static final long DEFAULT_MAX_PART_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The default largest size of the whole multipart body.
+     */
+    public static final long DEFAULT_MAX_REQUEST_SIZE = 128L * 1024 * 1024;
+
+    /**
+     * The default largest part kept in memory.
+     */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 16 * 1024;
+
+    /**
+     * The media type of a multipart form body.
+     */
+    private static final String MULTIPART_FORM_DATA = "multipart/form-data";
+
+    /**
+     * The longest boundary allowed by RFC 2046.
+     */
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+
+    /**
+     * The size of the buffer the body is read through.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The largest header section of a part.
+     */
+    private static final int MAX_PART_HEADER_SIZE = 8 * 1024;
+
+    /**
+     * The stream of the request body.
+     */
+    private final InputStream in;
+
+    /**
+     * The delimiter in front of every part: CRLF, two dashes and the
+     * boundary.
+     */
+    private final byte[] delimiter;
+
+    /**
+     * The largest size of a single part.
+     */
+    private final long maxPartSize;
+
+    /**
+     * The largest size of the whole body.
+     */
+    private final long maxRequestSize;
+
+    /**
+     * The largest part kept in memory.
+     */
+    private final int memoryThreshold;
+
+    /**
+     * The directory receiving the temporary files.
+     */
+    private final Path tempDirectory;
+
+    /**
+     * The pool lending the buffers of the parts kept in memory.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The buffer the body is read through.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The offset of the first unparsed byte in the buffer.
+     */
+    private int position;
+
+    /**
+     * The offset just past the last received byte in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The number of body bytes read so far.
+     */
+    private long received;
+
+    /**
+     * Constructs a parser using the default limits and the system temporary
+     * directory.
+     *
+     * @param in       the stream of the request body
+     * @param boundary the boundary from the Content-Type of the request
+     */
+    public MultipartParser(InputStream in, String boundary) {
+        this(in, boundary, DEFAULT_MAX_PART_SIZE, DEFAULT_MAX_REQUEST_SIZE,
+                DEFAULT_MEMORY_THRESHOLD,
+                Path.of(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Constructs a parser with the given limits.
+     *
+     * @param in              the stream of the request body
+     * @param boundary        the boundary from the Content-Type of the
+     *                        request
+     * @param maxPartSize     the largest size of a single part
+     * @param maxRequestSize  the largest size of the whole body
+     * @param memoryThreshold the largest part kept in memory
+     * @param tempDirectory   the directory receiving the temporary files
+     */
+    public MultipartParser(InputStream in, String boundary, long maxPartSize,
+                           long maxRequestSize, int memoryThreshold,
+                           Path tempDirectory) {
+        this(in, boundary, maxPartSize, maxRequestSize, memoryThreshold,
+                tempDirectory, BufferPool.shared());
+    }
+
+    /**
+     * Constructs a parser with the given limits, keeping the small parts in
+     * buffers lent by the given pool.
+     *
+     * @param in              the stream of the request body
+     * @param boundary        the boundary from the Content-Type of the
+     *                        request
+     * @param maxPartSize     the largest size of a single part
+     * @param maxRequestSize  the largest size of the whole body
+     * @param memoryThreshold the largest part kept in memory
+     * @param tempDirectory   the directory receiving the temporary files
+     * @param pool            the pool lending the buffers of the parts kept
+     *                        in memory
+     */
+    public MultipartParser(InputStream in, String boundary, long maxPartSize,
+                           long maxRequestSize, int memoryThreshold,
+                           Path tempDirectory, BufferPool pool) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        this.maxPartSize = maxPartSize;
+        this.maxRequestSize = maxRequestSize;
+        this.memoryThreshold = memoryThreshold;
+        this.tempDirectory = tempDirectory;
+        this.pool = pool;
+        this.buffer = new byte[BUFFER_SIZE];
+        // The first delimiter may start the body without the line break
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        this.limit = 2;
+    }
+
+    /**
+     * Extracts the boundary from the Content-Type of a multipart/form-data
+     * request.
+     *
+     * @param contentType the Content-Type header value, or null
+     * @return the boundary, or null if the content type is not
+     * multipart/form-data with a valid boundary
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.trim()
+                .toLowerCase(Locale.ROOT).startsWith(MULTIPART_FORM_DATA)) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).trim()
+                    .equalsIgnoreCase("boundary")) {
+                String boundary = unquote(
+                        parameter.substring(equals + 1).trim());
+                return boundary.isEmpty()
+                        || boundary.length() > MAX_BOUNDARY_LENGTH ? null
+                        : boundary;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the whole body and returns its parts in order. The parts are
+     * deleted if the body cannot be parsed.
+     *
+     * @return the parts of the body
+     * @throws IOException if the body is malformed, exceeds a limit or
+     *                     cannot be read, or a temporary file cannot be
+     *                     written
+     */
+    public List<Part> parse() throws IOException {
+        List<Part> parts = new ArrayList<>();
+        try {
+            copyToDelimiter(null); // skip the preamble
+            while (!isCloseDelimiter()) {
+                MultipartPart part = readPartHeaders();
+                parts.add(part);
+                copyToDelimiter(part);
+                part.finish();
+            }
+            return parts;
+        } catch (IOException | RuntimeException e) {
+            for (Part part : parts) {
+                part.delete();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the body up to the next delimiter into the given part and
+     * consumes the delimiter. Bytes that might be the start of the
+     * delimiter are kept in the buffer until the next read decides.
+     *
+     * @param part the part receiving the content, or null to discard it
+     * @throws IOException if the body ends before the delimiter or the part
+     *                     is too large
+     */
+    private void copyToDelimiter(MultipartPart part) throws IOException {
+        while (true) {
+            int match = indexOfDelimiter();
+            int end = match >= 0 ? match
+                    : Math.max(position, limit - delimiter.length + 1);
+            if (part != null && end > position) {
+                if (part.getSize() + end - position > maxPartSize) {
+                    throw new IOException("Multipart part exceeds "
+                            + maxPartSize + " bytes");
+                }
+                part.append(buffer, position, end - position);
+            }
+            position = end;
+            if (match >= 0) {
+                position += delimiter.length;
+                return;
+            }
+            if (!fill()) {
+                throw new EOFException("Multipart body ended without its "
+                        + "closing boundary");
+            }
+        }
+    }
+
+    /**
+     * Consumes what follows a delimiter: two dashes for the last one, or
+     * the line break in front of the headers of the next part.
+     *
+     * @return true if the delimiter closes the body
+     * @throws IOException if the body is malformed or ends early
+     */
+    private boolean isCloseDelimiter() throws IOException {
+        while (limit - position < 2) {
+            if (!fill()) {
+                throw new EOFException("Multipart body ended after a "
+                        + "boundary");
+            }
+        }
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            return true; // the epilogue is ignored
+        }
+        if (!readLine().isBlank()) {
+            throw new IOException("Invalid multipart boundary line");
+        }
+        return false;
+    }
+
+    /**
+     * Reads the header section of a part and creates the part.
+     *
+     * @return the new, still empty part
+     * @throws IOException if the headers are malformed or too large
+     */
+    private MultipartPart readPartHeaders() throws IOException {
+        Map<String, String> headers =
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int headerSize = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            headerSize += line.length() + 2;
+            if (headerSize > MAX_PART_HEADER_SIZE) {
+                throw new IOException("Multipart headers exceed "
+                        + MAX_PART_HEADER_SIZE + " bytes");
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Invalid multipart header line: "
+                        + line);
+            }
+            headers.put(line.substring(0, colon).trim(),
+                    line.substring(colon + 1).trim());
+        }
+        String disposition = headers.get("Content-Disposition");
+        String name = dispositionParameter(disposition, "name");
+        if (name == null) {
+            throw new IOException("Multipart part without a field name");
+        }
+        return new MultipartPart(headers, name,
+                dispositionParameter(disposition, "filename"),
+                memoryThreshold, tempDirectory, pool);
+    }
+
+    /**
+     * Reads a line from the body, without its line terminator.
+     *
+     * @return the line
+     * @throws IOException if the body ends or the line is too long
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    int end = i > position && buffer[i - 1] == '\r' ? i - 1
+                            : i;
+                    String line = new String(buffer, position,
+                            end - position, StandardCharsets.UTF_8);
+                    position = i + 1;
+                    return line;
+                }
+            }
+            if (limit - position >= MAX_PART_HEADER_SIZE) {
+                throw new IOException("Multipart header line exceeds "
+                        + MAX_PART_HEADER_SIZE + " bytes");
+            }
+            if (!fill()) {
+                throw new EOFException("Multipart body ended inside a "
+                        + "header");
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of the delimiter among the buffered bytes.
+     *
+     * @return the offset of the delimiter, or -1 if it is not buffered
+     */
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        outer:
+        for (int i = position; i <= last; i++) {
+            if (buffer[i] != delimiter[0]) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unparsed bytes to the front of the buffer and reads more of
+     * the body behind them.
+     *
+     * @return false if the body has ended
+     * @throws IOException if the body cannot be read or is too large
+     */
+    private boolean fill() throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        int count = in.read(buffer, limit, buffer.length - limit);
+        if (count < 0) {
+            return false;
+        }
+        received += count;
+        if (received > maxRequestSize) {
+            throw new IOException("Multipart body exceeds " + maxRequestSize
+                    + " bytes");
+        }
+        limit += count;
+        return true;
+    }
+
+    /**
+     * Extracts a parameter of a Content-Disposition header value.
+     *
+     * @param disposition the header value, or null
+     * @param name        the parameter name
+     * @return the unquoted parameter value, or null if it is absent
+     */
+    private static String dispositionParameter(String disposition,
+                                               String name) {
+        if (disposition == null) {
+            return null;
+        }
+        int i = disposition.indexOf(';');
+        while (i >= 0 && i < disposition.length()) {
+            int equals = disposition.indexOf('=', i);
+            if (equals < 0) {
+                return null;
+            }
+            String key = disposition.substring(i + 1, equals).trim();
+            int end = valueEnd(disposition, equals + 1);
+            if (key.equalsIgnoreCase(name)) {
+                return unquote(disposition.substring(equals + 1, end).trim());
+            }
+            i = end;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the end of a parameter value, skipping over a quoted string.
+     *
+     * @param value the header value
+     * @param start the offset of the parameter value
+     * @return the offset of the ';' ending the value, or the length of the
+     * header value
+     */
+    private static int valueEnd(String value, int start) {
+        boolean quoted = false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\\' && quoted) {
+                i++;
+            } else if (c == ';' && !quoted) {
+                return i;
+            }
+        }
+        return value.length();
+    }
+
+    /**
+     * Removes the quotes and escapes of a quoted-string.
+     *
+     * @param value the parameter value
+     * @return the unquoted value
+     */
+    private static String unquote(String value) {
+        if (value.length() < 2 || value.charAt(0) != '"'
+                || value.charAt(value.length() - 1) != '"') {
+            return value;
+        }
+        StringBuilder unquoted = new StringBuilder(value.length());
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() - 1) {
+                c = value.charAt(++i);
+            }
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+}
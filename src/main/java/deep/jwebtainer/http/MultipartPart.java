@@ -0,0 +1,388 @@
+package deep.jwebtainer.http;
+
+import deep.jwebtainer.BufferPool;
+import deep.jwebtainer.servlet.http.Part;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * A part of a multipart/form-data request produced by the
+ * {@link MultipartParser}. Its content is collected in a buffer lent by
+ * the {@link BufferPool} until it grows past the parser's memory threshold,
+ * and from then on written to a temporary file through a
+ * {@link FileChannel}. {@link #delete()} hands the buffer back, so the
+ * content of a part must not be read once it has been deleted.
+ */
+final class MultipartPart implements Part {
+
+    /**
+     * The prefix of the temporary files holding large parts.
+     */
+    private static final String TEMP_FILE_PREFIX = "jwebtainer-part-";
+
+    /**
+     * The headers of the part, looked up ignoring case.
+     */
+    private final Map<String, String> headers;
+
+    /**
+     * The field name from the Content-Disposition header.
+     */
+    private final String name;
+
+    /**
+     * The file name from the Content-Disposition header, or null.
+     */
+    private final String fileName;
+
+    /**
+     * The largest content kept in memory.
+     */
+    private final int memoryThreshold;
+
+    /**
+     * The directory receiving the temporary file.
+     */
+    private final Path tempDirectory;
+
+    /**
+     * The pool lending the buffer of the content kept in memory.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The content collected in memory, in write mode, or null before the
+     * first content and once it has been moved to the temporary file or
+     * the part has been deleted.
+     */
+    private ByteBuffer content;
+
+    /**
+     * The temporary file holding the content, or null while it is kept in
+     * memory.
+     */
+    private Path file;
+
+    /**
+     * The channel writing the temporary file while the part is received.
+     */
+    private FileChannel fileChannel;
+
+    /**
+     * The size of the content received so far.
+     */
+    private long size;
+
+    /**
+     * Constructs a part with the given headers.
+     *
+     * @param headers         the part headers, looked up ignoring case
+     * @param name            the field name
+     * @param fileName        the submitted file name, or null
+     * @param memoryThreshold the largest content kept in memory
+     * @param tempDirectory   the directory receiving the temporary file
+     * @param pool            the pool lending the buffer of the content
+     *                        kept in memory
+     */
+    MultipartPart(Map<String, String> headers, String name, String fileName,
+                  int memoryThreshold, Path tempDirectory, BufferPool pool) {
+        this.headers = headers;
+        this.name = name;
+        this.fileName = fileName;
+        this.memoryThreshold = memoryThreshold;
+        this.tempDirectory = tempDirectory;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the name of the form field the part belongs to.
+     *
+     * @return the field name
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the file name sent by the client for an uploaded file.
+     *
+     * @return the file name, or null if the part is not a file
+     */
+    @Override
+    public String getSubmittedFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the content type of the part.
+     *
+     * @return the content type, or null if the client did not send one
+     */
+    @Override
+    public String getContentType() {
+        return headers.get("Content-Type");
+    }
+
+    /**
+     * Returns the value of a header of the part.
+     *
+     * @param headerName the name of the header, in any case
+     * @return the value of the header, or null if it does not exist
+     */
+    @Override
+    public String getHeader(String headerName) {
+        return headers.get(headerName);
+    }
+
+    /**
+     * Returns the size of the part content.
+     *
+     * @return the size in bytes
+     */
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Opens the content of the part, from memory or from its temporary
+     * file.
+     *
+     * @return a new stream over the part content
+     * @throws IOException if the temporary file cannot be opened
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return file == null ? new ContentInputStream()
+                : Files.newInputStream(file);
+    }
+
+    /**
+     * Stores the content of the part in the given file. A temporary file is
+     * moved to the target, after which the part is empty.
+     *
+     * @param target the file to write
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void write(Path target) throws IOException {
+        if (file == null) {
+            try (FileChannel channel = FileChannel.open(target,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, stored());
+            }
+            return;
+        }
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        file = null;
+        size = 0;
+    }
+
+    /**
+     * Deletes the temporary file of the part, if it has one, and hands the
+     * buffer of the content kept in memory back to the pool.
+     *
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    @Override
+    public void delete() throws IOException {
+        if (content != null) {
+            pool.release(content);
+            content = null;
+            size = 0;
+        }
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Appends received content to the part, moving it to a temporary file
+     * once it grows past the memory threshold.
+     *
+     * @param b   the received data
+     * @param off the start offset in the data
+     * @param len the number of bytes to append
+     * @throws IOException if the temporary file cannot be written
+     */
+    void append(byte[] b, int off, int len) throws IOException {
+        if (fileChannel == null && size + len > memoryThreshold) {
+            file = Files.createTempFile(tempDirectory, TEMP_FILE_PREFIX,
+                    ".tmp");
+            fileChannel = FileChannel.open(file, StandardOpenOption.WRITE);
+            if (content != null) {
+                writeFully(fileChannel, content.flip());
+                pool.release(content);
+                content = null;
+            }
+        }
+        if (fileChannel != null) {
+            writeFully(fileChannel, ByteBuffer.wrap(b, off, len));
+        } else {
+            if (content == null || content.remaining() < len) {
+                grow((int) size + len);
+            }
+            content.put(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Moves the content kept in memory to a larger buffer from the pool.
+     * The capacity at least doubles, but is not asked beyond the memory
+     * threshold.
+     *
+     * @param capacity the capacity needed
+     */
+    private void grow(int capacity) {
+        ByteBuffer larger = pool.acquire(content == null ? capacity
+                : Math.min(Math.max(content.capacity() * 2, capacity),
+                        memoryThreshold));
+        if (content != null) {
+            larger.put(content.flip());
+            pool.release(content);
+        }
+        content = larger;
+    }
+
+    /**
+     * Returns a read-only view of the content kept in memory.
+     *
+     * @return the content, empty if none has been received
+     * @throws IOException if the part has been deleted
+     */
+    private ByteBuffer stored() throws IOException {
+        if (content == null) {
+            if (size > 0) {
+                throw new IOException("Multipart part deleted");
+            }
+            return ByteBuffer.allocate(0);
+        }
+        return content.asReadOnlyBuffer().flip();
+    }
+
+    /**
+     * Completes the part once its last content has been appended.
+     *
+     * @throws IOException if the temporary file cannot be closed
+     */
+    void finish() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+
+    /**
+     * Writes the whole buffer to a file.
+     *
+     * @param channel the channel of the file
+     * @param data    the data to write
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer data)
+            throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    /**
+     * A stream over the content kept in memory. It fails once the part has
+     * been deleted, rather than reading a buffer the pool has lent again.
+     */
+    private final class ContentInputStream extends InputStream {
+
+        /**
+         * The buffer holding the content when the stream was opened.
+         */
+        private final ByteBuffer source;
+
+        /**
+         * The view of the content left to read.
+         */
+        private final ByteBuffer data;
+
+        /**
+         * Opens the stream.
+         *
+         * @throws IOException if the part has been deleted
+         */
+        ContentInputStream() throws IOException {
+            this.data = stored();
+            this.source = content;
+        }
+
+        /**
+         * Reads the next byte of the content.
+         *
+         * @return the byte, or -1 at the end of the content
+         * @throws IOException if the part has been deleted
+         */
+        @Override
+        public int read() throws IOException {
+            checkNotDeleted();
+            return data.hasRemaining() ? data.get() & 0xFF : -1;
+        }
+
+        /**
+         * Reads content into an array.
+         *
+         * @param b   the destination array
+         * @param off the start offset in the array
+         * @param len the maximum number of bytes to read
+         * @return the number of bytes read, or -1 at the end of the content
+         * @throws IOException if the part has been deleted
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkNotDeleted();
+            if (len == 0) {
+                return 0;
+            }
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, data.remaining());
+            data.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes of content left to read.
+         *
+         * @return the number of bytes left
+         * @throws IOException if the part has been deleted
+         */
+        @Override
+        public int available() throws IOException {
+            checkNotDeleted();
+            return data.remaining();
+        }
+
+        /**
+         * Checks that the buffer read from still belongs to the part.
+         *
+         * @throws IOException if the part has been deleted
+         */
+        private void checkNotDeleted() throws IOException {
+            if (source != content) {
+                throw new IOException("Multipart part deleted");
+            }
+        }
+    }
+}
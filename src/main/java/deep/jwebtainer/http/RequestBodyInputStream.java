@@ -0,0 +1,51 @@
+package deep.jwebtainer.http;
+
+import deep.jwebtainer.servlet.ServletInputStream;
+
+import java.io.IOException;
+
+/**
+ * The base class of the streams a transport hands to servlets as the request
+ * body. Such a stream ends with the body, whatever its framing, and lets the
+ * transport skip what the servlet left unread so that the next request on
+ * the connection can be read.
+ */
+public abstract class RequestBodyInputStream extends ServletInputStream {
+
+    /**
+     * The size of the scratch buffer used to discard unread body bytes.
+     */
+    private static final int DISCARD_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Reads and drops the rest of the body, giving up once more than the
+     * given number of bytes have been dropped.
+     *
+     * @param maxBytes the largest remainder worth reading
+     * @return true if the whole body has been consumed, false if the
+     * remainder was too large and the connection cannot be reused
+     * @throws IOException if the connection ends before the body
+     */
+    public boolean discardRemaining(long maxBytes) throws IOException {
+        byte[] scratch = null;
+        long discarded = 0;
+        while (!isFinished() && discarded <= maxBytes) {
+            if (scratch == null) {
+                scratch = new byte[DISCARD_BUFFER_SIZE];
+            }
+            int count = read(scratch, 0, scratch.length);
+            if (count < 0) {
+                break;
+            }
+            discarded += count;
+        }
+        return isFinished();
+    }
+
+    /**
+     * Closing a body stream has no effect on the connection.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,219 @@
+package deep.jwebtainer.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * The ResponseCompression class decides whether and how a response body is
+ * compressed. It negotiates gzip or deflate from the Accept-Encoding header
+ * of the request, skips bodies too small to gain from compression and
+ * content types that are already compressed, and compresses with Deflaters
+ * taken from a shared {@link DeflaterPool}.
+ *
+ * <p>A body that is complete when the response is sent is compressed in one
+ * go by {@link #compress}; if the response is marked as cacheable its
+ * compressed form is kept in a {@link CompressedBodyCache}, so that sending
+ * the same static page again costs a lookup instead of a compression. A
+ * streamed body is compressed on the fly by a
+ * {@link CompressingOutputStream}.</p>
+ */
+public final class ResponseCompression {
+
+    /**
+     * The gzip content-coding.
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * The deflate content-coding, which is zlib-wrapped deflate data.
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * The smallest complete body that is compressed. Below this size the
+     * framing and CPU overhead outweigh the saved bytes.
+     */
+    public static final int MIN_SIZE = 1024;
+
+    /**
+     * The instance shared by every connection, so that they share the pool
+     * of Deflaters and the cache of compressed bodies.
+     */
+    private static final ResponseCompression SHARED =
+            new ResponseCompression();
+
+    /**
+     * The pool of Deflaters.
+     */
+    private final DeflaterPool deflaters =
+            new DeflaterPool(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * The compressed forms of cacheable bodies.
+     */
+    private final CompressedBodyCache cache = new CompressedBodyCache();
+
+    /**
+     * Constructs an instance with its own Deflater pool and cache.
+     */
+    ResponseCompression() {
+    }
+
+    /**
+     * Returns the instance shared by every connection.
+     *
+     * @return the shared instance
+     */
+    public static ResponseCompression shared() {
+        return SHARED;
+    }
+
+    /**
+     * Chooses the content-coding to send from the Accept-Encoding header of
+     * a request. gzip is preferred over deflate when the client accepts both
+     * equally; a coding with a quality of 0 is refused.
+     *
+     * @param acceptEncoding the Accept-Encoding header, or null
+     * @return {@link #GZIP}, {@link #DEFLATE}, or null if the body is sent
+     * uncompressed
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        String chosen = null;
+        double chosenQuality = 0;
+        double wildcardQuality = -1;
+        double gzipQuality = -1;
+        double deflateQuality = -1;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String coding = (semicolon < 0 ? element
+                    : element.substring(0, semicolon)).trim()
+                    .toLowerCase(Locale.ROOT);
+            double quality = semicolon < 0 ? 1
+                    : quality(element.substring(semicolon + 1));
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzipQuality = quality;
+                case DEFLATE -> deflateQuality = quality;
+                case "*" -> wildcardQuality = quality;
+                default -> {
+                }
+            }
+        }
+        if (gzipQuality < 0) {
+            gzipQuality = wildcardQuality;
+        }
+        if (deflateQuality < 0) {
+            deflateQuality = wildcardQuality;
+        }
+        if (gzipQuality > chosenQuality) {
+            chosen = GZIP;
+            chosenQuality = gzipQuality;
+        }
+        if (deflateQuality > chosenQuality) {
+            chosen = DEFLATE;
+        }
+        return chosen;
+    }
+
+    /**
+     * Decides whether a content type gains from compression. Text, JSON,
+     * JavaScript, XML and SVG do; images, audio, video, archives and other
+     * binary types are usually compressed already and do not.
+     *
+     * @param contentType the Content-Type of the response, or null
+     * @return true if bodies of this type should be compressed
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType
+                : contentType.substring(0, semicolon)).trim()
+                .toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.endsWith("+json") || type.endsWith("+xml")
+                || type.equals("application/json")
+                || type.equals("application/javascript")
+                || type.equals("application/xml")
+                || type.equals("image/svg+xml");
+    }
+
+    /**
+     * Compresses a complete body. The compressed form of a cacheable body
+     * is taken from, or added to, the cache of compressed bodies.
+     *
+     * @param encoding  {@link #GZIP} or {@link #DEFLATE}
+     * @param body      the bytes holding the body
+     * @param off       the start offset of the body
+     * @param len       the length of the body
+     * @param cacheable whether the same body is likely to be sent again
+     * @return the compressed body
+     */
+    public byte[] compress(String encoding, byte[] body, int off, int len,
+                           boolean cacheable) {
+        if (cacheable) {
+            byte[] cached = cache.get(encoding, body, off, len);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ByteArrayOutputStream compressed =
+                new ByteArrayOutputStream(len / 3 + 64);
+        CompressingOutputStream out = stream(encoding, compressed);
+        try {
+            out.write(body, off, len);
+            out.finish();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new UncheckedIOException(e);
+        } finally {
+            out.release();
+        }
+        byte[] result = compressed.toByteArray();
+        if (cacheable) {
+            cache.put(encoding, body, off, len, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a stream compressing a body of unknown length on the fly.
+     * The stream must be finished, or released if the response is
+     * abandoned, to return its Deflater to the pool.
+     *
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}
+     * @param out      the stream receiving the compressed body
+     * @return the compressing stream
+     */
+    public CompressingOutputStream stream(String encoding, OutputStream out) {
+        return new CompressingOutputStream(out, encoding, deflaters);
+    }
+
+    /**
+     * Parses the quality parameter of an Accept-Encoding element.
+     *
+     * @param parameters the parameters following the coding
+     * @return the quality from 0 to 1, or 0 if it is malformed
+     */
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.length() > 2 && (trimmed.charAt(0) == 'q'
+                    || trimmed.charAt(0) == 'Q') && trimmed.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(trimmed.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,44 @@
+package deep.jwebtainer.http.adaptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Sends a file, or file content held in memory, as the body of a response
+ * straight to the client connection, bypassing the response buffer. Every
+ * transport provides its own: the blocking transports transfer the file to
+ * the socket channel with {@link java.nio.channels.FileChannel#transferTo},
+ * which the operating system turns into sendfile, and write cached content
+ * from its buffer to the channel, while the non-blocking transport queues
+ * the file or the content behind the pending responses of the connection.
+ *
+ * <p>The status line and headers of the response have been handed to the
+ * connection stream when the transfer is started; the implementation must
+ * send them before the body.</p>
+ */
+public interface FileTransfer {
+
+    /**
+     * Sends a region of a file to the client.
+     *
+     * @param file     the file
+     * @param position the offset of the first byte to send
+     * @param count    the number of bytes to send
+     * @throws IOException if the file cannot be read or the connection
+     *                     fails
+     */
+    void transfer(Path file, long position, long count) throws IOException;
+
+    /**
+     * Sends the remaining bytes of a buffer to the client. The content may
+     * be a direct or memory-mapped buffer shared with other connections, so
+     * the implementation must not modify it; only the position of the given
+     * view is its own to advance.
+     *
+     * @param content a view of the content, positioned at the first byte to
+     *                send
+     * @throws IOException if the connection fails
+     */
+    void transfer(ByteBuffer content) throws IOException;
+}
@@ -0,0 +1,445 @@
+package deep.jwebtainer.http.adaptor;
+
+import deep.jwebtainer.servlet.AsyncContext;
+import deep.jwebtainer.servlet.AsyncListener;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The HttpAsyncContext class is the {@link AsyncContext} of an HTTP request
+ * processed asynchronously. It is created by the transport when the servlet
+ * calls {@link HttpRequest#startAsync()} and tells the transport when the
+ * request completes: a transport whose thread waits for the response blocks
+ * in {@link #awaitCompletion()}, and one that has moved on to other work
+ * is called back through the completion hook given to the constructor.
+ *
+ * <p>The context only tracks the deadline of the request; the transport
+ * checks it with {@link #isExpired(long)} or {@link #awaitCompletion()} and
+ * handles an expired request, notifying the listeners with
+ * {@link #fireTimeout()}. A transport that loses the connection of the
+ * request before it completes notifies them with
+ * {@link #fireError(Throwable)}, then completes it with {@link #abandon()}
+ * if none of them did.</p>
+ *
+ * <p>The servlet's thread and the transport may both want to finish the
+ * response: the servlet by completing the request, the transport by
+ * answering it once it has timed out. The first to move the context out of
+ * the dispatched state wins, and only the winner touches the response from
+ * then on. The response enters the context around every change the servlet
+ * makes to it, so that the transport, once it has claimed the response
+ * with {@link #claimTimeout()}, waits for a write in progress and then
+ * turns away the servlet's later writes, while its own go through.</p>
+ */
+public final class HttpAsyncContext implements AsyncContext {
+
+    /**
+     * Logger for logging failed asynchronous processing.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(HttpAsyncContext.class.getName());
+
+    /**
+     * The state of a request still processed by the servlet.
+     */
+    private static final int DISPATCHED = 0;
+
+    /**
+     * The state of a request completed by the servlet, or being answered
+     * after its processing failed.
+     */
+    private static final int COMPLETING = 1;
+
+    /**
+     * The state of a request whose response the transport has claimed
+     * after its timeout expired.
+     */
+    private static final int TIMED_OUT = 2;
+
+    /**
+     * The request processed asynchronously.
+     */
+    private final HttpRequest request;
+
+    /**
+     * The response to the request.
+     */
+    private final HttpResponse response;
+
+    /**
+     * Called by the completing thread to hand the response back to the
+     * transport.
+     */
+    private final Runnable onComplete;
+
+    /**
+     * The {@link System#nanoTime()} at which processing was started.
+     */
+    private final long started = System.nanoTime();
+
+    /**
+     * The listeners notified of the outcome.
+     */
+    private final List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Guards {@link #completed}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the request completes.
+     */
+    private final Condition completion = lock.newCondition();
+
+    /**
+     * Whether the request has been completed.
+     */
+    private boolean completed;
+
+    /**
+     * Whether the request is {@link #DISPATCHED}, {@link #COMPLETING} or
+     * {@link #TIMED_OUT}; leaves the dispatched state once.
+     */
+    private final AtomicInteger state = new AtomicInteger(DISPATCHED);
+
+    /**
+     * Held by a thread changing the response, and by the thread that has
+     * claimed it for as long as it answers the request.
+     */
+    private final ReentrantLock responseLock = new ReentrantLock();
+
+    /**
+     * The timeout in milliseconds, zero or less for none.
+     */
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Constructs the context of a request.
+     *
+     * @param request    the request processed asynchronously
+     * @param response   the response to the request
+     * @param onComplete called once by the completing thread when the
+     *                   request completes
+     */
+    public HttpAsyncContext(HttpRequest request, HttpResponse response,
+                            Runnable onComplete) {
+        this.request = request;
+        this.response = response;
+        this.onComplete = onComplete;
+        response.setAsyncContext(this);
+    }
+
+    /**
+     * Returns the request processed asynchronously.
+     *
+     * @return the request
+     */
+    @Override
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns the response to the request.
+     *
+     * @return the response
+     */
+    @Override
+    public HttpResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Sets the time the request may take until it is completed.
+     *
+     * @param timeout the timeout in milliseconds, or zero or less for none
+     */
+    @Override
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the time the request may take until it is completed.
+     *
+     * @return the timeout in milliseconds, zero or less for none
+     */
+    @Override
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Registers a listener notified when the request completes or times
+     * out.
+     *
+     * @param listener the listener
+     */
+    @Override
+    public void addListener(AsyncListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Completes the request: runs the completion hook, wakes up a waiting
+     * transport thread and notifies the listeners. Only the first call has
+     * an effect, and once the transport has claimed the response, only a
+     * call from the thread answering the request in its place.
+     */
+    @Override
+    public void complete() {
+        if (!state.compareAndSet(DISPATCHED, COMPLETING)
+                && !responseLock.isHeldByCurrentThread()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (completed) {
+                return;
+            }
+            completed = true;
+        } finally {
+            lock.unlock();
+        }
+        onComplete.run();
+        lock.lock();
+        try {
+            completion.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (AsyncListener listener : listeners) {
+            listener.onComplete(this);
+        }
+    }
+
+    /**
+     * Completes the request once a stage completes. A failure is logged and
+     * the request completed with {@link #fail()}.
+     *
+     * @param stage the stage producing the response
+     */
+    @Override
+    public void completeWhen(CompletionStage<?> stage) {
+        stage.whenComplete((result, failure) -> {
+            if (failure == null) {
+                complete();
+                return;
+            }
+            LOGGER.log(Level.SEVERE, "Asynchronous processing failed",
+                    failure);
+            fail();
+        });
+    }
+
+    /**
+     * Completes a request whose processing failed, answering it with 500
+     * Internal Server Error if the response has not been committed, and
+     * closes the connection after it. Nothing is done if the request has
+     * been completed or has timed out in the meantime.
+     */
+    public void fail() {
+        if (!claim(COMPLETING)) {
+            return;
+        }
+        try {
+            response.setKeepAlive(false);
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(500);
+            }
+            complete();
+        } finally {
+            responseLock.unlock();
+        }
+    }
+
+    /**
+     * Claims the response of a request whose timeout has expired, so that
+     * the transport may answer it. Waits for a change the servlet is making
+     * to the response; the changes it makes afterwards are rejected and
+     * its calls to {@link #complete()} ignored. The claim must be released
+     * with {@link #releaseClaim()}.
+     *
+     * @return true if the response has been claimed, false if the request
+     * has already been completed
+     */
+    public boolean claimTimeout() {
+        return claim(TIMED_OUT);
+    }
+
+    /**
+     * Completes a request whose connection has gone without the servlet
+     * or a listener having completed it, so that what the request holds
+     * is released. The response is claimed as for a timeout, so the
+     * servlet's later writes are rejected.
+     */
+    public void abandon() {
+        if (!claim(TIMED_OUT)) {
+            return;
+        }
+        try {
+            complete();
+        } finally {
+            responseLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the response claimed with {@link #claimTimeout()}.
+     */
+    public void releaseClaim() {
+        responseLock.unlock();
+    }
+
+    /**
+     * Returns whether the transport has claimed the response after the
+     * timeout expired.
+     *
+     * @return true if the request has timed out
+     */
+    public boolean isTimedOut() {
+        return state.get() == TIMED_OUT;
+    }
+
+    /**
+     * Enters a change to the response, waiting while another thread makes
+     * one. Must be followed by {@link #exitResponse()} if it succeeds.
+     *
+     * @return true if the change may be made, false if the transport has
+     * claimed the response and the calling thread is not answering the
+     * request in its place
+     */
+    boolean enterResponse() {
+        responseLock.lock();
+        if (state.get() == TIMED_OUT && responseLock.getHoldCount() == 1) {
+            responseLock.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the response for the transport finishing it, waiting while
+     * another thread changes it. Must be followed by
+     * {@link #exitResponse()}.
+     */
+    void lockResponse() {
+        responseLock.lock();
+    }
+
+    /**
+     * Leaves a change to the response entered with
+     * {@link #enterResponse()} or {@link #lockResponse()}.
+     */
+    void exitResponse() {
+        responseLock.unlock();
+    }
+
+    /**
+     * Moves the request out of the dispatched state and takes the response
+     * over, waiting for a change in progress.
+     *
+     * @param next the state to move to
+     * @return true if the calling thread won the response, which it must
+     * then release
+     */
+    private boolean claim(int next) {
+        if (!state.compareAndSet(DISPATCHED, next)) {
+            return false;
+        }
+        responseLock.lock();
+        return true;
+    }
+
+    /**
+     * Returns whether the request has been completed.
+     *
+     * @return true if the request has been completed
+     */
+    public boolean isCompleted() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the timeout has expired without the request having
+     * been completed.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return true if the request has timed out
+     */
+    public boolean isExpired(long now) {
+        long millis = timeout;
+        return millis > 0 && now - started >= TimeUnit.MILLISECONDS
+                .toNanos(millis) && !isCompleted();
+    }
+
+    /**
+     * Blocks until the request has been completed or its timeout expires.
+     *
+     * @return true if the request has been completed, false if it has timed
+     * out
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean awaitCompletion() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!completed) {
+                long millis = timeout;
+                if (millis <= 0) {
+                    completion.await();
+                    continue;
+                }
+                long left = TimeUnit.MILLISECONDS.toNanos(millis)
+                        - (System.nanoTime() - started);
+                if (left <= 0) {
+                    return false;
+                }
+                completion.awaitNanos(left);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notifies the listeners that the request has timed out.
+     *
+     * @return true if a listener completed the request
+     */
+    public boolean fireTimeout() {
+        for (AsyncListener listener : listeners) {
+            listener.onTimeout(this);
+        }
+        return isCompleted();
+    }
+
+    /**
+     * Notifies the listeners that the connection of the request has failed
+     * or been closed, unless the request has already been completed.
+     *
+     * @param failure the cause of the failure
+     */
+    public void fireError(Throwable failure) {
+        if (isCompleted()) {
+            return;
+        }
+        for (AsyncListener listener : listeners) {
+            listener.onError(this, failure);
+        }
+    }
+}
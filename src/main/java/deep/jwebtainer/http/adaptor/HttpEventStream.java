@@ -0,0 +1,399 @@
+package deep.jwebtainer.http.adaptor;
+
+import deep.jwebtainer.servlet.AsyncContext;
+import deep.jwebtainer.servlet.AsyncListener;
+import deep.jwebtainer.servlet.http.EventStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The HttpEventStream class is the {@link EventStream} of an HTTP response
+ * whose request is processed asynchronously. Every event is written to the
+ * response as one frame and flushed, which sends it as one chunk of the
+ * body; the transport takes care of getting it to the socket from the
+ * sending thread.
+ *
+ * <p>The heartbeats of all streams are scheduled on a single daemon timer
+ * thread, so that an idle stream costs no thread of its own. The timer only
+ * decides which streams are due; the heartbeat itself is written on a
+ * virtual thread, since a write to a blocking socket whose client does not
+ * read would otherwise stall the heartbeats of every other stream. A write
+ * that fails, whether of an event or a heartbeat, closes the stream, and
+ * so does the transport reporting the connection lost through
+ * {@link AsyncListener#onError}.</p>
+ *
+ * <p>Writes to the response, and closing the stream, are serialized by a
+ * lock, so the response is no longer touched once the stream has been
+ * closed and the request is completed.</p>
+ */
+public final class HttpEventStream implements EventStream {
+
+    /**
+     * Logger for logging failed heartbeats and close callbacks.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(HttpEventStream.class.getName());
+
+    /**
+     * The comment line sent as a heartbeat.
+     */
+    private static final byte[] HEARTBEAT =
+            ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The timer scheduling the heartbeats of every stream.
+     */
+    private static final ScheduledThreadPoolExecutor HEARTBEATS =
+            newHeartbeatTimer();
+
+    /**
+     * The response the events are written to.
+     */
+    private final HttpResponse response;
+
+    /**
+     * The context of the request, completed when the stream is closed.
+     */
+    private final AsyncContext context;
+
+    /**
+     * Serializes the writes and guards the state of the stream.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The callbacks run when the stream ends.
+     */
+    private final List<Runnable> closeCallbacks = new ArrayList<>();
+
+    /**
+     * Whether events can still be sent.
+     */
+    private boolean open = true;
+
+    /**
+     * The heartbeat interval in milliseconds, zero or less for none.
+     */
+    private volatile long heartbeatInterval;
+
+    /**
+     * The scheduled heartbeat check, or null.
+     */
+    private ScheduledFuture<?> heartbeat;
+
+    /**
+     * The {@link System#nanoTime()} of the last write.
+     */
+    private volatile long lastWrite = System.nanoTime();
+
+    /**
+     * Constructs the stream of a committed response, disables the timeout
+     * of the request and starts the heartbeats.
+     *
+     * @param response the response the events are written to
+     * @param context  the context of the request
+     */
+    HttpEventStream(HttpResponse response, AsyncContext context) {
+        this.response = response;
+        this.context = context;
+        context.setTimeout(0);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncContext context) {
+                shutDown();
+            }
+
+            @Override
+            public void onTimeout(AsyncContext context) {
+                close();
+            }
+
+            @Override
+            public void onError(AsyncContext context, Throwable failure) {
+                LOGGER.log(Level.FINE, "Event stream client went away",
+                        failure);
+                close();
+            }
+        });
+        setHeartbeatInterval(DEFAULT_HEARTBEAT_INTERVAL);
+    }
+
+    /**
+     * Sends an unnamed event.
+     *
+     * @param data the data of the event
+     * @throws IOException if the stream is closed or the event could not be
+     *                     written
+     */
+    @Override
+    public void send(String data) throws IOException {
+        send(null, null, data);
+    }
+
+    /**
+     * Sends an event.
+     *
+     * @param event the name of the event, or null
+     * @param data  the data of the event
+     * @throws IOException if the stream is closed or the event could not be
+     *                     written
+     */
+    @Override
+    public void send(String event, String data) throws IOException {
+        send(null, event, data);
+    }
+
+    /**
+     * Sends an event with an id.
+     *
+     * @param id    the id of the event, or null
+     * @param event the name of the event, or null
+     * @param data  the data of the event
+     * @throws IOException if the stream is closed or the event could not be
+     *                     written
+     */
+    @Override
+    public void send(String id, String event, String data)
+            throws IOException {
+        write(frame(id, event, data));
+    }
+
+    /**
+     * Sets the time without events after which a heartbeat is sent, and
+     * reschedules the heartbeat check accordingly.
+     *
+     * @param millis the interval in milliseconds, or zero or less for none
+     */
+    @Override
+    public void setHeartbeatInterval(long millis) {
+        lock.lock();
+        try {
+            heartbeatInterval = millis;
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+                heartbeat = null;
+            }
+            if (open && millis > 0) {
+                heartbeat = HEARTBEATS.scheduleWithFixedDelay(
+                        this::checkHeartbeat, millis, millis,
+                        TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a callback run when the stream ends.
+     *
+     * @param callback the callback
+     */
+    @Override
+    public void onClose(Runnable callback) {
+        lock.lock();
+        try {
+            if (open) {
+                closeCallbacks.add(callback);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        callback.run();
+    }
+
+    /**
+     * Returns whether events can still be sent.
+     *
+     * @return true until the stream has been closed
+     */
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the stream and completes the request, which makes the transport
+     * end the response body.
+     */
+    @Override
+    public void close() {
+        if (shutDown()) {
+            context.complete();
+        }
+    }
+
+    /**
+     * Builds the frame of an event.
+     *
+     * @param id    the id of the event, or null
+     * @param event the name of the event, or null
+     * @param data  the data of the event
+     * @return the encoded frame, ending with the blank line that
+     * dispatches the event
+     * @throws IllegalArgumentException if the id or the name contains a
+     *                                  line break
+     */
+    static byte[] frame(String id, String event, String data) {
+        StringBuilder frame = new StringBuilder(data.length() + 32);
+        if (id != null) {
+            frame.append("id: ").append(field("id", id)).append('\n');
+        }
+        if (event != null) {
+            frame.append("event: ").append(field("event", event))
+                    .append('\n');
+        }
+        int start = 0;
+        while (true) {
+            int end = start;
+            while (end < data.length() && data.charAt(end) != '\n'
+                    && data.charAt(end) != '\r') {
+                end++;
+            }
+            frame.append("data: ").append(data, start, end).append('\n');
+            if (end == data.length()) {
+                break;
+            }
+            // A CRLF pair is one line break
+            start = data.startsWith("\r\n", end) ? end + 2 : end + 1;
+        }
+        return frame.append('\n').toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that a single-line field contains no line break.
+     *
+     * @param name  the name of the field
+     * @param value the value of the field
+     * @return the value
+     * @throws IllegalArgumentException if the value contains a line break
+     */
+    private static String field(String name, String value) {
+        if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Event " + name
+                    + " contains a line break");
+        }
+        return value;
+    }
+
+    /**
+     * Writes bytes to the response and flushes them to the client. A
+     * failure closes the stream.
+     *
+     * @param bytes the bytes to write
+     * @throws IOException if the stream is closed or the bytes could not be
+     *                     written
+     */
+    private void write(byte[] bytes) throws IOException {
+        lock.lock();
+        try {
+            if (!open) {
+                throw new IOException("Event stream closed");
+            }
+            OutputStream out = response.getOutputStream();
+            out.write(bytes);
+            response.flushBuffer();
+            lastWrite = System.nanoTime();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a heartbeat if nothing has been written for the heartbeat
+     * interval. Runs on the timer thread, which must never wait for the
+     * lock of a stream.
+     */
+    private void checkHeartbeat() {
+        long idle = System.nanoTime() - lastWrite;
+        if (idle >= TimeUnit.MILLISECONDS.toNanos(heartbeatInterval)) {
+            Thread.ofVirtual().name("jwebtainer-sse-heartbeat")
+                    .start(this::sendHeartbeat);
+        }
+    }
+
+    /**
+     * Writes a heartbeat, unless an event is being sent at the same time.
+     */
+    private void sendHeartbeat() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (open) {
+                write(HEARTBEAT);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Event stream heartbeat failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the stream closed, stops its heartbeats and runs the close
+     * callbacks, once.
+     *
+     * @return true if the stream was open
+     */
+    private boolean shutDown() {
+        List<Runnable> callbacks;
+        lock.lock();
+        try {
+            if (!open) {
+                return false;
+            }
+            open = false;
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+                heartbeat = null;
+            }
+            callbacks = new ArrayList<>(closeCallbacks);
+            closeCallbacks.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Event stream close callback "
+                        + "failed", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the timer scheduling the heartbeats. Cancelled checks are
+     * removed from its queue right away, since streams come and go.
+     *
+     * @return the timer, running on a daemon thread
+     */
+    private static ScheduledThreadPoolExecutor newHeartbeatTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+                1, Thread.ofPlatform().name("jwebtainer-sse-timer")
+                .daemon().factory());
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
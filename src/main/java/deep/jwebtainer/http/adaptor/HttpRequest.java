@@ -1,17 +1,81 @@
 package deep.jwebtainer.http.adaptor;
 
+import deep.jwebtainer.http.ContentLengthInputStream;
+import deep.jwebtainer.http.HttpHeaderName;
+import deep.jwebtainer.http.HttpHeaders;
+import deep.jwebtainer.http.MultipartParser;
+import deep.jwebtainer.servlet.ServletInputStream;
 import deep.jwebtainer.servlet.http.HttpServletRequest;
+import deep.jwebtainer.servlet.http.Part;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Represents an HTTP request in the JWebtainer framework.
  * This class implements the HttpServletRequest interface and provides methods
  * to access request details such as method, URI, headers, and parameters.
+ *
+ * <p>A request decoded from the wire keeps the received bytes together with
+ * the offsets of its headers and query string. Header values and parameters
+ * are only turned into Strings when they are asked for, so a servlet pays
+ * for the parts of the request it actually reads. Parameters are
+ * percent-decoded in a single pass into a flat array of name and value
+ * pairs, which keeps repeated parameters in their order. The body is provided as a
+ * stream; a form-encoded body is only read from it when a parameter is
+ * asked for, and a multipart body when its parts or parameters are. The
+ * servlet path and path parameters are likewise kept as offsets into the
+ * request URI until they are asked for.</p>
+ *
+ * <p>The transports reuse one request object per connection: once the
+ * response has completed, {@link #recycle()} clears it for the next request
+ * while keeping its arrays. A servlet that still reads from a recycled
+ * request gets an IllegalStateException instead of another request's
+ * data.</p>
  */
 public class HttpRequest implements HttpServletRequest {
 
+    /**
+     * Logger for logging request handling events.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(HttpRequest.class.getName());
+
+    /**
+     * The largest form-encoded body that is parsed into parameters.
+     */
+    private static final int MAX_FORM_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * The media type of a form-encoded body.
+     */
+    private static final String FORM_CONTENT_TYPE =
+            "application/x-www-form-urlencoded";
+
+    /**
+     * The initial capacity, in name and value pairs, of the parameter array.
+     */
+    private static final int INITIAL_PARAMETER_CAPACITY = 8;
+
+    /**
+     * The path parameter names of a request without any.
+     */
+    private static final String[] NO_NAMES = new String[0];
+
     /**
      * The HTTP method of the request (e.g., GET, POST).
      */
@@ -23,17 +87,117 @@ public class HttpRequest implements HttpServletRequest {
     private String requestURI;
 
     /**
-     * A map to hold HTTP headers, where the key is the header name and the
-     * value is an array of header values.
+     * The part of the request URI that selected the servlet, or null while
+     * it has not been cut out of the URI or the request has not been
+     * dispatched.
+     */
+    private String servletPath;
+
+    /**
+     * The length of the servlet path in the request URI, or -1 if it has
+     * not been recorded.
+     */
+    private int servletPathLength = -1;
+
+    /**
+     * The path parameters of the mapping that selected the servlet, or null
+     * while they have not been built from {@link #pathParameterNames}.
+     */
+    private Map<String, String> pathParameters = Map.of();
+
+    /**
+     * The names of the path parameters, shared with the router.
+     */
+    private String[] pathParameterNames = NO_NAMES;
+
+    /**
+     * The offsets of the path parameter values in the request URI, as the
+     * start and end of each value in turn; kept across requests.
+     */
+    private int[] pathParameterBounds = new int[0];
+
+    /**
+     * The protocol version of the HTTP request (e.g., HTTP/1.1).
+     */
+    private String protocol;
+
+    /**
+     * The HTTP headers, looked up ignoring case.
+     */
+    private HttpHeaders headers = new HttpHeaders();
+
+    /**
+     * The request parameters as alternating names and values, in the order
+     * they were received, or null while there are none.
+     */
+    private String[] parameterEntries;
+
+    /**
+     * The number of name and value pairs in {@link #parameterEntries}.
+     */
+    private int parameterCount;
+
+    /**
+     * The received bytes of the request head that the query string points
+     * into, or null if the request was not decoded from the wire.
+     */
+    private byte[] raw;
+
+    /**
+     * The offset of the query string in {@link #raw}, or -1 if there is no
+     * query string left to parse.
      */
-    private final Map<String, String[]> headers = new HashMap<>();
+    private int queryOffset = -1;
 
     /**
-     * A map to hold request parameters, where the key is the parameter name and
-     * the value is an array of parameter values.
+     * The length of the query string in {@link #raw}.
      */
-    private final Map<String, String[]> parameters = new HashMap<>();
+    private int queryLength;
 
+    /**
+     * The length of the request body announced by the client, or -1 if it
+     * is not known.
+     */
+    private int contentLength = -1;
+
+    /**
+     * The stream of the request body, or null if the request has no body.
+     */
+    private ServletInputStream inputStream;
+
+    /**
+     * The trailer fields sent after a chunked body.
+     */
+    private Map<String, String> trailerFields = Map.of();
+
+    /**
+     * Whether the body may still be parsed as form parameters, which is no
+     * longer the case once it has been parsed or handed to the servlet.
+     */
+    private boolean formAvailable = true;
+
+    /**
+     * The parts of a multipart body, or null if they have not been parsed.
+     */
+    private List<Part> parts;
+
+    /**
+     * Whether the request has been recycled and does not carry a request
+     * until a new head is attached.
+     */
+    private boolean recycled;
+
+    /**
+     * Creates the context of a request that starts asynchronous processing,
+     * or null if the transport does not support it.
+     */
+    private Function<HttpRequest, HttpAsyncContext> asyncStarter;
+
+    /**
+     * The context of the asynchronous processing, or null if the request
+     * is processed synchronously.
+     */
+    private HttpAsyncContext asyncContext;
 
     /**
      * Returns the HTTP method of the request.
@@ -57,18 +221,123 @@ public class HttpRequest implements HttpServletRequest {
         return requestURI;
     }
 
+    /**
+     * Returns the part of the request URI that selected the servlet.
+     *
+     * @return the servlet path, the whole request URI if the request has
+     * not been dispatched
+     */
+    @Override
+    public String getServletPath() {
+        if (servletPath == null && servletPathLength >= 0) {
+            servletPath = servletPathLength == requestURI.length()
+                    ? requestURI
+                    : requestURI.substring(0, servletPathLength);
+        }
+        return servletPath != null ? servletPath : requestURI;
+    }
+
+    /**
+     * Returns the part of the request URI that follows the servlet path.
+     *
+     * @return the path info starting with '/', or null if there is none
+     */
+    @Override
+    public String getPathInfo() {
+        String path = getServletPath();
+        if (requestURI == null || path.length() >= requestURI.length()) {
+            return null;
+        }
+        return requestURI.substring(path.length());
+    }
+
+    /**
+     * Returns the value of a path parameter.
+     *
+     * @param name the name of the parameter
+     * @return the path segment it matched, or null if there is no such
+     * parameter
+     */
+    @Override
+    public String getPathParameter(String name) {
+        if (pathParameters != null) {
+            return pathParameters.get(name);
+        }
+        for (int i = 0; i < pathParameterNames.length; i++) {
+            if (pathParameterNames[i].equals(name)) {
+                return pathParameterValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path parameters of the mapping that selected the servlet.
+     *
+     * @return the parameter names and values, empty if there are none
+     */
+    @Override
+    public Map<String, String> getPathParameters() {
+        if (pathParameters == null) {
+            Map<String, String> parameters = new LinkedHashMap<>();
+            for (int i = 0; i < pathParameterNames.length; i++) {
+                parameters.put(pathParameterNames[i], pathParameterValue(i));
+            }
+            pathParameters = Collections.unmodifiableMap(parameters);
+        }
+        return pathParameters;
+    }
+
+    /**
+     * Returns the name and version of the protocol the request uses.
+     *
+     * @return the protocol as a String (e.g., "HTTP/1.1"), or null if not
+     * set
+     */
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
     /**
      * Returns the value of the specified request header as a String.
      * If multiple values exist for the header, returns the first value.
      *
-     * @param name the name of the header to retrieve
+     * @param name the name of the header to retrieve, in any case
      * @return the header value as a String, or null if the header does not
      * exist
      */
     @Override
     public String getHeader(String name) {
-        String[] values = headers.get(name);
-        return (values != null && values.length > 0) ? values[0] : null;
+        checkNotRecycled();
+        return headers.get(name);
+    }
+
+    /**
+     * Returns the value of a well-known request header without comparing
+     * its name. If multiple values exist for the header, returns the first
+     * value.
+     *
+     * @param name the {@link HttpHeaderName} index of the header
+     * @return the header value as a String, or null if the header does not
+     * exist
+     */
+    public String getHeader(int name) {
+        checkNotRecycled();
+        return headers.get(name);
+    }
+
+    /**
+     * Returns all values of the specified request header in the order they
+     * were received.
+     *
+     * @param name the name of the header to retrieve, in any case
+     * @return the header values, empty if the header does not exist
+     */
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        checkNotRecycled();
+        return Collections.enumeration(headers.getAll(name));
     }
 
     /**
@@ -81,8 +350,136 @@ public class HttpRequest implements HttpServletRequest {
      */
     @Override
     public String getParameter(String name) {
-        String[] values = parameters.get(name);
-        return (values != null && values.length > 0) ? values[0] : null;
+        parseParameters();
+        for (int i = 0; i < parameterCount * 2; i += 2) {
+            if (parameterEntries[i].equals(name)) {
+                return parameterEntries[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all values of the specified request parameter, in the order
+     * they were received.
+     *
+     * @param name the name of the parameter to retrieve
+     * @return the parameter values, or null if the parameter does not exist
+     */
+    @Override
+    public String[] getParameterValues(String name) {
+        parseParameters();
+        String[] values = null;
+        int count = 0;
+        for (int i = 0; i < parameterCount * 2; i += 2) {
+            if (parameterEntries[i].equals(name)) {
+                if (values == null) {
+                    values = new String[1];
+                } else if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = parameterEntries[i + 1];
+            }
+        }
+        return values == null || count == values.length ? values
+                : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Returns the length of the request body announced by the client.
+     *
+     * @return the Content-Length of the request, or -1 if it is not known
+     */
+    @Override
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the stream of the request body. Once the stream has been
+     * obtained, the body is no longer parsed into parameters.
+     *
+     * @return the stream of the request body, empty if there is no body
+     */
+    @Override
+    public ServletInputStream getInputStream() {
+        checkNotRecycled();
+        formAvailable = false;
+        return body();
+    }
+
+    /**
+     * Returns the trailer fields sent after a chunked request body.
+     *
+     * @return the trailer fields, empty until the body has been read
+     */
+    @Override
+    public Map<String, String> getTrailerFields() {
+        return trailerFields;
+    }
+
+    /**
+     * Returns the parts of a multipart/form-data body, parsing the body on
+     * first access. Small parts are kept in pooled buffers and large parts
+     * in temporary files, both released once the response has been sent.
+     *
+     * @return the parts of the body, empty if the request is not multipart
+     * or its body has already been read as a stream
+     * @throws IOException if the body is malformed, too large or cannot be
+     *                     read
+     */
+    @Override
+    public Collection<Part> getParts() throws IOException {
+        checkNotRecycled();
+        if (parts == null) {
+            String boundary = MultipartParser.boundary(
+                    getHeader(HttpHeaderName.CONTENT_TYPE));
+            if (!formAvailable || inputStream == null || boundary == null) {
+                parts = List.of();
+            } else {
+                formAvailable = false;
+                parts = List.of(); // not parsed again after a failure
+                parts = new MultipartParser(inputStream, boundary).parse();
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the part of a multipart/form-data body with the given field
+     * name.
+     *
+     * @param name the field name of the part
+     * @return the first part with the name, or null if there is none
+     * @throws IOException if the body is malformed, too large or cannot be
+     *                     read
+     */
+    @Override
+    public Part getPart(String name) throws IOException {
+        for (Part part : getParts()) {
+            if (part.getName().equals(name)) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the parsed parts, releasing their temporary files and pooled
+     * buffers. The transports call this once the response has been sent.
+     */
+    public void deleteParts() {
+        if (parts == null) {
+            return;
+        }
+        for (Part part : parts) {
+            try {
+                part.delete();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error deleting multipart file", e);
+            }
+        }
+        parts = null;
     }
 
     /**
@@ -98,6 +495,62 @@ public class HttpRequest implements HttpServletRequest {
         return null;
     }
 
+    /**
+     * Puts the request into asynchronous mode, letting the transport
+     * prepare the connection for a response completed later.
+     *
+     * @return the context of the request
+     * @throws IllegalStateException if asynchronous processing has already
+     *                               been started or is not supported
+     */
+    @Override
+    public HttpAsyncContext startAsync() {
+        checkNotRecycled();
+        if (asyncContext != null) {
+            throw new IllegalStateException("Asynchronous processing has "
+                    + "already been started");
+        }
+        if (asyncStarter == null) {
+            throw new IllegalStateException("Asynchronous processing is not "
+                    + "supported by the transport");
+        }
+        asyncContext = asyncStarter.apply(this);
+        return asyncContext;
+    }
+
+    /**
+     * Tells whether the request is processed asynchronously.
+     *
+     * @return true if {@link #startAsync()} has been called
+     */
+    @Override
+    public boolean isAsyncStarted() {
+        return asyncContext != null;
+    }
+
+    /**
+     * Returns the context of the asynchronous processing.
+     *
+     * @return the context, or null if the request is processed
+     * synchronously
+     */
+    @Override
+    public HttpAsyncContext getAsyncContext() {
+        return asyncContext;
+    }
+
+    /**
+     * Sets how the transport creates the context of a request that starts
+     * asynchronous processing. It is kept when the request is recycled.
+     *
+     * @param asyncStarter creates the context for the request, after
+     *                     preparing the connection
+     */
+    public void setAsyncStarter(
+            Function<HttpRequest, HttpAsyncContext> asyncStarter) {
+        this.asyncStarter = asyncStarter;
+    }
+
     /**
      * Sets the HTTP method for this request.
      *
@@ -116,45 +569,393 @@ public class HttpRequest implements HttpServletRequest {
         this.requestURI = requestURI;
     }
 
+    /**
+     * Sets the part of the request URI that selected the servlet.
+     *
+     * @param servletPath the servlet path, a prefix of the request URI
+     */
+    public void setServletPath(String servletPath) {
+        this.servletPath = servletPath;
+        this.servletPathLength = -1;
+    }
+
+    /**
+     * Sets the path parameters of the mapping that selected the servlet.
+     *
+     * @param pathParameters the parameter names and values
+     */
+    public void setPathParameters(Map<String, String> pathParameters) {
+        this.pathParameters = pathParameters;
+        this.pathParameterNames = NO_NAMES;
+    }
+
+    /**
+     * Records the mapping that selected the servlet as offsets into the
+     * request URI, from which the servlet path and path parameters are cut
+     * out when they are first asked for.
+     *
+     * @param servletPathLength the length of the servlet path
+     * @param names             the names of the path parameters, which
+     *                          must not be modified afterwards
+     * @param bounds            the start and end offsets of each parameter
+     *                          value in turn, copied
+     */
+    public void setPathMatch(int servletPathLength, String[] names,
+                             int[] bounds) {
+        this.servletPath = null;
+        this.servletPathLength = servletPathLength;
+        this.pathParameterNames = names;
+        if (names.length == 0) {
+            this.pathParameters = Map.of();
+            return;
+        }
+        if (pathParameterBounds.length < 2 * names.length) {
+            pathParameterBounds = new int[2 * names.length];
+        }
+        System.arraycopy(bounds, 0, pathParameterBounds, 0,
+                2 * names.length);
+        this.pathParameters = null;
+    }
+
+    /**
+     * Sets the protocol version for this request.
+     *
+     * @param protocol the protocol to set (e.g., "HTTP/1.1")
+     */
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
     /**
      * Adds a parameter to the request.
-     * If a parameter with the same name already exists, it will be replaced.
+     * If a parameter with the same name already exists, the value is added
+     * after its existing values.
      *
      * @param name  the name of the parameter
      * @param value the value of the parameter
      */
     public void addParameter(String name, String value) {
-        parameters.put(name, new String[]{value});
+        parseParameters();
+        appendParameter(name, value);
     }
 
     /**
      * Adds a header to the request.
-     * If a header with the same name already exists, it will be replaced.
+     * If a header with the same name already exists, the value is added
+     * after its existing values.
      *
      * @param headerName  the name of the header
      * @param headerValue the value of the header
      */
     public void addHeader(String headerName, String headerValue) {
-        headers.put(headerName, new String[]{headerValue});
+        headers.add(headerName, headerValue);
     }
 
     /** Returns all parameters of the request.
      *
-     * @return a map containing all request parameters, where the key is the
-     * parameter name and the value is an array of parameter values
+     * @return an unmodifiable map containing all request parameters, where
+     * the key is the parameter name and the value is an array of parameter
+     * values, in the order the names were first received
      */
     public Map<String, String[]> getParameters() {
-        return parameters;
+        parseParameters();
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < parameterCount * 2; i += 2) {
+            parameters.computeIfAbsent(parameterEntries[i],
+                    this::getParameterValues);
+        }
+        return Collections.unmodifiableMap(parameters);
     }
 
     /**
      * Returns all headers of the request.
      *
-     * @return a map containing all request headers, where the key is the
-     * header name and the value is an array of header values
+     * @return an unmodifiable map containing all request headers, where the
+     * key is the header name, compared ignoring case, and the value is an
+     * array of header values
      */
     public Map<String, String[]> getHeaders() {
+        return headers.toMap();
+    }
+
+    /**
+     * Attaches the received bytes of the request head and the headers
+     * decoded from them. A recycled request carries the new request from
+     * then on.
+     *
+     * @param raw     the bytes of the request head
+     * @param headers the headers pointing into the bytes
+     */
+    public void setRawRequest(byte[] raw, HttpHeaders headers) {
+        this.raw = raw;
+        this.headers = headers;
+        this.recycled = false;
+    }
+
+    /**
+     * Returns the headers of the request, so that a decoder reusing this
+     * request can refill them.
+     *
+     * @return the headers of the request
+     */
+    public HttpHeaders getHttpHeaders() {
         return headers;
     }
 
+    /**
+     * Returns an array to copy the next request head into, which is the
+     * head array of this recycled request if the head fits into it.
+     *
+     * @param length the length of the next request head
+     * @return an array of at least the given length
+     */
+    public byte[] getRawBuffer(int length) {
+        return raw != null && raw.length >= length ? raw : new byte[length];
+    }
+
+    /**
+     * Clears the request once its response has completed, so that the
+     * connection can reuse it for the next request. Its parts are deleted
+     * and the head, header and parameter arrays are kept.
+     * Until {@link #setRawRequest(byte[], HttpHeaders)} attaches a new head,
+     * reading headers, parameters or the body throws.
+     */
+    public void recycle() {
+        deleteParts();
+        method = null;
+        requestURI = null;
+        servletPath = null;
+        servletPathLength = -1;
+        pathParameters = Map.of();
+        pathParameterNames = NO_NAMES;
+        protocol = null;
+        headers.reset(null);
+        if (parameterEntries != null) {
+            Arrays.fill(parameterEntries, 0, parameterCount * 2, null);
+        }
+        parameterCount = 0;
+        queryOffset = -1;
+        queryLength = 0;
+        contentLength = -1;
+        inputStream = null;
+        trailerFields = Map.of();
+        formAvailable = true;
+        asyncContext = null;
+        recycled = true;
+    }
+
+    /**
+     * Cuts the value of a path parameter out of the request URI.
+     *
+     * @param index the index of the parameter
+     * @return the value
+     */
+    private String pathParameterValue(int index) {
+        return requestURI.substring(pathParameterBounds[2 * index],
+                pathParameterBounds[2 * index + 1]);
+    }
+
+    /**
+     * Sets the location of the query string in the received bytes. Its
+     * parameters are parsed on first access.
+     *
+     * @param offset the offset of the query string
+     * @param length the length of the query string
+     */
+    public void setQuerySlice(int offset, int length) {
+        this.queryOffset = offset;
+        this.queryLength = length;
+    }
+
+    /**
+     * Sets the length of the request body announced by the client.
+     *
+     * @param contentLength the Content-Length, or -1 if it is not known
+     */
+    public void setContentLength(int contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Sets the stream the request body is read from.
+     *
+     * @param inputStream the stream of the request body
+     */
+    public void setInputStream(ServletInputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Sets the trailer fields of a chunked body. The map may be filled while
+     * the body is read.
+     *
+     * @param trailerFields the trailer fields
+     */
+    public void setTrailerFields(Map<String, String> trailerFields) {
+        this.trailerFields = trailerFields;
+    }
+
+    /**
+     * Returns the stream of the request body, creating an empty one for a
+     * request without a body.
+     *
+     * @return the stream of the request body
+     */
+    private ServletInputStream body() {
+        if (inputStream == null) {
+            inputStream = new ContentLengthInputStream(ByteBuffer.allocate(0),
+                    InputStream.nullInputStream(), 0);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Parses the query string and, for a POST request, the form-encoded
+     * body or the fields of a multipart body into the parameter map, unless
+     * they have already been parsed.
+     *
+     * @throws UncheckedIOException if the body cannot be read
+     */
+    private void parseParameters() {
+        checkNotRecycled();
+        if (queryOffset >= 0) {
+            int offset = queryOffset;
+            queryOffset = -1;
+            decodeParameters(raw, offset, queryLength);
+        }
+        if (formAvailable && inputStream != null && "POST".equals(method)
+                && MultipartParser.boundary(getHeader(HttpHeaderName.CONTENT_TYPE))
+                != null) {
+            addPartParameters();
+        } else if (formAvailable && inputStream != null
+                && "POST".equals(method) && isFormContentType()) {
+            formAvailable = false;
+            try {
+                byte[] form = inputStream.readNBytes(MAX_FORM_SIZE + 1);
+                if (form.length > MAX_FORM_SIZE) {
+                    LOGGER.warning("Form body exceeds " + MAX_FORM_SIZE
+                            + " bytes, parameters ignored");
+                } else {
+                    decodeParameters(form, 0, form.length);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                        "Error reading request body", e);
+            }
+        }
+    }
+
+    /**
+     * Rejects access to a request that has been recycled, which means that
+     * the servlet kept a reference to it beyond its response.
+     *
+     * @throws IllegalStateException if the request has been recycled
+     */
+    private void checkNotRecycled() {
+        if (recycled) {
+            throw new IllegalStateException("Request used after its "
+                    + "response completed");
+        }
+    }
+
+    /**
+     * Adds the fields of a multipart body that are not uploaded files as
+     * parameters.
+     *
+     * @throws UncheckedIOException if the body cannot be parsed
+     */
+    private void addPartParameters() {
+        try {
+            for (Part part : getParts()) {
+                if (part.getSubmittedFileName() == null) {
+                    try (InputStream in = part.getInputStream()) {
+                        appendParameter(part.getName(), new String(
+                                in.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading multipart body", e);
+        }
+    }
+
+    /**
+     * Returns whether the body is form-encoded, which is assumed when the
+     * client does not name a content type.
+     *
+     * @return true if the body holds form parameters
+     */
+    private boolean isFormContentType() {
+        String contentType = getHeader(HttpHeaderName.CONTENT_TYPE);
+        return contentType == null || contentType.trim()
+                .toLowerCase(Locale.ROOT).startsWith(FORM_CONTENT_TYPE);
+    }
+
+    /**
+     * Decodes the parameters of a query string or form-encoded body (e.g.,
+     * "name=deep&age=30") in a single pass. Percent-escapes and '+' are
+     * decoded into a scratch array that is turned into a UTF-8 String at
+     * the end of every name and value; a malformed escape is kept as it is.
+     *
+     * @param data   the bytes holding the parameters
+     * @param offset the offset of the parameters
+     * @param length the length of the parameters
+     */
+    private void decodeParameters(byte[] data, int offset, int length) {
+        byte[] decoded = new byte[length];
+        int decodedLength = 0;
+        String name = null;
+        int end = offset + length;
+        for (int i = offset; i <= end; i++) {
+            int b = i < end ? data[i] : '&';
+            if (b == '&') {
+                String text = new String(decoded, 0, decodedLength,
+                        StandardCharsets.UTF_8);
+                if (name != null) {
+                    appendParameter(name, text);
+                } else if (!text.isEmpty()) {
+                    appendParameter(text, "");
+                }
+                name = null;
+                decodedLength = 0;
+                continue;
+            }
+            if (b == '=' && name == null) {
+                name = new String(decoded, 0, decodedLength,
+                        StandardCharsets.UTF_8);
+                decodedLength = 0;
+                continue;
+            }
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%' && i + 2 < end) {
+                int high = Character.digit(data[i + 1], 16);
+                int low = Character.digit(data[i + 2], 16);
+                if (high >= 0 && low >= 0) {
+                    b = high << 4 | low;
+                    i += 2;
+                }
+            }
+            decoded[decodedLength++] = (byte) b;
+        }
+    }
+
+    /**
+     * Appends a parameter to the parameter array, growing it if needed.
+     *
+     * @param name  the name of the parameter
+     * @param value the value of the parameter
+     */
+    private void appendParameter(String name, String value) {
+        if (parameterEntries == null) {
+            parameterEntries = new String[INITIAL_PARAMETER_CAPACITY * 2];
+        } else if (parameterCount * 2 == parameterEntries.length) {
+            parameterEntries = Arrays.copyOf(parameterEntries,
+                    parameterEntries.length * 2);
+        }
+        parameterEntries[parameterCount * 2] = name;
+        parameterEntries[parameterCount * 2 + 1] = value;
+        parameterCount++;
+    }
+
 }
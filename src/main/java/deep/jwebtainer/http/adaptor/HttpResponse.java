@@ -1,19 +1,108 @@
 package deep.jwebtainer.http.adaptor;
 
+import deep.jwebtainer.http.ByteRanges;
+import deep.jwebtainer.http.ChunkedOutputStream;
+import deep.jwebtainer.http.CompressingOutputStream;
+import deep.jwebtainer.http.HttpHeadEncoder;
+import deep.jwebtainer.http.ResponseCompression;
+import deep.jwebtainer.servlet.AsyncContext;
+import deep.jwebtainer.servlet.http.EventStream;
 import deep.jwebtainer.servlet.http.HttpServletResponse;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Formatter;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents an HTTP response in the JWebtainer framework.
  * This class implements the HttpServletResponse interface and provides methods
  * to send response data back to the client through an output stream.
+ *
+ * <p>The body is collected in a buffer of {@link #getBufferSize()} bytes
+ * until the response completes, so that a body that fits is sent with a
+ * computed Content-Length and written together with the headers in a single
+ * write. A body that outgrows the buffer, or is flushed by the servlet,
+ * commits the response and is streamed from then on: the buffer keeps
+ * collecting the body and is sent whenever it fills up or the servlet calls
+ * {@link #flushBuffer()}, so a streamed body is sent in chunks of the buffer
+ * size and never takes more memory than the buffer.</p>
+ *
+ * <p>The response always frames its body so that the client can tell where
+ * it ends without the connection being closed: a Content-Length set by the
+ * servlet is honoured, a buffered body is sent with its length and a
+ * streamed body uses the chunked transfer-coding. Only HTTP/1.0 clients,
+ * which do not understand chunking, get a streamed body delimited by closing
+ * the connection.</p>
+ *
+ * <p>A body whose content type gains from compression is compressed with the
+ * content-coding negotiated from the request, see
+ * {@link #setAcceptedEncoding(String)}: a complete body of at least
+ * {@link ResponseCompression#MIN_SIZE} bytes in one go, taking the result
+ * from the shared cache if the response is marked {@code public} or
+ * {@code immutable} by its Cache-Control header, and a streamed body on the
+ * fly.</p>
+ *
+ * <p>{@link #sendFile(Path, long, long)} sends a file as the body without
+ * copying it through the buffer or the Java heap, and
+ * {@link #sendContent(ByteBuffer)} sends file content cached in a direct or
+ * mapped buffer, both using the {@link FileTransfer} of the transport.
+ * Their variants taking {@link ByteRanges} send a 206 Partial Content
+ * response, as a multipart/byteranges body if several ranges are
+ * requested, transferring every range from its position in the file or
+ * buffer.</p>
+ *
+ * <p>The transports reuse one response object per connection: once the
+ * response has completed, {@link #recycle()} prepares it for the next
+ * request, keeping its writer, header map and chunked encoder. A servlet
+ * that writes to a completed response gets an IllegalStateException instead
+ * of corrupting the next response.</p>
  */
 public class HttpResponse implements HttpServletResponse {
 
+    /**
+     * The protocol version that does not support chunked transfer-coding.
+     */
+    private static final String HTTP_1_0 = "HTTP/1.0";
+
+    /**
+     * The default number of body bytes buffered before the response is
+     * committed.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The size the body buffer starts with. It grows up to the buffer size
+     * as the body needs it, so that small responses stay small.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * The number of characters the writer buffers before encoding them to
+     * the body.
+     */
+    private static final int WRITER_BUFFER_SIZE = 1024;
+
     /**
      * The status code of the HTTP response. Defaults to 200 (OK).
      */
@@ -25,20 +114,125 @@ public class HttpResponse implements HttpServletResponse {
     private String statusMessage = "OK";
 
     /**
-     * The output stream used to write the raw response data.
+     * The output stream of the client connection.
      */
     private final OutputStream out;
 
     /**
-     * PrintWriter wrapper around the output stream for text-based writing.
+     * The stream servlets write the body to. It sends the headers before the
+     * first body byte and applies the body framing.
      */
-    private final PrintWriter printWriter;
+    private final OutputStream bodyStream = new BodyOutputStream();
+
+    /**
+     * PrintWriter wrapper around the body stream for text-based writing.
+     */
+    private final ResponseWriter printWriter;
 
     /**
      * Map containing the response headers with their values.
      */
     private final Map<String, String> headers = new LinkedHashMap<>();
 
+    /**
+     * The protocol version of the request this response answers.
+     */
+    private String protocol = "HTTP/1.1";
+
+    /**
+     * Whether the connection stays open for further requests after this
+     * response.
+     */
+    private boolean keepAlive = true;
+
+    /**
+     * Whether the status line and headers have been written.
+     */
+    private boolean committed;
+
+    /**
+     * Whether the servlet obtained the writer.
+     */
+    private boolean writerObtained;
+
+    /**
+     * Whether {@link #finish()} is pushing the last body data. Flushes
+     * triggered by it stop at the connection stream, leaving the transport
+     * in charge of when the data goes out.
+     */
+    private boolean finishing;
+
+    /**
+     * The chunked encoder of the body, or null if the body is not chunked.
+     */
+    private ChunkedOutputStream chunkedOut;
+
+    /**
+     * The chunked encoder kept for the chunked bodies of this connection,
+     * or null until the first one.
+     */
+    private ChunkedOutputStream chunkedEncoder;
+
+    /**
+     * Whether {@link #finish()} has completed the response.
+     */
+    private boolean completed;
+
+    /**
+     * Encodes the status line and headers, keeping its buffer for the next
+     * response on the connection.
+     */
+    private final HttpHeadEncoder headEncoder = new HttpHeadEncoder();
+
+    /**
+     * The number of body bytes buffered before the response is committed.
+     */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /**
+     * The buffered body, kept for the next response on the connection, or
+     * null until the first body is written.
+     */
+    private byte[] bodyBuffer;
+
+    /**
+     * The number of body bytes in {@link #bodyBuffer}.
+     */
+    private int bufferedLength;
+
+    /**
+     * Compresses the bodies that qualify for it.
+     */
+    private final ResponseCompression compression =
+            ResponseCompression.shared();
+
+    /**
+     * The content-coding the client accepts, or null if the body is sent
+     * uncompressed.
+     */
+    private String acceptedEncoding;
+
+    /**
+     * Compresses a streamed body, or null if it is not compressed.
+     */
+    private CompressingOutputStream compressingOut;
+
+    /**
+     * Sends file bodies to the client connection.
+     */
+    private FileTransfer fileTransfer = new StreamTransfer();
+
+    /**
+     * Whether the body has been sent as a file.
+     */
+    private boolean fileSent;
+
+    /**
+     * The context of the request if it is processed asynchronously, which
+     * the changes the servlet makes to the response enter.
+     */
+    private volatile HttpAsyncContext asyncContext;
+
     /**
      * Constructs a new HttpResponse with the specified output stream.
      *
@@ -46,7 +240,7 @@ public class HttpResponse implements HttpServletResponse {
      */
     public HttpResponse(OutputStream out) {
         this.out = out;
-        this.printWriter = new PrintWriter(out);
+        this.printWriter = new ResponseWriter();
     }
 
     /**
@@ -56,8 +250,13 @@ public class HttpResponse implements HttpServletResponse {
      */
     @Override
     public void setStatus(int statusCode) {
-        this.statusCode = statusCode;
-        this.statusMessage = resolveStatusMessage(statusCode);
+        HttpAsyncContext context = enter();
+        try {
+            this.statusCode = statusCode;
+            this.statusMessage = resolveStatusMessage(statusCode);
+        } finally {
+            exit(context);
+        }
     }
 
     /**
@@ -68,11 +267,18 @@ public class HttpResponse implements HttpServletResponse {
      */
     @Override
     public void setHeader(String name, String value) {
-        headers.put(name, value);
+        HttpAsyncContext context = enter();
+        try {
+            headers.put(name, value);
+        } finally {
+            exit(context);
+        }
     }
 
     /**
-     * Sends a redirect response to the specified location.
+     * Sends a redirect response to the specified location. The headers are
+     * sent when the response completes, with an empty body unless the servlet
+     * writes one.
      *
      * @param location the URL to redirect to
      */
@@ -80,47 +286,785 @@ public class HttpResponse implements HttpServletResponse {
     public void sendRedirect(String location) {
         setStatus(302);
         setHeader("Location", location);
-        flushHeaders(); // send headers immediately for redirect
     }
 
     /**
      * Gets the PrintWriter for writing character data to the response.
+     * The headers are sent with the first flushed body data.
      *
      * @return the PrintWriter for this response
      */
     @Override
     public PrintWriter getWriter() {
-        flushHeaders();
+        checkNotCompleted();
+        writerObtained = true;
         return printWriter;
     }
 
     /**
-     * Gets the underlying output stream for writing raw data.
+     * Gets the output stream for writing raw body data. The headers are sent
+     * with the first byte written, and the data is framed like any other
+     * body.
      *
      * @return the output stream for this response
      */
     public OutputStream getOutputStream() {
-        return out;
+        checkNotCompleted();
+        return bodyStream;
+    }
+
+    /**
+     * Sets the number of body bytes buffered before the response is
+     * committed. A size of 0 streams the body from the first byte.
+     *
+     * @param size the buffer size in bytes
+     * @throws IllegalStateException if body data has already been written
+     */
+    @Override
+    public void setBufferSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative buffer size: "
+                    + size);
+        }
+        HttpAsyncContext context = enter();
+        try {
+            if (committed || bufferedLength > 0) {
+                throw new IllegalStateException("Buffer size set after the "
+                        + "body was written");
+            }
+            bufferSize = size;
+        } finally {
+            exit(context);
+        }
+    }
+
+    /**
+     * Returns the number of body bytes buffered before the response is
+     * committed.
+     *
+     * @return the buffer size in bytes
+     */
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sends a region of a file as the whole body of the response. The
+     * Content-Length is set to the size of the region unless the servlet set
+     * it, and the headers and the file are sent right away; the file is not
+     * compressed. Nothing can be written to the body afterwards.
+     *
+     * @param file     the file to send
+     * @param position the offset of the first byte to send
+     * @param count    the number of bytes to send
+     * @throws IOException           if the file cannot be read or the
+     *                               connection fails
+     * @throws IllegalStateException if body data has already been written
+     */
+    @Override
+    public void sendFile(Path file, long position, long count)
+            throws IOException {
+        HttpAsyncContext context = enter();
+        try {
+            commitForTransfer(count);
+            fileTransfer.transfer(file, position, count);
+        } finally {
+            exit(context);
+        }
     }
 
     /**
-     * Flushes the response headers and content to the client.
+     * Sends the remaining bytes of a buffer as the whole body of the
+     * response. The Content-Length is set to their number unless the servlet
+     * set it, and the headers and the content are sent right away; the
+     * content is not compressed. Nothing can be written to the body
+     * afterwards.
+     *
+     * @param content the content to send, left unchanged
+     * @throws IOException           if the connection fails
+     * @throws IllegalStateException if body data has already been written
+     */
+    @Override
+    public void sendContent(ByteBuffer content) throws IOException {
+        HttpAsyncContext context = enter();
+        try {
+            commitForTransfer(content.remaining());
+            fileTransfer.transfer(content.duplicate());
+        } finally {
+            exit(context);
+        }
+    }
+
+    /**
+     * Sends ranges of a file as a 206 Partial Content response. A single
+     * range is sent as the body with its Content-Range header; several
+     * ranges are sent as a multipart/byteranges body, whose parts carry the
+     * Content-Type set on the response. The file is not compressed.
+     *
+     * @param file   the file to send
+     * @param ranges the satisfiable ranges of the file
+     * @throws IOException              if the file cannot be read or the
+     *                                  connection fails
+     * @throws IllegalArgumentException if there are no ranges
+     * @throws IllegalStateException    if body data has already been
+     *                                  written
+     */
+    @Override
+    public void sendFile(Path file, ByteRanges ranges) throws IOException {
+        sendRanges(ranges, (position, count) ->
+                fileTransfer.transfer(file, position, count));
+    }
+
+    /**
+     * Sends ranges of a buffer as a 206 Partial Content response, like
+     * {@link #sendFile(Path, ByteRanges)}. The buffer is left unchanged.
+     *
+     * @param content the content, whose remaining bytes are the
+     *                representation the ranges select from
+     * @param ranges  the satisfiable ranges of the content
+     * @throws IOException              if the connection fails
+     * @throws IllegalArgumentException if there are no ranges
+     * @throws IllegalStateException    if body data has already been
+     *                                  written
+     */
+    @Override
+    public void sendContent(ByteBuffer content, ByteRanges ranges)
+            throws IOException {
+        sendRanges(ranges, (position, count) ->
+                fileTransfer.transfer(content.slice(
+                        content.position() + (int) position, (int) count)));
+    }
+
+    /**
+     * Sends the ranges of a representation as a 206 Partial Content
+     * response.
+     *
+     * @param ranges the satisfiable ranges
+     * @param sender sends one range of the representation
+     * @throws IOException if the representation cannot be read or the
+     *                     connection fails
+     */
+    private void sendRanges(ByteRanges ranges, RangeSender sender)
+            throws IOException {
+        if (ranges.size() == 0) {
+            throw new IllegalArgumentException("No satisfiable range");
+        }
+        HttpAsyncContext context = enter();
+        try {
+            sendParts(ranges, sender);
+        } finally {
+            exit(context);
+        }
+    }
+
+    /**
+     * Sends the ranges of a representation once the response has been
+     * entered.
+     *
+     * @param ranges the satisfiable ranges, at least one
+     * @param sender sends one range of the representation
+     * @throws IOException if the representation cannot be read or the
+     *                     connection fails
+     */
+    private void sendParts(ByteRanges ranges, RangeSender sender)
+            throws IOException {
+        setStatus(206);
+        if (ranges.size() == 1) {
+            replaceHeader("Content-Range", ranges.contentRange(0));
+            replaceHeader("Content-Length",
+                    Long.toString(ranges.getCount(0)));
+            commitForTransfer(ranges.getCount(0));
+            sender.send(ranges.getStart(0), ranges.getCount(0));
+            return;
+        }
+        String boundary = Long.toHexString(
+                ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        String partType = findHeader("Content-Type");
+        byte[][] partHeads = new byte[ranges.size()][];
+        long length = 0;
+        for (int i = 0; i < partHeads.length; i++) {
+            partHeads[i] = ("\r\n--" + boundary + "\r\n"
+                    + (partType == null ? ""
+                    : "Content-Type: " + partType + "\r\n")
+                    + "Content-Range: " + ranges.contentRange(i)
+                    + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            length += partHeads[i].length + ranges.getCount(i);
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        length += end.length;
+
+        replaceHeader("Content-Type",
+                "multipart/byteranges; boundary=" + boundary);
+        replaceHeader("Content-Length", Long.toString(length));
+        commitForTransfer(length);
+        for (int i = 0; i < partHeads.length; i++) {
+            out.write(partHeads[i]);
+            sender.send(ranges.getStart(i), ranges.getCount(i));
+        }
+        out.write(end);
+    }
+
+    /**
+     * Commits the head of a response whose body is sent by the
+     * {@link FileTransfer}.
+     *
+     * @param length the length of the body
+     * @throws IOException           if the head cannot be written
+     * @throws IllegalStateException if body data has already been written
+     */
+    private void commitForTransfer(long length) throws IOException {
+        checkNotCompleted();
+        if (committed || bufferedLength > 0) {
+            throw new IllegalStateException("File sent after the body was "
+                    + "written");
+        }
+        if (findHeader("Content-Length") == null) {
+            headers.put("Content-Length", Long.toString(length));
+        }
+        commit(true);
+        fileSent = true;
+    }
+
+    /**
+     * Sets how file bodies reach the client connection. By default the file
+     * is copied to the connection stream.
+     *
+     * @param fileTransfer the file transfer of the transport
+     */
+    public void setFileTransfer(FileTransfer fileTransfer) {
+        this.fileTransfer = fileTransfer;
+    }
+
+    /**
+     * Sets the protocol version of the request this response answers, which
+     * decides the available body framings.
+     *
+     * @param protocol the request protocol (e.g., "HTTP/1.1")
+     */
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * Sets the content-coding negotiated from the Accept-Encoding header of
+     * the request, which compresses the body if its type and size qualify.
+     *
+     * @param encoding {@link ResponseCompression#GZIP},
+     *                 {@link ResponseCompression#DEFLATE}, or null to send
+     *                 the body uncompressed
+     */
+    public void setAcceptedEncoding(String encoding) {
+        this.acceptedEncoding = encoding;
+    }
+
+    /**
+     * Sets whether the connection should stay open after this response.
+     * A response that cannot be framed or carries {@code Connection: close}
+     * still closes the connection.
+     *
+     * @param keepAlive whether the connection should be kept alive
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Returns whether the connection can serve another request once this
+     * response is complete.
+     *
+     * @return true if the connection should be kept alive
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Returns whether the status line and headers have already been sent.
+     *
+     * @return true if the response is committed
+     */
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Flushes the response headers and content to the client, committing
+     * the response.
      */
     public void flush() {
         printWriter.flush();
     }
 
     /**
-     * Writes the response headers to the output stream.
+     * Sends the headers and the body written so far to the client,
+     * committing the response. A chunked body continues with the data
+     * written afterwards.
+     *
+     * @throws IOException if the response could not be written
+     */
+    @Override
+    public void flushBuffer() throws IOException {
+        HttpAsyncContext context = enter();
+        try {
+            if (writerObtained) {
+                printWriter.flush();
+                if (printWriter.checkError()) {
+                    throw new IOException("Error writing response body");
+                }
+            } else {
+                bodyStream.flush();
+            }
+        } finally {
+            exit(context);
+        }
+    }
+
+    /**
+     * Turns the response into a stream of Server-Sent Events and sends its
+     * headers. The body is never compressed, since a compressor would hold
+     * back the events until enough of them have accumulated.
+     *
+     * @param context the context of the request
+     * @return the stream the events are sent to
+     * @throws IOException if the headers could not be written
+     */
+    @Override
+    public EventStream startEventStream(AsyncContext context)
+            throws IOException {
+        if (context.getResponse() != this) {
+            throw new IllegalArgumentException("Context of another response");
+        }
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        setHeader("Content-Type", "text/event-stream");
+        setHeader("Cache-Control", "no-cache");
+        acceptedEncoding = null;
+        flushBuffer();
+        return new HttpEventStream(this, context);
+    }
+
+    /**
+     * Completes the response: sends the headers together with the buffered
+     * body if the response is not committed yet, and ends the body framing
+     * otherwise. The output stream stays open for the
+     * next response on the connection and is not flushed, so that the
+     * transport can coalesce the responses to pipelined requests into a
+     * single write. A servlet still writing to a response processed
+     * asynchronously is held off until the response has completed.
+     *
+     * @throws IOException if the response could not be written
+     */
+    public void finish() throws IOException {
+        HttpAsyncContext context = asyncContext;
+        if (context == null) {
+            finishResponse();
+            return;
+        }
+        context.lockResponse();
+        try {
+            finishResponse();
+        } finally {
+            context.exitResponse();
+        }
+    }
+
+    /**
+     * Completes the response for {@link #finish()}.
+     *
+     * @throws IOException if the response could not be written
+     */
+    private void finishResponse() throws IOException {
+        finishing = true;
+        if (writerObtained) {
+            printWriter.flush();
+            if (printWriter.checkError()) {
+                throw new IOException("Error writing response body");
+            }
+        }
+        if (!committed) {
+            commit(true);
+        } else {
+            drain();
+        }
+        if (compressingOut != null) {
+            compressingOut.finish();
+        }
+        if (chunkedOut != null) {
+            chunkedOut.finish();
+        }
+        completed = true;
+    }
+
+    /**
+     * Discards the status, headers and buffered body of a response that has
+     * not been committed, including text the writer still holds, so that an
+     * error page can take its place.
+     *
+     * @throws IllegalStateException if the response has been committed
      */
-    private void flushHeaders() {
-        printWriter.printf("HTTP/1.1 %d %s\r\n", statusCode, statusMessage);
-        String contentType = "text/html";
-        headers.putIfAbsent("Content-Type", contentType);
+    public void reset() {
+        HttpAsyncContext context = enter();
+        try {
+            if (committed) {
+                throw new IllegalStateException("Response already "
+                        + "committed");
+            }
+            statusCode = 200;
+            statusMessage = "OK";
+            headers.clear();
+            bufferedLength = 0;
+            printWriter.discard();
+        } finally {
+            exit(context);
+        }
+    }
+
+    /**
+     * Prepares the response for the next request on the connection once it
+     * has completed, keeping its writer, header map, body buffer and
+     * chunked encoder.
+     */
+    public void recycle() {
+        statusCode = 200;
+        statusMessage = "OK";
+        headers.clear();
+        protocol = "HTTP/1.1";
+        keepAlive = true;
+        committed = false;
+        writerObtained = false;
+        finishing = false;
+        chunkedOut = null;
+        bufferSize = DEFAULT_BUFFER_SIZE;
+        bufferedLength = 0;
+        acceptedEncoding = null;
+        fileSent = false;
+        if (compressingOut != null) {
+            // Only left over if the response failed while streaming
+            compressingOut.release();
+            compressingOut = null;
+        }
+        completed = false;
+        printWriter.reset();
+        HttpAsyncContext context = asyncContext;
+        if (context != null && !context.isTimedOut()) {
+            // A timed out servlet may still write; its connection is closed
+            // and the response not used again, so it keeps turning it away
+            asyncContext = null;
+        }
+    }
+
+    /**
+     * Attaches the context of the request once it is processed
+     * asynchronously, so that the changes the servlet makes to the
+     * response from then on enter it.
+     *
+     * @param asyncContext the context of the request
+     */
+    void setAsyncContext(HttpAsyncContext asyncContext) {
+        this.asyncContext = asyncContext;
+    }
+
+    /**
+     * Enters a change the servlet makes to the response, which for a
+     * request processed asynchronously waits while another thread changes
+     * it. Must be followed by {@link #exit(HttpAsyncContext)}.
+     *
+     * @return the context entered, or null if the request is not processed
+     * asynchronously
+     * @throws IllegalStateException if the response has completed, or has
+     *                               been taken over by the transport after
+     *                               the request timed out
+     */
+    private HttpAsyncContext enter() {
+        HttpAsyncContext context = asyncContext;
+        if (context != null && !context.enterResponse()) {
+            throw new IllegalStateException("Response used after the "
+                    + "request timed out");
+        }
+        try {
+            checkNotCompleted();
+        } catch (IllegalStateException e) {
+            exit(context);
+            throw e;
+        }
+        return context;
+    }
+
+    /**
+     * Leaves a change entered with {@link #enter()}.
+     *
+     * @param context the context entered, or null
+     */
+    private static void exit(HttpAsyncContext context) {
+        if (context != null) {
+            context.exitResponse();
+        }
+    }
+
+    /**
+     * Rejects use of a completed response, which means that the servlet
+     * kept a reference to it beyond the request.
+     *
+     * @throws IllegalStateException if the response has completed
+     */
+    private void checkNotCompleted() {
+        if (completed) {
+            throw new IllegalStateException("Response used after it "
+                    + "completed");
+        }
+    }
+
+    /**
+     * Commits the response: writes the status line and headers, adding the
+     * framing and connection headers. A complete body is written with them;
+     * the start of a streamed body stays in the buffer, which is grown to
+     * the full buffer size for the rest of the body. A buffered body of a
+     * response whose status forbids one is dropped.
+     *
+     * @param complete whether the whole body is buffered, so that its length
+     *                 is known
+     * @throws IOException if the response could not be written
+     */
+    private void commit(boolean complete) throws IOException {
+        committed = true;
+        boolean bodiless = isBodiless();
+        if (bodiless) {
+            // 1xx, 204 and 304 responses end with their head
+            bufferedLength = 0;
+        } else {
+            headers.putIfAbsent("Content-Type", "text/html");
+        }
+
+        String encoding = contentEncoding(complete);
+        if (encoding != null) {
+            headers.put("Content-Encoding", encoding);
+        }
+
+        boolean computeLength = false;
+        if (!bodiless && findHeader("Content-Length") == null) {
+            if (complete) {
+                computeLength = true;
+            } else if (HTTP_1_0.equals(protocol)) {
+                keepAlive = false;
+            } else {
+                headers.put("Transfer-Encoding", "chunked");
+                if (chunkedEncoder == null) {
+                    chunkedEncoder = new ChunkedOutputStream(out);
+                }
+                chunkedEncoder.reset();
+                chunkedOut = chunkedEncoder;
+            }
+        }
+        if ("close".equalsIgnoreCase(findHeader("Connection"))) {
+            keepAlive = false;
+        }
+        if (!keepAlive) {
+            headers.put("Connection", "close");
+        } else if (HTTP_1_0.equals(protocol)) {
+            headers.put("Connection", "keep-alive");
+        }
+
+        byte[] body = bodyBuffer;
+        int bodyLength = bufferedLength;
+        if (complete && encoding != null) {
+            body = compression.compress(encoding, bodyBuffer, 0,
+                    bufferedLength, isCacheable());
+            bodyLength = body.length;
+        }
+
+        // Encode into memory so that the head goes out in a single write
+        // that does not flush the connection stream
+        headEncoder.statusLine(statusCode, statusMessage);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            headEncoder.header(entry.getKey(), entry.getValue());
+        }
+        if (computeLength) {
+            headEncoder.header("Content-Length", bodyLength);
+        }
+        headEncoder.end();
+        if (complete) {
+            headEncoder.writeTo(out, body, 0, bodyLength);
+            bufferedLength = 0;
+            return;
+        }
+        headEncoder.writeTo(out);
+        if (encoding != null) {
+            compressingOut = compression.stream(encoding,
+                    chunkedOut != null ? chunkedOut : out);
+        }
+        if (bufferSize > 0 && (bodyBuffer == null
+                || bodyBuffer.length < bufferSize)) {
+            bodyBuffer = bodyBuffer == null ? new byte[bufferSize]
+                    : Arrays.copyOf(bodyBuffer, bufferSize);
+        }
+    }
+
+    /**
+     * Returns whether the status of the response forbids a body.
+     *
+     * @return true for 1xx, 204 No Content and 304 Not Modified
+     */
+    private boolean isBodiless() {
+        return statusCode < 200 || statusCode == 204 || statusCode == 304;
+    }
+
+    /**
+     * Chooses the content-coding of the body and adds the Vary header to
+     * every response that would be compressed for a client accepting it.
+     * Bodies whose length the servlet set, that are already encoded, too
+     * small or of a type that does not compress well are sent as they are.
+     *
+     * @param complete whether the whole body is buffered
+     * @return the content-coding, or null if the body is not compressed
+     */
+    private String contentEncoding(boolean complete) {
+        if (isBodiless() || findHeader("Content-Length") != null
+                || findHeader("Content-Encoding") != null
+                || !ResponseCompression.isCompressible(
+                        findHeader("Content-Type"))
+                || complete
+                && bufferedLength < ResponseCompression.MIN_SIZE) {
+            return null;
+        }
         for (Map.Entry<String, String> entry : headers.entrySet()) {
-            printWriter.printf("%s: %s\r\n", entry.getKey(), entry.getValue());
+            if (entry.getKey().equalsIgnoreCase("Vary")) {
+                String vary = entry.getValue();
+                if (!vary.equals("*") && !vary.toLowerCase(Locale.ROOT)
+                        .contains("accept-encoding")) {
+                    entry.setValue(vary + ", Accept-Encoding");
+                }
+                return acceptedEncoding;
+            }
+        }
+        headers.put("Vary", "Accept-Encoding");
+        return acceptedEncoding;
+    }
+
+    /**
+     * Decides whether the compressed body may be cached, which the servlet
+     * declares with a {@code public} or {@code immutable} Cache-Control.
+     *
+     * @return true if the same body is likely to be sent again
+     */
+    private boolean isCacheable() {
+        String cacheControl = findHeader("Cache-Control");
+        if (cacheControl == null) {
+            return false;
+        }
+        String directives = cacheControl.toLowerCase(Locale.ROOT);
+        return directives.contains("public")
+                || directives.contains("immutable");
+    }
+
+    /**
+     * Streams body data of a committed response through the buffer. The
+     * buffer is sent every time it fills up, and data that would fill an
+     * empty buffer is sent in buffer-sized pieces without being copied.
+     *
+     * @param b   the data
+     * @param off the start offset in the data
+     * @param len the number of bytes to stream
+     * @throws IOException if the data could not be written
+     */
+    private void stream(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count;
+            if (bufferedLength == 0 && len >= bufferSize) {
+                count = bufferSize > 0 ? bufferSize : len;
+                target().write(b, off, count);
+            } else {
+                count = Math.min(len, bufferSize - bufferedLength);
+                System.arraycopy(b, off, bodyBuffer, bufferedLength, count);
+                bufferedLength += count;
+                if (bufferedLength == bufferSize) {
+                    drain();
+                }
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Sends the buffered body data of a committed response, as one chunk if
+     * the body is chunked.
+     *
+     * @throws IOException if the data could not be written
+     */
+    private void drain() throws IOException {
+        if (bufferedLength > 0) {
+            target().write(bodyBuffer, 0, bufferedLength);
+            bufferedLength = 0;
+        }
+    }
+
+    /**
+     * Returns the stream the body data goes to.
+     *
+     * @return the compressing stream, the chunked encoder, or the
+     * connection stream for bodies framed by Content-Length or connection
+     * close
+     */
+    private OutputStream target() {
+        if (compressingOut != null) {
+            return compressingOut;
         }
-        printWriter.print("\r\n"); // End of headers
+        return chunkedOut != null ? chunkedOut : out;
+    }
+
+    /**
+     * Appends body data to the buffer, growing it up to the buffer size.
+     *
+     * @param b   the data
+     * @param off the start offset in the data
+     * @param len the number of bytes to buffer
+     * @return true if the data was buffered, false if it does not fit
+     */
+    private boolean buffer(byte[] b, int off, int len) {
+        int needed = bufferedLength + len;
+        if (needed > bufferSize) {
+            return false;
+        }
+        if (bodyBuffer == null || needed > bodyBuffer.length) {
+            int capacity = bodyBuffer == null
+                    ? INITIAL_BUFFER_SIZE : bodyBuffer.length * 2;
+            capacity = Math.min(Math.max(capacity, needed), bufferSize);
+            bodyBuffer = bodyBuffer == null ? new byte[capacity]
+                    : Arrays.copyOf(bodyBuffer, capacity);
+        }
+        System.arraycopy(b, off, bodyBuffer, bufferedLength, len);
+        bufferedLength = needed;
+        return true;
+    }
+
+    /**
+     * Looks up a header set on this response, ignoring the case of its name.
+     *
+     * @param name the header name
+     * @return the header value, or null if the header is not set
+     */
+    private String findHeader(String name) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets a header, removing any value set under a differently cased name.
+     *
+     * @param name  the name of the header
+     * @param value the value of the header
+     */
+    private void replaceHeader(String name, String value) {
+        headers.keySet().removeIf(name::equalsIgnoreCase);
+        headers.put(name, value);
     }
 
     /**
@@ -130,18 +1074,522 @@ public class HttpResponse implements HttpServletResponse {
      * @return the corresponding status message
      */
     private String resolveStatusMessage(int statusCode) {
-        return switch (statusCode) {
-            case 200 -> "OK";
-            case 201 -> "Created";
-            case 204 -> "No Content";
-            case 301 -> "Moved Permanently";
-            case 302 -> "Found";
-            case 400 -> "Bad Request";
-            case 401 -> "Unauthorized";
-            case 403 -> "Forbidden";
-            case 404 -> "Not Found";
-            case 500 -> "Internal Server Error";
-            default -> "HTTP Status " + statusCode;
-        };
+        return HttpHeadEncoder.reasonPhrase(statusCode);
+    }
+
+    /**
+     * The body stream handed to servlets. It sends the headers before the
+     * first body data and routes the data through the chosen framing.
+     */
+    private final class BodyOutputStream extends OutputStream {
+
+        /**
+         * Writes a single body byte.
+         *
+         * @param b the byte to write
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * Writes body bytes. They are buffered while the response is not
+         * committed and they fit; otherwise the response is committed and
+         * the data streamed through the buffer.
+         *
+         * @param b   the data
+         * @param off the start offset in the data
+         * @param len the number of bytes to write
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            HttpAsyncContext context = enter();
+            try {
+                if (fileSent) {
+                    throw new IllegalStateException("Body already sent as "
+                            + "a file");
+                }
+                if (!committed) {
+                    if (buffer(b, off, len)) {
+                        return;
+                    }
+                    commit(false);
+                }
+                stream(b, off, len);
+            } finally {
+                exit(context);
+            }
+        }
+
+        /**
+         * Flushes the body to the client, committing the response first if
+         * needed, and sends the buffered data. While the response is being
+         * finished the buffered data is left for {@link #finish()}.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void flush() throws IOException {
+            HttpAsyncContext context = enter();
+            try {
+                if (finishing) {
+                    return;
+                }
+                if (!committed) {
+                    commit(false);
+                }
+                drain();
+                target().flush();
+            } finally {
+                exit(context);
+            }
+        }
+    }
+
+    /**
+     * The writer handed to servlets. It rejects writes once the response has
+     * completed or been taken over after a timeout, before they reach its
+     * buffer, and its error state can be cleared when the response is
+     * recycled.
+     *
+     * <p>{@link PrintWriter} only trades its object monitor for an internal
+     * lock when its class is exactly {@code PrintWriter}, so a subclass
+     * would write to the socket holding a monitor and pin the carrier of a
+     * virtual thread blocked on a slow client. This writer therefore
+     * overrides every method that takes the monitor: it buffers the
+     * characters and encodes them into the body stream itself, under a
+     * {@link ReentrantLock}, and the writer given to the superclass is never
+     * used.</p>
+     */
+    private final class ResponseWriter extends PrintWriter {
+
+        /**
+         * Guards the buffers and the encoder.
+         */
+        private final ReentrantLock writerLock = new ReentrantLock();
+
+        /**
+         * Encodes the characters in the platform's default charset, like
+         * the writer it replaces.
+         */
+        private final CharsetEncoder encoder = Charset.defaultCharset()
+                .newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * The characters written and not yet encoded, in write mode. A high
+         * surrogate waiting for its pair stays behind after an encoding.
+         */
+        private final CharBuffer chars =
+                CharBuffer.allocate(WRITER_BUFFER_SIZE);
+
+        /**
+         * The encoded bytes on their way to the body stream.
+         */
+        private final ByteBuffer bytes =
+                ByteBuffer.allocate(WRITER_BUFFER_SIZE);
+
+        /**
+         * Formats for {@link #format(Locale, String, Object...)}, or null
+         * until the first call.
+         */
+        private Formatter formatter;
+
+        /**
+         * Constructs the writer of the response.
+         */
+        ResponseWriter() {
+            super(Writer.nullWriter());
+        }
+
+        /**
+         * Writes a single character.
+         *
+         * @param c the character to write
+         */
+        @Override
+        public void write(int c) {
+            HttpAsyncContext context = enter();
+            writerLock.lock();
+            try {
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+                chars.put((char) c);
+            } finally {
+                writerLock.unlock();
+                exit(context);
+            }
+        }
+
+        /**
+         * Writes a portion of an array of characters.
+         *
+         * @param buf the characters
+         * @param off the start offset in the array
+         * @param len the number of characters to write
+         */
+        @Override
+        public void write(char[] buf, int off, int len) {
+            Objects.checkFromIndexSize(off, len, buf.length);
+            HttpAsyncContext context = enter();
+            writerLock.lock();
+            try {
+                while (len > 0) {
+                    if (!chars.hasRemaining()) {
+                        encode(false);
+                    }
+                    int count = Math.min(len, chars.remaining());
+                    chars.put(buf, off, count);
+                    off += count;
+                    len -= count;
+                }
+            } finally {
+                writerLock.unlock();
+                exit(context);
+            }
+        }
+
+        /**
+         * Writes a portion of a string.
+         *
+         * @param str the string
+         * @param off the start offset in the string
+         * @param len the number of characters to write
+         */
+        @Override
+        public void write(String str, int off, int len) {
+            Objects.checkFromIndexSize(off, len, str.length());
+            HttpAsyncContext context = enter();
+            writerLock.lock();
+            try {
+                while (len > 0) {
+                    if (!chars.hasRemaining()) {
+                        encode(false);
+                    }
+                    int count = Math.min(len, chars.remaining());
+                    chars.put(str, off, off + count);
+                    off += count;
+                    len -= count;
+                }
+            } finally {
+                writerLock.unlock();
+                exit(context);
+            }
+        }
+
+        /**
+         * Terminates the current line.
+         */
+        @Override
+        public void println() {
+            write(System.lineSeparator());
+        }
+
+        /**
+         * Prints a boolean and terminates the line.
+         *
+         * @param x the value to print
+         */
+        @Override
+        public void println(boolean x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints a character and terminates the line.
+         *
+         * @param x the value to print
+         */
+        @Override
+        public void println(char x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints an integer and terminates the line.
+         *
+         * @param x the value to print
+         */
+        @Override
+        public void println(int x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints a long integer and terminates the line.
+         *
+         * @param x the value to print
+         */
+        @Override
+        public void println(long x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints a float and terminates the line.
+         *
+         * @param x the value to print
+         */
+        @Override
+        public void println(float x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints a double and terminates the line.
+         *
+         * @param x the value to print
+         */
+        @Override
+        public void println(double x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints an array of characters and terminates the line.
+         *
+         * @param x the characters to print
+         */
+        @Override
+        public void println(char[] x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints a string and terminates the line.
+         *
+         * @param x the string to print
+         */
+        @Override
+        public void println(String x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Prints an object and terminates the line.
+         *
+         * @param x the object to print
+         */
+        @Override
+        public void println(Object x) {
+            printLine(String.valueOf(x));
+        }
+
+        /**
+         * Writes a formatted string in the default locale.
+         *
+         * @param format the format string
+         * @param args   the arguments referenced by the format
+         * @return this writer
+         */
+        @Override
+        public PrintWriter format(String format, Object... args) {
+            return format(Locale.getDefault(Locale.Category.FORMAT), format,
+                    args);
+        }
+
+        /**
+         * Writes a formatted string.
+         *
+         * @param l      the locale to format in, or null for none
+         * @param format the format string
+         * @param args   the arguments referenced by the format
+         * @return this writer
+         */
+        @Override
+        public PrintWriter format(Locale l, String format, Object... args) {
+            HttpAsyncContext context = enter();
+            writerLock.lock();
+            try {
+                if (formatter == null) {
+                    formatter = new Formatter(this);
+                }
+                formatter.format(l, format, args);
+            } finally {
+                writerLock.unlock();
+                exit(context);
+            }
+            return this;
+        }
+
+        /**
+         * Encodes the buffered characters and flushes them to the body
+         * stream.
+         */
+        @Override
+        public void flush() {
+            HttpAsyncContext context = enter();
+            writerLock.lock();
+            try {
+                encode(true);
+            } finally {
+                writerLock.unlock();
+                exit(context);
+            }
+        }
+
+        /**
+         * Flushes the writer. It stays open for the next response on the
+         * connection, which the container completes in its own time.
+         */
+        @Override
+        public void close() {
+            flush();
+        }
+
+        /**
+         * Clears the error state and the buffers left by the previous
+         * response.
+         */
+        void reset() {
+            discard();
+            clearError();
+        }
+
+        /**
+         * Drops the characters not yet encoded to the body stream.
+         */
+        void discard() {
+            writerLock.lock();
+            try {
+                chars.clear();
+                bytes.clear();
+                encoder.reset();
+            } finally {
+                writerLock.unlock();
+            }
+        }
+
+        /**
+         * Prints a value and terminates the line as one write.
+         *
+         * @param text the value as text
+         */
+        private void printLine(String text) {
+            HttpAsyncContext context = enter();
+            writerLock.lock();
+            try {
+                write(text);
+                println();
+            } finally {
+                writerLock.unlock();
+                exit(context);
+            }
+        }
+
+        /**
+         * Encodes the buffered characters and writes the bytes to the body
+         * stream. A failure sets the error state and drops the buffered
+         * data, which the response can no longer deliver.
+         *
+         * @param flush whether the body stream is flushed as well
+         */
+        private void encode(boolean flush) {
+            chars.flip();
+            try {
+                while (encoder.encode(chars, bytes, false).isOverflow()) {
+                    writeBytes();
+                }
+                writeBytes();
+                if (flush) {
+                    bodyStream.flush();
+                }
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException) {
+                    Thread.currentThread().interrupt();
+                }
+                setError();
+                chars.position(chars.limit());
+                bytes.clear();
+                encoder.reset();
+            } finally {
+                chars.compact();
+            }
+        }
+
+        /**
+         * Writes the encoded bytes to the body stream.
+         *
+         * @throws IOException if the body stream fails
+         */
+        private void writeBytes() throws IOException {
+            if (bytes.position() > 0) {
+                bodyStream.write(bytes.array(), 0, bytes.position());
+                bytes.clear();
+            }
+        }
+    }
+
+    /**
+     * The default file transfer, which copies the body to the connection
+     * stream, for transports that cannot reach the socket channel.
+     */
+    private final class StreamTransfer implements FileTransfer {
+
+        /**
+         * Copies a region of a file to the connection stream.
+         *
+         * @param file     the file
+         * @param position the offset of the first byte to send
+         * @param count    the number of bytes to send
+         * @throws IOException if the file cannot be read or written
+         */
+        @Override
+        public void transfer(Path file, long position, long count)
+                throws IOException {
+            try (FileChannel source = FileChannel.open(file)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                while (count > 0) {
+                    long sent = source.transferTo(position, count, target);
+                    if (sent <= 0) {
+                        throw new EOFException("File ended before its "
+                                + "Content-Length: " + file);
+                    }
+                    position += sent;
+                    count -= sent;
+                }
+            }
+        }
+
+        /**
+         * Copies the remaining bytes of a buffer to the connection stream.
+         *
+         * @param content the content to send
+         * @throws IOException if the connection stream fails
+         */
+        @Override
+        public void transfer(ByteBuffer content) throws IOException {
+            if (content.hasArray()) {
+                out.write(content.array(),
+                        content.arrayOffset() + content.position(),
+                        content.remaining());
+                return;
+            }
+            WritableByteChannel target = Channels.newChannel(out);
+            while (content.hasRemaining()) {
+                target.write(content);
+            }
+        }
+    }
+
+    /**
+     * Sends one range of the representation of a partial response.
+     */
+    @FunctionalInterface
+    private interface RangeSender {
+
+        /**
+         * Sends a range.
+         *
+         * @param position the offset of the first byte to send
+         * @param count    the number of bytes to send
+         * @throws IOException if the range cannot be read or sent
+         */
+        void send(long position, long count) throws IOException;
     }
 }
@@ -0,0 +1,81 @@
+package deep.jwebtainer.servlet;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The <code>AsyncContext</code> interface represents a request whose
+ * processing continues after the servlet's <code>service</code> method has
+ * returned. It is obtained from {@link ServletRequest#startAsync()}; the
+ * servlet hands it to whatever produces the response, typically a callback
+ * of a downstream call, which writes the response from its own thread and
+ * calls {@link #complete()} when done. The container sends the response
+ * then, and serves the next request of the connection.
+ *
+ * <p>If the request is not completed within its timeout, the listeners are
+ * notified and may still complete it; otherwise the container answers it
+ * with 503 Service Unavailable, or ends the response if it has already been
+ * committed, and closes the connection. The response must no longer be used
+ * once the request has been completed or has timed out.</p>
+ */
+public interface AsyncContext {
+
+    /**
+     * The timeout in milliseconds of a request that has not been given
+     * another one.
+     */
+    long DEFAULT_TIMEOUT = 30_000;
+
+    /**
+     * Retrieves the request being processed.
+     *
+     * @return the request
+     */
+    ServletRequest getRequest();
+
+    /**
+     * Retrieves the response to the request.
+     *
+     * @return the response
+     */
+    ServletResponse getResponse();
+
+    /**
+     * Sets the time the request may take until it is completed, counted
+     * from the call to {@link ServletRequest#startAsync()}.
+     *
+     * @param timeout the timeout in milliseconds, or zero or less for no
+     *                timeout
+     */
+    void setTimeout(long timeout);
+
+    /**
+     * Retrieves the time the request may take until it is completed.
+     *
+     * @return the timeout in milliseconds, zero or less for no timeout
+     */
+    long getTimeout();
+
+    /**
+     * Registers a listener notified when the request completes or times
+     * out.
+     *
+     * @param listener the listener
+     */
+    void addListener(AsyncListener listener);
+
+    /**
+     * Completes the request, handing the response back to the container to
+     * be sent. Calls after the first one have no effect.
+     */
+    void complete();
+
+    /**
+     * Completes the request once a stage completes, typically the stage
+     * whose action writes the response. If the stage fails before the
+     * response has been committed, the request is answered with 500
+     * Internal Server Error.
+     *
+     * @param stage the stage producing the response
+     */
+    void completeWhen(CompletionStage<?> stage);
+}
@@ -0,0 +1,41 @@
+package deep.jwebtainer.servlet;
+
+/**
+ * The <code>AsyncListener</code> interface is notified of the outcome of a
+ * request processed asynchronously, see {@link AsyncContext}. All methods
+ * do nothing by default.
+ */
+public interface AsyncListener {
+
+    /**
+     * Called on the completing thread once the request has been completed,
+     * by the servlet or by the container after a timeout.
+     *
+     * @param context the context of the request
+     */
+    default void onComplete(AsyncContext context) {
+    }
+
+    /**
+     * Called on a container thread when the timeout of the request expires
+     * before it has been completed. The listener may complete the request
+     * itself, for instance with a fallback response.
+     *
+     * @param context the context of the request
+     */
+    default void onTimeout(AsyncContext context) {
+    }
+
+    /**
+     * Called on a container thread when the connection of the request fails
+     * or is closed before the request has been completed, typically because
+     * the client went away. The response can no longer reach the client;
+     * the listener should stop producing it and complete the request, which
+     * lets the container release the resources of the connection.
+     *
+     * @param context the context of the request
+     * @param failure the cause of the failure
+     */
+    default void onError(AsyncContext context, Throwable failure) {
+    }
+}
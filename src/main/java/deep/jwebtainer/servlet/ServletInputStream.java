@@ -0,0 +1,19 @@
+package deep.jwebtainer.servlet;
+
+import java.io.InputStream;
+
+/**
+ * The <code>ServletInputStream</code> class provides the body of a request
+ * to a servlet as a stream of bytes. The stream ends with the body, so
+ * servlets can read it in bulk without knowing how it is framed on the
+ * connection, and large bodies never have to be held in memory as a whole.
+ */
+public abstract class ServletInputStream extends InputStream {
+
+    /**
+     * Returns whether the whole body has been read.
+     *
+     * @return true if no more body data is available
+     */
+    public abstract boolean isFinished();
+}
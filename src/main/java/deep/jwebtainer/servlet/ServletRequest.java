@@ -1,9 +1,11 @@
 package deep.jwebtainer.servlet;
 
+import java.io.IOException;
+
 /**
  * Represents a request sent to a servlet.
- * This interface provides methods to retrieve request parameters and
- * attributes.
+ * This interface provides methods to retrieve request parameters,
+ * attributes and the request body.
  */
 public interface ServletRequest {
 
@@ -23,5 +25,58 @@ public interface ServletRequest {
      * @return an array of String values for the parameter, or null if the
      * parameter does not exist
      */
+    String[] getParameterValues(String name);
+
+    /**
+     * Retrieves the value of a request attribute.
+     *
+     * @param name the name of the attribute to retrieve
+     * @return the value of the attribute, or null if the attribute does not
+     * exist
+     */
     Object getAttribute(String name);
+
+    /**
+     * Retrieves the length of the request body as announced by the client.
+     *
+     * @return the length of the body in bytes, or -1 if it is not known
+     */
+    int getContentLength();
+
+    /**
+     * Retrieves the body of the request as a stream of bytes. Once a servlet
+     * starts reading the stream, the body is no longer available as form
+     * parameters.
+     *
+     * @return the stream of the request body
+     * @throws IOException if the body cannot be read
+     */
+    ServletInputStream getInputStream() throws IOException;
+
+    /**
+     * Puts the request into asynchronous mode: the response is not sent
+     * when the servlet's <code>service</code> method returns, but once the
+     * returned context has been completed, possibly from another thread.
+     *
+     * @return the context of the request
+     * @throws IllegalStateException if asynchronous processing has already
+     *                               been started or is not supported by the
+     *                               transport
+     */
+    AsyncContext startAsync();
+
+    /**
+     * Tells whether {@link #startAsync()} has been called for the request.
+     *
+     * @return true if the request is processed asynchronously
+     */
+    boolean isAsyncStarted();
+
+    /**
+     * Retrieves the context created by {@link #startAsync()}.
+     *
+     * @return the context, or null if the request is processed
+     * synchronously
+     */
+    AsyncContext getAsyncContext();
 }
@@ -0,0 +1,93 @@
+package deep.jwebtainer.servlet.http;
+
+import java.io.IOException;
+
+/**
+ * The <code>EventStream</code> interface represents a response streaming
+ * Server-Sent Events to the client, obtained from
+ * {@link HttpServletResponse#startEventStream}. The response stays open
+ * after the servlet's <code>service</code> method has returned; events are
+ * sent from any thread as they occur, each one flushed to the client at
+ * once, and the stream ends when {@link #close()} is called or the client
+ * goes away.
+ *
+ * <p>Once no event has been sent for the heartbeat interval, the container
+ * writes a comment line, which keeps proxies from dropping the idle
+ * connection and reveals a client that has disconnected. The callbacks
+ * registered with {@link #onClose(Runnable)} run however the stream ends,
+ * so that a servlet can unsubscribe the client from its event source
+ * there.</p>
+ */
+public interface EventStream {
+
+    /**
+     * The heartbeat interval in milliseconds of a stream that has not been
+     * given another one.
+     */
+    long DEFAULT_HEARTBEAT_INTERVAL = 15_000;
+
+    /**
+     * Sends an unnamed event, which the browser dispatches as a
+     * {@code message} event.
+     *
+     * @param data the data of the event; each line becomes a data line
+     * @throws IOException if the stream is closed or the event could not be
+     *                     written, which closes the stream
+     */
+    void send(String data) throws IOException;
+
+    /**
+     * Sends an event.
+     *
+     * @param event the name of the event, or null for a {@code message}
+     *              event
+     * @param data  the data of the event; each line becomes a data line
+     * @throws IOException if the stream is closed or the event could not be
+     *                     written, which closes the stream
+     */
+    void send(String event, String data) throws IOException;
+
+    /**
+     * Sends an event with an id, which a reconnecting browser reports in
+     * its Last-Event-ID header.
+     *
+     * @param id    the id of the event, or null for none
+     * @param event the name of the event, or null for a {@code message}
+     *              event
+     * @param data  the data of the event; each line becomes a data line
+     * @throws IOException if the stream is closed or the event could not be
+     *                     written, which closes the stream
+     * @throws IllegalArgumentException if the id or the name contains a
+     *                                  line break
+     */
+    void send(String id, String event, String data) throws IOException;
+
+    /**
+     * Sets the time without events after which a heartbeat is sent.
+     *
+     * @param millis the interval in milliseconds, or zero or less for no
+     *               heartbeats
+     */
+    void setHeartbeatInterval(long millis);
+
+    /**
+     * Registers a callback run once when the stream ends, or right away if
+     * it has already ended.
+     *
+     * @param callback the callback
+     */
+    void onClose(Runnable callback);
+
+    /**
+     * Returns whether events can still be sent.
+     *
+     * @return true until the stream has been closed
+     */
+    boolean isOpen();
+
+    /**
+     * Ends the stream and completes the request. Only the first call has an
+     * effect.
+     */
+    void close();
+}
@@ -1,5 +1,6 @@
 package deep.jwebtainer.servlet.http;
 
+import deep.jwebtainer.http.ConditionalRequest;
 import deep.jwebtainer.http.HttpMethod;
 import deep.jwebtainer.servlet.GenericServlet;
 import deep.jwebtainer.servlet.ServletException;
@@ -11,6 +12,11 @@ import deep.jwebtainer.servlet.ServletResponse;
  * class and provides an abstract class for handling HTTP requests in a web
  * application. It is designed to be subclassed by developers to implement
  * specific HTTP request handling logic.
+ *
+ * <p>A servlet whose output only changes with some resource can override
+ * {@link #getLastModified} and {@link #getETag}. A GET request is then
+ * answered with 304 Not Modified, without calling {@link #doGet}, when the
+ * client already holds the current version.</p>
  */
 public abstract class HttpServlet extends GenericServlet {
 
@@ -34,6 +40,34 @@ public abstract class HttpServlet extends GenericServlet {
         throw new UnsupportedOperationException("POST method not implemented");
     }
 
+    /**
+     * Returns the time the resource served by a GET request was last
+     * modified, which is sent as the Last-Modified header and compared with
+     * the If-Modified-Since header of the request. It must be cheap compared
+     * to {@link #doGet}, which is skipped if the client's copy is current.
+     *
+     * @param request the request
+     * @return the modification time in milliseconds since the epoch, or -1
+     * if it is unknown, which is the default
+     */
+    protected long getLastModified(HttpServletRequest request) {
+        return -1;
+    }
+
+    /**
+     * Returns the entity tag of the resource served by a GET request, which
+     * is sent as the ETag header and compared with the If-None-Match header
+     * of the request. It must be cheap compared to {@link #doGet}, which is
+     * skipped if the client's copy is current.
+     *
+     * @param request the request
+     * @return the quoted entity tag, e.g. {@code "v42"}, or null if the
+     * resource has none, which is the default
+     */
+    protected String getETag(HttpServletRequest request) {
+        return null;
+    }
+
     /**
      * Delegates the request to
      * {@link #service(HttpServletRequest, HttpServletResponse)} for HTTP
@@ -84,7 +118,11 @@ public abstract class HttpServlet extends GenericServlet {
         }
 
         switch (httpMethod) {
-            case GET -> doGet(request, response);
+            case GET -> {
+                if (!isNotModified(request, response)) {
+                    doGet(request, response);
+                }
+            }
             case POST -> doPost(request, response);
             default ->
                 // TODO: Send a Error Response not just throw an exception
@@ -93,4 +131,34 @@ public abstract class HttpServlet extends GenericServlet {
         }
     }
 
+    /**
+     * Sends the validators of the resource and answers the request with
+     * 304 Not Modified if the client holds its current version.
+     *
+     * @param request  the GET request
+     * @param response the response
+     * @return true if the response is complete and doGet must be skipped
+     */
+    private boolean isNotModified(HttpServletRequest request,
+                                  HttpServletResponse response) {
+        String etag = getETag(request);
+        long lastModified = getLastModified(request);
+        if (etag == null && lastModified < 0) {
+            return false;
+        }
+        if (etag != null) {
+            response.setHeader("ETag", etag);
+        }
+        if (lastModified >= 0) {
+            response.setHeader("Last-Modified",
+                    ConditionalRequest.formatDate(lastModified));
+        }
+        if (ConditionalRequest.isNotModified(
+                request.getHeader("If-None-Match"),
+                request.getHeader("If-Modified-Since"), etag, lastModified)) {
+            response.setStatus(304);
+            return true;
+        }
+        return false;
+    }
 }
@@ -2,6 +2,11 @@ package deep.jwebtainer.servlet.http;
 
 import deep.jwebtainer.servlet.ServletRequest;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+
 /**
  * Represents an HTTP request sent to a servlet.
  * This interface extends the ServletRequest interface to provide additional
@@ -22,6 +27,49 @@ public interface HttpServletRequest extends ServletRequest {
      */
     String getRequestURI();
 
+    /**
+     * Retrieves the part of the request URI that selected the servlet: the
+     * whole URI for an exact, templated or extension mapping, or the prefix
+     * of a {@code /*} mapping.
+     *
+     * @return the servlet path, empty for the {@code /*} mapping
+     */
+    String getServletPath();
+
+    /**
+     * Retrieves the part of the request URI that follows the servlet path,
+     * as it was sent, without percent-decoding.
+     *
+     * @return the path info starting with '/', or null if there is none
+     */
+    String getPathInfo();
+
+    /**
+     * Retrieves the value of a path parameter of the mapping that selected
+     * the servlet, such as {@code id} of {@code /users/{id}}, as it was
+     * sent, without percent-decoding.
+     *
+     * @param name the name of the parameter
+     * @return the path segment it matched, or null if the mapping has no
+     * such parameter
+     */
+    String getPathParameter(String name);
+
+    /**
+     * Retrieves the path parameters of the mapping that selected the
+     * servlet, in the order they appear in the path.
+     *
+     * @return the parameter names and values, empty if there are none
+     */
+    Map<String, String> getPathParameters();
+
+    /**
+     * Retrieves the name and version of the protocol of the request.
+     *
+     * @return the protocol as a String (e.g., "HTTP/1.1")
+     */
+    String getProtocol();
+
     /**
      * Retrieves the value of a request header.
      *
@@ -29,4 +77,39 @@ public interface HttpServletRequest extends ServletRequest {
      * @return the value of the header, or null if the header does not exist
      */
     String getHeader(String name);
+
+    /**
+     * Retrieves all values of a request header, in the order they were
+     * received.
+     *
+     * @param name the name of the header to retrieve
+     * @return the values of the header, empty if the header does not exist
+     */
+    Enumeration<String> getHeaders(String name);
+
+    /**
+     * Retrieves the trailer fields sent after a chunked request body. They
+     * are only available once the body has been read completely.
+     *
+     * @return the trailer fields, empty if there are none
+     */
+    Map<String, String> getTrailerFields();
+
+    /**
+     * Retrieves the parts of a multipart/form-data request body.
+     *
+     * @return the parts of the body, empty if the request is not multipart
+     * @throws IOException if the body cannot be read or parsed
+     */
+    Collection<Part> getParts() throws IOException;
+
+    /**
+     * Retrieves the part of a multipart/form-data request body with the
+     * given field name.
+     *
+     * @param name the field name of the part
+     * @return the part, or null if there is no part with the name
+     * @throws IOException if the body cannot be read or parsed
+     */
+    Part getPart(String name) throws IOException;
 }
@@ -1,9 +1,14 @@
 package deep.jwebtainer.servlet.http;
 
+import deep.jwebtainer.http.ByteRanges;
+import deep.jwebtainer.servlet.AsyncContext;
 import deep.jwebtainer.servlet.ServletResponse;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 
 /**
  * Represents an HTTP response sent by a servlet.
@@ -46,4 +51,99 @@ public interface HttpServletResponse extends ServletResponse {
      * @return the OutputStream associated with this response
      */
     OutputStream getOutputStream();
+
+    /**
+     * Sets the number of body bytes buffered before the response is
+     * committed. A body that fits in the buffer is sent with its length.
+     *
+     * @param size the buffer size in bytes
+     * @throws IllegalStateException if body data has already been written
+     */
+    void setBufferSize(int size);
+
+    /**
+     * Gets the number of body bytes buffered before the response is
+     * committed.
+     *
+     * @return the buffer size in bytes
+     */
+    int getBufferSize();
+
+    /**
+     * Sends a region of a file as the whole body of the response, straight
+     * from the file to the client connection where the transport allows it.
+     *
+     * @param file     the file to send
+     * @param position the offset of the first byte to send
+     * @param count    the number of bytes to send
+     * @throws IOException if the file cannot be read or the connection
+     *                     fails
+     */
+    void sendFile(Path file, long position, long count) throws IOException;
+
+    /**
+     * Sends the remaining bytes of a buffer as the whole body of the
+     * response, without copying them through the response buffer. The
+     * buffer, typically holding a cached file, is left unchanged.
+     *
+     * @param content the content to send
+     * @throws IOException if the connection fails
+     */
+    void sendContent(ByteBuffer content) throws IOException;
+
+    /**
+     * Sends ranges of a file as a 206 Partial Content response: a single
+     * range as the body, several as a multipart/byteranges body whose parts
+     * carry the Content-Type set on the response.
+     *
+     * @param file   the file to send
+     * @param ranges the satisfiable ranges requested from the file
+     * @throws IOException if the file cannot be read or the connection
+     *                     fails
+     */
+    void sendFile(Path file, ByteRanges ranges) throws IOException;
+
+    /**
+     * Sends ranges of the remaining bytes of a buffer as a 206 Partial
+     * Content response, like {@link #sendFile(Path, ByteRanges)}. The buffer
+     * is left unchanged.
+     *
+     * @param content the content the ranges select from
+     * @param ranges  the satisfiable ranges requested from the content
+     * @throws IOException if the connection fails
+     */
+    void sendContent(ByteBuffer content, ByteRanges ranges)
+            throws IOException;
+
+    /**
+     * Sends the headers and the body written so far to the client. A body
+     * of unknown length is streamed with the chunked transfer-coding from
+     * then on.
+     *
+     * @throws IOException if the response could not be written
+     */
+    void flushBuffer() throws IOException;
+
+    /**
+     * Returns whether the status line and headers have already been sent.
+     *
+     * @return true if the response is committed
+     */
+    boolean isCommitted();
+
+    /**
+     * Turns the response into a stream of Server-Sent Events: the headers
+     * of a {@code text/event-stream} body are sent right away, the timeout
+     * of the asynchronous request is disabled, and the request completes
+     * when the stream is closed.
+     *
+     * @param context the context the request was given by
+     *                {@code startAsync()}
+     * @return the stream the events are sent to
+     * @throws IOException if the headers could not be written
+     * @throws IllegalArgumentException if the context belongs to another
+     *                                  response
+     * @throws IllegalStateException if the response has been committed
+     */
+    EventStream startEventStream(AsyncContext context) throws IOException;
 }
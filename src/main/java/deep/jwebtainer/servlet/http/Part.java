@@ -0,0 +1,73 @@
+package deep.jwebtainer.servlet.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Represents a part of a multipart/form-data request, either a form field or
+ * an uploaded file. The content of a large part is kept in a temporary file
+ * rather than in memory; it is deleted once the response has been sent.
+ */
+public interface Part {
+
+    /**
+     * Retrieves the name of the form field the part belongs to.
+     *
+     * @return the field name
+     */
+    String getName();
+
+    /**
+     * Retrieves the file name sent by the client for an uploaded file.
+     *
+     * @return the file name, or null if the part is not a file
+     */
+    String getSubmittedFileName();
+
+    /**
+     * Retrieves the content type of the part.
+     *
+     * @return the content type, or null if the client did not send one
+     */
+    String getContentType();
+
+    /**
+     * Retrieves the value of a header of the part.
+     *
+     * @param name the name of the header, in any case
+     * @return the value of the header, or null if it does not exist
+     */
+    String getHeader(String name);
+
+    /**
+     * Retrieves the size of the part content.
+     *
+     * @return the size in bytes
+     */
+    long getSize();
+
+    /**
+     * Opens the content of the part for reading.
+     *
+     * @return a new stream over the part content
+     * @throws IOException if the content cannot be read
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Stores the content of the part in the given file. A part kept in a
+     * temporary file is moved rather than copied when possible.
+     *
+     * @param target the file to write
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path target) throws IOException;
+
+    /**
+     * Deletes the temporary storage of the part.
+     *
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    void delete() throws IOException;
+}
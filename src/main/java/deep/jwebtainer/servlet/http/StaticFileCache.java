@@ -0,0 +1,505 @@
+package deep.jwebtainer.servlet.http;
+
+import deep.jwebtainer.http.ConditionalRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * The StaticFileCache class keeps the content of small, frequently requested
+ * static files in memory, so that serving them again needs neither a
+ * lookup in the file system nor a read or sendfile call per request. Files
+ * below {@link #MAP_THRESHOLD} bytes are read into direct buffers; larger
+ * ones, up to {@link #MAX_FILE_SIZE}, are mapped into memory. Either way
+ * the content lives outside the Java heap and is written to the socket
+ * channel without a copy into it. The strong entity tag of a file is
+ * computed from its content once, when it is loaded.
+ *
+ * <p>The cache holds at most a given number of bytes and evicts the least
+ * recently requested files beyond that. A {@link WatchService} on the
+ * document root and its subdirectories drops a file from the cache as soon
+ * as it is modified, replaced or deleted; files are cached by their real
+ * path, so replacing a symbolic link is not noticed. The map is guarded by
+ * a ReentrantLock rather than a monitor, so that virtual threads waiting
+ * for it do not pin their carrier.</p>
+ */
+final class StaticFileCache implements Closeable {
+
+    /**
+     * The largest file that is cached.
+     */
+    static final int MAX_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * The size from which files are mapped rather than read into a direct
+     * buffer. Smaller mappings would waste most of their last page.
+     */
+    static final int MAP_THRESHOLD = 16 * 1024;
+
+    /**
+     * The default number of bytes held by the cache.
+     */
+    static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The logger for watch failures.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(StaticFileCache.class.getName());
+
+    /**
+     * The real path of the document root.
+     */
+    private final Path root;
+
+    /**
+     * The number of bytes the cache may hold.
+     */
+    private final long maxBytes;
+
+    /**
+     * The cached files by request path in access order, least recently used
+     * first.
+     */
+    private final Map<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Guards {@link #entries}, {@link #size} and {@link #generation}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The watched directories by their watch key.
+     */
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    /**
+     * The number of bytes held.
+     */
+    private long size;
+
+    /**
+     * Counts the invalidations, so that a file read while it was being
+     * changed is not added to the cache.
+     */
+    private long generation;
+
+    /**
+     * Reports changes below the document root, or null before
+     * {@link #start()}.
+     */
+    private WatchService watcher;
+
+    /**
+     * Constructs a cache of the files below a document root holding at
+     * most {@link #MAX_BYTES} bytes.
+     *
+     * @param root the real path of the document root
+     */
+    StaticFileCache(Path root) {
+        this(root, MAX_BYTES);
+    }
+
+    /**
+     * Constructs a cache of the files below a document root.
+     *
+     * @param root     the real path of the document root
+     * @param maxBytes the number of bytes the cache may hold
+     */
+    StaticFileCache(Path root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts watching the document root and its subdirectories for changes
+     * on a daemon thread.
+     *
+     * @throws IOException if the file system cannot be watched
+     */
+    void start() throws IOException {
+        watcher = root.getFileSystem().newWatchService();
+        watchTree(root);
+        Thread thread = new Thread(this::watch,
+                "static-file-cache " + root.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Looks up a cached file.
+     *
+     * @param path the request path of the file
+     * @return the cached file, or null if it is not cached
+     */
+    Entry get(String path) {
+        lock.lock();
+        try {
+            return entries.get(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads a file into memory and caches it, unless it is too large.
+     *
+     * @param path        the request path of the file
+     * @param file        the real path of the file
+     * @param contentType the content type of the file
+     * @return the cached file, or null if it is too large to be cached
+     * @throws IOException if the file cannot be read
+     */
+    Entry load(String path, Path file, String contentType)
+            throws IOException {
+        long started;
+        lock.lock();
+        try {
+            started = generation;
+        } finally {
+            lock.unlock();
+        }
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        ByteBuffer content;
+        try (FileChannel channel = FileChannel.open(file)) {
+            long length = channel.size();
+            if (length > MAX_FILE_SIZE) {
+                return null;
+            }
+            if (length < MAP_THRESHOLD) {
+                content = ByteBuffer.allocateDirect((int) length);
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                    // read until the buffer is full or the file ends
+                }
+                content.flip();
+            } else {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        length);
+            }
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(content.duplicate());
+        String etag = "\"" + Long.toHexString(content.remaining()) + '-'
+                + Long.toHexString(checksum.getValue()) + '"';
+        Entry entry = new Entry(file, content.asReadOnlyBuffer(),
+                content.remaining(), contentType, etag, lastModified);
+        put(path, entry, started);
+        return entry;
+    }
+
+    /**
+     * Describes a file that is not cached, to be sent from the file system.
+     * Its entity tag is derived from its size and modification time, as
+     * hashing a large file on every request would cost more than sending
+     * it.
+     *
+     * @param file        the real path of the file
+     * @param contentType the content type of the file
+     * @return the file without content
+     * @throws IOException if the attributes of the file cannot be read
+     */
+    static Entry describe(Path file, String contentType) throws IOException {
+        BasicFileAttributes attributes =
+                Files.readAttributes(file, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(attributes.size()) + '-'
+                + Long.toHexString(lastModified) + '"';
+        return new Entry(file, null, attributes.size(), contentType, etag,
+                lastModified);
+    }
+
+    /**
+     * Stops watching the document root and empties the cache.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Adds a file to the cache, unless it changed while it was read, and
+     * evicts the least recently used files beyond the size limit.
+     *
+     * @param path    the request path of the file
+     * @param entry   the file
+     * @param started the {@link #generation} before the file was read
+     */
+    private void put(String path, Entry entry, long started) {
+        lock.lock();
+        try {
+            if (generation != started) {
+                return;
+            }
+            Entry previous = entries.put(path, entry);
+            if (previous != null) {
+                size -= previous.content.capacity();
+            }
+            size += entry.content.capacity();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (size > maxBytes && eldest.hasNext()) {
+                size -= eldest.next().content.capacity();
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the cached files at or below a changed path.
+     *
+     * @param changed the path of the changed file or directory
+     */
+    private void invalidate(Path changed) {
+        lock.lock();
+        try {
+            generation++;
+            Iterator<Entry> cached = entries.values().iterator();
+            while (cached.hasNext()) {
+                Entry entry = cached.next();
+                if (entry.file.startsWith(changed)) {
+                    size -= entry.content.capacity();
+                    cached.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every cached file.
+     */
+    private void invalidateAll() {
+        lock.lock();
+        try {
+            generation++;
+            entries.clear();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a directory and its subdirectories with the watch service.
+     * Hidden directories are skipped, as their files are never served.
+     *
+     * @param directory the directory to watch
+     */
+    private void watchTree(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path dir, BasicFileAttributes attributes)
+                        throws IOException {
+                    if (!dir.equals(directory)
+                            && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    directories.put(dir.register(watcher,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot watch " + directory, e);
+            // Its files may still be cached; changes would go unnoticed
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Drops changed files from the cache until the watch service is
+     * closed. Lost events empty the whole cache.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path directory = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (directory == null || event.kind()
+                            == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll();
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    invalidate(changed);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && Files.isDirectory(changed,
+                            LinkOption.NOFOLLOW_LINKS)) {
+                        watchTree(changed);
+                    }
+                }
+                if (!key.reset()) {
+                    directories.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The cache was closed
+        }
+    }
+
+    /**
+     * A cached file, or a file described by {@link #describe} whose content
+     * is read from the file system.
+     */
+    static final class Entry {
+
+        /**
+         * The real path of the file.
+         */
+        private final Path file;
+
+        /**
+         * The content of the file, read-only, or null if it is not cached.
+         */
+        private final ByteBuffer content;
+
+        /**
+         * The length of the file.
+         */
+        private final long length;
+
+        /**
+         * The content type of the file.
+         */
+        private final String contentType;
+
+        /**
+         * The strong entity tag of the content.
+         */
+        private final String etag;
+
+        /**
+         * The modification time of the file in milliseconds since the epoch.
+         */
+        private final long lastModified;
+
+        /**
+         * The Last-Modified header value of the file.
+         */
+        private final String lastModifiedHeader;
+
+        /**
+         * Constructs a cached file.
+         *
+         * @param file         the real path of the file
+         * @param content      the content of the file, read-only, or null
+         * @param length       the length of the file
+         * @param contentType  the content type of the file
+         * @param etag         the strong entity tag of the content
+         * @param lastModified the modification time of the file
+         */
+        Entry(Path file, ByteBuffer content, long length, String contentType,
+              String etag, long lastModified) {
+            this.file = file;
+            this.content = content;
+            this.length = length;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.lastModifiedHeader =
+                    ConditionalRequest.formatDate(lastModified);
+        }
+
+        /**
+         * Returns the real path of the file.
+         *
+         * @return the file
+         */
+        Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the content of the file. The buffer is shared by every
+         * request and must not be consumed; it is sent through
+         * {@link HttpServletResponse#sendContent}, which leaves it as it is.
+         *
+         * @return the content, or null if the file is not cached
+         */
+        ByteBuffer getContent() {
+            return content;
+        }
+
+        /**
+         * Returns the length of the file.
+         *
+         * @return the length in bytes
+         */
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the content type of the file.
+         *
+         * @return the content type
+         */
+        String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the strong entity tag of the content, derived from its
+         * length and CRC-32C checksum, or from the length and modification
+         * time of a file that is not cached.
+         *
+         * @return the quoted entity tag
+         */
+        String getETag() {
+            return etag;
+        }
+
+        /**
+         * Returns the modification time of the file.
+         *
+         * @return the time in milliseconds since the epoch
+         */
+        long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the modification time of the file formatted as an HTTP
+         * date.
+         *
+         * @return the Last-Modified header value
+         */
+        String getLastModifiedHeader() {
+            return lastModifiedHeader;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package deep.jwebtainer.servlet.http;
+
+import deep.jwebtainer.http.ByteRanges;
+import deep.jwebtainer.http.ConditionalRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The StaticResourceServlet class serves the files below a document root.
+ * It is meant to be registered for a prefix, for example
+ * {@code /static/* = deep.jwebtainer.servlet.http.StaticResourceServlet}
+ * in servlet.properties, and maps the path info of a request to a file:
+ * {@code /static/css/site.css} is served from {@code css/site.css} below the
+ * document root, and a directory is served by its {@code index.html}.
+ *
+ * <p>Files are sent with {@link HttpServletResponse#sendFile}, which lets
+ * the transport copy them from the file system to the socket without
+ * reading them into the Java heap. Small files are kept in a
+ * {@link StaticFileCache} once requested and sent from memory with
+ * {@link HttpServletResponse#sendContent} afterwards, without touching the
+ * file system. The Content-Type is derived from the file extension and the
+ * Content-Length from the file size. Every file is sent with an ETag and
+ * a Last-Modified header, and a conditional request for an unchanged file
+ * is answered with 304 Not Modified. Range requests, also with several
+ * ranges and If-Range, are answered with 206 Partial Content.</p>
+ *
+ * <p>Paths that would leave the document root, whether through
+ * {@code ..} segments, percent-encoded separators or symbolic links, are
+ * answered with 404 Not Found, as are hidden files.</p>
+ */
+public class StaticResourceServlet extends HttpServlet {
+
+    /**
+     * The system property naming the document root of servlets created by
+     * the servlet loader.
+     */
+    public static final String DOCUMENT_ROOT_PROPERTY = "jwebtainer.docroot";
+
+    /**
+     * The document root used when the system property is not set, relative
+     * to the working directory.
+     */
+    public static final String DEFAULT_DOCUMENT_ROOT = "static";
+
+    /**
+     * The logger for cache failures.
+     */
+    private static final Logger LOGGER =
+            Logger.getLogger(StaticResourceServlet.class.getName());
+
+    /**
+     * The file serving a request for a directory.
+     */
+    private static final String INDEX_FILE = "index.html";
+
+    /**
+     * The content type of files with an unknown extension.
+     */
+    private static final String DEFAULT_CONTENT_TYPE =
+            "application/octet-stream";
+
+    /**
+     * The content types of the common file extensions.
+     */
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=UTF-8"),
+            Map.entry("htm", "text/html; charset=UTF-8"),
+            Map.entry("css", "text/css; charset=UTF-8"),
+            Map.entry("js", "text/javascript; charset=UTF-8"),
+            Map.entry("mjs", "text/javascript; charset=UTF-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("txt", "text/plain; charset=UTF-8"),
+            Map.entry("csv", "text/csv; charset=UTF-8"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("avif", "image/avif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("otf", "font/otf"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm"),
+            Map.entry("mp3", "audio/mpeg"));
+
+    /**
+     * The document root as configured.
+     */
+    private final Path configuredRoot;
+
+    /**
+     * The real path of the document root, resolved by {@link #init()}.
+     */
+    private Path documentRoot;
+
+    /**
+     * The cache of small files, or null if the document root cannot be
+     * watched for changes.
+     */
+    private StaticFileCache cache;
+
+    /**
+     * Constructs a servlet serving the directory named by the
+     * {@value #DOCUMENT_ROOT_PROPERTY} system property, or
+     * {@value #DEFAULT_DOCUMENT_ROOT} if it is not set.
+     */
+    public StaticResourceServlet() {
+        this(Path.of(System.getProperty(DOCUMENT_ROOT_PROPERTY,
+                DEFAULT_DOCUMENT_ROOT)));
+    }
+
+    /**
+     * Constructs a servlet serving the given directory.
+     *
+     * @param documentRoot the directory holding the files to serve
+     */
+    public StaticResourceServlet(Path documentRoot) {
+        this.configuredRoot = documentRoot;
+    }
+
+    /**
+     * Resolves the real path of the document root, against which every
+     * requested file is checked, and starts the file cache. A missing
+     * document root is not an error; every request is then answered with
+     * 404 Not Found.
+     */
+    @Override
+    public void init() {
+        try {
+            documentRoot = configuredRoot.toRealPath();
+        } catch (IOException e) {
+            documentRoot = null;
+            return;
+        }
+        cache = new StaticFileCache(documentRoot);
+        try {
+            cache.start();
+        } catch (IOException e) {
+            // Without change notifications cached files could go stale
+            LOGGER.log(Level.WARNING, "Cannot watch " + documentRoot
+                    + ", static files are not cached", e);
+            cache = null;
+        }
+    }
+
+    /**
+     * Stops the file cache.
+     */
+    @Override
+    public void destroy() {
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing the file cache", e);
+            }
+            cache = null;
+        }
+    }
+
+    /**
+     * Serves the file named by the path info of the request, from the cache
+     * if it holds the file.
+     *
+     * @param request  the request
+     * @param response the response
+     */
+    @Override
+    protected void doGet(HttpServletRequest request,
+                         HttpServletResponse response) {
+        String pathInfo = request.getPathInfo();
+        String key = pathInfo == null ? "/" : pathInfo;
+        try {
+            StaticFileCache.Entry entry =
+                    cache == null ? null : cache.get(key);
+            if (entry == null) {
+                Path file = resolve(pathInfo);
+                if (file == null) {
+                    sendNotFound(response);
+                    return;
+                }
+                String contentType = contentType(file);
+                entry = cache == null ? null
+                        : cache.load(key, file, contentType);
+                if (entry == null) {
+                    entry = StaticFileCache.describe(file, contentType);
+                }
+            }
+            send(request, response, entry);
+        } catch (NoSuchFileException e) {
+            sendNotFound(response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends a file with its validators, answering with 304 Not Modified if
+     * the client holds its current version, and with the requested ranges
+     * if the Range header, checked against If-Range, asks for some.
+     *
+     * @param request  the request
+     * @param response the response
+     * @param entry    the file
+     * @throws IOException if the file cannot be read or sent
+     */
+    private static void send(HttpServletRequest request,
+                             HttpServletResponse response,
+                             StaticFileCache.Entry entry) throws IOException {
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", entry.getETag());
+        response.setHeader("Last-Modified", entry.getLastModifiedHeader());
+        if (ConditionalRequest.isNotModified(
+                request.getHeader("If-None-Match"),
+                request.getHeader("If-Modified-Since"), entry.getETag(),
+                entry.getLastModified())) {
+            response.setStatus(304);
+            return;
+        }
+        ByteRanges ranges = null;
+        String range = request.getHeader("Range");
+        if (range != null && ConditionalRequest.isRangeCurrent(
+                request.getHeader("If-Range"), entry.getETag(),
+                entry.getLastModified())) {
+            ranges = ByteRanges.parse(range, entry.getLength());
+        }
+        if (ranges != null && ranges.size() == 0) {
+            response.setStatus(416);
+            response.setHeader("Content-Range",
+                    ByteRanges.unsatisfied(entry.getLength()));
+            return;
+        }
+        response.setHeader("Content-Type", entry.getContentType());
+        ByteBuffer content = entry.getContent();
+        if (content == null && ranges == null) {
+            response.sendFile(entry.getFile(), 0, entry.getLength());
+        } else if (content == null) {
+            response.sendFile(entry.getFile(), ranges);
+        } else if (ranges == null) {
+            response.sendContent(content);
+        } else {
+            response.sendContent(content, ranges);
+        }
+    }
+
+    /**
+     * Maps the path info of a request to a regular file below the document
+     * root.
+     *
+     * @param pathInfo the percent-encoded path info, or null
+     * @return the real path of the file, or null if there is no such file
+     * or it is outside of the document root
+     */
+    Path resolve(String pathInfo) {
+        if (documentRoot == null) {
+            return null;
+        }
+        String path = decode(pathInfo == null ? "/" : pathInfo);
+        if (path == null || path.indexOf('\\') >= 0
+                || path.indexOf('\0') >= 0 || path.contains("/.")) {
+            // Rejects ".." as well as hidden files and directories
+            return null;
+        }
+        try {
+            Path file = documentRoot.resolve(path.substring(1)).normalize();
+            if (Files.isDirectory(file)) {
+                file = file.resolve(INDEX_FILE);
+            }
+            if (!file.startsWith(documentRoot)
+                    || !Files.isRegularFile(file)) {
+                return null;
+            }
+            // Symbolic links must not lead out of the document root either
+            Path real = file.toRealPath();
+            return real.startsWith(documentRoot) ? real : null;
+        } catch (InvalidPathException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the content type of a file from its extension.
+     *
+     * @param file the file
+     * @return the content type
+     */
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return DEFAULT_CONTENT_TYPE;
+        }
+        return CONTENT_TYPES.getOrDefault(
+                name.substring(dot + 1).toLowerCase(Locale.ROOT),
+                DEFAULT_CONTENT_TYPE);
+    }
+
+    /**
+     * Decodes the %XX escapes of a path as UTF-8. Unlike form data, a '+'
+     * stands for itself. The request URI holds the received bytes as
+     * ISO-8859-1 characters, so unescaped bytes are decoded as UTF-8 too.
+     *
+     * @param path the percent-encoded path
+     * @return the decoded path, or null if an escape is malformed
+     */
+    private static String decode(String path) {
+        ByteArrayOutputStream decoded =
+                new ByteArrayOutputStream(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != '%') {
+                decoded.write(c);
+                continue;
+            }
+            if (i + 2 >= path.length()) {
+                return null;
+            }
+            int high = Character.digit(path.charAt(i + 1), 16);
+            int low = Character.digit(path.charAt(i + 2), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            decoded.write(high << 4 | low);
+            i += 2;
+        }
+        return decoded.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Answers a request for a missing file.
+     *
+     * @param response the response
+     */
+    private static void sendNotFound(HttpServletResponse response) {
+        response.setStatus(404);
+        response.setHeader("Content-Type", "text/plain; charset=UTF-8");
+        response.getWriter().print("Not Found");
+    }
+}
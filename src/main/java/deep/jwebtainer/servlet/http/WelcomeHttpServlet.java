@@ -13,6 +13,8 @@ public class WelcomeHttpServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response) {
         try {
             response.setHeader("Content-Type", "text/html; charset=UTF-8");
+            // The page never changes, so its compressed form is cached
+            response.setHeader("Cache-Control", "public, max-age=3600");
             response.getWriter().write("""
                     <!DOCTYPE html>
                     <html lang='en'>
@@ -0,0 +1,83 @@
+package deep.jwebtainer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    private final BufferPool pool = new BufferPool(true);
+
+    @Test
+    void acquire_roundsUpToSizeClass() {
+        ByteBuffer small = pool.acquire(100);
+        ByteBuffer medium = pool.acquire(5000);
+        ByteBuffer huge = pool.acquire(BufferPool.MAX_SIZE + 1);
+
+        assertTrue(small.isDirect());
+        assertEquals(BufferPool.MIN_SIZE, small.capacity());
+        assertEquals(8192, medium.capacity());
+        assertEquals(8192, medium.limit());
+        assertEquals(BufferPool.MAX_SIZE + 1, huge.capacity());
+        assertEquals(3, pool.getInUse());
+
+        pool.release(small);
+        pool.release(medium);
+        pool.release(huge);
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    void release_sameThread_bufferReusedCleared() {
+        ByteBuffer buffer = pool.acquire(8192);
+        buffer.putInt(42);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire(6000);
+
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(2, pool.getAcquired());
+        assertEquals(1, pool.getAllocated());
+        assertEquals(0, pool.getIdleBytes());
+        pool.release(again);
+    }
+
+    @Test
+    void release_onVirtualThread_sharedWithOtherThreads() throws Exception {
+        AtomicReference<ByteBuffer> released = new AtomicReference<>();
+        Thread.ofVirtual().start(() -> {
+            released.set(pool.acquire(4096));
+            pool.release(released.get());
+        }).join();
+        assertEquals(4096, pool.getIdleBytes());
+
+        AtomicReference<ByteBuffer> taken = new AtomicReference<>();
+        Thread.ofVirtual().start(() -> taken.set(pool.acquire(4096))).join();
+
+        assertSame(released.get(), taken.get());
+        assertEquals(0, pool.getIdleBytes());
+        pool.release(taken.get());
+    }
+
+    @Test
+    void leakDetection_reportsUnreleasedAndRejectsDoubleRelease() {
+        ByteBuffer kept = pool.acquire(4096);
+        ByteBuffer returned = pool.acquire(4096);
+        pool.release(returned);
+
+        assertEquals(1, pool.getUnreleased().size());
+        assertTrue(pool.getUnreleased().get(0).getMessage()
+                .contains("4096 bytes"));
+        assertThrows(IllegalStateException.class,
+                () -> pool.release(returned));
+        assertThrows(IllegalStateException.class,
+                () -> pool.release(ByteBuffer.allocateDirect(4096)));
+
+        pool.release(kept);
+        assertTrue(pool.getUnreleased().isEmpty());
+    }
+}
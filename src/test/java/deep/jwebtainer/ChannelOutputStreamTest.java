@@ -0,0 +1,56 @@
+package deep.jwebtainer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelOutputStreamTest {
+
+    private final BufferPool pool = new BufferPool(true);
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    @Test
+    void write_smallWrites_bufferedUntilFlush() throws IOException {
+        ChannelOutputStream out = new ChannelOutputStream(
+                Channels.newChannel(written), pool, 4096);
+        out.write('a');
+        out.write("bc".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(0, written.size());
+
+        out.flush();
+        assertEquals("abc", written.toString(StandardCharsets.US_ASCII));
+        out.close();
+        assertTrue(pool.getUnreleased().isEmpty());
+    }
+
+    @Test
+    void write_largerThanBuffer_writtenInOrder() throws IOException {
+        byte[] large = "x".repeat(10_000).getBytes(StandardCharsets.US_ASCII);
+        try (ChannelOutputStream out = new ChannelOutputStream(
+                Channels.newChannel(written), pool, 4096)) {
+            out.write("head".getBytes(StandardCharsets.US_ASCII));
+            out.write(large);
+            out.write('!');
+        }
+
+        assertEquals("head" + "x".repeat(10_000) + "!",
+                written.toString(StandardCharsets.US_ASCII));
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    void close_twice_releasesBufferOnce() throws IOException {
+        ChannelOutputStream out = new ChannelOutputStream(
+                Channels.newChannel(written), pool, 4096);
+        out.close();
+        out.close();
+
+        assertEquals(0, pool.getInUse());
+        assertThrows(IOException.class, () -> out.write('a'));
+    }
+}
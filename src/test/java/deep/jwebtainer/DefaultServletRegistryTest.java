@@ -1,11 +1,17 @@
 package deep.jwebtainer;
 
 import deep.jwebtainer.servlet.Servlet;
+import deep.jwebtainer.servlet.ServletRequest;
+import deep.jwebtainer.servlet.ServletResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 class DefaultServletRegistryTest {
@@ -51,4 +57,104 @@ class DefaultServletRegistryTest {
         verify(servlet2).destroy();
     }
 
+    @Test
+    void unregisterServlet_registeredPath_removedAndDestroyed() {
+        registry.registerServlet("/test", servlet);
+
+        assertSame(servlet, registry.unregisterServlet("/test"));
+        assertNull(registry.getServlet("/test"));
+        registry.whenRetired().join();
+        verify(servlet).destroy();
+        assertNull(registry.unregisterServlet("/test"));
+    }
+
+    @Test
+    void replaceServlet_servletStillMappedElsewhere_notDestroyed() {
+        registry.registerServlet("/a", servlet);
+        registry.registerServlet("/b", servlet);
+        Servlet replacement = mock(Servlet.class);
+
+        assertSame(servlet, registry.replaceServlet("/a", replacement));
+        assertSame(replacement, registry.getServlet("/a"));
+        assertSame(servlet, registry.getServlet("/b"));
+        verify(replacement).init();
+        verify(servlet, never()).destroy();
+    }
+
+    @Test
+    void registerServlet_initFails_pathNotMapped() {
+        doThrow(new IllegalStateException("broken")).when(servlet).init();
+
+        assertThrows(IllegalStateException.class,
+                () -> registry.registerServlet("/test", servlet));
+        assertNull(registry.getServlet("/test"));
+    }
+
+    @Test
+    void replaceServlet_requestInFlight_destroyedOnceDrainTimeoutExpires() {
+        registry.registerServlet("/test", servlet);
+        ServletMatch match = new ServletMatch();
+        assertTrue(registry.match("/test", match));
+        ServletHolder holder = match.holder();
+        assertTrue(holder.acquire());
+        registry.setDrainTimeout(50);
+
+        registry.replaceServlet("/test", mock(Servlet.class));
+
+        assertFalse(holder.acquire(), "Retired servlet accepted a request");
+        registry.whenRetired().join();
+        verify(servlet).destroy();
+    }
+
+    @Test
+    void registerServlet_whileDraining_revivedWithoutDestroy() {
+        CountingServlet counting = new CountingServlet();
+        registry.registerServlet("/test", counting);
+        ServletMatch match = new ServletMatch();
+        assertTrue(registry.match("/test", match));
+        ServletHolder holder = match.holder();
+        assertTrue(holder.acquire());
+
+        // Returns while the request is still in flight
+        assertSame(counting, registry.unregisterServlet("/test"));
+        registry.registerServlet("/test", counting);
+        holder.release();
+        registry.whenRetired().join();
+
+        assertSame(counting, registry.getServlet("/test"));
+        assertTrue(holder.acquire());
+        assertEquals(1, counting.inits.get());
+        assertEquals(0, counting.destroys.get());
+    }
+
+    static class CountingServlet implements Servlet {
+        final AtomicInteger inits = new AtomicInteger();
+        final AtomicInteger destroys = new AtomicInteger();
+
+        @Override
+        public void init() {
+            inits.incrementAndGet();
+        }
+
+        @Override
+        public void service(ServletRequest request,
+                            ServletResponse response) {
+        }
+
+        @Override
+        public void destroy() {
+            destroys.incrementAndGet();
+        }
+    }
+
+    @Test
+    void registerLazyServlet_neverRequested_notInitializedOrDestroyed() {
+        registry.registerLazyServlet("/lazy", servlet);
+
+        assertSame(servlet, registry.getServlet("/lazy"));
+        registry.destroyAll();
+        verify(servlet, never()).init();
+        verify(servlet, never()).destroy();
+    }
+
 }
\ No newline at end of file
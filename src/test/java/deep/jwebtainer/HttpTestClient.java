@@ -0,0 +1,122 @@
+package deep.jwebtainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Minimal HTTP/1.1 client used by the transport tests. It writes raw request
+ * bytes and reads responses one at a time, using their framing headers, so
+ * that several requests can share one connection.
+ */
+final class HttpTestClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    HttpTestClient(int port) throws IOException {
+        socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+    }
+
+    void send(String request) throws IOException {
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /**
+     * Reads one response and returns its head followed by the decoded body.
+     */
+    String readResponse() throws IOException {
+        String head = readHead();
+        String headers = head.toLowerCase(Locale.ROOT);
+        byte[] body;
+        if (headers.startsWith("http/1.1 304") || headers.startsWith(
+                "http/1.1 204") || headers.startsWith("http/1.1 1")) {
+            body = new byte[0];
+        } else if (headers.contains("transfer-encoding: chunked")) {
+            body = readChunkedBody();
+        } else if (headers.contains("content-length:")) {
+            int start = headers.indexOf("content-length:") + 15;
+            int end = headers.indexOf("\r\n", start);
+            body = in.readNBytes(Integer.parseInt(
+                    headers.substring(start, end).trim()));
+        } else {
+            body = in.readAllBytes();
+        }
+        return head + new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns true once the server has closed the connection.
+     */
+    boolean isClosedByServer() throws IOException {
+        return in.read() < 0;
+    }
+
+    String readHead() throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed while reading head: "
+                        + head);
+            }
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1
+                    : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads the next chunk of a chunked body, as soon as it arrives.
+     */
+    String readChunk() throws IOException {
+        int size = Integer.parseInt(readLine().trim(), 16);
+        String chunk = new String(in.readNBytes(size),
+                StandardCharsets.UTF_8);
+        readLine();
+        return chunk;
+    }
+
+    private byte[] readChunkedBody() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            int size = Integer.parseInt(readLine().trim(), 16);
+            if (size == 0) {
+                readLine(); // empty trailer
+                return body.toByteArray();
+            }
+            body.write(in.readNBytes(size));
+            readLine();
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Connection closed inside chunk");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -5,12 +5,61 @@ import deep.jwebtainer.servlet.http.WelcomeHttpServlet;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 class PropertiesServletLoaderTest {
 
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final CyclicBarrier together = new CyclicBarrier(2);
+    private final Map<String, HttpServlet> servlets = Map.of(
+            "first", new RecordingServlet("first", null),
+            "second", new RecordingServlet("second", null),
+            "a", new RecordingServlet("a", together),
+            "b", new RecordingServlet("b", together),
+            "lazy", new RecordingServlet("lazy", null),
+            "later", new RecordingServlet("later", null));
+    private final ServletFactory factory = new ServletFactory() {
+        @Override
+        public HttpServlet createServlet(String className) {
+            return servlets.get(className);
+        }
+    };
+
+    class RecordingServlet extends HttpServlet {
+        private final String name;
+        private final CyclicBarrier barrier;
+
+        RecordingServlet(String name, CyclicBarrier barrier) {
+            this.name = name;
+            this.barrier = barrier;
+        }
+
+        @Override
+        public void init() {
+            events.add(name + " start");
+            if (barrier != null) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(name
+                            + " was not initialized in parallel", e);
+                }
+            }
+            events.add(name + " end");
+        }
+    }
+
     @Test
     void shouldLoadServletsFromPropertiesFile() throws Exception {
 
@@ -44,4 +93,46 @@ class PropertiesServletLoaderTest {
         assertThrows(IOException.class, () -> loader.load(registry));
     }
 
+    @Test
+    void load_loadOnStartup_groupsInOrderEachInParallel() throws Exception {
+        DefaultServletRegistry registry = new DefaultServletRegistry();
+        PropertiesServletLoader loader = new PropertiesServletLoader(
+                "startup-servlets.properties", factory);
+
+        loader.load(registry);
+
+        assertEquals(List.of("first start", "first end",
+                "second start", "second end"), events.subList(0, 4));
+        // a and b only get past the barrier if initialized together
+        assertEquals(Set.of("a start", "a end", "b start", "b end"),
+                Set.copyOf(events.subList(4, events.size())));
+        assertEquals(List.of("/first", "/second", "/a", "/b"),
+                List.copyOf(loader.getInitTimes().keySet()));
+        assertSame(servlets.get("lazy"), registry.getServlet("/lazy"));
+        assertSame(servlets.get("later"), registry.getServlet("/later"));
+    }
+
+    @Test
+    void load_lazyServlet_initializedByFirstRequest() throws Exception {
+        DefaultServletRegistry registry = new DefaultServletRegistry();
+        new PropertiesServletLoader("startup-servlets.properties", factory)
+                .load(registry);
+        ServletMatch match = new ServletMatch();
+
+        assertTrue(registry.match("/lazy", match));
+        assertTrue(match.holder().initialize() > 0);
+        assertEquals(0, match.holder().initialize());
+        assertEquals(1, events.stream()
+                .filter("lazy start"::equals).count());
+        assertTrue(events.stream().noneMatch(e -> e.startsWith("later")));
+    }
+
+    @Test
+    void load_malformedOption_throws() {
+        PropertiesServletLoader loader = new PropertiesServletLoader(
+                "malformed-servlets.properties", factory);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> loader.load(new DefaultServletRegistry()));
+    }
 }
@@ -0,0 +1,130 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.servlet.Servlet;
+import deep.jwebtainer.servlet.http.HttpServlet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServletRouterTest {
+
+    private final ServletRouter router = new ServletRouter();
+    private final ServletMatch match = new ServletMatch();
+
+    private Servlet add(String pattern) {
+        Servlet servlet = new HttpServlet() {
+        };
+        router.add(pattern, new ServletHolder(servlet));
+        return servlet;
+    }
+
+    @Test
+    void match_exactTemplatePrefixExtension_specPrecedence() {
+        Servlet exact = add("/users/me");
+        Servlet template = add("/users/{id}");
+        Servlet prefix = add("/users/*");
+        add("*.json");
+        Servlet root = add("/*");
+
+        assertTrue(router.match("/users/me", match));
+        assertSame(exact, match.getServlet());
+        assertTrue(router.match("/users/42", match));
+        assertSame(template, match.getServlet());
+        assertTrue(router.match("/users/42/posts", match));
+        assertSame(prefix, match.getServlet());
+        assertEquals("/users", match.getServletPath());
+        assertTrue(router.match("/users", match));
+        assertSame(prefix, match.getServlet());
+        // A prefix, even /*, takes precedence over an extension
+        assertTrue(router.match("/report.json", match));
+        assertSame(root, match.getServlet());
+        assertEquals("", match.getServletPath());
+        assertTrue(router.match("/usersx", match));
+        assertSame(root, match.getServlet());
+    }
+
+    @Test
+    void match_extension_lastSegmentOnly() {
+        Servlet extension = add("*.json");
+
+        assertTrue(router.match("/api/report.json", match));
+        assertSame(extension, match.getServlet());
+        assertEquals("/api/report.json", match.getServletPath());
+        assertFalse(router.match("/api.json/report", match));
+        assertFalse(router.match("/api/report.jsonx", match));
+        assertNull(match.getServlet());
+    }
+
+    @Test
+    void match_templates_parametersBoundInOrder() {
+        Servlet comment = add("/users/{user}/posts/{post}");
+        Servlet files = add("/users/{user}/files/*");
+
+        assertTrue(router.match("/users/7/posts/99", match));
+        assertSame(comment, match.getServlet());
+        assertEquals(2, match.getParameterCount());
+        assertEquals("user", match.getParameterName(0));
+        assertEquals("7", match.getParameterValue(0));
+        assertEquals("post", match.getParameterName(1));
+        assertEquals("99", match.getParameterValue(1));
+
+        assertTrue(router.match("/users/ann/files/a/b.txt", match));
+        assertSame(files, match.getServlet());
+        assertEquals("/users/ann/files", match.getServletPath());
+        assertEquals("ann", match.getParameterValue(0));
+
+        assertFalse(router.match("/users//posts/1", match));
+        assertFalse(router.match("/users/7/posts", match));
+    }
+
+    @Test
+    void match_literalBranchFails_backtracksIntoParameter() {
+        Servlet literal = add("/a/b/c");
+        Servlet template = add("/a/{x}/d");
+        Servlet prefix = add("/a/b/*");
+
+        assertTrue(router.match("/a/b/d", match));
+        assertSame(template, match.getServlet());
+        assertEquals("b", match.getParameterValue(0));
+        assertTrue(router.match("/a/b/c", match));
+        assertSame(literal, match.getServlet());
+        assertTrue(router.match("/a/b/e", match));
+        assertSame(prefix, match.getServlet());
+        assertEquals(0, match.getParameterCount());
+    }
+
+    @Test
+    void match_sharedPrefixesSplitEdges() {
+        Servlet team = add("/team/*");
+        Servlet teams = add("/teams/*");
+        Servlet tea = add("/tea/*");
+
+        assertTrue(router.match("/team/a", match));
+        assertSame(team, match.getServlet());
+        assertTrue(router.match("/teams", match));
+        assertSame(teams, match.getServlet());
+        assertTrue(router.match("/tea/b/c", match));
+        assertSame(tea, match.getServlet());
+        assertEquals("/tea", match.getServletPath());
+        assertFalse(router.match("/te", match));
+        assertFalse(router.match("/teamsters", match));
+    }
+
+    @Test
+    void add_duplicateOrMalformedPattern_throws() {
+        add("/users/{id}");
+        add("/files/*");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> add("/users/{name}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> add("/files/*"));
+        assertThrows(IllegalArgumentException.class,
+                () -> add("/users/x{id}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> add("/a/{id}/{id}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> add("/a/*/b"));
+        assertThrows(IllegalArgumentException.class, () -> add("*."));
+    }
+}
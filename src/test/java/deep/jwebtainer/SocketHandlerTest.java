@@ -3,15 +3,20 @@ package deep.jwebtainer;
 import deep.jwebtainer.http.adaptor.HttpResponse;
 import deep.jwebtainer.servlet.http.HttpServlet;
 import deep.jwebtainer.servlet.http.HttpServletRequest;
+import deep.jwebtainer.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -101,4 +106,70 @@ class SocketHandlerTest {
         assertTrue(responseString.contains("JWebtainer (Java Web Container)"),
                 "Response should contain footer info");
     }
+
+    @Test
+    void run_pipelinedRequests_answeredInOrderWithBatchedWrites() {
+        int requestCount = 100;
+        StringBuilder pipelined = new StringBuilder();
+        for (int i = 0; i < requestCount; i++) {
+            pipelined.append("GET /echo?id=").append(i)
+                    .append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        }
+
+        DefaultServletRegistry registry = new DefaultServletRegistry();
+        registry.registerServlet("/echo", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request,
+                                 HttpServletResponse response) {
+                response.getWriter().print("id=" + request.getParameter("id"));
+            }
+        });
+
+        // Every write reaching the socket stream is one send() system call
+        int[] socketWrites = {0};
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        OutputStream socketOut = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                socketWrites[0]++;
+                received.write(b, off, len);
+            }
+        };
+        InputStream socketIn = new ByteArrayInputStream(
+                pipelined.toString().getBytes(StandardCharsets.US_ASCII));
+        Socket pipeliningSocket = new Socket() {
+            @Override
+            public InputStream getInputStream() {
+                return socketIn;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return socketOut;
+            }
+
+            @Override
+            public void setSoTimeout(int timeout) { }
+        };
+
+        new SocketHandler(pipeliningSocket, registry).run();
+
+        String responses = received.toString(StandardCharsets.US_ASCII);
+        int from = 0;
+        for (int i = 0; i < requestCount; i++) {
+            String body = "\r\n\r\nid=" + i
+                    + (i + 1 < requestCount ? "HTTP/1.1 " : "");
+            int next = responses.indexOf(body, from);
+            assertTrue(next > from, "response " + i + " out of order");
+            from = next;
+        }
+        assertEquals(requestCount, responses.split("HTTP/1.1 200 OK").length - 1);
+        assertTrue(socketWrites[0] * 10 <= requestCount,
+                "expected batched writes but got " + socketWrites[0]);
+    }
 }
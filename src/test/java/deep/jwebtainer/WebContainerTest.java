@@ -0,0 +1,1228 @@
+package deep.jwebtainer;
+
+import deep.jwebtainer.servlet.AsyncContext;
+import deep.jwebtainer.servlet.AsyncListener;
+import deep.jwebtainer.servlet.http.EventStream;
+import deep.jwebtainer.servlet.http.HttpServlet;
+import deep.jwebtainer.servlet.http.HttpServletRequest;
+import deep.jwebtainer.servlet.http.HttpServletResponse;
+import deep.jwebtainer.servlet.http.StaticResourceServlet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebContainerTest {
+
+    private static final int PORT = 8081;
+
+    private DefaultServletRegistry registry;
+    private WebContainer webContainer;
+    private final VersionedServlet versionedServlet = new VersionedServlet();
+    private final AsyncServlet asyncServlet = new AsyncServlet();
+    private final EventServlet eventServlet = new EventServlet();
+    private final TickingServlet tickingServlet = new TickingServlet();
+    private final StreamingServlet streamingServlet = new StreamingServlet();
+
+    @TempDir
+    Path documentRoot;
+
+    static class HelloServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            response.getWriter().print("Hello " + request.getParameter("name")
+                    + (Thread.currentThread().isVirtual() ? " (virtual)" : ""));
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest request,
+                              HttpServletResponse response) {
+            response.getWriter().print("Posted " + request.getParameter("name"));
+        }
+    }
+
+    static class FixedLengthServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            response.setHeader("Content-Length", "5");
+            response.getWriter().print("fixed");
+        }
+    }
+
+    static class UploadServlet extends HttpServlet {
+        @Override
+        protected void doPost(HttpServletRequest request,
+                              HttpServletResponse response) {
+            long received = 0;
+            byte[] buffer = new byte[8192];
+            try (InputStream body = request.getInputStream()) {
+                int count;
+                while ((count = body.read(buffer)) >= 0) {
+                    received += count;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            response.getWriter().print("Received " + received);
+        }
+    }
+
+    static class StreamingServlet extends HttpServlet {
+        private final AtomicInteger written = new AtomicInteger();
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            PrintWriter writer = response.getWriter();
+            String count = request.getParameter("lines");
+            int lines = count == null ? 1000 : Integer.parseInt(count);
+            try {
+                for (int i = 0; i < lines; i++) {
+                    writer.println("line " + i);
+                    written.incrementAndGet();
+                    if (i % 100 == 0) {
+                        response.flushBuffer();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static class VersionedServlet extends HttpServlet {
+        private final AtomicInteger rendered = new AtomicInteger();
+
+        @Override
+        protected String getETag(HttpServletRequest request) {
+            return "\"v1\"";
+        }
+
+        @Override
+        protected long getLastModified(HttpServletRequest request) {
+            return 784_111_777_000L;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            rendered.incrementAndGet();
+            response.getWriter().print("version 1");
+        }
+    }
+
+    static class AsyncServlet extends HttpServlet {
+        private static final Executor LATER = CompletableFuture
+                .delayedExecutor(100, TimeUnit.MILLISECONDS);
+        private final AtomicInteger timedOut = new AtomicInteger();
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            AsyncContext context = request.startAsync();
+            if (request.getParameter("timeout") != null) {
+                context.setTimeout(100);
+                context.addListener(new AsyncListener() {
+                    @Override
+                    public void onTimeout(AsyncContext c) {
+                        timedOut.incrementAndGet();
+                    }
+                });
+                return;
+            }
+            context.completeWhen(CompletableFuture.runAsync(() -> response
+                    .getWriter().print("Async " + request.getParameter("name")
+                            + " on " + Thread.currentThread().getName()),
+                    LATER));
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest request,
+                              HttpServletResponse response) {
+            doGet(request, response);
+        }
+    }
+
+    static class BrokenServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            throw new LinkageError("servlet bug");
+        }
+    }
+
+    static class FailingServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            response.getWriter().print("partial");
+            throw new IllegalStateException("servlet bug");
+        }
+    }
+
+    static class SlowServlet extends HttpServlet {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private volatile boolean destroyed;
+        private volatile boolean destroyedWhileServicing;
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            entered.countDown();
+            try {
+                released.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            destroyedWhileServicing = destroyed;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    static class TickingServlet extends HttpServlet {
+        private final AtomicInteger rejected = new AtomicInteger();
+        private volatile CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            AsyncContext context = request.startAsync();
+            context.setTimeout(100);
+            // Nothing is committed before the timeout expires
+            response.setBufferSize(1 << 20);
+            PrintWriter writer = response.getWriter();
+            CountDownLatch done = stopped;
+            Thread.ofVirtual().start(() -> {
+                try {
+                    while (true) {
+                        writer.print("tick\n");
+                        LockSupport.parkNanos(10_000);
+                    }
+                } catch (IllegalStateException e) {
+                    rejected.incrementAndGet();
+                    context.complete();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+    }
+
+    static class UserServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            response.getWriter().print(request.getPathParameters() + " "
+                    + request.getServletPath() + " "
+                    + request.getPathInfo());
+        }
+    }
+
+    static class EventServlet extends HttpServlet {
+        private final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            try {
+                EventStream stream = response.startEventStream(
+                        request.startAsync());
+                String count = request.getParameter("count");
+                if (count == null) {
+                    // A subscriber that stays until the client goes away
+                    stream.setHeartbeatInterval(50);
+                    stream.onClose(closed::incrementAndGet);
+                    stream.send("hello");
+                    return;
+                }
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        for (int i = 0; i < Integer.parseInt(count); i++) {
+                            Thread.sleep(20);
+                            stream.send("tick", "event " + i);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        stream.close();
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static class HoldingServlet extends HttpServlet {
+        private final String name;
+        private final CountDownLatch held = new CountDownLatch(1);
+        private volatile AsyncContext context;
+        private volatile boolean destroyed;
+
+        HoldingServlet(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            if (request.getParameter("hold") != null) {
+                context = request.startAsync();
+                context.setTimeout(0);
+                held.countDown();
+                return;
+            }
+            response.getWriter().print(name);
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    static class LazyServlet extends HttpServlet {
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        @Override
+        public void init() {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("Database not reachable");
+            }
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request,
+                             HttpServletResponse response) {
+            response.getWriter().print("Ready after " + attempts.get());
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.writeString(documentRoot.resolve("page.txt"),
+                "line\n".repeat(100_000));
+        Files.writeString(documentRoot.resolve("archive.txt"),
+                "0123456789".repeat(200_000));
+        registry = new DefaultServletRegistry();
+        registry.registerServlet("/hello", new HelloServlet());
+        registry.registerServlet("/fixed", new FixedLengthServlet());
+        registry.registerServlet("/upload", new UploadServlet());
+        registry.registerServlet("/stream", streamingServlet);
+        registry.registerServlet("/versioned", versionedServlet);
+        registry.registerServlet("/async", asyncServlet);
+        registry.registerServlet("/events", eventServlet);
+        registry.registerServlet("/ticking", tickingServlet);
+        registry.registerServlet("/broken", new BrokenServlet());
+        registry.registerServlet("/failing", new FailingServlet());
+        registry.registerServlet("/users/{user}/posts/{post}",
+                new UserServlet());
+        registry.registerServlet("/users/{user}/files/*", new UserServlet());
+        registry.registerServlet("/static/*",
+                new StaticResourceServlet(documentRoot));
+    }
+
+    private void start(TransportMode transportMode) throws Exception {
+        start(new WebContainer(PORT, registry, transportMode));
+    }
+
+    private void start(WebContainer container) throws Exception {
+        webContainer = container;
+
+        Thread serverThread = new Thread(() -> {
+            try {
+                webContainer.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        serverThread.start();
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (webContainer != null) {
+            webContainer.stop();
+        }
+    }
+
+    @Test
+    void nonBlocking_servletFound_responseSent() throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        String response = exchange("GET /hello?name=deep HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Hello deep"));
+    }
+
+    @Test
+    void nonBlocking_requestSplitAcrossWrites_bodyParameterParsed()
+            throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("POST /hello HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Content-Length: 9\r\n\r\n");
+            Thread.sleep(100);
+            client.send("name=deep");
+
+            String response = client.readResponse();
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.contains("Posted deep"));
+        }
+    }
+
+    @Test
+    void nonBlocking_servletThrowsError_onlyItsConnectionClosed()
+            throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        // Enough connections to reach every event loop
+        int loops = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < loops; i++) {
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /broken HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                assertTrue(client.isClosedByServer());
+            }
+        }
+        for (int i = 0; i < loops; i++) {
+            String response = exchange("GET /hello?name=deep HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            assertTrue(response.contains("Hello deep"));
+        }
+    }
+
+    @Test
+    void servletThrowsRuntimeException_answered500ThenClosed()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /failing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                String response = client.readResponse();
+                assertTrue(response.startsWith(
+                        "HTTP/1.1 500 Internal Server Error"), mode + "");
+                assertTrue(response.contains("Connection: close"), mode + "");
+                assertFalse(response.contains("partial"), mode + "");
+                assertTrue(client.isClosedByServer(), mode + "");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void stop_servletServicingRequest_destroyedOnceItReturns()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            SlowServlet slow = new SlowServlet();
+            registry.replaceServlet("/slow", slow);
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                assertTrue(slow.entered.await(5, TimeUnit.SECONDS), mode + "");
+
+                CompletableFuture<Void> stopped =
+                        CompletableFuture.runAsync(webContainer::stop);
+                Thread.sleep(300);
+                assertFalse(stopped.isDone(), mode + "");
+                assertFalse(slow.destroyed, mode + " destroyed a busy servlet");
+
+                slow.released.countDown();
+                stopped.get(5, TimeUnit.SECONDS);
+                assertTrue(slow.destroyed, mode + "");
+                assertFalse(slow.destroyedWhileServicing, mode + "");
+            }
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void malformedOrOversizedHead_answered400Or431ThenClosed()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET  /hello HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                String response = client.readResponse();
+                assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"),
+                        mode + "");
+                assertTrue(response.contains("Connection: close"), mode + "");
+                assertTrue(client.isClosedByServer(), mode + "");
+            }
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /hello HTTP/1.1\r\nX-Big: "
+                        + "x".repeat(70_000) + "\r\n\r\n");
+                String response = client.readResponse();
+                assertTrue(response.startsWith(
+                        "HTTP/1.1 431 Request Header Fields Too Large"),
+                        mode + "");
+                assertTrue(client.isClosedByServer(), mode + "");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void nonBlocking_bodyOverLimit_answered413ThenClosed() throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Content-Length: " + (2 << 20) + "\r\n\r\n");
+            String response = client.readResponse();
+            assertTrue(response.startsWith("HTTP/1.1 413 Content Too Large"));
+            assertTrue(response.contains("Connection: close"));
+            assertTrue(client.isClosedByServer());
+        }
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Transfer-Encoding: chunked\r\n\r\n");
+            String chunk = "10000\r\n" + "x".repeat(1 << 16) + "\r\n";
+            for (int i = 0; i < 16; i++) {
+                client.send(chunk);
+            }
+            client.send("1\r\nx\r\n");
+            String response = client.readResponse();
+            assertTrue(response.startsWith("HTTP/1.1 413 Content Too Large"));
+            assertTrue(client.isClosedByServer());
+        }
+    }
+
+    @Test
+    void nonBlocking_servletNotFound_sends404() throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        String response = exchange("GET /missing HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 404 Not Found"));
+        assertTrue(response.contains("<h1>HTTP Status 404 – Not Found</h1>"));
+    }
+
+    @Test
+    void virtualThreads_servletFound_servicedOnVirtualThread()
+            throws Exception {
+        start(TransportMode.VIRTUAL_THREADS);
+        String response = exchange("GET /hello?name=deep HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Hello deep (virtual)"));
+    }
+
+    @Test
+    void virtualThreads_writerBlockedOnSlowClient_carrierNotPinned()
+            throws Exception {
+        List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable("jdk.VirtualThreadPinned")
+                    .withThreshold(Duration.ZERO).withStackTrace();
+            recording.onEvent("jdk.VirtualThreadPinned", pinned::add);
+            recording.startAsync();
+            start(TransportMode.VIRTUAL_THREADS);
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /stream?lines=2000000 HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                // Wait for the socket to fill up and the writer to block
+                int written;
+                do {
+                    written = streamingServlet.written.get();
+                    Thread.sleep(200);
+                } while (written == 0
+                        || streamingServlet.written.get() != written);
+                assertTrue(client.readResponse().endsWith("line 1999999\n"));
+            }
+            recording.stop();
+        }
+        assertTrue(pinned.isEmpty(), () -> "Carrier pinned: " + pinned);
+    }
+
+    @Test
+    void blocking_servletFound_servicedOnPlatformThread() throws Exception {
+        start(TransportMode.BLOCKING);
+        String response = exchange("GET /hello?name=deep HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Hello deep"));
+        assertFalse(response.contains("(virtual)"));
+    }
+
+    @Test
+    void blocking_keepAlive_servesSeveralRequestsOnOneConnection()
+            throws Exception {
+        start(TransportMode.BLOCKING);
+        assertKeepAlive();
+    }
+
+    @Test
+    void nonBlocking_keepAlive_servesSeveralRequestsOnOneConnection()
+            throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        assertKeepAlive();
+    }
+
+    @Test
+    void blocking_http10WithoutKeepAlive_closesConnection() throws Exception {
+        start(TransportMode.BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /hello?name=old HTTP/1.0\r\n\r\n");
+
+            String response = client.readResponse();
+            assertTrue(response.contains("Connection: close"));
+            assertFalse(response.contains("Transfer-Encoding"));
+            assertTrue(response.endsWith("Hello old"));
+        }
+    }
+
+    @Test
+    void blocking_http10WithKeepAlive_usesContentLengthFraming()
+            throws Exception {
+        start(TransportMode.BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /fixed HTTP/1.0\r\n"
+                    + "Connection: keep-alive\r\n\r\n");
+            String response = client.readResponse();
+            assertTrue(response.contains("Connection: keep-alive"));
+            assertTrue(response.endsWith("fixed"));
+
+            // A buffered body gets its Content-Length computed
+            client.send("GET /hello?name=old HTTP/1.0\r\n"
+                    + "Connection: keep-alive\r\n\r\n");
+            response = client.readResponse();
+            assertTrue(response.contains("Connection: keep-alive"));
+            assertTrue(response.contains("Content-Length: 9"));
+            assertTrue(response.endsWith("Hello old"));
+        }
+    }
+
+    @Test
+    void blocking_streamedResponse_chunkedOverKeepAlive() throws Exception {
+        start(TransportMode.BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            String streamed = client.readResponse();
+            assertTrue(streamed.contains("Transfer-Encoding: chunked"));
+            assertTrue(streamed.endsWith("line 999\n"));
+
+            client.send("GET /hello?name=next HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            assertTrue(client.readResponse().endsWith("Hello next"));
+        }
+    }
+
+    @Test
+    void blocking_maxKeepAliveRequestsReached_closesConnection()
+            throws Exception {
+        WebContainer container = new WebContainer(PORT, registry);
+        container.setMaxKeepAliveRequests(2);
+        start(container);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /hello?name=1 HTTP/1.1\r\n\r\n");
+            assertFalse(client.readResponse().contains("Connection: close"));
+            client.send("GET /hello?name=2 HTTP/1.1\r\n\r\n");
+            assertTrue(client.readResponse().contains("Connection: close"));
+            assertTrue(client.isClosedByServer());
+        }
+    }
+
+    @Test
+    void idleConnection_closedAfterKeepAliveTimeout() throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            WebContainer container = new WebContainer(PORT, registry, mode);
+            container.setKeepAliveTimeout(200);
+            start(container);
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /hello?name=idle HTTP/1.1\r\n\r\n");
+                assertTrue(client.readResponse().contains("Hello idle"));
+                assertTrue(client.isClosedByServer(), mode.name());
+            }
+            container.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void pipelinedRequests_answeredInOrder() throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                StringBuilder pipelined = new StringBuilder();
+                for (int i = 0; i < 100; i++) {
+                    pipelined.append("GET /hello?name=").append(i)
+                            .append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                }
+                client.send(pipelined.toString());
+
+                for (int i = 0; i < 100; i++) {
+                    assertTrue(client.readResponse().contains("Hello " + i),
+                            mode + " response " + i);
+                }
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void blocking_largeUpload_streamedToServlet() throws Exception {
+        start(TransportMode.BLOCKING);
+        int length = 8 * 1024 * 1024;
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + length + "\r\n\r\n");
+            client.send("x".repeat(length));
+
+            assertTrue(client.readResponse().contains("Received " + length));
+        }
+    }
+
+    @Test
+    void chunkedUpload_decodedAndConnectionKeptAlive() throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Transfer-Encoding: chunked\r\n\r\n"
+                        + "400\r\n" + "x".repeat(1024) + "\r\n");
+                Thread.sleep(100);
+                client.send("a;name=ext\r\n0123456789\r\n0\r\n"
+                        + "X-Trailer: done\r\n\r\n"
+                        + "GET /hello?name=next HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                assertTrue(client.readResponse().contains("Received 1034"),
+                        mode + " did not decode the chunked body");
+                assertTrue(client.readResponse().contains("Hello next"),
+                        mode + " lost the next request");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void chunkedUpload_largeThenSmall_bothDecoded() throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Transfer-Encoding: chunked\r\n\r\n"
+                        + "10000\r\n" + "x".repeat(65536) + "\r\n0\r\n\r\n");
+                assertTrue(client.readResponse().contains("Received 65536"),
+                        mode + " did not decode the large chunked body");
+
+                client.send("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Transfer-Encoding: chunked\r\n\r\n"
+                        + "a\r\n0123456789\r\n0\r\n\r\n");
+                assertTrue(client.readResponse().contains("Received 10"),
+                        mode + " did not decode the small chunked body");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void unreadBody_skippedBeforeNextRequest() throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("POST /hello HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Type: text/plain\r\n"
+                        + "Content-Length: 9\r\n\r\nname=deep"
+                        + "GET /hello?name=next HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                assertTrue(client.readResponse().contains("Posted null"),
+                        mode + " parsed a text/plain body as form");
+                assertTrue(client.readResponse().contains("Hello next"),
+                        mode + " lost the next request");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void multipartPost_fieldsAvailableAsParameters() throws Exception {
+        String body = "--xyz\r\n"
+                + "Content-Disposition: form-data; name=\"name\"\r\n\r\n"
+                + "deep\r\n--xyz--\r\n";
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+
+            String response = exchange("POST /hello HTTP/1.1\r\n"
+                    + "Host: localhost\r\nConnection: close\r\n"
+                    + "Content-Type: multipart/form-data; boundary=xyz\r\n"
+                    + "Content-Length: " + body.length() + "\r\n\r\n"
+                    + body);
+
+            assertTrue(response.contains("Posted deep"),
+                    mode + " did not parse the multipart field");
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void staticFile_sentWholeFromDiskAndCache() throws Exception {
+        String page = "line\n".repeat(100_000);
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /static/page.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n"
+                        + "GET /static/page.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n"
+                        + "GET /static/../WebContainerTest.class HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n"
+                        + "GET /hello?name=next HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                String file = client.readResponse();
+                assertTrue(file.startsWith("HTTP/1.1 200 OK"), mode + "");
+                assertTrue(file.contains("Content-Length: " + page.length()),
+                        mode + " did not send the file size");
+                assertTrue(file.contains(
+                        "Content-Type: text/plain; charset=UTF-8"));
+                assertTrue(file.endsWith("\r\n\r\n" + page),
+                        mode + " did not send the whole file");
+                assertTrue(client.readResponse().endsWith("\r\n\r\n" + page),
+                        mode + " did not send the cached file");
+                assertTrue(client.readResponse()
+                        .startsWith("HTTP/1.1 404 Not Found"),
+                        mode + " served a file outside the document root");
+                assertTrue(client.readResponse().contains("Hello next"),
+                        mode + " lost the request after the file");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void conditionalGet_currentVersion_notModifiedWithoutRendering()
+            throws Exception {
+        start(TransportMode.BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /versioned HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            String full = client.readResponse();
+            assertTrue(full.contains("ETag: \"v1\"\r\n"));
+            assertTrue(full.contains(
+                    "Last-Modified: Sun, 06 Nov 1994 08:49:37 GMT\r\n"));
+            assertTrue(full.endsWith("version 1"));
+
+            client.send("GET /versioned HTTP/1.1\r\nHost: localhost\r\n"
+                    + "If-None-Match: \"v0\", \"v1\"\r\n\r\n"
+                    + "GET /versioned HTTP/1.1\r\nHost: localhost\r\n"
+                    + "If-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r\n"
+                    + "\r\n");
+            assertTrue(client.readResponse()
+                    .startsWith("HTTP/1.1 304 Not Modified"));
+            assertTrue(client.readResponse()
+                    .startsWith("HTTP/1.1 304 Not Modified"));
+            assertEquals(1, versionedServlet.rendered.get());
+        }
+    }
+
+    @Test
+    void staticFile_conditionalGet_notModifiedAndConnectionKeptAlive()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /static/page.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                String full = client.readResponse();
+                int start = full.indexOf("ETag: ") + 6;
+                String etag = full.substring(start,
+                        full.indexOf("\r\n", start));
+                assertTrue(etag.startsWith("\""), mode + " sent no ETag");
+
+                client.send("GET /static/page.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\nIf-None-Match: " + etag
+                        + "\r\n\r\nGET /hello?name=next HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                String notModified = client.readResponse();
+                assertTrue(notModified.startsWith(
+                        "HTTP/1.1 304 Not Modified"), mode + "");
+                assertTrue(notModified.contains("ETag: " + etag));
+                assertTrue(client.readResponse().contains("Hello next"),
+                        mode + " lost the request after the 304");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void staticFile_rangeRequests_partialContentOverKeepAlive()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                // page.txt is served from the cache, archive.txt from disk
+                client.send("GET /static/page.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\nRange: bytes=-6\r\n\r\n"
+                        + "GET /static/archive.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\n"
+                        + "Range: bytes=3-4, 1999998-\r\n\r\n"
+                        + "GET /static/archive.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\nRange: bytes=5000000-\r\n\r\n"
+                        + "GET /hello?name=next HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                String single = client.readResponse();
+                assertTrue(single.startsWith("HTTP/1.1 206 Partial Content"),
+                        mode + "");
+                assertTrue(single.contains(
+                        "Content-Range: bytes 499994-499999/500000"));
+                assertTrue(single.endsWith("\r\n\r\n\nline\n"));
+
+                String multipart = client.readResponse();
+                assertTrue(multipart.contains(
+                        "Content-Type: multipart/byteranges; boundary="),
+                        mode + " did not send a multipart body");
+                assertTrue(multipart.contains(
+                        "Content-Range: bytes 3-4/2000000\r\n\r\n34\r\n"));
+                assertTrue(multipart.contains("Content-Range: bytes "
+                        + "1999998-1999999/2000000\r\n\r\n89\r\n"));
+
+                String unsatisfiable = client.readResponse();
+                assertTrue(unsatisfiable.startsWith(
+                        "HTTP/1.1 416 Range Not Satisfiable"), mode + "");
+                assertTrue(unsatisfiable.contains(
+                        "Content-Range: bytes */2000000"));
+                assertTrue(client.readResponse().contains("Hello next"),
+                        mode + " lost the request after the ranges");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void staticFile_staleIfRange_sendsWholeFile() throws Exception {
+        start(TransportMode.BLOCKING);
+        String response = exchange("GET /static/page.txt HTTP/1.1\r\n"
+                + "Host: localhost\r\nRange: bytes=0-9\r\n"
+                + "If-Range: \"stale\"\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Content-Length: 500000"));
+        assertTrue(response.contains("Accept-Ranges: bytes"));
+    }
+
+    @Test
+    void bufferPool_everyBufferReturnedOnceConnectionsClose()
+            throws Exception {
+        BufferPool pool = BufferPool.shared();
+        long inUse = pool.getInUse();
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "GET /static/page.txt HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                assertTrue(client.readResponse().contains("line 999"));
+                assertTrue(client.readResponse().contains("line\n"));
+            }
+            webContainer.stop();
+            webContainer = null;
+
+            // The handler returns its buffers after seeing the close
+            long deadline = System.nanoTime() + 2_000_000_000L;
+            while (pool.getInUse() != inUse && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(inUse, pool.getInUse(), mode + " kept buffers");
+        }
+    }
+
+    @Test
+    void nonBlocking_closedWhileAsync_requestAbandonedAndReleased()
+            throws Exception {
+        BufferPool pool = BufferPool.shared();
+        long inUse = pool.getInUse();
+        HoldingServlet holding = new HoldingServlet("held");
+        registry.registerServlet("/hold", holding);
+        start(TransportMode.NON_BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /hold?hold=1 HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            assertTrue(holding.held.await(5, TimeUnit.SECONDS));
+            // Closes the connection while the request is still held
+            webContainer.stop();
+            webContainer = null;
+        }
+
+        // The servlet never completes the request; the close does
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (pool.getInUse() != inUse && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(inUse, pool.getInUse());
+        registry.unregisterServlet("/hold");
+        registry.whenRetired().get(5, TimeUnit.SECONDS);
+        PrintWriter writer = ((HttpServletResponse) holding.context
+                .getResponse()).getWriter();
+        assertThrows(IllegalStateException.class, () -> writer.print("x"));
+    }
+
+    @Test
+    void asyncServlet_completedLater_pipelinedRequestsFollowInOrder()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /hello?name=first HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n"
+                        + "GET /async?name=later HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n"
+                        + "POST /async HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Type: application/x-www-form-urlencoded"
+                        + "\r\nContent-Length: 11\r\n\r\nname=posted"
+                        + "GET /hello?name=last HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                assertTrue(client.readResponse().contains("Hello first"));
+                String async = client.readResponse();
+                assertTrue(async.startsWith("HTTP/1.1 200 OK"), mode + "");
+                assertTrue(async.contains("Async later on "), mode + "");
+                assertFalse(async.contains("jwebtainer"),
+                        mode + " completed on a container thread");
+                assertTrue(client.readResponse().contains("Async posted"),
+                        mode + " lost the body of an async request");
+                assertTrue(client.readResponse().contains("Hello last"));
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void asyncServlet_notCompleted_timesOutWith503() throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            String response = exchange("GET /async?timeout=1 HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+
+            assertTrue(response.startsWith(
+                    "HTTP/1.1 503 Service Unavailable"), mode + "");
+            assertTrue(response.contains("Connection: close"), mode + "");
+            webContainer.stop();
+            webContainer = null;
+        }
+        assertEquals(TransportMode.values().length,
+                asyncServlet.timedOut.get());
+    }
+
+    @Test
+    void asyncServlet_writingWhileTimeoutExpires_clean503AndWritesRejected()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            tickingServlet.stopped = new CountDownLatch(1);
+            start(new WebContainer(PORT, registry, mode));
+            String response = exchange("GET /ticking HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+
+            assertTrue(response.startsWith(
+                    "HTTP/1.1 503 Service Unavailable"), mode + "");
+            assertTrue(response.contains("Connection: close"), mode + "");
+            assertFalse(response.contains("tick"), mode + "");
+            assertTrue(tickingServlet.stopped.await(5, TimeUnit.SECONDS),
+                    mode + "");
+            webContainer.stop();
+            webContainer = null;
+        }
+        assertEquals(TransportMode.values().length,
+                tickingServlet.rejected.get());
+    }
+
+    @Test
+    void templatedMapping_pathParametersPassedToServlet() throws Exception {
+        start(TransportMode.NON_BLOCKING);
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /users/ann/posts/7 HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n"
+                    + "GET /users/bob/files/a/b.txt HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n"
+                    + "GET /users/bob HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+
+            assertTrue(client.readResponse().endsWith(
+                    "{user=ann, post=7} /users/ann/posts/7 null"));
+            assertTrue(client.readResponse().endsWith(
+                    "{user=bob} /users/bob/files /a/b.txt"));
+            assertTrue(client.readResponse()
+                    .startsWith("HTTP/1.1 404 Not Found"));
+        }
+    }
+
+    @Test
+    void eventStream_eventsSentLater_streamedThenConnectionReused()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /events?count=3 HTTP/1.1\r\n"
+                        + "Host: localhost\r\n"
+                        + "Accept-Encoding: gzip\r\n\r\n"
+                        + "GET /hello?name=after HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                String events = client.readResponse();
+                assertTrue(events.contains(
+                        "Content-Type: text/event-stream\r\n"), mode + "");
+                assertFalse(events.contains("Content-Encoding"), mode + "");
+                assertTrue(events.endsWith("\r\n\r\n"
+                        + "event: tick\ndata: event 0\n\n"
+                        + "event: tick\ndata: event 1\n\n"
+                        + "event: tick\ndata: event 2\n\n"), mode + "");
+                assertTrue(client.readResponse().contains("Hello after"),
+                        mode + "");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void eventStream_clientGoesAway_streamClosed() throws Exception {
+        int expected = 0;
+        for (TransportMode mode : TransportMode.values()) {
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /events HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+
+                assertTrue(client.readHead().contains("text/event-stream"));
+                assertEquals("data: hello\n\n", client.readChunk(),
+                        mode + " held back the event");
+            }
+            expected++;
+
+            // A heartbeat finds the connection gone
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (eventServlet.closed.get() < expected
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(expected, eventServlet.closed.get(), mode + "");
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    @Test
+    void lazyServlet_initFailsOnFirstRequest_503ThenRetried()
+            throws Exception {
+        LazyServlet lazy = new LazyServlet();
+        registry.registerLazyServlet("/lazy", lazy);
+        assertEquals(0, lazy.attempts.get());
+        start(TransportMode.NON_BLOCKING);
+
+        assertTrue(exchange("GET /lazy HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n")
+                .startsWith("HTTP/1.1 503 Service Unavailable"));
+        assertTrue(exchange("GET /lazy HTTP/1.1\r\n"
+                + "Host: localhost\r\n\r\n").endsWith("Ready after 2"));
+    }
+
+    @Test
+    void replaceServlet_requestInFlight_oldServletDrainedThenDestroyed()
+            throws Exception {
+        for (TransportMode mode : TransportMode.values()) {
+            HoldingServlet old = new HoldingServlet("old");
+            registry.replaceServlet("/hold", old);
+            start(new WebContainer(PORT, registry, mode));
+            try (HttpTestClient client = new HttpTestClient(PORT)) {
+                client.send("GET /hold?hold=1 HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                assertTrue(old.held.await(5, TimeUnit.SECONDS), mode + "");
+
+                // Returns at once, leaving the old servlet to drain
+                assertSame(old, registry.replaceServlet("/hold",
+                        new HoldingServlet("new")));
+                long deadline = System.nanoTime() + 5_000_000_000L;
+                String response;
+                do {
+                    response = exchange("GET /hold HTTP/1.1\r\n"
+                            + "Host: localhost\r\n\r\n");
+                } while (response.endsWith("old")
+                        && System.nanoTime() < deadline);
+                assertTrue(response.endsWith("new"), mode + "");
+                assertFalse(old.destroyed, mode + " destroyed a busy servlet");
+                assertFalse(registry.whenRetired().isDone(), mode + "");
+
+                ((HttpServletResponse) old.context.getResponse())
+                        .getWriter().print("held");
+                old.context.complete();
+                registry.whenRetired().get(5, TimeUnit.SECONDS);
+                assertTrue(old.destroyed, mode + "");
+                assertTrue(client.readResponse().endsWith("held"), mode + "");
+            }
+            webContainer.stop();
+            webContainer = null;
+        }
+    }
+
+    private void assertKeepAlive() throws IOException {
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send("GET /hello?name=one HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            String first = client.readResponse();
+            assertTrue(first.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(first.contains("Content-Length: 9"));
+            assertTrue(first.endsWith("Hello one"));
+
+            client.send("GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertTrue(client.readResponse()
+                    .startsWith("HTTP/1.1 404 Not Found"));
+
+            client.send("GET /hello?name=two HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Connection: close\r\n\r\n");
+            String last = client.readResponse();
+            assertTrue(last.contains("Connection: close"));
+            assertTrue(last.endsWith("Hello two"));
+            assertTrue(client.isClosedByServer());
+        }
+    }
+
+    private static String exchange(String request) throws IOException {
+        try (HttpTestClient client = new HttpTestClient(PORT)) {
+            client.send(request);
+            return client.readResponse();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangesTest {
+
+    @Test
+    void parse_singleRange_shouldSelectInclusiveBytes() {
+        ByteRanges ranges = ByteRanges.parse("bytes=0-499", 1000);
+
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.getStart(0));
+        assertEquals(500, ranges.getCount(0));
+        assertEquals("bytes 0-499/1000", ranges.contentRange(0));
+    }
+
+    @Test
+    void parse_suffixAndOpenRanges_shouldBeClippedToLength() {
+        ByteRanges ranges =
+                ByteRanges.parse("bytes=-100, 900-, 950-5000, -5000", 1000);
+
+        assertEquals(4, ranges.size());
+        assertEquals("bytes 900-999/1000", ranges.contentRange(0));
+        assertEquals("bytes 900-999/1000", ranges.contentRange(1));
+        assertEquals("bytes 950-999/1000", ranges.contentRange(2));
+        assertEquals("bytes 0-999/1000", ranges.contentRange(3));
+    }
+
+    @Test
+    void parse_rangesBeyondEnd_shouldBeUnsatisfiable() {
+        assertEquals(0, ByteRanges.parse("bytes=1000-1100", 1000).size());
+        assertEquals(0, ByteRanges.parse("bytes=-0", 1000).size());
+        assertEquals(1, ByteRanges.parse("bytes=1000-,0-0", 1000).size());
+        assertEquals("bytes */1000", ByteRanges.unsatisfied(1000));
+    }
+
+    @Test
+    void parse_malformedOrUnsupported_shouldBeIgnored() {
+        assertNull(ByteRanges.parse(null, 1000));
+        assertNull(ByteRanges.parse("items=0-1", 1000));
+        assertNull(ByteRanges.parse("bytes=5-1", 1000));
+        assertNull(ByteRanges.parse("bytes=a-1", 1000));
+        assertNull(ByteRanges.parse("bytes=-", 1000));
+        assertNull(ByteRanges.parse("bytes=10", 1000));
+        assertNull(ByteRanges.parse("bytes=0-0" + ",0-0".repeat(
+                ByteRanges.MAX_RANGES), 1000));
+    }
+}
@@ -0,0 +1,93 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedBodyDecoderTest {
+
+    private static final String BODY = "5;ext=1\r\nhello\r\n"
+            + "6\r\n world\r\n0\r\nX-Checksum: abc\r\n\r\n";
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void read_completeBody_shouldRemoveFramingAndCollectTrailers()
+            throws IOException {
+        ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+        ByteBuffer in = buffer(BODY + "GET /next");
+        byte[] data = new byte[64];
+
+        int count = decoder.read(in, data, 0, data.length);
+
+        assertEquals("hello world",
+                new String(data, 0, count, StandardCharsets.US_ASCII));
+        assertTrue(decoder.isFinished());
+        assertEquals(-1, decoder.read(in, data, 0, data.length));
+        assertEquals("abc", decoder.getTrailers().get("X-Checksum"));
+        assertEquals('G', in.get(), "next request left in the buffer");
+    }
+
+    @Test
+    void read_bodyArrivingByteByByte_shouldResumeWhereItStopped()
+            throws IOException {
+        ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] data = new byte[3];
+
+        for (byte b : BODY.getBytes(StandardCharsets.US_ASCII)) {
+            assertFalse(decoder.isFinished());
+            ByteBuffer in = ByteBuffer.wrap(new byte[]{b});
+            int count;
+            while ((count = decoder.read(in, data, 0, data.length)) > 0) {
+                decoded.write(data, 0, count);
+            }
+            assertFalse(in.hasRemaining());
+        }
+
+        assertTrue(decoder.isFinished());
+        assertEquals("hello world",
+                decoded.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void read_invalidChunkSize_shouldThrow() {
+        ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+
+        IOException ex = assertThrows(IOException.class,
+                () -> decoder.read(buffer("zz\r\n"), new byte[8], 0, 8));
+        assertTrue(ex.getMessage().contains("Invalid chunk size"));
+    }
+
+    @Test
+    void read_chunkSizeTooLarge_shouldThrow() {
+        ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+
+        assertThrows(IOException.class, () -> decoder.read(
+                buffer("80000000\r\n"), new byte[8], 0, 8));
+    }
+
+    @Test
+    void read_overlongChunkLine_shouldThrow() {
+        ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+        String line = "1;" + "x".repeat(5000) + "\r\n";
+
+        assertThrows(IOException.class,
+                () -> decoder.read(buffer(line), new byte[8], 0, 8));
+    }
+
+    @Test
+    void read_dataLongerThanChunkSize_shouldThrow() {
+        ChunkedBodyDecoder decoder = new ChunkedBodyDecoder();
+
+        assertThrows(IOException.class, () -> decoder.read(
+                buffer("2\r\nabc\r\n"), new byte[8], 0, 8));
+    }
+}
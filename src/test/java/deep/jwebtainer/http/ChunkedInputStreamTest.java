@@ -0,0 +1,55 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedInputStreamTest {
+
+    private static InputStream connection(String content) {
+        return new ByteArrayInputStream(
+                content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void read_bodyLargerThanBuffer_shouldRefillBufferFromConnection()
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16).flip();
+        String data = "0123456789".repeat(10);
+        ChunkedInputStream body = new ChunkedInputStream(buffer, connection(
+                "64\r\n" + data + "\r\n0\r\n\r\nGET / HTTP/1.1\r\n"));
+
+        String content = new String(body.readAllBytes(),
+                StandardCharsets.US_ASCII);
+
+        assertEquals(data, content);
+        assertTrue(body.isFinished());
+        assertEquals('G', buffer.get(), "next request left in the buffer");
+    }
+
+    @Test
+    void discardRemaining_smallBody_shouldConsumeIt() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64).flip();
+        ChunkedInputStream body = new ChunkedInputStream(buffer,
+                connection("3\r\nabc\r\n0\r\nTrailer: t\r\n\r\n"));
+
+        assertTrue(body.discardRemaining(64));
+        assertEquals("t", body.getTrailers().get("Trailer"));
+    }
+
+    @Test
+    void read_connectionClosedInsideBody_shouldThrow() {
+        ByteBuffer buffer = ByteBuffer.allocate(64).flip();
+        ChunkedInputStream body = new ChunkedInputStream(buffer,
+                connection("a\r\nabc"));
+
+        assertThrows(EOFException.class, body::readAllBytes);
+    }
+}
@@ -0,0 +1,72 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConditionalRequestTest {
+
+    private static final long MODIFIED = 784_111_777_000L;
+
+    @Test
+    void formatDate_shouldUseImfFixdate() {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT",
+                ConditionalRequest.formatDate(MODIFIED + 123));
+        assertEquals(MODIFIED,
+                ConditionalRequest.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    void parseDate_malformedOrObsoleteDate_shouldReturnMinusOne() {
+        assertEquals(-1, ConditionalRequest.parseDate("yesterday"));
+        assertEquals(-1, ConditionalRequest.parseDate(
+                "Sunday, 06-Nov-94 08:49:37 GMT"));
+    }
+
+    @Test
+    void isNotModified_matchingEntityTag_shouldBeTrue() {
+        assertTrue(ConditionalRequest.isNotModified("\"a\", \"b\"", null,
+                "\"b\"", -1));
+        assertTrue(ConditionalRequest.isNotModified("W/\"b\"", null,
+                "\"b\"", -1));
+        assertTrue(ConditionalRequest.isNotModified("*", null, "\"b\"", -1));
+        assertFalse(ConditionalRequest.isNotModified("\"a\"", null,
+                "\"b\"", -1));
+        assertFalse(ConditionalRequest.isNotModified("*", null, null,
+                MODIFIED));
+    }
+
+    @Test
+    void isNotModified_ifModifiedSince_shouldCompareSeconds() {
+        String date = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+        assertTrue(ConditionalRequest.isNotModified(null, date, null,
+                MODIFIED + 999));
+        assertFalse(ConditionalRequest.isNotModified(null, date, null,
+                MODIFIED + 1000));
+        assertFalse(ConditionalRequest.isNotModified(null, date, null, -1));
+        assertFalse(ConditionalRequest.isNotModified(null, "garbage", null,
+                MODIFIED));
+    }
+
+    @Test
+    void isNotModified_ifNoneMatchPresent_shouldIgnoreIfModifiedSince() {
+        assertFalse(ConditionalRequest.isNotModified("\"old\"",
+                "Sun, 06 Nov 1994 08:49:37 GMT", "\"new\"", MODIFIED));
+    }
+
+    @Test
+    void isRangeCurrent_shouldRequireStrongMatchOrExactDate() {
+        String date = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+        assertTrue(ConditionalRequest.isRangeCurrent(null, "\"a\"", -1));
+        assertTrue(ConditionalRequest.isRangeCurrent("\"a\"", "\"a\"", -1));
+        assertFalse(ConditionalRequest.isRangeCurrent("W/\"a\"", "\"a\"",
+                -1));
+        assertFalse(ConditionalRequest.isRangeCurrent("\"b\"", "\"a\"", -1));
+        assertTrue(ConditionalRequest.isRangeCurrent(date, null,
+                MODIFIED + 500));
+        assertFalse(ConditionalRequest.isRangeCurrent(date, null,
+                MODIFIED + 1000));
+    }
+}
@@ -0,0 +1,83 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentLengthInputStreamTest {
+
+    private static ByteBuffer buffered(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static InputStream connection(String content) {
+        return new ByteArrayInputStream(
+                content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void read_bodySplitBetweenBufferAndConnection_shouldStopAtLength()
+            throws IOException {
+        ByteBuffer buffered = buffered("hello ");
+        InputStream connection = connection("world|next request");
+        ContentLengthInputStream body =
+                new ContentLengthInputStream(buffered, connection, 11);
+
+        String content = new String(body.readAllBytes(),
+                StandardCharsets.US_ASCII);
+
+        assertEquals("hello world", content);
+        assertTrue(body.isFinished());
+        assertEquals(-1, body.read());
+        assertEquals('|', connection.read(), "next request left in place");
+    }
+
+    @Test
+    void read_bodyShorterThanBuffer_shouldLeaveNextRequestBuffered()
+            throws IOException {
+        ByteBuffer buffered = buffered("abcGET / HTTP/1.1");
+        ContentLengthInputStream body = new ContentLengthInputStream(
+                buffered, InputStream.nullInputStream(), 3);
+
+        assertArrayEquals("abc".getBytes(StandardCharsets.US_ASCII),
+                body.readAllBytes());
+        assertEquals('G', buffered.get());
+    }
+
+    @Test
+    void read_connectionClosedEarly_shouldThrow() {
+        ContentLengthInputStream body = new ContentLengthInputStream(
+                buffered("ab"), connection("c"), 10);
+
+        assertThrows(EOFException.class, body::readAllBytes);
+    }
+
+    @Test
+    void discardRemaining_smallRemainder_shouldConsumeBody()
+            throws IOException {
+        InputStream connection = connection("0123456789|");
+        ContentLengthInputStream body = new ContentLengthInputStream(
+                buffered(""), connection, 10);
+
+        assertTrue(body.discardRemaining(64));
+        assertTrue(body.isFinished());
+        assertEquals('|', connection.read());
+    }
+
+    @Test
+    void discardRemaining_largeRemainder_shouldLeaveBodyUnread()
+            throws IOException {
+        ContentLengthInputStream body = new ContentLengthInputStream(
+                buffered(""), connection("0123456789"), 10);
+
+        assertFalse(body.discardRemaining(4));
+        assertEquals(10, body.remaining());
+    }
+}
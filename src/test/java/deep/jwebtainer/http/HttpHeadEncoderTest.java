@@ -0,0 +1,52 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpHeadEncoderTest {
+
+    private static String head(HttpHeadEncoder encoder) {
+        return new String(encoder.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void statusLine_commonAndUncommonCodes_shouldBeEncoded() {
+        HttpHeadEncoder encoder = new HttpHeadEncoder();
+
+        encoder.statusLine(404, "Not Found");
+        assertEquals("HTTP/1.1 404 Not Found\r\n", head(encoder));
+
+        encoder.statusLine(404, "Gone Fishing");
+        assertEquals("HTTP/1.1 404 Gone Fishing\r\n", head(encoder));
+
+        encoder.statusLine(299, HttpHeadEncoder.reasonPhrase(299));
+        assertEquals("HTTP/1.1 299 HTTP Status 299\r\n", head(encoder));
+    }
+
+    @Test
+    void header_knownAndCustomNames_shouldFollowStatusLine() {
+        HttpHeadEncoder encoder = new HttpHeadEncoder();
+        encoder.statusLine(200, "OK");
+        encoder.header("Content-Type", "text/html");
+        encoder.header("Content-Length", 1234567890123L);
+        encoder.header("X-Café", "line\r\nInjected: €");
+        encoder.end();
+
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n"
+                + "Content-Length: 1234567890123\r\n"
+                + "X-Café: line??Injected: ?\r\n\r\n", head(encoder));
+    }
+
+    @Test
+    void header_headLargerThanBuffer_shouldGrow() {
+        HttpHeadEncoder encoder = new HttpHeadEncoder();
+        encoder.statusLine(200, "OK");
+        String value = "v".repeat(2000);
+        encoder.header("X-Large", value);
+
+        assertTrue(head(encoder).endsWith(value + "\r\n"));
+    }
+}
@@ -0,0 +1,52 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpHeadersTest {
+
+    @Test
+    void indexOf_wellKnownNameInAnyCase_shouldResolveToConstant() {
+        byte[] name = "content-LENGTH".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(HttpHeaderName.CONTENT_LENGTH,
+                HttpHeaderName.indexOf(name, 0, name.length));
+        assertEquals(HttpHeaderName.HOST, HttpHeaderName.indexOf("hOsT"));
+        assertEquals(-1, HttpHeaderName.indexOf("X-Custom"));
+        assertEquals("Content-Length",
+                HttpHeaderName.name(HttpHeaderName.CONTENT_LENGTH));
+    }
+
+    @Test
+    void add_manyCustomHeaders_shouldGrowAndKeepValuesInOrder() {
+        HttpHeaders headers = new HttpHeaders();
+        for (int i = 0; i < 100; i++) {
+            headers.add("X-Header-" + (i % 40), Integer.toString(i));
+        }
+
+        assertEquals(100, headers.size());
+        assertEquals("7", headers.get("x-header-7"));
+        assertEquals(List.of("7", "47", "87"), headers.getAll("X-HEADER-7"));
+        assertEquals(40, headers.toMap().size());
+        assertNull(headers.get("X-Header-40"));
+        assertTrue(headers.getAll("Missing").isEmpty());
+    }
+
+    @Test
+    void add_decodedSlices_shouldMatchStringLookups() {
+        byte[] raw = "Host: a\r\nX-Id: 1\r\nx-id: 2\r\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        HttpHeaders headers = new HttpHeaders(raw);
+        headers.add(0, 4, 6, 7);
+        headers.add(9, 13, 15, 16);
+        headers.add(18, 22, 24, 25);
+
+        assertEquals("a", headers.get(HttpHeaderName.HOST));
+        assertEquals(List.of("1", "2"), headers.getAll("X-ID"));
+        assertEquals("X-Id", headers.name(1));
+    }
+}
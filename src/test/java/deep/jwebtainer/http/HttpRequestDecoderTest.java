@@ -0,0 +1,212 @@
+package deep.jwebtainer.http;
+
+import deep.jwebtainer.http.adaptor.HttpRequest;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpRequestDecoderTest {
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void decode_completeRequest_shouldDecodeLineHeadersAndQuery() {
+        ByteBuffer buffer = buffer("""
+                GET /test?param=value&flag HTTP/1.1\r
+                Host: localhost\r
+                X-Padded:   spaced value \t\r
+                \r
+                """);
+
+        HttpRequest request = new HttpRequestDecoder().decode(buffer);
+
+        assertNotNull(request);
+        assertEquals("GET", request.getMethod());
+        assertEquals("/test", request.getRequestURI());
+        assertEquals("HTTP/1.1", request.getProtocol());
+        assertEquals("localhost", request.getHeader("Host"));
+        assertEquals("spaced value", request.getHeader("X-Padded"));
+        assertNull(request.getHeader("Missing"));
+        assertEquals("value", request.getParameter("param"));
+        assertEquals("", request.getParameter("flag"));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void decode_headArrivingByteByByte_shouldResumeWhereItStopped() {
+        byte[] bytes = ("POST /submit HTTP/1.1\r\nContent-Length: 16\r\n\r\n"
+                + "name=John&age=25").getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequestDecoder decoder = new HttpRequestDecoder();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+
+        HttpRequest request = null;
+        int fed = 0;
+        while (request == null) {
+            buffer.put(bytes[fed++]).flip();
+            request = decoder.decode(buffer);
+            buffer.compact();
+        }
+
+        assertEquals(bytes.length - 16, fed, "head ends at the blank line");
+        assertEquals("POST", request.getMethod());
+        assertEquals("16", request.getHeader("Content-Length"));
+        assertEquals(16, request.getContentLength());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void decode_pipelinedRequests_shouldStopEachAtItsBody() {
+        ByteBuffer buffer = buffer("\r\nGET /first HTTP/1.1\r\n\r\n"
+                + "PUT /second HTTP/1.0\nContent-Length: 3\n\nabc"
+                + "GET /third HTTP/1.1\r\n");
+        HttpRequestDecoder decoder = new HttpRequestDecoder();
+
+        HttpRequest first = decoder.decode(buffer);
+        assertEquals("/first", first.getRequestURI());
+        assertEquals(-1, first.getContentLength());
+        HttpRequest second = decoder.decode(buffer);
+        assertEquals("PUT", second.getMethod());
+        assertEquals("/second", second.getRequestURI());
+        assertEquals("HTTP/1.0", second.getProtocol());
+        assertEquals(3, second.getContentLength());
+        buffer.position(buffer.position() + 3); // the transport reads the body
+        assertNull(decoder.decode(buffer));
+        assertTrue(buffer.remaining() > 0, "third request stays buffered");
+    }
+
+    @Test
+    void decodeLast_unterminatedHead_shouldEndTheRequest() {
+        ByteBuffer buffer = buffer("GET /notfound HTTP/1.1\nHost: localhost\n");
+        HttpRequestDecoder decoder = new HttpRequestDecoder();
+
+        assertNull(decoder.decode(buffer));
+        HttpRequest request = decoder.decodeLast(buffer);
+
+        assertNotNull(request);
+        assertEquals("/notfound", request.getRequestURI());
+        assertEquals("localhost", request.getHeader("Host"));
+        assertNull(decoder.decodeLast(buffer));
+    }
+
+    @Test
+    void decode_repeatedHeaders_shouldKeepAllValuesIgnoringCase() {
+        ByteBuffer buffer = buffer("GET / HTTP/1.1\r\nAccept: a\r\n"
+                + "X-Custom: 1\r\naccept: b\r\nx-custom: 2\r\n\r\n");
+
+        HttpRequest request = new HttpRequestDecoder().decode(buffer);
+
+        assertEquals("a", request.getHeader("ACCEPT"));
+        assertEquals("a", request.getHeader(HttpHeaderName.ACCEPT));
+        assertEquals("1", request.getHeader("x-CUSTOM"));
+        assertArrayEquals(new String[]{"a", "b"},
+                request.getHeaders().get("Accept"));
+        assertArrayEquals(new String[]{"1", "2"},
+                request.getHeaders().get("X-Custom"));
+    }
+
+    @Test
+    void release_requestReusedForNextRequest_shouldHoldOnlyNewValues() {
+        ByteBuffer buffer = buffer("GET /first?a=1 HTTP/1.1\r\n"
+                + "X-Old: old\r\nHost: one\r\n\r\n"
+                + "GET /second HTTP/1.1\r\nHost: two\r\n\r\n");
+        HttpRequestDecoder decoder = new HttpRequestDecoder();
+
+        HttpRequest first = decoder.decode(buffer);
+        assertEquals("1", first.getParameter("a"));
+        decoder.release(first);
+
+        assertThrows(IllegalStateException.class,
+                () -> first.getHeader("Host"));
+
+        HttpRequest second = decoder.decode(buffer);
+        assertSame(first, second);
+        assertEquals("/second", second.getRequestURI());
+        assertEquals("two", second.getHeader("Host"));
+        assertNull(second.getHeader("X-Old"));
+        assertNull(second.getParameter("a"));
+    }
+
+    @Test
+    void decode_invalidContentLength_shouldThrow() {
+        ByteBuffer buffer = buffer("POST / HTTP/1.1\r\nContent-Length: -1\r\n"
+                + "\r\n");
+
+        IllegalArgumentException ex = assertThrows(
+                IllegalArgumentException.class,
+                () -> new HttpRequestDecoder().decode(buffer));
+        assertTrue(ex.getMessage().contains("Invalid Content-Length"));
+    }
+
+    @Test
+    void decode_requestLineWithExtraSpace_shouldThrow() {
+        ByteBuffer buffer = buffer("GET  / HTTP/1.1\r\n\r\n");
+
+        IllegalArgumentException ex = assertThrows(
+                IllegalArgumentException.class,
+                () -> new HttpRequestDecoder().decode(buffer));
+        assertTrue(ex.getMessage().contains("Invalid HTTP request line"));
+    }
+
+    @Test
+    void decode_malformedOrOversizedHead_throwsWithStatus() {
+        HttpParseException malformed = assertThrows(HttpParseException.class,
+                () -> new HttpRequestDecoder().decode(
+                        buffer("GET / HTTP/1.1\r\nNoColon\r\n\r\n")));
+        HttpParseException oversized = assertThrows(HttpParseException.class,
+                () -> new HttpRequestDecoder().decode(buffer("GET / HTTP/1.1"
+                        + "\r\nX-Big: " + "x".repeat(70_000) + "\r\n\r\n")));
+
+        assertEquals(400, malformed.getStatus());
+        assertEquals(431, oversized.getStatus());
+        assertEquals("Request Header Fields Too Large",
+                oversized.getReason());
+    }
+
+    @Test
+    void decode_conflictingContentLengths_throwsBadRequest() {
+        HttpParseException ex = assertThrows(HttpParseException.class,
+                () -> new HttpRequestDecoder().decode(buffer("POST / HTTP/1.1"
+                        + "\r\nContent-Length: 5\r\nContent-Length: 50\r\n"
+                        + "\r\n")));
+
+        assertEquals(400, ex.getStatus());
+        assertTrue(ex.getMessage().contains("Conflicting Content-Length"));
+    }
+
+    @Test
+    void decode_repeatedEqualContentLengths_accepted() {
+        HttpRequest request = new HttpRequestDecoder().decode(buffer(
+                "POST / HTTP/1.1\r\nContent-Length: 5\r\n"
+                        + "content-length: 5\r\n\r\n"));
+
+        assertNotNull(request);
+        assertEquals(5, request.getContentLength());
+    }
+
+    @Test
+    void decode_whitespaceBeforeColon_throwsBadRequest() {
+        HttpParseException ex = assertThrows(HttpParseException.class,
+                () -> new HttpRequestDecoder().decode(buffer("POST / HTTP/1.1"
+                        + "\r\nTransfer-Encoding : chunked\r\n\r\n")));
+
+        assertEquals(400, ex.getStatus());
+    }
+
+    @Test
+    void decode_foldedHeaderLine_throwsBadRequest() {
+        HttpParseException folded = assertThrows(HttpParseException.class,
+                () -> new HttpRequestDecoder().decode(buffer("GET / HTTP/1.1"
+                        + "\r\nX-Long: a\r\n\tb\r\n\r\n")));
+        HttpParseException indented = assertThrows(HttpParseException.class,
+                () -> new HttpRequestDecoder().decode(buffer("GET / HTTP/1.1"
+                        + "\r\n Content-Length: 5\r\n\r\n")));
+
+        assertEquals(400, folded.getStatus());
+        assertEquals(400, indented.getStatus());
+    }
+}
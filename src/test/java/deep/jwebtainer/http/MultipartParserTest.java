@@ -0,0 +1,155 @@
+package deep.jwebtainer.http;
+
+import deep.jwebtainer.BufferPool;
+import deep.jwebtainer.servlet.http.Part;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultipartParserTest {
+
+    private static final String BOUNDARY = "----jwebtainer";
+
+    @TempDir
+    Path tempDirectory;
+
+    private static String body(String fileContent) {
+        return "preamble\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+                + "Report\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "content-disposition: form-data; name=\"file\"; "
+                + "filename=\"a;b.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + fileContent + "\r\n"
+                + "--" + BOUNDARY + "--\r\n"
+                + "epilogue";
+    }
+
+    private static InputStream byteByByte(String content) {
+        return new ByteArrayInputStream(
+                content.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    private static String content(Part part) throws IOException {
+        try (InputStream in = part.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void boundary_quotedParameter_shouldBeUnquoted() {
+        assertEquals("a b", MultipartParser.boundary(
+                "Multipart/Form-Data; charset=utf-8; boundary=\"a b\""));
+        assertNull(MultipartParser.boundary("text/plain; boundary=x"));
+        assertNull(MultipartParser.boundary(null));
+    }
+
+    @Test
+    void parse_smallParts_shouldStayInMemory() throws IOException {
+        MultipartParser parser = new MultipartParser(
+                byteByByte(body("hello")), BOUNDARY, 1024, 4096, 1024,
+                tempDirectory);
+
+        List<Part> parts = parser.parse();
+
+        assertEquals(2, parts.size());
+        assertEquals("title", parts.get(0).getName());
+        assertNull(parts.get(0).getSubmittedFileName());
+        assertEquals("Report", content(parts.get(0)));
+        assertEquals("a;b.txt", parts.get(1).getSubmittedFileName());
+        assertEquals("text/plain", parts.get(1).getHeader("content-type"));
+        assertEquals("hello", content(parts.get(1)));
+        try (var files = Files.list(tempDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void parse_smallParts_shouldBePooledUntilDeleted() throws IOException {
+        BufferPool pool = new BufferPool(true);
+        MultipartParser parser = new MultipartParser(
+                byteByByte(body("hello")), BOUNDARY, 1024, 4096, 1024,
+                tempDirectory, pool);
+
+        List<Part> parts = parser.parse();
+        assertEquals(2, pool.getInUse());
+        InputStream title = parts.get(0).getInputStream();
+        for (Part part : parts) {
+            part.delete();
+            part.delete();
+        }
+
+        assertEquals(0, pool.getInUse());
+        assertTrue(pool.getUnreleased().isEmpty());
+        assertThrows(IOException.class, title::read);
+    }
+
+    @Test
+    void parse_partLargerThanThreshold_shouldSpillToTemporaryFile()
+            throws IOException {
+        String data = "0123456789\r\n-".repeat(2000);
+        MultipartParser parser = new MultipartParser(
+                byteByByte(body(data)), BOUNDARY, 1 << 20, 1 << 20, 64,
+                tempDirectory);
+
+        Part file = parser.parse().get(1);
+
+        assertEquals(data.length(), file.getSize());
+        assertEquals(data, content(file));
+        try (var files = Files.list(tempDirectory)) {
+            assertEquals(1, files.count());
+        }
+        file.delete();
+        try (var files = Files.list(tempDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void parse_partExceedsLimit_shouldThrowAndDeleteFiles() {
+        MultipartParser parser = new MultipartParser(
+                byteByByte(body("x".repeat(500))), BOUNDARY, 100, 4096, 16,
+                tempDirectory);
+
+        assertThrows(IOException.class, parser::parse);
+        assertTrue(tempDirectory.toFile().list().length == 0);
+    }
+
+    @Test
+    void parse_partExceedsLimitInMemory_shouldReleaseBuffers() {
+        BufferPool pool = new BufferPool(true);
+        MultipartParser parser = new MultipartParser(
+                byteByByte(body("x".repeat(500))), BOUNDARY, 100, 4096, 1024,
+                tempDirectory, pool);
+
+        assertThrows(IOException.class, parser::parse);
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    void parse_missingClosingBoundary_shouldThrow() {
+        MultipartParser parser = new MultipartParser(byteByByte(
+                "--" + BOUNDARY + "\r\n"
+                        + "Content-Disposition: form-data; name=\"a\"\r\n\r\n"
+                        + "unfinished"), BOUNDARY);
+
+        assertThrows(EOFException.class, parser::parse);
+    }
+}
@@ -0,0 +1,108 @@
+package deep.jwebtainer.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCompressionTest {
+
+    private static byte[] page() {
+        return "<p>Hello JWebtainer</p>\n".repeat(100)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void negotiate_acceptEncodingVariants_shouldPickAcceptedCoding() {
+        assertEquals("gzip",
+                ResponseCompression.negotiate("gzip, deflate, br"));
+        assertEquals("deflate",
+                ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("deflate", ResponseCompression.negotiate("DEFLATE"));
+        assertEquals("gzip", ResponseCompression.negotiate("*"));
+        assertNull(ResponseCompression.negotiate("gzip;q=0, identity"));
+        assertNull(ResponseCompression.negotiate("br"));
+        assertNull(ResponseCompression.negotiate(null));
+    }
+
+    @Test
+    void isCompressible_contentTypes_shouldSkipBinaryTypes() {
+        assertTrue(ResponseCompression.isCompressible(
+                "text/html; charset=UTF-8"));
+        assertTrue(ResponseCompression.isCompressible("application/json"));
+        assertTrue(ResponseCompression.isCompressible("image/svg+xml"));
+        assertFalse(ResponseCompression.isCompressible("image/png"));
+        assertFalse(ResponseCompression.isCompressible("application/gzip"));
+        assertFalse(ResponseCompression.isCompressible(null));
+    }
+
+    @Test
+    void compress_gzipAndDeflate_shouldDecompressToBody() throws IOException {
+        ResponseCompression compression = new ResponseCompression();
+        byte[] body = page();
+
+        byte[] gzip = compression.compress("gzip", body, 0, body.length,
+                false);
+        byte[] deflate = compression.compress("deflate", body, 0,
+                body.length, false);
+
+        assertTrue(gzip.length < body.length / 10);
+        assertArrayEquals(body,
+                readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+        assertArrayEquals(body, readAll(
+                new InflaterInputStream(new ByteArrayInputStream(deflate))));
+    }
+
+    @Test
+    void compress_cacheableBody_shouldBeCompressedOnce() {
+        ResponseCompression compression = new ResponseCompression();
+        byte[] body = page();
+        byte[] copy = body.clone();
+
+        byte[] first = compression.compress("gzip", body, 0, body.length,
+                true);
+        byte[] second = compression.compress("gzip", copy, 0, copy.length,
+                true);
+        copy[0] = 'X';
+        byte[] changed = compression.compress("gzip", copy, 0, copy.length,
+                true);
+
+        assertSame(first, second);
+        assertNotSame(first, changed);
+        assertNotSame(first, compression.compress("deflate", body, 0,
+                body.length, true));
+    }
+
+    @Test
+    void stream_flushedMidBody_shouldDecompressWhatWasWritten()
+            throws IOException {
+        ResponseCompression compression = new ResponseCompression();
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        CompressingOutputStream out = compression.stream("gzip", wire);
+
+        out.write("first ".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        int flushed = wire.size();
+        out.write("second".getBytes(StandardCharsets.US_ASCII));
+        out.finish();
+
+        assertTrue(flushed > 10);
+        assertEquals("first second", new String(readAll(new GZIPInputStream(
+                new ByteArrayInputStream(wire.toByteArray()))),
+                StandardCharsets.US_ASCII));
+        assertThrows(IOException.class, () -> out.write(1));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
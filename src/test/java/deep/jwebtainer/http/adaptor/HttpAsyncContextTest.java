@@ -0,0 +1,129 @@
+package deep.jwebtainer.http.adaptor;
+
+import deep.jwebtainer.servlet.AsyncContext;
+import deep.jwebtainer.servlet.AsyncListener;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpAsyncContextTest {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final HttpResponse response = new HttpResponse(output);
+    private final AtomicInteger handedBack = new AtomicInteger();
+    private final HttpAsyncContext context = new HttpAsyncContext(
+            new HttpRequest(), response, handedBack::incrementAndGet);
+
+    @Test
+    void complete_calledTwice_handsBackAndNotifiesOnce() {
+        AtomicInteger completed = new AtomicInteger();
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncContext c) {
+                completed.incrementAndGet();
+            }
+        });
+
+        context.complete();
+        context.complete();
+
+        assertTrue(context.isCompleted());
+        assertEquals(1, handedBack.get());
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    void awaitCompletion_completedFromOtherThread_returnsTrue()
+            throws Exception {
+        Thread.ofVirtual().start(() -> {
+            response.getWriter().print("done");
+            context.complete();
+        });
+
+        assertTrue(context.awaitCompletion());
+        assertEquals(1, handedBack.get());
+    }
+
+    @Test
+    void claimTimeout_servletWritesMeanwhile_rejectedAndCompleteIgnored()
+            throws Exception {
+        assertTrue(context.claimTimeout());
+        CompletableFuture<Throwable> servlet;
+        try {
+            CompletableFuture.runAsync(context::complete).get();
+            assertFalse(context.isCompleted());
+
+            // Waits for the claim, then finds the response taken over
+            servlet = CompletableFuture.supplyAsync(() -> {
+                try {
+                    response.getWriter().print("late");
+                    return null;
+                } catch (IllegalStateException e) {
+                    return e;
+                }
+            });
+            response.setStatus(503);
+            response.getWriter().print("timed out");
+            context.complete();
+        } finally {
+            context.releaseClaim();
+        }
+        assertNotNull(servlet.get());
+        response.finish();
+
+        assertEquals(1, handedBack.get());
+        String written = output.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(written.startsWith("HTTP/1.1 503"));
+        assertTrue(written.endsWith("timed out"));
+    }
+
+    @Test
+    void claimTimeout_afterComplete_returnsFalse() {
+        context.complete();
+
+        assertFalse(context.claimTimeout());
+    }
+
+    @Test
+    void awaitCompletion_timeoutExpires_returnsFalse() throws Exception {
+        context.setTimeout(50);
+
+        assertFalse(context.awaitCompletion());
+        assertTrue(context.isExpired(System.nanoTime()));
+        assertEquals(0, handedBack.get());
+    }
+
+    @Test
+    void fireTimeout_listenerCompletes_returnsTrue() {
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncContext c) {
+                c.complete();
+            }
+        });
+
+        assertTrue(context.fireTimeout());
+        assertFalse(context.isExpired(Long.MAX_VALUE));
+    }
+
+    @Test
+    void completeWhen_stageFails_sends500() throws Exception {
+        response.getWriter().print("partial");
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        context.completeWhen(stage);
+        assertFalse(context.isCompleted());
+
+        stage.completeExceptionally(new IllegalStateException("down"));
+        response.finish();
+
+        String sent = output.toString(StandardCharsets.UTF_8);
+        assertTrue(context.isCompleted());
+        assertTrue(sent.startsWith("HTTP/1.1 500 Internal Server Error"));
+        assertFalse(sent.contains("partial"));
+    }
+}
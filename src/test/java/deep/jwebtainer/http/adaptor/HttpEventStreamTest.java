@@ -0,0 +1,138 @@
+package deep.jwebtainer.http.adaptor;
+
+import deep.jwebtainer.servlet.http.EventStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpEventStreamTest {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private volatile boolean failing;
+    private final HttpResponse response = new HttpResponse(
+            new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                        throws IOException {
+                    if (failing) {
+                        throw new IOException("Broken pipe");
+                    }
+                    output.write(b, off, len);
+                }
+            });
+    private final AtomicInteger handedBack = new AtomicInteger();
+    private final HttpAsyncContext context = new HttpAsyncContext(
+            new HttpRequest(), response, handedBack::incrementAndGet);
+
+    private EventStream start() throws IOException {
+        response.setProtocol("HTTP/1.1");
+        return response.startEventStream(context);
+    }
+
+    private String output() {
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void frame_multiLineData_oneDataLinePerLine() {
+        byte[] frame = HttpEventStream.frame("7", "tick", "a\r\nb\nc\r");
+
+        assertEquals("id: 7\nevent: tick\ndata: a\ndata: b\ndata: c\n"
+                + "data: \n\n", new String(frame, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void frame_eventNameWithLineBreak_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> HttpEventStream.frame(null, "a\nb", "data"));
+    }
+
+    @Test
+    void startEventStream_sendsHeadersAndDisablesTimeout() throws Exception {
+        start();
+
+        assertTrue(response.isCommitted());
+        assertTrue(output().contains("Content-Type: text/event-stream\r\n"));
+        assertTrue(output().contains("Cache-Control: no-cache\r\n"));
+        assertTrue(output().contains("Transfer-Encoding: chunked\r\n"));
+        assertEquals(0, context.getTimeout());
+    }
+
+    @Test
+    void send_eventFlushedAsChunkRightAway() throws Exception {
+        EventStream stream = start();
+
+        stream.send("update", "42");
+
+        assertTrue(output().endsWith("\r\n18\r\nevent: update\ndata: 42"
+                + "\n\n\r\n"), output());
+    }
+
+    @Test
+    void close_calledTwice_completesAndRunsCallbacksOnce() throws Exception {
+        EventStream stream = start();
+        AtomicInteger closed = new AtomicInteger();
+        stream.onClose(closed::incrementAndGet);
+
+        stream.close();
+        stream.close();
+
+        assertFalse(stream.isOpen());
+        assertTrue(context.isCompleted());
+        assertEquals(1, handedBack.get());
+        assertEquals(1, closed.get());
+        assertThrows(IOException.class, () -> stream.send("late"));
+        stream.onClose(closed::incrementAndGet);
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    void send_writeFails_closesStream() throws Exception {
+        EventStream stream = start();
+        AtomicInteger closed = new AtomicInteger();
+        stream.onClose(closed::incrementAndGet);
+        failing = true;
+
+        assertThrows(IOException.class, () -> stream.send("lost"));
+
+        assertFalse(stream.isOpen());
+        assertEquals(1, closed.get());
+        assertEquals(1, handedBack.get());
+    }
+
+    @Test
+    void fireError_connectionLost_closesStream() throws Exception {
+        EventStream stream = start();
+
+        context.fireError(new IOException("Connection closed"));
+
+        assertFalse(stream.isOpen());
+        assertTrue(context.isCompleted());
+    }
+
+    @Test
+    void heartbeat_idleStream_sendsComment() throws Exception {
+        EventStream stream = start();
+        stream.setHeartbeatInterval(20);
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!output().contains(":\n\n")
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        stream.close();
+
+        assertTrue(output().contains("\r\n3\r\n:\n\n\r\n"), output());
+    }
+}
@@ -1,7 +1,15 @@
 package deep.jwebtainer.http.adaptor;
 
+import deep.jwebtainer.http.HttpHeaderName;
+import deep.jwebtainer.http.HttpHeaders;
 import org.junit.jupiter.api.Test;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class HttpRequestTest {
@@ -20,6 +28,24 @@ class HttpRequestTest {
         assertEquals("/test/path", req.getRequestURI());
     }
 
+    @Test
+    void setPathMatch_templatedPrefix_pathAndParametersCutOutOfUri() {
+        HttpRequest req = new HttpRequest();
+        req.setRequestURI("/users/42/files/a.txt");
+        req.setPathMatch(15, new String[]{"user"}, new int[]{7, 9, 0, 0});
+
+        assertEquals("42", req.getPathParameter("user"));
+        assertNull(req.getPathParameter("post"));
+        assertEquals("/users/42/files", req.getServletPath());
+        assertEquals("/a.txt", req.getPathInfo());
+        assertEquals(Map.of("user", "42"), req.getPathParameters());
+
+        req.recycle();
+        req.setRequestURI("/other");
+        assertEquals("/other", req.getServletPath());
+        assertTrue(req.getPathParameters().isEmpty());
+    }
+
     @Test
     void testAddAndGetHeader() {
         HttpRequest req = new HttpRequest();
@@ -29,6 +55,22 @@ class HttpRequestTest {
         assertTrue(req.getHeaders().containsKey("Content-Type"));
     }
 
+    @Test
+    void testGetHeaderIgnoresCaseAndKeepsRepeatedValues() {
+        HttpRequest req = new HttpRequest();
+        req.addHeader("Content-Type", "text/plain");
+        req.addHeader("X-Tag", "a");
+        req.addHeader("x-tag", "b");
+        assertEquals("text/plain", req.getHeader("content-type"));
+        assertEquals("text/plain",
+                req.getHeader(HttpHeaderName.CONTENT_TYPE));
+        assertEquals("a", req.getHeader("X-TAG"));
+        assertEquals(List.of("a", "b"),
+                Collections.list(req.getHeaders("x-Tag")));
+        assertArrayEquals(new String[]{"a", "b"},
+                req.getHeaders().get("x-tag"));
+    }
+
     @Test
     void testGetHeaderWhenNotPresent() {
         HttpRequest req = new HttpRequest();
@@ -50,10 +92,62 @@ class HttpRequestTest {
         assertNull(req.getParameter("missingParam"));
     }
 
+    @Test
+    void testAddParameterTwiceKeepsBothValues() {
+        HttpRequest req = new HttpRequest();
+        req.addParameter("tag", "a");
+        req.addParameter("tag", "b");
+        assertEquals("a", req.getParameter("tag"));
+        assertArrayEquals(new String[]{"a", "b"},
+                req.getParameterValues("tag"));
+        assertNull(req.getParameterValues("missing"));
+    }
+
+    @Test
+    void testQueryParametersPercentDecodedAndRepeated() {
+        byte[] raw = "q=caf%C3%A9+au+lait&tag=a&tag=b%2&flag&x=1=2"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequest req = new HttpRequest();
+        req.setRawRequest(raw, new HttpHeaders(raw));
+        req.setQuerySlice(0, raw.length);
+
+        assertEquals("caf\u00e9 au lait", req.getParameter("q"));
+        assertArrayEquals(new String[]{"a", "b%2"},
+                req.getParameterValues("tag"));
+        assertEquals("", req.getParameter("flag"));
+        assertEquals("1=2", req.getParameter("x"));
+        assertArrayEquals(new String[]{"q", "tag", "flag", "x"},
+                req.getParameters().keySet().toArray());
+    }
+
     @Test
     void testGetAttributeAlwaysNull() {
         HttpRequest req = new HttpRequest();
         assertNull(req.getAttribute("any"));
     }
 
-}
\ No newline at end of file
+    @Test
+    void testStartAsyncWithoutTransportSupportThrows() {
+        HttpRequest req = new HttpRequest();
+        assertThrows(IllegalStateException.class, req::startAsync);
+        assertFalse(req.isAsyncStarted());
+    }
+
+    @Test
+    void testStartAsyncCreatesContextOnceUntilRecycled() {
+        HttpRequest req = new HttpRequest();
+        HttpResponse resp = new HttpResponse(OutputStream.nullOutputStream());
+        req.setAsyncStarter(r -> new HttpAsyncContext(r, resp, () -> {
+        }));
+
+        HttpAsyncContext context = req.startAsync();
+
+        assertSame(req, context.getRequest());
+        assertSame(context, req.getAsyncContext());
+        assertTrue(req.isAsyncStarted());
+        assertThrows(IllegalStateException.class, req::startAsync);
+        req.recycle();
+        assertFalse(req.isAsyncStarted());
+        assertNull(req.getAsyncContext());
+    }
+}
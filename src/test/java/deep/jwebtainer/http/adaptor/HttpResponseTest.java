@@ -1,11 +1,19 @@
 package deep.jwebtainer.http.adaptor;
 
+import deep.jwebtainer.http.ByteRanges;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -66,4 +74,311 @@ class HttpResponseTest {
         assertTrue(output.contains("Hello"));
     }
 
+    @Test
+    void testWriterEncodesTextSpanningItsBuffer() throws Exception {
+        PrintWriter writer = response.getWriter();
+        // The emoji's surrogate pair straddles the writer's buffer
+        String text = "x".repeat(1023) + "\uD83D\uDE00 é";
+        writer.print(text);
+        writer.println(42);
+        writer.printf("%s=%d", "n", 7);
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.endsWith("\r\n\r\n" + text + "42"
+                + System.lineSeparator() + "n=7"));
+    }
+
+    @Test
+    void testFinishWithoutBodySendsContentLengthZero() throws Exception {
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("Content-Length: 0\r\n"));
+        assertTrue(output.endsWith("\r\n\r\n"));
+        assertTrue(response.isKeepAlive());
+    }
+
+    @Test
+    void testFinishWithBufferedBodySendsContentLength() throws Exception {
+        response.getWriter().print("Hello");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("Content-Length: 5\r\n"));
+        assertFalse(output.contains("Transfer-Encoding"));
+        assertTrue(output.endsWith("\r\n\r\nHello"));
+    }
+
+    @Test
+    void testBodyLargerThanBufferUsesChunkedEncoding() throws Exception {
+        response.setBufferSize(4);
+        response.getWriter().print("Hello");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("Transfer-Encoding: chunked\r\n"));
+        assertFalse(output.contains("Content-Length"));
+        assertTrue(output.endsWith(
+                "\r\n\r\n4\r\nHell\r\n1\r\no\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    void testStreamedBodyIsSentInBufferSizedChunks() throws Exception {
+        response.setBufferSize(4);
+        OutputStream body = response.getOutputStream();
+        body.write("Hel".getBytes(StandardCharsets.US_ASCII));
+        body.write("loWor".getBytes(StandardCharsets.US_ASCII));
+        body.write("ld!".getBytes(StandardCharsets.US_ASCII));
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.endsWith("\r\n\r\n4\r\nHell\r\n4\r\noWor\r\n"
+                + "3\r\nld!\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    void testFlushBufferSendsBodyWrittenSoFar() throws Exception {
+        PrintWriter writer = response.getWriter();
+        writer.print("first");
+        response.flushBuffer();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(response.isCommitted());
+        assertTrue(output.contains("Transfer-Encoding: chunked\r\n"));
+        assertTrue(output.endsWith("\r\n\r\n5\r\nfirst\r\n"));
+
+        writer.print("second");
+        response.finish();
+        assertTrue(outputStream.toString(StandardCharsets.UTF_8)
+                .endsWith("5\r\nfirst\r\n6\r\nsecond\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    void testBodyIsNotWrittenBeforeFinish() throws Exception {
+        response.getOutputStream().write(new byte[100]);
+        assertEquals(0, outputStream.size());
+        assertFalse(response.isCommitted());
+
+        response.finish();
+        assertTrue(outputStream.toString(StandardCharsets.UTF_8)
+                .contains("Content-Length: 100\r\n"));
+    }
+
+    @Test
+    void testSetBufferSizeAfterWriteThrows() throws Exception {
+        response.getOutputStream().write('x');
+
+        assertThrows(IllegalStateException.class,
+                () -> response.setBufferSize(16));
+    }
+
+    @Test
+    void testLargeTextBodyIsCompressedForAcceptingClient() throws Exception {
+        String page = "<p>compressible</p>\n".repeat(200);
+        response.setAcceptedEncoding("gzip");
+        response.getWriter().print(page);
+        response.finish();
+
+        byte[] output = outputStream.toByteArray();
+        String head = outputStream.toString(StandardCharsets.ISO_8859_1);
+        int bodyStart = head.indexOf("\r\n\r\n") + 4;
+        assertTrue(head.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(head.contains("Vary: Accept-Encoding\r\n"));
+        assertTrue(head.contains("Content-Length: "
+                + (output.length - bodyStart) + "\r\n"));
+        assertEquals(page, new String(new GZIPInputStream(
+                new ByteArrayInputStream(output, bodyStart,
+                        output.length - bodyStart)).readAllBytes(),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testSmallOrBinaryBodyIsNotCompressed() throws Exception {
+        response.setAcceptedEncoding("gzip");
+        response.getWriter().print("Hello");
+        response.finish();
+        assertFalse(outputStream.toString(StandardCharsets.UTF_8)
+                .contains("Content-Encoding"));
+
+        response.recycle();
+        outputStream.reset();
+        response.setAcceptedEncoding("gzip");
+        response.setHeader("Content-Type", "image/png");
+        response.getOutputStream().write(new byte[4096]);
+        response.finish();
+        String output = outputStream.toString(StandardCharsets.ISO_8859_1);
+        assertFalse(output.contains("Content-Encoding"));
+        assertTrue(output.contains("Content-Length: 4096\r\n"));
+    }
+
+    @Test
+    void testStreamedBodyIsCompressedOnTheFly() throws Exception {
+        response.setAcceptedEncoding("deflate");
+        response.setBufferSize(16);
+        response.getWriter().print("streamed text ".repeat(50));
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(output.contains("Content-Encoding: deflate\r\n"));
+        assertTrue(output.contains("Transfer-Encoding: chunked\r\n"));
+        assertTrue(output.endsWith("\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    void testNotModifiedResponseHasNoBodyOrFraming() throws Exception {
+        response.setStatus(304);
+        response.setHeader("ETag", "\"v1\"");
+        response.getWriter().print("ignored");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertTrue(output.contains("ETag: \"v1\"\r\n"));
+        assertFalse(output.contains("Content-Length"));
+        assertFalse(output.contains("Content-Type"));
+        assertTrue(output.endsWith("\r\n\r\n"));
+        assertTrue(response.isKeepAlive());
+    }
+
+    @Test
+    void testExplicitContentLengthIsNotChunked() throws Exception {
+        response.setHeader("Content-Length", "5");
+        response.getWriter().print("Hello");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertFalse(output.contains("Transfer-Encoding"));
+        assertTrue(output.endsWith("\r\n\r\nHello"));
+    }
+
+    @Test
+    void testHttp10BufferedBodyKeepsConnection() throws Exception {
+        response.setProtocol("HTTP/1.0");
+        response.getWriter().print("Hello");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(response.isKeepAlive());
+        assertTrue(output.contains("Content-Length: 5\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nHello"));
+    }
+
+    @Test
+    void testHttp10StreamedBodyClosesConnection() throws Exception {
+        response.setProtocol("HTTP/1.0");
+        response.setBufferSize(0);
+        response.getWriter().print("Hello");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertFalse(response.isKeepAlive());
+        assertTrue(output.contains("Connection: close\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nHello"));
+    }
+
+    @Test
+    void testRecycleResetsResponseForNextRequest() throws Exception {
+        PrintWriter writer = response.getWriter();
+        response.setStatus(404);
+        response.setHeader("X-First", "1");
+        writer.print("Hello");
+        response.finish();
+
+        assertThrows(IllegalStateException.class, () -> writer.print("x"));
+        assertThrows(IllegalStateException.class,
+                () -> response.setHeader("X-Late", "1"));
+
+        response.recycle();
+        outputStream.reset();
+        response.getWriter().print("Again");
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertFalse(output.contains("X-First"));
+        assertTrue(output.contains("Content-Length: 5\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nAgain"));
+    }
+
+    @Test
+    void testSendFileWritesHeadAndFileRegion(@TempDir Path dir)
+            throws Exception {
+        Path file = Files.writeString(dir.resolve("hello.txt"),
+                "Hello, file!");
+        response.setHeader("Content-Type", "text/plain");
+        response.sendFile(file, 7, 4);
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(output.contains("Content-Length: 4\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nfile"));
+        assertThrows(IllegalStateException.class,
+                () -> response.getOutputStream().write(1));
+    }
+
+    @Test
+    void testSendContentWritesBufferWithoutConsumingIt() throws Exception {
+        ByteBuffer content = ByteBuffer.allocateDirect(5);
+        content.put("Hello".getBytes(StandardCharsets.UTF_8)).flip();
+        response.sendContent(content.asReadOnlyBuffer());
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("Content-Length: 5\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nHello"));
+        assertEquals(5, content.remaining());
+    }
+
+    @Test
+    void testSendContentRangeSendsPartialContent() throws Exception {
+        ByteBuffer content = ByteBuffer.wrap(
+                "Hello, world".getBytes(StandardCharsets.UTF_8));
+        response.sendContent(content, ByteRanges.parse("bytes=7-", 12));
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        assertTrue(output.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+        assertTrue(output.contains("Content-Range: bytes 7-11/12\r\n"));
+        assertTrue(output.contains("Content-Length: 5\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nworld"));
+    }
+
+    @Test
+    void testSendFileRangesSendsMultipartBody(@TempDir Path dir)
+            throws Exception {
+        Path file = Files.writeString(dir.resolve("digits.txt"),
+                "0123456789");
+        response.setHeader("Content-Type", "text/plain");
+        response.sendFile(file, ByteRanges.parse("bytes=0-1,-2", 10));
+        response.finish();
+
+        String output = outputStream.toString(StandardCharsets.UTF_8);
+        int start = output.indexOf("boundary=") + 9;
+        String boundary = output.substring(start,
+                output.indexOf("\r\n", start));
+        String body = output.substring(output.indexOf("\r\n\r\n") + 4);
+        assertTrue(output.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+        assertTrue(output.contains("Content-Length: " + body.length()
+                + "\r\n"));
+        assertEquals("\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 0-1/10\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 8-9/10\r\n\r\n89"
+                + "\r\n--" + boundary + "--\r\n", body);
+    }
+
+    @Test
+    void testSendFileAfterBodyWrittenThrows(@TempDir Path dir)
+            throws Exception {
+        Path file = Files.writeString(dir.resolve("hello.txt"), "Hello");
+        response.getWriter().print("x");
+        response.getWriter().flush();
+
+        assertThrows(IllegalStateException.class,
+                () -> response.sendFile(file, 0, 5));
+    }
 }
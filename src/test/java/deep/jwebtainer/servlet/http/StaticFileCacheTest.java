@@ -0,0 +1,104 @@
+package deep.jwebtainer.servlet.http;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticFileCacheTest {
+
+    @TempDir
+    Path root;
+
+    private StaticFileCache cache;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    @Test
+    void load_smallFile_readIntoDirectBuffer() throws Exception {
+        Path file = Files.writeString(root.resolve("a.txt"), "Hello");
+        cache = new StaticFileCache(root.toRealPath());
+
+        StaticFileCache.Entry entry = cache.load("/a.txt", file, "text/plain");
+
+        assertTrue(entry.getContent().isDirect());
+        assertTrue(entry.getContent().isReadOnly());
+        assertEquals("Hello", text(entry.getContent()));
+        assertSame(entry, cache.get("/a.txt"));
+        assertNull(cache.get("/b.txt"));
+    }
+
+    @Test
+    void load_largerFile_mappedIntoMemory() throws Exception {
+        String body = "x".repeat(StaticFileCache.MAP_THRESHOLD);
+        Path file = Files.writeString(root.resolve("big.txt"), body);
+        cache = new StaticFileCache(root.toRealPath());
+
+        StaticFileCache.Entry entry =
+                cache.load("/big.txt", file, "text/plain");
+
+        assertTrue(entry.getContent() instanceof MappedByteBuffer);
+        assertEquals(body, text(entry.getContent()));
+    }
+
+    @Test
+    void load_fileAboveLimit_notCached() throws Exception {
+        Path file = Files.write(root.resolve("huge.bin"),
+                new byte[StaticFileCache.MAX_FILE_SIZE + 1]);
+        cache = new StaticFileCache(root.toRealPath());
+
+        assertNull(cache.load("/huge.bin", file, "application/octet-stream"));
+        assertNull(cache.get("/huge.bin"));
+    }
+
+    @Test
+    void load_beyondMaxBytes_evictsLeastRecentlyUsed() throws Exception {
+        Path a = Files.writeString(root.resolve("a.txt"), "aaaa");
+        Path b = Files.writeString(root.resolve("b.txt"), "bbbb");
+        Path c = Files.writeString(root.resolve("c.txt"), "cccc");
+        cache = new StaticFileCache(root.toRealPath(), 8);
+
+        cache.load("/a.txt", a, "text/plain");
+        cache.load("/b.txt", b, "text/plain");
+        cache.get("/a.txt");
+        cache.load("/c.txt", c, "text/plain");
+
+        assertNotNull(cache.get("/a.txt"));
+        assertNull(cache.get("/b.txt"));
+        assertNotNull(cache.get("/c.txt"));
+    }
+
+    @Test
+    void start_modifiedFile_droppedFromCache() throws Exception {
+        Path file = Files.writeString(root.resolve("a.txt"), "old");
+        cache = new StaticFileCache(root.toRealPath());
+        cache.start();
+        cache.load("/a.txt", file.toRealPath(), "text/plain");
+
+        Files.writeString(file, "new");
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (cache.get("/a.txt") != null && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNull(cache.get("/a.txt"));
+    }
+
+    private static String text(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
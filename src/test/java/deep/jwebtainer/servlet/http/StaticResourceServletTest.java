@@ -0,0 +1,93 @@
+package deep.jwebtainer.servlet.http;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticResourceServletTest {
+
+    @TempDir
+    Path root;
+
+    private StaticResourceServlet servlet;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(root.resolve("docs/css"));
+        Files.writeString(root.resolve("docs/css/site.css"), "body {}");
+        Files.writeString(root.resolve("docs/index.html"), "<html/>");
+        Files.writeString(root.resolve("docs/.secret"), "hidden");
+        Files.writeString(root.resolve("outside.txt"), "outside");
+        servlet = new StaticResourceServlet(root.resolve("docs"));
+        servlet.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        servlet.destroy();
+    }
+
+    @Test
+    void resolve_existingFile_returnsFileBelowRoot() throws Exception {
+        assertEquals(root.resolve("docs/css/site.css").toRealPath(),
+                servlet.resolve("/css/site.css"));
+    }
+
+    @Test
+    void resolve_directory_returnsIndexFile() throws Exception {
+        Path index = root.resolve("docs/index.html").toRealPath();
+
+        assertEquals(index, servlet.resolve("/"));
+        assertEquals(index, servlet.resolve(null));
+    }
+
+    @Test
+    void resolve_percentEncodedPath_decoded() throws Exception {
+        assertEquals(root.resolve("docs/css/site.css").toRealPath(),
+                servlet.resolve("/css%2Fsite%2ecss"));
+    }
+
+    @Test
+    void resolve_pathLeavingRoot_returnsNull() {
+        assertNull(servlet.resolve("/../outside.txt"));
+        assertNull(servlet.resolve("/css/../../outside.txt"));
+        assertNull(servlet.resolve("/%2e%2e/outside.txt"));
+        assertNull(servlet.resolve("/..%5Coutside.txt"));
+        assertNull(servlet.resolve("//" + root.resolve("outside.txt")));
+    }
+
+    @Test
+    void resolve_hiddenOrMissingFile_returnsNull() {
+        assertNull(servlet.resolve("/.secret"));
+        assertNull(servlet.resolve("/missing.css"));
+        assertNull(servlet.resolve("/css/site.css%"));
+    }
+
+    @Test
+    void resolve_missingDocumentRoot_returnsNull() {
+        StaticResourceServlet missing =
+                new StaticResourceServlet(root.resolve("missing"));
+        missing.init();
+
+        assertNull(missing.resolve("/index.html"));
+        missing.destroy();
+    }
+
+    @Test
+    void contentType_knownAndUnknownExtensions() {
+        assertEquals("text/css; charset=UTF-8",
+                StaticResourceServlet.contentType(Path.of("a/site.CSS")));
+        assertEquals("image/png",
+                StaticResourceServlet.contentType(Path.of("logo.png")));
+        assertEquals("application/octet-stream",
+                StaticResourceServlet.contentType(Path.of("data.bin")));
+        assertEquals("application/octet-stream",
+                StaticResourceServlet.contentType(Path.of("README")));
+    }
+}